@@ -0,0 +1,133 @@
+package au.com.wallaceit.voicemail.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.Account;
+import au.com.wallaceit.voicemail.Preferences;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.TextBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Measures how many downloaded messages per second {@link LocalFolder} can store, one
+ * transaction per message versus one transaction per batch as used by the sync code.
+ * <p>
+ * Results are logged with the tag {@code LocalFolderAppendBenchmark}. Run on a device, the
+ * SQLite and flash characteristics are what this is about.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocalFolderAppendBenchmark {
+    private static final String TAG = "LocalFolderAppendBenchmark";
+    private static final int BATCH_SIZE = 50;
+
+
+    private Context context;
+    private Account account;
+    private LocalFolder folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        account = Preferences.getPreferences(context).newAccount();
+
+        LocalStore localStore = LocalStore.getInstance(account, context);
+        folder = localStore.getFolder("benchmark");
+        folder.create(Folder.FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RW);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        folder.close();
+        Preferences.getPreferences(context).deleteAccount(account);
+    }
+
+    @Test
+    public void storeSmallMessage_1000Messages() throws Exception {
+        storeOneByOne(createMessages(1000));
+    }
+
+    @Test
+    public void storeSmallMessages_1000Messages() throws Exception {
+        storeInBatches(createMessages(1000));
+    }
+
+    @Test
+    public void storeSmallMessage_10000Messages() throws Exception {
+        storeOneByOne(createMessages(10000));
+    }
+
+    @Test
+    public void storeSmallMessages_10000Messages() throws Exception {
+        storeInBatches(createMessages(10000));
+    }
+
+    private void storeOneByOne(List<Message> messages) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        for (Message message : messages) {
+            folder.storeSmallMessage(message, new Runnable() {
+                @Override
+                public void run() {}
+            });
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        report("one transaction per message", messages.size(), duration);
+    }
+
+    private void storeInBatches(List<Message> messages) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < messages.size(); i += BATCH_SIZE) {
+            folder.storeSmallMessages(messages.subList(i, Math.min(i + BATCH_SIZE, messages.size())));
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        report("one transaction per " + BATCH_SIZE + " messages", messages.size(), duration);
+    }
+
+    private void report(String mode, int messageCount, long durationMillis) throws Exception {
+        assertEquals(messageCount, folder.getMessageCount());
+
+        double messagesPerSecond = messageCount * 1000.0 / Math.max(1, durationMillis);
+        Log.i(TAG, String.format("%d messages, %s: %d ms, %.1f messages/sec", messageCount, mode, durationMillis,
+                messagesPerSecond));
+    }
+
+    private List<Message> createMessages(int count) throws Exception {
+        List<Message> messages = new ArrayList<Message>(count);
+        Date date = new Date();
+        for (int i = 0; i < count; i++) {
+            MimeMessage message = new MimeMessage();
+            message.setUid(Integer.toString(i + 1));
+            message.setSubject("Voicemail " + i);
+            message.setFrom(new Address("voicemail@example.com"));
+            message.setSentDate(date, false);
+            message.setInternalDate(date);
+            MimeMessageHelper.setBody(message, new TextBody("Voicemail from +61400000" + i));
+            messages.add(message);
+        }
+
+        return messages;
+    }
+}
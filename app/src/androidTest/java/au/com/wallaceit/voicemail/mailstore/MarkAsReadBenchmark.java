@@ -0,0 +1,131 @@
+package au.com.wallaceit.voicemail.mailstore;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.Account;
+import au.com.wallaceit.voicemail.Preferences;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+import com.fsck.k9.mail.Address;
+import com.fsck.k9.mail.Flag;
+import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.TextBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Measures marking a whole folder as read through {@link LocalStore#setFlag(LongArrayList, Flag, boolean)}
+ * followed by {@link LocalStore#getFoldersAndUids(LongArrayList, boolean)}, i.e. the database part of
+ * selecting all messages in the list and marking them as read.
+ * <p>
+ * 1,000 messages are updated in batches with IN lists, 10,000 messages go through the temporary table
+ * (see {@link LocalStore#TEMP_TABLE_THRESHOLD}).
+ * </p>
+ * <p>
+ * Results are logged with the tag {@code MarkAsReadBenchmark}.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class MarkAsReadBenchmark {
+    private static final String TAG = "MarkAsReadBenchmark";
+    private static final int BATCH_SIZE = 500;
+
+
+    private Context context;
+    private Account account;
+    private LocalStore localStore;
+    private LocalFolder folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        account = Preferences.getPreferences(context).newAccount();
+
+        localStore = LocalStore.getInstance(account, context);
+        folder = localStore.getFolder("benchmark");
+        folder.create(Folder.FolderType.HOLDS_MESSAGES);
+        folder.open(Folder.OPEN_MODE_RW);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        folder.close();
+        Preferences.getPreferences(context).deleteAccount(account);
+    }
+
+    @Test
+    public void markAsRead_1000Messages() throws Exception {
+        markAsRead(1000);
+    }
+
+    @Test
+    public void markAsRead_10000Messages() throws Exception {
+        markAsRead(10000);
+    }
+
+    private void markAsRead(int messageCount) throws Exception {
+        LongArrayList messageIds = storeMessages(messageCount);
+        assertEquals(messageCount, folder.getUnreadMessageCount());
+
+        long start = SystemClock.elapsedRealtime();
+        localStore.setFlag(messageIds, Flag.SEEN, true);
+        long updateDone = SystemClock.elapsedRealtime();
+        Map<String, List<String>> folderMap = localStore.getFoldersAndUids(messageIds, false);
+        long lookupDone = SystemClock.elapsedRealtime();
+
+        assertEquals(0, folder.getUnreadMessageCount());
+        assertEquals(messageCount, folderMap.get(folder.getName()).size());
+
+        Log.i(TAG, String.format("%d messages: update %d ms, folders and UIDs %d ms", messageCount,
+                updateDone - start, lookupDone - updateDone));
+    }
+
+    private LongArrayList storeMessages(int count) throws Exception {
+        List<Message> messages = createMessages(count);
+        for (int i = 0; i < messages.size(); i += BATCH_SIZE) {
+            folder.storeSmallMessages(messages.subList(i, Math.min(i + BATCH_SIZE, messages.size())));
+        }
+
+        LongArrayList messageIds = new LongArrayList(count);
+        for (LocalMessage message : folder.getMessages(null)) {
+            messageIds.add(message.getId());
+        }
+
+        return messageIds;
+    }
+
+    private List<Message> createMessages(int count) throws Exception {
+        List<Message> messages = new ArrayList<Message>(count);
+        Date date = new Date();
+        for (int i = 0; i < count; i++) {
+            MimeMessage message = new MimeMessage();
+            message.setUid(Integer.toString(i + 1));
+            message.setSubject("Voicemail " + i);
+            message.setFrom(new Address("voicemail@example.com"));
+            message.setSentDate(date, false);
+            message.setInternalDate(date);
+            MimeMessageHelper.setBody(message, new TextBody("Voicemail from +61400000" + i));
+            messages.add(message);
+        }
+
+        return messages;
+    }
+}
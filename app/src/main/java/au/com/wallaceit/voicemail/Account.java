@@ -241,6 +241,7 @@ public class Account implements BaseAccount, StoreConfig {
     private String    mPhoneNumber;
     private boolean    mRequiresCellular;
     private boolean    mAutoArchive;
+    private boolean    mAudioFirstDownload;
     private int mAutomaticCheckMethod;
     public boolean validated = false;
 
@@ -502,6 +503,7 @@ public class Account implements BaseAccount, StoreConfig {
         mPhoneNumber = prefs.getString( mUuid + ".phoneNumber", "");
         mRequiresCellular = prefs.getBoolean(mUuid + ".requiresCellular", false);
         mAutoArchive = prefs.getBoolean(mUuid + ".autoArchive", true);
+        mAudioFirstDownload = prefs.getBoolean(mUuid + ".audioFirstDownload", false);
         mAccountProviderId = prefs.getString(mUuid + ".accountProviderId", "-1");
 
         cacheChips();
@@ -608,6 +610,7 @@ public class Account implements BaseAccount, StoreConfig {
         editor.remove(mUuid + ".phoneNumber");
         editor.remove(mUuid + ".requiresCellular");
         editor.remove(mUuid + ".autoArchive");
+        editor.remove(mUuid + ".audioFirstDownload");
         editor.remove(mUuid + ".automaticCheckMethod");
         //deleteIdentities(preferences.getPreferences(), editor);
         // TODO: Remove preference settings that may exist for individual
@@ -794,6 +797,7 @@ public class Account implements BaseAccount, StoreConfig {
         editor.putString(mUuid + ".phoneNumber", mPhoneNumber);
         editor.putBoolean(mUuid + ".requiresCellular", mRequiresCellular);
         editor.putBoolean(mUuid + ".autoArchive", mAutoArchive);
+        editor.putBoolean(mUuid + ".audioFirstDownload", mAudioFirstDownload);
         editor.putString(mUuid + ".accountProviderId", mAccountProviderId);
 
         editor.commit();
@@ -1222,6 +1226,18 @@ public class Account implements BaseAccount, StoreConfig {
         mAutoArchive = enabled;
     }
 
+    /**
+     * When enabled, new messages are synced by fetching their structure and the audio part only.
+     * The recording is decoded while it is downloaded, so it can be played right away.
+     */
+    public synchronized boolean isAudioFirstDownload() {
+        return mAudioFirstDownload;
+    }
+
+    public synchronized void setAudioFirstDownload(boolean enabled) {
+        mAudioFirstDownload = enabled;
+    }
+
     /**
      * Checks if this account has an archive folder set.
      * @return true if account has an archive folder set.
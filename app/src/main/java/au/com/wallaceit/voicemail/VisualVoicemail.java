@@ -261,6 +261,7 @@ public class VisualVoicemail extends Application {
     private static boolean mWrapFolderNames = false;
     private static boolean mHideUserAgent = false;
     private static boolean mHideTimeZone = false;
+    private static boolean sDatabaseWriteAheadLogging = false;
 
     private static SortType mSortType;
     private static Map<SortType, Boolean> mSortAscending = new HashMap<SortType, Boolean>();
@@ -514,6 +515,7 @@ public class VisualVoicemail extends Application {
         editor.putBoolean("wrapFolderNames", mWrapFolderNames);
         editor.putBoolean("hideUserAgent", mHideUserAgent);
         editor.putBoolean("hideTimeZone", mHideTimeZone);
+        editor.putBoolean("databaseWriteAheadLogging", sDatabaseWriteAheadLogging);
 
         editor.putString("language", language);
         editor.putInt("theme", theme.ordinal());
@@ -744,6 +746,7 @@ public class VisualVoicemail extends Application {
         mWrapFolderNames = sprefs.getBoolean("wrapFolderNames", false);
         mHideUserAgent = sprefs.getBoolean("hideUserAgent", false);
         mHideTimeZone = sprefs.getBoolean("hideTimeZone", false);
+        sDatabaseWriteAheadLogging = sprefs.getBoolean("databaseWriteAheadLogging", false);
 
         mConfirmDelete = sprefs.getBoolean("confirmDelete", false);
         mConfirmDiscardMessage = sprefs.getBoolean("confirmDiscardMessage", true);
@@ -1281,6 +1284,18 @@ public class VisualVoicemail extends Application {
         mHideTimeZone = state;
     }
 
+    /**
+     * Whether account databases should be opened in write-ahead logging mode, allowing message
+     * list queries to run while a sync is writing. Only applies to databases opened afterwards.
+     */
+    public static boolean useDatabaseWriteAheadLogging() {
+        return sDatabaseWriteAheadLogging;
+    }
+
+    public static void setDatabaseWriteAheadLogging(final boolean state) {
+        sDatabaseWriteAheadLogging = state;
+    }
+
     public static String getAttachmentDefaultPath() {
         return mAttachmentDefaultPath;
     }
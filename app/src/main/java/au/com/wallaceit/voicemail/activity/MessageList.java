@@ -54,6 +54,8 @@ import au.com.wallaceit.voicemail.activity.setup.Prefs;
 import au.com.wallaceit.voicemail.controller.MessagingController;
 import au.com.wallaceit.voicemail.fragment.MessageListFragment;
 import au.com.wallaceit.voicemail.fragment.MessageListFragment.MessageListFragmentListener;
+import au.com.wallaceit.voicemail.helper.ProgressiveAudioFile;
+import au.com.wallaceit.voicemail.helper.ProgressiveMediaDataSource;
 import au.com.wallaceit.voicemail.helper.Utility;
 import au.com.wallaceit.voicemail.helper.VoicemailAttachmentHelper;
 import au.com.wallaceit.voicemail.helper.VvmContacts;
@@ -1023,11 +1025,17 @@ public class MessageList extends K9Activity implements MessageListFragmentListen
     @Override
     public void playMessage(MessageReference messageReference) {
         final VoicemailAttachmentHelper attachmentHelper = new VoicemailAttachmentHelper(MessageList.this, MessagingController.getInstance(MessageList.this), messageReference);
-        attachmentHelper.loadVoicemailAttachment(new Runnable() {
+        attachmentHelper.loadVoicemailAttachmentForPlayback(new Runnable() {
             @Override
             public void run() {
                 if (attachmentHelper.getAttachment()!=null) {
-                    AudioPlayerDialog dialog = new AudioPlayerDialog(MessageList.this, attachmentHelper.getCacheUri());
+                    AudioPlayerDialog dialog;
+                    ProgressiveAudioFile audioFile = attachmentHelper.getProgressiveAudioFile();
+                    if (audioFile != null) {
+                        dialog = new AudioPlayerDialog(MessageList.this, new ProgressiveMediaDataSource(audioFile));
+                    } else {
+                        dialog = new AudioPlayerDialog(MessageList.this, attachmentHelper.getAttachmentUri());
+                    }
                     dialog.show();
                 } else {
                     Log.e(VisualVoicemail.LOG_TAG, "Error loading voicemail");
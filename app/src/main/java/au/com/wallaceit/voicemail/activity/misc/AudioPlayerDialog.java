@@ -18,13 +18,16 @@ package au.com.wallaceit.voicemail.activity.misc;
  *
  * Created by michael on 17/09/15.
  */
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
 import android.graphics.PorterDuff;
 import android.media.AudioManager;
+import android.media.MediaDataSource;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 import android.view.View;
@@ -48,6 +51,7 @@ public class AudioPlayerDialog extends Dialog {
     private AudioManager mAudioManager;
     private boolean mSpeakerphone = true;
     private Uri mUri;
+    private MediaDataSource mDataSource;
     private final Handler handler = new Handler();
     private final Runnable seekUpdateTask;
     private final SeekBar seekBar;
@@ -55,6 +59,21 @@ public class AudioPlayerDialog extends Dialog {
     private final ImageButton playButton;
 
     public AudioPlayerDialog(Context context, Uri uri) {
+        this(context);
+        mUri = uri;
+    }
+
+    /**
+     * Plays from a data source that may still be receiving data, e.g. a voicemail that is being downloaded.
+     * Preparation is asynchronous so the dialog shows up before the first bytes have arrived.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public AudioPlayerDialog(Context context, MediaDataSource dataSource) {
+        this(context);
+        mDataSource = dataSource;
+    }
+
+    private AudioPlayerDialog(Context context) {
         super(context);
         setOwnerActivity((Activity) context);
         requestWindowFeature(Window.FEATURE_NO_TITLE);
@@ -65,7 +84,6 @@ public class AudioPlayerDialog extends Dialog {
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         mAudioManager.setMode(AudioManager.STREAM_VOICE_CALL);
         mSpeakerphone = mPreferences.getStorage().getBoolean("playerSpeaker", true);
-        mUri = uri;
 
         progressText = (TextView) findViewById(R.id.player_progress_text);
 
@@ -118,6 +136,11 @@ public class AudioPlayerDialog extends Dialog {
             public void run() {
                 int currentDuration = mMediaPlayer.getCurrentPosition();
 
+                // The length of a recording that is still downloading might not be known up front
+                if (seekBar.getMax() <= 0) {
+                    updateDuration();
+                }
+
                 // Displaying time completed playing
                 progressText.setText(PlayerUtilities.milliSecondsToTimer(currentDuration));
 
@@ -179,14 +202,14 @@ public class AudioPlayerDialog extends Dialog {
         super.show();
         setSpeakerphone(mSpeakerphone);
         try {
-            // prepare & start media
-            mMediaPlayer.setDataSource(getContext(), mUri);
-            mMediaPlayer.prepare();
-            mMediaPlayer.start();
-            // setup ui
-            seekBar.setMax(mMediaPlayer.getDuration());
-            ((TextView) findViewById(R.id.player_time_text)).setText(PlayerUtilities.milliSecondsToTimer(mMediaPlayer.getDuration()));
-            handler.postDelayed(seekUpdateTask, 100);
+            if (mDataSource != null) {
+                prepareDataSource();
+            } else {
+                // prepare & start media
+                mMediaPlayer.setDataSource(getContext(), mUri);
+                mMediaPlayer.prepare();
+                startPlayback();
+            }
         } catch (IOException e) {
             e.printStackTrace();
             Toast.makeText(getContext(), "Failed to open the audio file", Toast.LENGTH_SHORT).show();
@@ -194,6 +217,31 @@ public class AudioPlayerDialog extends Dialog {
         }
     }
 
+    @TargetApi(Build.VERSION_CODES.M)
+    private void prepareDataSource() {
+        mMediaPlayer.setDataSource(mDataSource);
+        mMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                startPlayback();
+            }
+        });
+        mMediaPlayer.prepareAsync();
+    }
+
+    private void startPlayback() {
+        mMediaPlayer.start();
+        // setup ui
+        updateDuration();
+        handler.postDelayed(seekUpdateTask, 100);
+    }
+
+    private void updateDuration() {
+        int duration = mMediaPlayer.getDuration();
+        seekBar.setMax(Math.max(duration, 0));
+        ((TextView) findViewById(R.id.player_time_text)).setText(PlayerUtilities.milliSecondsToTimer(Math.max(duration, 0)));
+    }
+
     @Override
     public void onStop() {
         handler.removeCallbacks(seekUpdateTask);
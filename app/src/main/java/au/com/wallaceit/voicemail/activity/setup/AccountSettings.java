@@ -109,6 +109,7 @@ public class AccountSettings extends K9PreferenceActivity {
     public static final int PREFERENCE_AUTO_CHECK_PUSH = 3;
     public static final String PREFERENCE_REQUIRES_CELLULAR = "server_requires_cellular";
     public static final String PREFERENCE_AUTO_ARCHIVE = "auto_archive";
+    public static final String PREFERENCE_AUDIO_FIRST_DOWNLOAD = "audio_first_download";
 
     private Account mAccount;
     private boolean mIsMoveCapable = false;
@@ -181,6 +182,7 @@ public class AccountSettings extends K9PreferenceActivity {
     //private CheckBoxPreference mAlwaysShowCcBcc;
     private CheckBoxPreference mRequiresCellular;
     private CheckBoxPreference mAutoArchive;
+    private CheckBoxPreference mAudioFirstDownload;
 
 
     public static void actionSettings(Context context, Account account) {
@@ -361,6 +363,9 @@ public class AccountSettings extends K9PreferenceActivity {
         mAutoArchive = (CheckBoxPreference) findPreference(PREFERENCE_AUTO_ARCHIVE);
         mAutoArchive.setChecked(mAccount.getAutoArchive());
 
+        mAudioFirstDownload = (CheckBoxPreference) findPreference(PREFERENCE_AUDIO_FIRST_DOWNLOAD);
+        mAudioFirstDownload.setChecked(mAccount.isAudioFirstDownload());
+
         /*mDisplayMode = (ListPreference) findPreference(PREFERENCE_DISPLAY_MODE);
         mDisplayMode.setValue(mAccount.getFolderDisplayMode().name());
         mDisplayMode.setSummary(mDisplayMode.getEntry());
@@ -883,6 +888,7 @@ public class AccountSettings extends K9PreferenceActivity {
         mAccount.setRequiresCellular(mRequiresCellular.isChecked());
 
         mAccount.setAutoArchive(mAutoArchive.isChecked());
+        mAccount.setAudioFirstDownload(mAudioFirstDownload.isChecked());
 
         boolean needsRefresh = mAccount.setAutomaticCheckIntervalMinutes(Integer.parseInt(mCheckFrequency.getValue()));
         int autoCheck = Integer.parseInt(mAutoCheckMethod.getValue());
@@ -89,6 +89,7 @@ public class Prefs extends K9PreferenceActivity {
     private static final String PREFERENCE_BACKGROUND_OPS = "background_ops";
     private static final String PREFERENCE_DEBUG_LOGGING = "debug_logging";
     private static final String PREFERENCE_SENSITIVE_LOGGING = "sensitive_logging";
+    private static final String PREFERENCE_DATABASE_WAL = "database_write_ahead_logging";
 
     private static final String PREFERENCE_ATTACHMENT_DEF_PATH = "attachment_default_path";
     private static final String PREFERENCE_BACKGROUND_AS_UNREAD_INDICATOR = "messagelist_background_as_unread_indicator";
@@ -135,6 +136,7 @@ public class Prefs extends K9PreferenceActivity {
     private ListPreference mBackgroundOps;
     private CheckBoxPreference mDebugLogging;
     private CheckBoxPreference mSensitiveLogging;
+    private CheckBoxPreference mDatabaseWriteAheadLogging;
     private CheckBoxPreference mHideUserAgent;
     private CheckBoxPreference mHideTimeZone;
     //private CheckBoxPreference mWrapFolderNames;
@@ -354,11 +356,13 @@ public class Prefs extends K9PreferenceActivity {
 
         mDebugLogging = (CheckBoxPreference)findPreference(PREFERENCE_DEBUG_LOGGING);
         mSensitiveLogging = (CheckBoxPreference)findPreference(PREFERENCE_SENSITIVE_LOGGING);
+        mDatabaseWriteAheadLogging = (CheckBoxPreference)findPreference(PREFERENCE_DATABASE_WAL);
         mHideUserAgent = (CheckBoxPreference)findPreference(PREFERENCE_HIDE_USERAGENT);
         mHideTimeZone = (CheckBoxPreference)findPreference(PREFERENCE_HIDE_TIMEZONE);
 
         mDebugLogging.setChecked(VisualVoicemail.DEBUG);
         mSensitiveLogging.setChecked(VisualVoicemail.DEBUG_SENSITIVE);
+        mDatabaseWriteAheadLogging.setChecked(VisualVoicemail.useDatabaseWriteAheadLogging());
         mHideUserAgent.setChecked(VisualVoicemail.hideUserAgent());
         mHideTimeZone.setChecked(VisualVoicemail.hideTimeZone());
 
@@ -513,6 +517,7 @@ public class Prefs extends K9PreferenceActivity {
         }
         VisualVoicemail.DEBUG = mDebugLogging.isChecked();
         VisualVoicemail.DEBUG_SENSITIVE = mSensitiveLogging.isChecked();
+        VisualVoicemail.setDatabaseWriteAheadLogging(mDatabaseWriteAheadLogging.isChecked());
         VisualVoicemail.setHideUserAgent(mHideUserAgent.isChecked());
         VisualVoicemail.setHideTimeZone(mHideTimeZone.isChecked());
 
@@ -0,0 +1,136 @@
+package au.com.wallaceit.voicemail.cache;
+
+
+import java.util.Arrays;
+
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+
+
+/**
+ * Collects the changes made to an {@link EmailProviderCache} and reports them in one go.
+ *
+ * <p>
+ * Bulk operations like marking a whole folder as read update the cache many times in a row.
+ * Instead of notifying the UI for each update, the first change schedules a call to {@link #run()}
+ * about one frame later. All changes made until then are reported together, with the IDs merged
+ * and deduplicated. Methods can be called from any thread.
+ * </p>
+ */
+abstract class CoalescingNotifier implements Runnable {
+    /**
+     * Delay in milliseconds between the first change and the notification. About one frame at 60 fps.
+     */
+    static final long FRAME_DELAY = 16;
+
+    private static final long[] EMPTY_IDS = new long[0];
+
+
+    private final Object mLock = new Object();
+    private long[] mMessageIds = new long[16];
+    private int mMessageIdCount = 0;
+    private long[] mThreadRootIds = new long[16];
+    private int mThreadRootIdCount = 0;
+    private boolean mRowsChanged = false;
+    private boolean mScheduled = false;
+
+
+    /**
+     * Arranges for {@link #run()} to be called after {@link #FRAME_DELAY} milliseconds.
+     */
+    protected abstract void schedule();
+
+    /**
+     * Reports the changes collected since the last notification.
+     *
+     * @param messageIds
+     *         Sorted IDs of the messages whose values changed. May be empty.
+     * @param threadRootIds
+     *         Sorted root IDs of the threads whose values changed. May be empty.
+     * @param rowsChanged
+     *         {@code true} if messages were hidden, i.e. the rows of the message list changed.
+     */
+    protected abstract void deliver(long[] messageIds, long[] threadRootIds, boolean rowsChanged);
+
+    void messagesChanged(LongArrayList messageIds) {
+        synchronized (mLock) {
+            int count = messageIds.size();
+            mMessageIds = ensureCapacity(mMessageIds, mMessageIdCount + count);
+            for (int i = 0; i < count; i++) {
+                mMessageIds[mMessageIdCount++] = messageIds.get(i);
+            }
+            scheduleLocked();
+        }
+    }
+
+    void threadsChanged(LongArrayList threadRootIds) {
+        synchronized (mLock) {
+            int count = threadRootIds.size();
+            mThreadRootIds = ensureCapacity(mThreadRootIds, mThreadRootIdCount + count);
+            for (int i = 0; i < count; i++) {
+                mThreadRootIds[mThreadRootIdCount++] = threadRootIds.get(i);
+            }
+            scheduleLocked();
+        }
+    }
+
+    void rowsChanged() {
+        synchronized (mLock) {
+            mRowsChanged = true;
+            scheduleLocked();
+        }
+    }
+
+    @Override
+    public void run() {
+        long[] messageIds;
+        long[] threadRootIds;
+        boolean rowsChanged;
+        synchronized (mLock) {
+            messageIds = sortedUnique(mMessageIds, mMessageIdCount);
+            threadRootIds = sortedUnique(mThreadRootIds, mThreadRootIdCount);
+            rowsChanged = mRowsChanged;
+
+            mMessageIdCount = 0;
+            mThreadRootIdCount = 0;
+            mRowsChanged = false;
+            mScheduled = false;
+        }
+
+        if (messageIds.length > 0 || threadRootIds.length > 0 || rowsChanged) {
+            deliver(messageIds, threadRootIds, rowsChanged);
+        }
+    }
+
+    private void scheduleLocked() {
+        if (!mScheduled) {
+            mScheduled = true;
+            schedule();
+        }
+    }
+
+    private static long[] ensureCapacity(long[] array, int capacity) {
+        if (capacity <= array.length) {
+            return array;
+        }
+
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    private static long[] sortedUnique(long[] ids, int count) {
+        if (count == 0) {
+            return EMPTY_IDS;
+        }
+
+        long[] sorted = Arrays.copyOf(ids, count);
+        Arrays.sort(sorted);
+
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+
+        return (unique == count) ? sorted : Arrays.copyOf(sorted, unique);
+    }
+}
@@ -7,9 +7,13 @@ import java.util.Map;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 
 import au.com.wallaceit.voicemail.fragment.MessageListFragment;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+import au.com.wallaceit.voicemail.helper.collection.LongObjectMap;
 import com.fsck.k9.mail.Message;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder;
 import au.com.wallaceit.voicemail.mailstore.LocalMessage;
@@ -17,10 +21,39 @@ import au.com.wallaceit.voicemail.provider.EmailProvider;
 
 /**
  * Cache to bridge the time needed to write (user-initiated) changes to the database.
+ *
+ * <p>
+ * The cache is split into {@link #STRIPE_COUNT} stripes by message or thread ID, each with its own
+ * lock. Bulk updates only hold the lock of one stripe at a time, so the UI thread reading values
+ * for the message list isn't blocked for the duration of the update. Changes are reported through
+ * a {@link CoalescingNotifier}, i.e. at most one {@link #ACTION_CACHE_UPDATED} broadcast per frame.
+ * </p>
  */
 public class EmailProviderCache {
     public static final String ACTION_CACHE_UPDATED = "EmailProviderCache.ACTION_CACHE_UPDATED";
 
+    /**
+     * UUID of the account whose cache was updated. Always present.
+     */
+    public static final String EXTRA_ACCOUNT_UUID = "EmailProviderCache.EXTRA_ACCOUNT_UUID";
+
+    /**
+     * Sorted {@code long[]} with the IDs of the messages whose cached values changed. Only present if the
+     * values of single messages changed and no messages were hidden.
+     */
+    public static final String EXTRA_MESSAGE_IDS = "EmailProviderCache.EXTRA_MESSAGE_IDS";
+
+    /**
+     * Sorted {@code long[]} with the root IDs of the threads whose cached values changed. Only present if the
+     * values of threads changed and no messages were hidden.
+     */
+    public static final String EXTRA_THREAD_ROOT_IDS = "EmailProviderCache.EXTRA_THREAD_ROOT_IDS";
+
+    /**
+     * Number of stripes. Must be a power of two.
+     */
+    static final int STRIPE_COUNT = 16;
+
     private static Context sContext;
     private static Map<String, au.com.wallaceit.voicemail.cache.EmailProviderCache> sInstances =
             new HashMap<String, au.com.wallaceit.voicemail.cache.EmailProviderCache>();
@@ -33,7 +66,8 @@ public class EmailProviderCache {
 
         au.com.wallaceit.voicemail.cache.EmailProviderCache instance = sInstances.get(accountUuid);
         if (instance == null) {
-            instance = new au.com.wallaceit.voicemail.cache.EmailProviderCache(accountUuid);
+            instance = new au.com.wallaceit.voicemail.cache.EmailProviderCache(
+                    new BroadcastNotifier(sContext, accountUuid));
             sInstances.put(accountUuid, instance);
         }
 
@@ -41,137 +75,206 @@ public class EmailProviderCache {
     }
 
 
-    private String mAccountUuid;
-    private final Map<Long, Map<String, String>> mMessageCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Map<String, String>> mThreadCache = new HashMap<Long, Map<String, String>>();
-    private final Map<Long, Long> mHiddenMessageCache = new HashMap<Long, Long>();
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+    private final CoalescingNotifier mNotifier;
 
 
-    private EmailProviderCache(String accountUuid) {
-        mAccountUuid = accountUuid;
+    EmailProviderCache(CoalescingNotifier notifier) {
+        mNotifier = notifier;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe();
+        }
     }
 
-    public String getValueForMessage(Long messageId, String columnName) {
-        synchronized (mMessageCache) {
-            Map<String, String> map = mMessageCache.get(messageId);
+    public String getValueForMessage(long messageId, String columnName) {
+        Stripe stripe = getStripe(messageId);
+        synchronized (stripe) {
+            Map<String, String> map = stripe.messageValues.get(messageId);
             return (map == null) ? null : map.get(columnName);
         }
     }
 
-    public String getValueForThread(Long threadRootId, String columnName) {
-        synchronized (mThreadCache) {
-            Map<String, String> map = mThreadCache.get(threadRootId);
+    public String getValueForThread(long threadRootId, String columnName) {
+        Stripe stripe = getStripe(threadRootId);
+        synchronized (stripe) {
+            Map<String, String> map = stripe.threadValues.get(threadRootId);
             return (map == null) ? null : map.get(columnName);
         }
     }
 
-    public void setValueForMessages(List<Long> messageIds, String columnName, String value) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mMessageCache.put(messageId, map);
-                }
-                map.put(columnName, value);
+    public void setValueForMessages(LongArrayList messageIds, String columnName, String value) {
+        for (int i = 0, end = messageIds.size(); i < end; i++) {
+            long messageId = messageIds.get(i);
+            Stripe stripe = getStripe(messageId);
+            synchronized (stripe) {
+                putValue(stripe.messageValues, messageId, columnName, value);
             }
         }
 
-        notifyChange();
+        mNotifier.messagesChanged(messageIds);
     }
 
-    public void setValueForThreads(List<Long> threadRootIds, String columnName, String value) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map == null) {
-                    map = new HashMap<String, String>();
-                    mThreadCache.put(threadRootId, map);
-                }
-                map.put(columnName, value);
+    public void setValueForThreads(LongArrayList threadRootIds, String columnName, String value) {
+        for (int i = 0, end = threadRootIds.size(); i < end; i++) {
+            long threadRootId = threadRootIds.get(i);
+            Stripe stripe = getStripe(threadRootId);
+            synchronized (stripe) {
+                putValue(stripe.threadValues, threadRootId, columnName, value);
             }
         }
 
-        notifyChange();
+        mNotifier.threadsChanged(threadRootIds);
     }
 
-    public void removeValueForMessages(List<Long> messageIds, String columnName) {
-        synchronized (mMessageCache) {
-            for (Long messageId : messageIds) {
-                Map<String, String> map = mMessageCache.get(messageId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mMessageCache.remove(messageId);
-                    }
-                }
+    public void removeValueForMessages(LongArrayList messageIds, String columnName) {
+        for (int i = 0, end = messageIds.size(); i < end; i++) {
+            long messageId = messageIds.get(i);
+            Stripe stripe = getStripe(messageId);
+            synchronized (stripe) {
+                removeValue(stripe.messageValues, messageId, columnName);
             }
         }
     }
 
-    public void removeValueForThreads(List<Long> threadRootIds, String columnName) {
-        synchronized (mThreadCache) {
-            for (Long threadRootId : threadRootIds) {
-                Map<String, String> map = mThreadCache.get(threadRootId);
-                if (map != null) {
-                    map.remove(columnName);
-                    if (map.isEmpty()) {
-                        mThreadCache.remove(threadRootId);
-                    }
-                }
+    public void removeValueForThreads(LongArrayList threadRootIds, String columnName) {
+        for (int i = 0, end = threadRootIds.size(); i < end; i++) {
+            long threadRootId = threadRootIds.get(i);
+            Stripe stripe = getStripe(threadRootId);
+            synchronized (stripe) {
+                removeValue(stripe.threadValues, threadRootId, columnName);
             }
         }
     }
 
     public void hideMessages(List<LocalMessage> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (LocalMessage message : messages) {
-                long messageId = message.getId();
-                mHiddenMessageCache.put(messageId, message.getFolder().getId());
-            }
+        for (LocalMessage message : messages) {
+            hideMessage(message.getId(), message.getFolder().getId());
         }
 
-        notifyChange();
+        mNotifier.rowsChanged();
     }
 
-    public boolean isMessageHidden(Long messageId, long folderId) {
-        synchronized (mHiddenMessageCache) {
-            Long hiddenInFolder = mHiddenMessageCache.get(messageId);
+    void hideMessage(long messageId, long folderId) {
+        Stripe stripe = getStripe(messageId);
+        synchronized (stripe) {
+            stripe.hiddenMessages.put(messageId, folderId);
+        }
+    }
+
+    public boolean isMessageHidden(long messageId, long folderId) {
+        Stripe stripe = getStripe(messageId);
+        synchronized (stripe) {
+            Long hiddenInFolder = stripe.hiddenMessages.get(messageId);
             return (hiddenInFolder != null && hiddenInFolder.longValue() == folderId);
         }
     }
 
     public void unhideMessages(List<? extends Message> messages) {
-        synchronized (mHiddenMessageCache) {
-            for (Message message : messages) {
-                LocalMessage localMessage = (LocalMessage) message;
-                long messageId = localMessage.getId();
-                long folderId = ((LocalFolder) localMessage.getFolder()).getId();
-                Long hiddenInFolder = mHiddenMessageCache.get(messageId);
-
-                if (hiddenInFolder != null && hiddenInFolder.longValue() == folderId) {
-                    mHiddenMessageCache.remove(messageId);
-                }
+        for (Message message : messages) {
+            LocalMessage localMessage = (LocalMessage) message;
+            unhideMessage(localMessage.getId(), ((LocalFolder) localMessage.getFolder()).getId());
+        }
+    }
+
+    void unhideMessage(long messageId, long folderId) {
+        Stripe stripe = getStripe(messageId);
+        synchronized (stripe) {
+            Long hiddenInFolder = stripe.hiddenMessages.get(messageId);
+
+            if (hiddenInFolder != null && hiddenInFolder.longValue() == folderId) {
+                stripe.hiddenMessages.remove(messageId);
             }
         }
     }
 
+    private Stripe getStripe(long id) {
+        // Mix the bits so IDs that only differ in their high bits don't share a stripe
+        int hash = (int) (id ^ (id >>> 32));
+        hash ^= (hash >>> 16);
+        hash *= 0x9E3779B1;
+        return mStripes[(hash >>> 16) & (STRIPE_COUNT - 1)];
+    }
+
+    private static void putValue(LongObjectMap<Map<String, String>> values, long id, String columnName,
+            String value) {
+        Map<String, String> map = values.get(id);
+        if (map == null) {
+            map = new HashMap<String, String>();
+            values.put(id, map);
+        }
+        map.put(columnName, value);
+    }
+
+    private static void removeValue(LongObjectMap<Map<String, String>> values, long id, String columnName) {
+        Map<String, String> map = values.get(id);
+        if (map != null) {
+            map.remove(columnName);
+            if (map.isEmpty()) {
+                values.remove(id);
+            }
+        }
+    }
+
+
     /**
-     * Notify all concerned parties that the message list has changed.
+     * One part of the cache. All access has to be synchronized on the instance.
+     */
+    private static class Stripe {
+        final LongObjectMap<Map<String, String>> messageValues = new LongObjectMap<Map<String, String>>();
+        final LongObjectMap<Map<String, String>> threadValues = new LongObjectMap<Map<String, String>>();
+        final LongObjectMap<Long> hiddenMessages = new LongObjectMap<Long>();
+    }
+
+    /**
+     * Notifies all concerned parties that the message list has changed.
      *
      * <p><strong>Note:</strong>
-     * Notifying the content resolver of the change will cause the {@code CursorLoader} in
-     * {@link MessageListFragment} to reload the cursor. But especially with flag changes this will
-     * block because of the DB write operation to update the flags. So additionally we use
-     * {@link LocalBroadcastManager} to send a {@link #ACTION_CACHE_UPDATED} broadcast. This way
-     * {@code MessageListFragment} can update the view without reloading the cursor.
+     * If only cached values changed, a {@link #ACTION_CACHE_UPDATED} broadcast listing the changed
+     * IDs is sent. {@link MessageListFragment} uses it to rebind the affected rows that are on screen.
+     * The content resolver is not notified: the caller writes the same change to the database right
+     * afterwards, and that write triggers the (single) reload of the cursor.
+     * </p><p>
+     * If messages were hidden, notifying the content resolver of the change will cause the
+     * {@code CursorLoader} in {@link MessageListFragment} to reload the cursor. But this will block
+     * because of the DB write operation. So additionally the broadcast without IDs is sent. This way
+     * {@code MessageListFragment} can update the view without waiting for the reload.
      * </p>
      */
-    private void notifyChange() {
-        LocalBroadcastManager.getInstance(sContext).sendBroadcast(new Intent(ACTION_CACHE_UPDATED));
+    private static class BroadcastNotifier extends CoalescingNotifier {
+        private final Context mContext;
+        private final String mAccountUuid;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+
+        BroadcastNotifier(Context context, String accountUuid) {
+            mContext = context;
+            mAccountUuid = accountUuid;
+        }
+
+        @Override
+        protected void schedule() {
+            mHandler.postDelayed(this, FRAME_DELAY);
+        }
 
-        Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
-                "/messages");
-        sContext.getContentResolver().notifyChange(uri, null);
+        @Override
+        protected void deliver(long[] messageIds, long[] threadRootIds, boolean rowsChanged) {
+            Intent intent = new Intent(ACTION_CACHE_UPDATED);
+            intent.putExtra(EXTRA_ACCOUNT_UUID, mAccountUuid);
+            if (!rowsChanged) {
+                if (messageIds.length > 0) {
+                    intent.putExtra(EXTRA_MESSAGE_IDS, messageIds);
+                }
+                if (threadRootIds.length > 0) {
+                    intent.putExtra(EXTRA_THREAD_ROOT_IDS, threadRootIds);
+                }
+            }
+            LocalBroadcastManager.getInstance(mContext).sendBroadcast(intent);
+
+            if (rowsChanged) {
+                Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + mAccountUuid +
+                        "/messages");
+                mContext.getContentResolver().notifyChange(uri, null);
+            }
+        }
     }
 }
@@ -0,0 +1,261 @@
+package au.com.wallaceit.voicemail.controller;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.VisualVoicemail;
+import au.com.wallaceit.voicemail.controller.MessagingController.Command;
+
+
+/**
+ * Executes {@link MessagingController} commands on serial lanes, one lane per account, that share a
+ * bounded pool of worker threads.
+ * <p>
+ * Commands within a lane run one at a time, foreground commands before background commands and
+ * otherwise in the order they were submitted. Commands in different lanes may run concurrently, so
+ * a slow remote operation for one account no longer holds up the commands of the other accounts.
+ * When there are more runnable lanes than workers, the lane whose next command has the highest
+ * priority is picked first.
+ * </p>
+ */
+public class CommandScheduler {
+    /**
+     * Lane used for commands that are not bound to a single account.
+     */
+    static final String GLOBAL_LANE = "global";
+
+    private static final int MAX_WORKER_THREADS = 3;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+
+    interface CommandHandler {
+        void handleCommand(Command command);
+    }
+
+
+    private final CommandHandler handler;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+    private final AtomicInteger pendingCommands = new AtomicInteger(0);
+    private final AtomicInteger runningCommands = new AtomicInteger(0);
+
+
+    CommandScheduler(CommandHandler handler) {
+        this.handler = handler;
+
+        executor = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    void schedule(Command command) {
+        Lane lane = getLane(command.laneKey);
+
+        LaneRunner runner = null;
+        synchronized (lane) {
+            command.enqueueTime = SystemClock.elapsedRealtime();
+            lane.queue.add(command);
+            lane.maxQueueDepth = Math.max(lane.maxQueueDepth, lane.queue.size());
+            pendingCommands.incrementAndGet();
+
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                runner = new LaneRunner(lane, lane.queue.peek());
+            }
+        }
+
+        if (runner != null) {
+            execute(runner);
+        }
+    }
+
+    boolean isBusy() {
+        return runningCommands.get() > 0;
+    }
+
+    boolean hasPendingCommands() {
+        return pendingCommands.get() > 0;
+    }
+
+    /**
+     * Returns a snapshot of the queue depth and wait time statistics of every lane created so far.
+     */
+    List<LaneStats> getLaneStats() {
+        List<Lane> currentLanes;
+        synchronized (lanes) {
+            currentLanes = new ArrayList<Lane>(lanes.values());
+        }
+
+        List<LaneStats> stats = new ArrayList<LaneStats>(currentLanes.size());
+        for (Lane lane : currentLanes) {
+            synchronized (lane) {
+                stats.add(new LaneStats(lane.key, lane.queue.size(), lane.maxQueueDepth,
+                        lane.executedCommands, lane.totalWaitMillis, lane.maxWaitMillis));
+            }
+        }
+
+        return stats;
+    }
+
+    void shutdown(long timeoutMillis) throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Lane getLane(String laneKey) {
+        String key = (laneKey != null) ? laneKey : GLOBAL_LANE;
+
+        synchronized (lanes) {
+            Lane lane = lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                lanes.put(key, lane);
+            }
+            return lane;
+        }
+    }
+
+    private void execute(LaneRunner runner) {
+        try {
+            executor.execute(runner);
+        } catch (RejectedExecutionException e) {
+            Log.w(VisualVoicemail.LOG_TAG, "Scheduler is shut down; dropping commands of lane " +
+                    runner.lane.key);
+        }
+    }
+
+    private void runNextCommand(Lane lane) {
+        Command command;
+        synchronized (lane) {
+            command = lane.queue.poll();
+            if (command == null) {
+                lane.scheduled = false;
+                return;
+            }
+
+            long waitMillis = SystemClock.elapsedRealtime() - command.enqueueTime;
+            lane.executedCommands++;
+            lane.totalWaitMillis += waitMillis;
+            lane.maxWaitMillis = Math.max(lane.maxWaitMillis, waitMillis);
+            pendingCommands.decrementAndGet();
+        }
+
+        runningCommands.incrementAndGet();
+        try {
+            handler.handleCommand(command);
+        } catch (Exception e) {
+            Log.e(VisualVoicemail.LOG_TAG, "Error running command '" + command.description + "'", e);
+        } finally {
+            runningCommands.decrementAndGet();
+        }
+
+        LaneRunner runner;
+        synchronized (lane) {
+            if (lane.queue.isEmpty()) {
+                lane.scheduled = false;
+                return;
+            }
+            runner = new LaneRunner(lane, lane.queue.peek());
+        }
+
+        // Hand the worker back to the pool after every command so other lanes get their turn
+        execute(runner);
+    }
+
+
+    public static class LaneStats {
+        public final String laneKey;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long executedCommands;
+        public final long totalWaitMillis;
+        public final long maxWaitMillis;
+
+        LaneStats(String laneKey, int queueDepth, int maxQueueDepth, long executedCommands,
+                long totalWaitMillis, long maxWaitMillis) {
+            this.laneKey = laneKey;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.executedCommands = executedCommands;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        public long getAverageWaitMillis() {
+            return (executedCommands == 0) ? 0 : totalWaitMillis / executedCommands;
+        }
+
+        @Override
+        public String toString() {
+            return laneKey + ": depth=" + queueDepth + " maxDepth=" + maxQueueDepth +
+                    " executed=" + executedCommands + " avgWait=" + getAverageWaitMillis() + "ms" +
+                    " maxWait=" + maxWaitMillis + "ms";
+        }
+    }
+
+    private static class Lane {
+        final String key;
+        final PriorityQueue<Command> queue = new PriorityQueue<Command>();
+        boolean scheduled;
+        int maxQueueDepth;
+        long executedCommands;
+        long totalWaitMillis;
+        long maxWaitMillis;
+
+        Lane(String key) {
+            this.key = key;
+        }
+    }
+
+    private class LaneRunner implements Runnable, Comparable<LaneRunner> {
+        final Lane lane;
+        final Command head;
+
+        LaneRunner(Lane lane, Command head) {
+            this.lane = lane;
+            this.head = head;
+        }
+
+        @Override
+        public void run() {
+            runNextCommand(lane);
+        }
+
+        @Override
+        public int compareTo(LaneRunner other) {
+            return head.compareTo(other.head);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            });
+            thread.setName("MessagingController-" + threadNumber.getAndIncrement());
+            return thread;
+        }
+    }
+}
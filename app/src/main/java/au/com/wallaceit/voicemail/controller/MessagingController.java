@@ -8,12 +8,14 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.PowerManager;
-import android.os.Process;
 import android.os.SystemClock;
 import android.util.Log;
 
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.AuthenticationFailedException;
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.BodyPart;
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
@@ -23,10 +25,12 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.Message.RecipientType;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.Pusher;
 import com.fsck.k9.mail.Store;
+import com.fsck.k9.mail.internet.DecodingBodyFactory;
 import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
@@ -34,6 +38,7 @@ import com.fsck.k9.mail.internet.MimeUtility;
 import com.fsck.k9.mail.internet.TextBody;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
+import com.fsck.k9.mail.store.imap.ImapStore;
 import com.fsck.k9.mail.store.pop3.Pop3Store;
 
 import java.io.CharArrayWriter;
@@ -50,17 +55,16 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -76,6 +80,8 @@ import au.com.wallaceit.voicemail.account.AccountCreator;
 import au.com.wallaceit.voicemail.activity.MessageReference;
 import au.com.wallaceit.voicemail.activity.setup.AccountSetupCheckSettings.CheckDirection;
 import au.com.wallaceit.voicemail.cache.EmailProviderCache;
+import au.com.wallaceit.voicemail.controller.PendingCommandCompactor.CompactedCommand;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder.MoreMessages;
 import au.com.wallaceit.voicemail.mailstore.LocalMessage;
@@ -95,18 +101,18 @@ import me.leolin.shortcutbadger.ShortcutBadger;
 
 
 /**
- * Starts a long running (application) Thread that will run through commands
- * that require remote mailbox access. This class is used to serialize and
- * prioritize these commands. Each method that will submit a command requires a
- * MessagingListener instance to be provided. It is expected that that listener
- * has also been added as a registered listener using addListener(). When a
- * command is to be executed, if the listener that was provided with the command
- * is no longer registered the command is skipped. The design idea for the above
+ * Runs commands that require remote mailbox access on a {@link CommandScheduler}.
+ * This class is used to serialize (per account) and prioritize these commands.
+ * Each method that will submit a command requires a MessagingListener
+ * instance to be provided. It is expected that that listener has also been
+ * added as a registered listener using addListener(). When a command is to be
+ * executed, if the listener that was provided with the command is no longer
+ * registered the command is skipped. The design idea for the above
  * is that when an Activity starts it registers as a listener. When it is paused
  * it removes itself. Thus, any commands that that activity submitted are
  * removed from the queue once the activity is no longer active.
  */
-public class MessagingController implements Runnable {
+public class MessagingController implements CommandScheduler.CommandHandler {
     public static final long INVALID_MESSAGE_ID = -1;
 
     /**
@@ -148,10 +154,14 @@ public class MessagingController implements Runnable {
      */
     private static final int UNSYNC_CHUNK_SIZE = 5;
 
+    /**
+     * Maximum number of downloaded small messages to store in one transaction
+     */
+    private static final int SMALL_MESSAGE_BATCH_SIZE = 50;
+
     private static MessagingController inst = null;
-    private BlockingQueue<Command> mCommands = new PriorityBlockingQueue<Command>();
+    private final CommandScheduler scheduler;
 
-    private Thread mThread;
     private Set<MessagingListener> mListeners = new CopyOnWriteArraySet<MessagingListener>();
 
     private final ConcurrentHashMap<String, AtomicInteger> sendCount = new ConcurrentHashMap<String, AtomicInteger>();
@@ -160,15 +170,15 @@ public class MessagingController implements Runnable {
 
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
 
+    private final PendingCommandCompactor pendingCommandCompactor = new PendingCommandCompactor(
+            PENDING_COMMAND_SET_FLAG_BULK, PENDING_COMMAND_MOVE_OR_COPY_BULK_NEW, PENDING_COMMAND_EXPUNGE);
+
     private MessagingListener checkMailListener = null;
 
     private MemorizingListener memorizingListener = new MemorizingListener();
 
-    private boolean mBusy;
-
     private final Context context;
     private final NotificationController notificationController;
-    private volatile boolean stopped = false;
 
     private static final Set<Flag> SYNC_FLAGS = EnumSet.of(Flag.SEEN, Flag.FLAGGED, Flag.ANSWERED, Flag.GREETING_ON);
 
@@ -190,7 +200,7 @@ public class MessagingController implements Runnable {
         return cache.isMessageHidden(messageId, folderId);
     }
 
-    private void setFlagInCache(final Account account, final List<Long> messageIds,
+    private void setFlagInCache(final Account account, final LongArrayList messageIds,
             final Flag flag, final boolean newState) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
@@ -199,7 +209,7 @@ public class MessagingController implements Runnable {
         cache.setValueForMessages(messageIds, columnName, value);
     }
 
-    private void removeFlagFromCache(final Account account, final List<Long> messageIds,
+    private void removeFlagFromCache(final Account account, final LongArrayList messageIds,
             final Flag flag) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
@@ -207,7 +217,7 @@ public class MessagingController implements Runnable {
         cache.removeValueForMessages(messageIds, columnName);
     }
 
-    private void setFlagForThreadsInCache(final Account account, final List<Long> threadRootIds,
+    private void setFlagForThreadsInCache(final Account account, final LongArrayList threadRootIds,
             final Flag flag, final boolean newState) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
@@ -216,7 +226,7 @@ public class MessagingController implements Runnable {
         cache.setValueForThreads(threadRootIds, columnName, value);
     }
 
-    private void removeFlagForThreadsFromCache(final Account account, final List<Long> messageIds,
+    private void removeFlagForThreadsFromCache(final Account account, final LongArrayList messageIds,
             final Flag flag) {
 
         EmailProviderCache cache = EmailProviderCache.getCache(account.getUuid(), context);
@@ -227,18 +237,14 @@ public class MessagingController implements Runnable {
     MessagingController(Context context, NotificationController notificationController) {
         this.context = context;
         this.notificationController = notificationController;
-        mThread = new Thread(this);
-        mThread.setName("MessagingController");
-        mThread.start();
+        scheduler = new CommandScheduler(this);
         if (memorizingListener != null) {
             addListener(memorizingListener);
         }
     }
 
     void stop() throws InterruptedException {
-        stopped = true;
-        mThread.interrupt();
-        mThread.join(1000L);
+        scheduler.shutdown(1000L);
     }
 
     public synchronized static MessagingController getInstance(Context context) {
@@ -251,84 +257,65 @@ public class MessagingController implements Runnable {
     }
 
     public boolean isBusy() {
-        return mBusy;
+        return scheduler.isBusy();
     }
 
-    @Override
-    public void run() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-        while (!stopped) {
-            String commandDescription = null;
-            try {
-                final Command command = mCommands.take();
-
-                if (command != null) {
-                    commandDescription = command.description;
+    /**
+     * Returns queue depth and wait time statistics for every account lane of the command scheduler.
+     */
+    public List<CommandScheduler.LaneStats> getCommandLaneStats() {
+        return scheduler.getLaneStats();
+    }
 
-                    if (VisualVoicemail.DEBUG)
-                        Log.i(VisualVoicemail.LOG_TAG, "Running " + (command.isForeground ? "Foreground" : "Background") + " command '" + command.description + "', seq = " + command.sequence);
+    @Override
+    public void handleCommand(final Command command) {
+        if (VisualVoicemail.DEBUG)
+            Log.i(VisualVoicemail.LOG_TAG, "Running " + (command.isForeground ? "Foreground" : "Background") + " command '" + command.description + "', seq = " + command.sequence);
 
-                    mBusy = true;
+        try {
+            command.runnable.run();
+        } catch (UnavailableAccountException e) {
+            // retry later
+            new Thread() {
+                @Override
+                public void run() {
                     try {
-                        command.runnable.run();
-                    } catch (UnavailableAccountException e) {
-                        // retry later
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                try {
-                                    sleep(30 * 1000);
-                                    mCommands.put(command);
-                                } catch (InterruptedException e) {
-                                    Log.e(VisualVoicemail.LOG_TAG, "interrupted while putting a pending command for"
-                                          + " an unavailable account back into the queue."
-                                          + " THIS SHOULD NEVER HAPPEN.");
-                                }
-                            }
-                        } .start();
+                        sleep(30 * 1000);
+                        scheduler.schedule(command);
+                    } catch (InterruptedException e) {
+                        Log.e(VisualVoicemail.LOG_TAG, "interrupted while putting a pending command for"
+                              + " an unavailable account back into the queue."
+                              + " THIS SHOULD NEVER HAPPEN.");
                     }
+                }
+            } .start();
+        }
 
-                    if (VisualVoicemail.DEBUG)
-                        Log.i(VisualVoicemail.LOG_TAG, (command.isForeground ? "Foreground" : "Background") +
-                              " Command '" + command.description + "' completed");
+        if (VisualVoicemail.DEBUG)
+            Log.i(VisualVoicemail.LOG_TAG, (command.isForeground ? "Foreground" : "Background") +
+                  " Command '" + command.description + "' completed");
 
-                    for (MessagingListener l : getListeners(command.listener)) {
-                        l.controllerCommandCompleted(!mCommands.isEmpty());
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(VisualVoicemail.LOG_TAG, "Error running command '" + commandDescription + "'", e);
-            }
-            mBusy = false;
+        for (MessagingListener l : getListeners(command.listener)) {
+            l.controllerCommandCompleted(scheduler.hasPendingCommands());
         }
     }
 
-    private void put(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(mCommands, description, listener, runnable, true);
+    private void put(Account account, String description, MessagingListener listener, Runnable runnable) {
+        putCommand(account, description, listener, runnable, true);
     }
 
-    private void putBackground(String description, MessagingListener listener, Runnable runnable) {
-        putCommand(mCommands, description, listener, runnable, false);
+    private void putBackground(Account account, String description, MessagingListener listener, Runnable runnable) {
+        putCommand(account, description, listener, runnable, false);
     }
 
-    private void putCommand(BlockingQueue<Command> queue, String description, MessagingListener listener, Runnable runnable, boolean isForeground) {
-        int retries = 10;
-        Exception e = null;
-        while (retries-- > 0) {
-            try {
-                Command command = new Command();
-                command.listener = listener;
-                command.runnable = runnable;
-                command.description = description;
-                command.isForeground = isForeground;
-                queue.put(command);
-                return;
-            } catch (InterruptedException ie) {
-                SystemClock.sleep(200);
-                e = ie;
-            }
-        }
-        throw new Error(e);
+    private void putCommand(Account account, String description, MessagingListener listener, Runnable runnable, boolean isForeground) {
+        Command command = new Command();
+        command.listener = listener;
+        command.runnable = runnable;
+        command.description = description;
+        command.isForeground = isForeground;
+        command.laneKey = (account != null) ? account.getUuid() : CommandScheduler.GLOBAL_LANE;
+        scheduler.schedule(command);
     }
 
 
@@ -439,7 +426,7 @@ public class MessagingController implements Runnable {
     }
 
     private void doRefreshRemote(final Account account, final MessagingListener listener) {
-        put("doRefreshRemote", listener, new Runnable() {
+        put(account, "doRefreshRemote", listener, new Runnable() {
             @Override
             public void run() {
                 List<LocalFolder> localFolders = null;
@@ -801,7 +788,7 @@ public class MessagingController implements Runnable {
      * @param providedRemoteFolder TODO
      */
     public void synchronizeMailbox(final Account account, final String folder, final MessagingListener listener, final Folder providedRemoteFolder) {
-        putBackground("synchronizeMailbox", listener, new Runnable() {
+        putBackground(account, "synchronizeMailbox", listener, new Runnable() {
             @Override
             public void run() {
                 synchronizeMailboxSynchronous(account, folder, listener, providedRemoteFolder);
@@ -928,6 +915,13 @@ public class MessagingController implements Runnable {
              */
             int remoteMessageCount = remoteFolder.getMessageCount();
 
+            /*
+             * Remember the mod-sequence as of opening the folder. Flag changes made while we sync
+             * will have a higher mod-sequence and are picked up by the next sync.
+             */
+            long remoteUidValidity = remoteFolder.getUidValidity();
+            long remoteHighestModSeq = remoteFolder.getHighestModSeq();
+
             int visibleLimit = localFolder.getVisibleLimit();
 
             if (visibleLimit < 0) {
@@ -1024,6 +1018,10 @@ public class MessagingController implements Runnable {
              */
             int newMessages = downloadMessages(account, remoteFolder, localFolder, remoteMessages, false);
 
+            if (remoteHighestModSeq > 0) {
+                localFolder.setSyncedModSeq(remoteUidValidity, remoteHighestModSeq);
+            }
+
             int unreadMessageCount = localFolder.getUnreadMessageCount();
             for (MessagingListener l : getListeners()) {
                 l.folderStatusChanged(account, folder, unreadMessageCount);
@@ -1056,8 +1054,11 @@ public class MessagingController implements Runnable {
                 }
             }
 
-            if (VisualVoicemail.DEBUG)
+            if (VisualVoicemail.DEBUG) {
                 Log.i(VisualVoicemail.LOG_TAG, "Done synchronizing folder " + account.getDescription() + ":" + folder);
+                Log.d(VisualVoicemail.LOG_TAG, "Database lock times for " + account.getDescription() + ": " +
+                        localStore.getDatabaseLockStats());
+            }
 
         } catch (AuthenticationFailedException e) {
             handleAuthenticationFailure(account, true);
@@ -1410,7 +1411,10 @@ public class MessagingController implements Runnable {
                         return;
                     }
 
-                    if (account.getMaximumAutoDownloadMessageSize() > 0 &&
+                    if (account.isAudioFirstDownload()) {
+                        // Fetch the structure first so we can download just the recording
+                        largeMessages.add(message);
+                    } else if (account.getMaximumAutoDownloadMessageSize() > 0 &&
                     message.getSize() > account.getMaximumAutoDownloadMessageSize()) {
                         largeMessages.add(message);
                     } else {
@@ -1460,66 +1464,113 @@ public class MessagingController implements Runnable {
         if (VisualVoicemail.DEBUG)
             Log.d(VisualVoicemail.LOG_TAG, "SYNC: Fetching small messages for folder " + folder);
 
+        final List<Message> downloadedMessages = new ArrayList<Message>(SMALL_MESSAGE_BATCH_SIZE);
         remoteFolder.fetch(smallMessages,
         fp, new MessageRetrievalListener<T>() {
             @Override
             public void messageFinished(final T message, int number, int ofTotal) {
-                try {
+                if (!shouldImportMessage(account, folder, message, progress, earliestDate)) {
+                    progress.incrementAndGet();
 
-                    if (!shouldImportMessage(account, folder, message, progress, earliestDate)) {
-                        progress.incrementAndGet();
+                    return;
+                }
 
-                        return;
-                    }
+                downloadedMessages.add(message);
+                if (downloadedMessages.size() >= SMALL_MESSAGE_BATCH_SIZE) {
+                    storeSmallMessages(account, localFolder, downloadedMessages, progress, unreadBeforeStart,
+                            newMessages, todo);
+                    downloadedMessages.clear();
+                }
+            }
 
-                    // Store the updated message locally
-                    final LocalMessage localMessage = localFolder.storeSmallMessage(message, new Runnable() {
-                        @Override
-                        public void run() {
-                            progress.incrementAndGet();
-                        }
-                    });
+            @Override
+            public void messageStarted(String uid, int number, int ofTotal) {}
 
-                    // Increment the number of "new messages" if the newly downloaded message is
-                    // not marked as read.
-                    if (!localMessage.isSet(Flag.SEEN)) {
-                        newMessages.incrementAndGet();
-                    }
+            @Override
+            public void messagesFinished(int total) {}
+        });
 
-                    if (VisualVoicemail.DEBUG)
-                        Log.v(VisualVoicemail.LOG_TAG, "About to notify listeners that we got a new small message "
-                              + account + ":" + folder + ":" + message.getUid());
+        storeSmallMessages(account, localFolder, downloadedMessages, progress, unreadBeforeStart, newMessages, todo);
 
-                    // Update the listener with what we've found
-                    for (MessagingListener l : getListeners()) {
-                        l.synchronizeMailboxAddOrUpdateMessage(account, folder, localMessage);
-                        l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
-                        if (!localMessage.isSet(Flag.SEEN)) {
-                            l.synchronizeMailboxNewMessage(account, folder, localMessage);
-                        }
-                    }
-                    // Send a notification of this message
+        if (VisualVoicemail.DEBUG)
+            Log.d(VisualVoicemail.LOG_TAG, "SYNC: Done fetching small messages for folder " + folder);
+    }
 
-                    if (shouldNotifyForMessage(account, localFolder, message)) {
-                        // Notify with the localMessage so that we don't have to recalculate the content preview.
-                        notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
-                    }
+    /**
+     * Stores a batch of downloaded small messages in one transaction and notifies the listeners
+     * about them. If the batch can't be stored, the messages are stored one by one so a single
+     * broken message doesn't drop the others.
+     */
+    private void storeSmallMessages(final Account account, final LocalFolder localFolder,
+                                    List<Message> messages,
+                                    final AtomicInteger progress,
+                                    final int unreadBeforeStart,
+                                    final AtomicInteger newMessages,
+                                    final int todo) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        final String folder = localFolder.getName();
+        List<LocalMessage> localMessages;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            localMessages = localFolder.storeSmallMessages(messages);
 
+            if (VisualVoicemail.DEBUG)
+                Log.v(VisualVoicemail.LOG_TAG, "SYNC: Stored " + messages.size() + " small messages for folder " +
+                        folder + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        } catch (MessagingException e) {
+            Log.w(VisualVoicemail.LOG_TAG, "SYNC: Storing batch of small messages failed, storing them one by one", e);
+
+            localMessages = new ArrayList<LocalMessage>(messages.size());
+            for (Message message : messages) {
+                try {
+                    localMessages.add(localFolder.storeSmallMessage(message, new Runnable() {
+                        @Override
+                        public void run() {}
+                    }));
                 } catch (MessagingException me) {
                     addErrorMessage(account, null, me);
                     Log.e(VisualVoicemail.LOG_TAG, "SYNC: fetch small messages", me);
+                    localMessages.add(null);
                 }
             }
+        }
 
-            @Override
-            public void messageStarted(String uid, int number, int ofTotal) {}
+        for (int i = 0, count = messages.size(); i < count; i++) {
+            Message message = messages.get(i);
+            LocalMessage localMessage = localMessages.get(i);
+            progress.incrementAndGet();
+            if (localMessage == null) {
+                continue;
+            }
 
-            @Override
-            public void messagesFinished(int total) {}
-        });
+            // Increment the number of "new messages" if the newly downloaded message is
+            // not marked as read.
+            if (!localMessage.isSet(Flag.SEEN)) {
+                newMessages.incrementAndGet();
+            }
 
-        if (VisualVoicemail.DEBUG)
-            Log.d(VisualVoicemail.LOG_TAG, "SYNC: Done fetching small messages for folder " + folder);
+            if (VisualVoicemail.DEBUG)
+                Log.v(VisualVoicemail.LOG_TAG, "About to notify listeners that we got a new small message "
+                      + account + ":" + folder + ":" + message.getUid());
+
+            // Update the listener with what we've found
+            for (MessagingListener l : getListeners()) {
+                l.synchronizeMailboxAddOrUpdateMessage(account, folder, localMessage);
+                l.synchronizeMailboxProgress(account, folder, progress.get(), todo);
+                if (!localMessage.isSet(Flag.SEEN)) {
+                    l.synchronizeMailboxNewMessage(account, folder, localMessage);
+                }
+            }
+
+            // Send a notification of this message
+            if (shouldNotifyForMessage(account, localFolder, message)) {
+                // Notify with the localMessage so that we don't have to recalculate the content preview.
+                notificationController.addNewMailNotification(account, localMessage, unreadBeforeStart);
+            }
+        }
     }
 
 
@@ -1539,6 +1590,7 @@ public class MessagingController implements Runnable {
         if (VisualVoicemail.DEBUG)
             Log.d(VisualVoicemail.LOG_TAG, "SYNC: Fetching large messages for folder " + folder);
 
+        final long fetchStartTime = SystemClock.elapsedRealtime();
         remoteFolder.fetch(largeMessages, fp, null);
         for (T message : largeMessages) {
 
@@ -1597,13 +1649,26 @@ public class MessagingController implements Runnable {
                  * right now, attachments will be left for later.
                  */
 
-                Set<Part> viewables = MessageExtractor.collectTextParts(message);
+                List<Part> audioParts = account.isAudioFirstDownload() ?
+                        collectAudioParts(message) : Collections.<Part>emptyList();
 
-                /*
-                 * Now download the parts we're interested in storing.
-                 */
-                for (Part part : viewables) {
-                    remoteFolder.fetchPart(message, part, null);
+                DecodingBodyFactory bodyFactory = null;
+                if (!audioParts.isEmpty()) {
+                    /*
+                     * Only the recording matters for a voicemail. Decode it while it's being
+                     * downloaded so it's ready to be played as soon as it has been stored.
+                     */
+                    bodyFactory = new DecodingBodyFactory();
+                    for (Part audioPart : audioParts) {
+                        remoteFolder.fetchPart(message, audioPart, null, bodyFactory);
+                    }
+                } else {
+                    Set<Part> viewables = MessageExtractor.collectTextParts(message);
+
+                    /*
+                     * Now download the parts we're interested in storing.
+                     */
+                    remoteFolder.fetchParts(message, new ArrayList<Part>(viewables), null);
                 }
                 // Store the updated message locally
                 localFolder.appendMessages(Collections.singletonList(message));
@@ -1613,6 +1678,14 @@ public class MessagingController implements Runnable {
                 // Set a flag indicating this message has been fully downloaded and can be
                 // viewed.
                 localMessage.setFlag(Flag.X_DOWNLOADED_PARTIAL, true);
+
+                if (bodyFactory != null && VisualVoicemail.DEBUG) {
+                    Log.d(VisualVoicemail.LOG_TAG, "SYNC: Voicemail " + account + ":" + folder + ":" +
+                            message.getUid() + " playable after " +
+                            (SystemClock.elapsedRealtime() - fetchStartTime) + "ms, " +
+                            bodyFactory.getEncodedBytes() + " bytes downloaded, " +
+                            bodyFactory.getDecodedBytes() + " bytes of audio");
+                }
             }
             if (VisualVoicemail.DEBUG)
                 Log.v(VisualVoicemail.LOG_TAG, "About to notify listeners that we got a new large message "
@@ -1649,6 +1722,27 @@ public class MessagingController implements Runnable {
 
     }
 
+    /**
+     * Find the leaf parts of a message that contain audio, i.e. the voicemail recording.
+     */
+    private static List<Part> collectAudioParts(Part part) {
+        List<Part> audioParts = new ArrayList<Part>();
+        collectAudioParts(part, audioParts);
+        return audioParts;
+    }
+
+    private static void collectAudioParts(Part part, List<Part> audioParts) {
+        Body body = part.getBody();
+        if (body instanceof Multipart) {
+            Multipart multipart = (Multipart) body;
+            for (BodyPart bodyPart : multipart.getBodyParts()) {
+                collectAudioParts(bodyPart, audioParts);
+            }
+        } else if (body == null && part.getMimeType().toLowerCase(Locale.US).startsWith("audio/")) {
+            audioParts.add(part);
+        }
+    }
+
     private void refreshLocalMessageFlags(final Account account, final Folder remoteFolder,
                                           final LocalFolder localFolder,
                                           List<Message> syncFlagMessages,
@@ -1662,20 +1756,33 @@ public class MessagingController implements Runnable {
                 Log.d(VisualVoicemail.LOG_TAG, "SYNC: About to sync flags for "
                       + syncFlagMessages.size() + " remote messages for folder " + folder);
 
-            FetchProfile fp = new FetchProfile();
-            fp.add(FetchProfile.Item.FLAGS);
+            Map<String, Message> changedMessages = null;
+            if (canSyncFlagsIncrementally(remoteFolder, localFolder)) {
+                changedMessages = fetchChangedFlags(remoteFolder, localFolder, syncFlagMessages);
+            }
 
-            List<Message> undeletedMessages = new LinkedList<Message>();
-            for (Message message : syncFlagMessages) {
-                if (!message.isSet(Flag.DELETED)) {
-                    undeletedMessages.add(message);
+            if (changedMessages == null) {
+                FetchProfile fp = new FetchProfile();
+                fp.add(FetchProfile.Item.FLAGS);
+
+                List<Message> undeletedMessages = new LinkedList<Message>();
+                for (Message message : syncFlagMessages) {
+                    if (!message.isSet(Flag.DELETED)) {
+                        undeletedMessages.add(message);
+                    }
                 }
+
+                remoteFolder.fetch(undeletedMessages, fp, null);
             }
 
-            remoteFolder.fetch(undeletedMessages, fp, null);
-            for (Message remoteMessage : syncFlagMessages) {
-                LocalMessage localMessage = localFolder.getMessage(remoteMessage.getUid());
-                boolean messageChanged = syncFlags(localMessage, remoteMessage);
+            for (Message message : syncFlagMessages) {
+                Message remoteMessage = message;
+                if (changedMessages != null) {
+                    remoteMessage = changedMessages.get(message.getUid());
+                }
+
+                LocalMessage localMessage = localFolder.getMessage(message.getUid());
+                boolean messageChanged = remoteMessage != null && syncFlags(localMessage, remoteMessage);
                 if (messageChanged) {
                     boolean shouldBeNotifiedOf = false;
                     if (localMessage.isSet(Flag.DELETED) || isMessageSuppressed(localMessage)) {
@@ -1705,6 +1812,54 @@ public class MessagingController implements Runnable {
         }
     }
 
+    private boolean canSyncFlagsIncrementally(Folder remoteFolder, LocalFolder localFolder) {
+        long uidValidity = remoteFolder.getUidValidity();
+        return remoteFolder.getHighestModSeq() > 0 && uidValidity > 0 &&
+                localFolder.getSyncedUidValidity() == uidValidity &&
+                localFolder.getSyncedHighestModSeq() > 0;
+    }
+
+    /**
+     * Fetches only the flags that changed since the last complete flag sync (CONDSTORE/QRESYNC).
+     *
+     * @return The changed messages by UID, or {@code null} if the full flag sync has to be used
+     *         instead.
+     */
+    private Map<String, Message> fetchChangedFlags(Folder remoteFolder, LocalFolder localFolder,
+                                                   List<Message> syncFlagMessages) {
+        long lowestUid = Long.MAX_VALUE;
+        for (Message message : syncFlagMessages) {
+            try {
+                lowestUid = Math.min(lowestUid, Long.parseLong(message.getUid()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        Map<String, Message> changedMessages = new HashMap<String, Message>();
+        if (syncFlagMessages.isEmpty()) {
+            return changedMessages;
+        }
+
+        try {
+            List<? extends Message> messages = remoteFolder.getMessagesChangedSince(lowestUid,
+                    localFolder.getSyncedHighestModSeq());
+            for (Message message : messages) {
+                changedMessages.put(message.getUid(), message);
+            }
+        } catch (MessagingException e) {
+            Log.w(VisualVoicemail.LOG_TAG, "Incremental flag sync failed for folder " + localFolder.getName() +
+                    ", falling back to full flag sync", e);
+            return null;
+        }
+
+        if (VisualVoicemail.DEBUG)
+            Log.d(VisualVoicemail.LOG_TAG, "SYNC: " + changedMessages.size() + " of " + syncFlagMessages.size() +
+                    " messages changed since modseq " + localFolder.getSyncedHighestModSeq());
+
+        return changedMessages;
+    }
+
     private boolean syncFlags(LocalMessage localMessage, Message remoteMessage) throws MessagingException {
         boolean messageChanged = false;
         if (localMessage == null || localMessage.isSet(Flag.DELETED)) {
@@ -1757,7 +1912,7 @@ public class MessagingController implements Runnable {
     }
 
     private void processPendingCommands(final Account account) {
-        putBackground("processPendingCommands", null, new Runnable() {
+        putBackground(account, "processPendingCommands", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1781,13 +1936,18 @@ public class MessagingController implements Runnable {
 
     private void processPendingCommandsSynchronous(Account account) throws MessagingException {
         LocalStore localStore = account.getLocalStore();
-        List<PendingCommand> commands = localStore.getPendingCommands();
+        List<PendingCommand> storedCommands = localStore.getPendingCommands();
+        if (storedCommands.isEmpty()) {
+            return;
+        }
+
+        List<CompactedCommand> commands = pendingCommandCompactor.compact(storedCommands);
+        if (VisualVoicemail.DEBUG && commands.size() < storedCommands.size())
+            Log.d(VisualVoicemail.LOG_TAG, "Compacted " + storedCommands.size() + " pending commands into " +
+                    commands.size() + " for account " + account.getDescription());
 
         int progress = 0;
         int todo = commands.size();
-        if (todo == 0) {
-            return;
-        }
 
         for (MessagingListener l : getListeners()) {
             l.pendingCommandsProcessing(account);
@@ -1796,7 +1956,8 @@ public class MessagingController implements Runnable {
 
         PendingCommand processingCommand = null;
         try {
-            for (PendingCommand command : commands) {
+            for (CompactedCommand compactedCommand : commands) {
+                PendingCommand command = compactedCommand.command;
                 processingCommand = command;
                 if (VisualVoicemail.DEBUG)
                     Log.d(VisualVoicemail.LOG_TAG, "Processing pending command '" + command + "'");
@@ -1831,14 +1992,14 @@ public class MessagingController implements Runnable {
                     } else if (PENDING_COMMAND_EXPUNGE.equals(command.command)) {
                         processPendingExpunge(command, account);
                     }
-                    localStore.removePendingCommand(command);
+                    localStore.removePendingCommands(compactedCommand.replaced);
                     if (VisualVoicemail.DEBUG)
                         Log.d(VisualVoicemail.LOG_TAG, "Done processing pending command '" + command + "'");
                 } catch (MessagingException me) {
                     if (me.isPermanentFailure()) {
                         addErrorMessage(account, null, me);
                         Log.e(VisualVoicemail.LOG_TAG, "Failure of command '" + command + "' was permanent, removing command from queue");
-                        localStore.removePendingCommand(processingCommand);
+                        localStore.removePendingCommands(compactedCommand.replaced);
                     } else {
                         throw me;
                     }
@@ -2197,7 +2358,7 @@ public class MessagingController implements Runnable {
     }
 
     private void queueSetFlag(final Account account, final String folderName, final String newState, final String flag, final String[] uids) {
-        putBackground("queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueSetFlag " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = new PendingCommand();
@@ -2299,7 +2460,7 @@ public class MessagingController implements Runnable {
         }
     }
     private void queueExpunge(final Account account, final String folderName) {
-        putBackground("queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
+        putBackground(account, "queueExpunge " + account.getDescription() + ":" + folderName, null, new Runnable() {
             @Override
             public void run() {
                 PendingCommand command = new PendingCommand();
@@ -2540,7 +2701,7 @@ public class MessagingController implements Runnable {
         processPendingCommands(account);
     }
 
-    public void setFlag(final Account account, final List<Long> messageIds, final Flag flag,
+    public void setFlag(final Account account, final LongArrayList messageIds, final Flag flag,
             final boolean newState) {
 
         setFlagInCache(account, messageIds, flag, newState);
@@ -2553,7 +2714,7 @@ public class MessagingController implements Runnable {
         });
     }
 
-    public void setFlagForThreads(final Account account, final List<Long> threadRootIds,
+    public void setFlagForThreads(final Account account, final LongArrayList threadRootIds,
             final Flag flag, final boolean newState) {
 
         setFlagForThreadsInCache(account, threadRootIds, flag, newState);
@@ -2566,7 +2727,7 @@ public class MessagingController implements Runnable {
         });
     }
 
-    private void setFlagSynchronous(final Account account, final List<Long> ids,
+    private void setFlagSynchronous(final Account account, final LongArrayList ids,
             final Flag flag, final boolean newState, final boolean threadedList) {
 
         LocalStore localStore;
@@ -2749,7 +2910,7 @@ public class MessagingController implements Runnable {
     //TODO: Fix the callback mess. See GH-782
     public void loadMessageForViewRemote(final Account account, final String folder,
                                          final String uid, final MessagingListener listener) {
-        put("loadMessageForViewRemote", listener, new Runnable() {
+        put(account, "loadMessageForViewRemote", listener, new Runnable() {
             @Override
             public void run() {
                 loadMessageForViewRemoteSynchronous(account, folder, uid, listener, false, false);
@@ -2945,8 +3106,7 @@ public class MessagingController implements Runnable {
             throws MessagingException {
 
         if (account.isMarkMessageAsReadOnView() && !message.isSet(Flag.SEEN)) {
-            List<Long> messageIds = Collections.singletonList(message.getId());
-            setFlag(account, messageIds, Flag.SEEN, true);
+            setFlag(account, LongArrayList.of(message.getId()), Flag.SEEN, true);
 
             message.setFlagInternal(Flag.SEEN, true);
         }
@@ -2954,8 +3114,20 @@ public class MessagingController implements Runnable {
 
     public void loadAttachment(final Account account, final LocalMessage message, final Part part,
             final MessagingListener listener) {
+        loadAttachment(account, message, part, null, listener);
+    }
+
+    /**
+     * Download a part of a message and add it to the local store.
+     *
+     * @param bodyFactory
+     *         Decides how the downloaded content is stored, e.g. to decode it while it's downloaded. Can be
+     *         {@code null} to use the store's default.
+     */
+    public void loadAttachment(final Account account, final LocalMessage message, final Part part,
+            final BodyFactory bodyFactory, final MessagingListener listener) {
 
-        put("loadAttachment", listener, new Runnable() {
+        put(account, "loadAttachment", listener, new Runnable() {
             @Override
             public void run() {
                 Folder remoteFolder = null;
@@ -2971,7 +3143,11 @@ public class MessagingController implements Runnable {
                     remoteFolder.open(Folder.OPEN_MODE_RW);
 
                     Message remoteMessage = remoteFolder.getMessage(message.getUid());
-                    remoteFolder.fetchPart(remoteMessage, part, null);
+                    if (bodyFactory != null) {
+                        remoteFolder.fetchPart(remoteMessage, part, null, bodyFactory);
+                    } else {
+                        remoteFolder.fetchPart(remoteMessage, part, null);
+                    }
 
                     localFolder.addPartToMessage(message, part);
 
@@ -3109,7 +3285,7 @@ public class MessagingController implements Runnable {
         };
 
 
-        put("getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
+        put(account, "getFolderUnread:" + account.getDescription() + ":" + folderName, l, unreadRunnable);
     }
 
 
@@ -3148,7 +3324,7 @@ public class MessagingController implements Runnable {
 
         suppressMessages(account, messages);
 
-        putBackground("moveMessages", null, new Runnable() {
+        putBackground(account, "moveMessages", null, new Runnable() {
             @Override
             public void run() {
                 moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, false,
@@ -3162,7 +3338,7 @@ public class MessagingController implements Runnable {
 
         suppressMessages(account, messages);
 
-        putBackground("moveMessagesInThread", null, new Runnable() {
+        putBackground(account, "moveMessagesInThread", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3186,7 +3362,7 @@ public class MessagingController implements Runnable {
             final List<? extends Message> messages, final String destFolder,
             final MessagingListener listener) {
 
-        putBackground("copyMessages", null, new Runnable() {
+        putBackground(account, "copyMessages", null, new Runnable() {
             @Override
             public void run() {
                 moveOrCopyMessageSynchronous(account, srcFolder, messages, destFolder, true,
@@ -3198,7 +3374,7 @@ public class MessagingController implements Runnable {
     public void copyMessagesInThread(final Account account, final String srcFolder,
             final List<? extends Message> messages, final String destFolder) {
 
-        putBackground("copyMessagesInThread", null, new Runnable() {
+        putBackground(account, "copyMessagesInThread", null, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3314,7 +3490,7 @@ public class MessagingController implements Runnable {
     }
 
     public void expunge(final Account account, final String folder, final MessagingListener listener) {
-        putBackground("expunge", null, new Runnable() {
+        putBackground(account, "expunge", null, new Runnable() {
             @Override
             public void run() {
                 queueExpunge(account, folder);
@@ -3351,7 +3527,7 @@ public class MessagingController implements Runnable {
 
                 suppressMessages(account, messages);
 
-                putBackground("deleteThreads", null, new Runnable() {
+                putBackground(account, "deleteThreads", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteThreadsSynchronous(account, folder.getName(), accountMessages);
@@ -3401,7 +3577,7 @@ public class MessagingController implements Runnable {
                     final List<Message> accountMessages) {
                 suppressMessages(account, messages);
 
-                putBackground("deleteMessages", null, new Runnable() {
+                putBackground(account, "deleteMessages", null, new Runnable() {
                     @Override
                     public void run() {
                         deleteMessagesSynchronous(account, folder.getName(),
@@ -3535,7 +3711,7 @@ public class MessagingController implements Runnable {
     }
 
     public void emptyTrash(final Account account, MessagingListener listener) {
-        putBackground("emptyTrash", listener, new Runnable() {
+        putBackground(account, "emptyTrash", listener, new Runnable() {
             @Override
             public void run() {
                 LocalFolder localFolder = null;
@@ -3655,6 +3831,145 @@ public class MessagingController implements Runnable {
 
     }
 
+    /**
+     * Opens an IMAP connection for every available account in the background, so a mail check
+     * triggered right after doesn't have to wait for the connection and login round trips.
+     * Called when the carrier notified us about new voicemail.
+     */
+    public void prewarmRemoteConnections() {
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Account account : Preferences.getPreferences(context).getAvailableAccounts()) {
+                    try {
+                        Store remoteStore = account.getRemoteStore();
+                        if (remoteStore instanceof ImapStore) {
+                            ((ImapStore) remoteStore).prewarmConnection();
+                        }
+                    } catch (MessagingException e) {
+                        Log.w(VisualVoicemail.LOG_TAG, "Unable to pre-warm connection for account " +
+                                account.getDescription(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads the message(s) a notification SMS announced from the inbox of an account, without
+     * processing pending commands or synchronizing other folders.
+     *
+     * <p>
+     * If the UID of the new message is known it's fetched directly. Otherwise the newest
+     * {@code count} messages are looked at. Listeners are notified like for {@link #checkMail(Context,
+     * Account, boolean, boolean, MessagingListener)}, so the number of new messages reported via
+     * {@link MessagingListener#synchronizeMailboxFinished(Account, String, int, int)} tells the caller
+     * whether the message was found.
+     * </p>
+     *
+     * @param uid
+     *         The UID of the new message, or {@code null} if unknown.
+     * @param count
+     *         The number of new messages, used if {@code uid} is {@code null}.
+     */
+    public void fetchAnnouncedMessages(final Context context, final Account account, final String uid,
+                                       final int count, final MessagingListener listener) {
+        for (MessagingListener l : getListeners()) {
+            l.checkMailStarted(context, account);
+        }
+        putBackground(account, "fetchAnnouncedMessages", listener, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetchAnnouncedMessagesSynchronous(account, uid, count, listener);
+                } finally {
+                    for (MessagingListener l : getListeners()) {
+                        l.checkMailFinished(context, account);
+                    }
+                }
+            }
+        });
+    }
+
+    private void fetchAnnouncedMessagesSynchronous(final Account account, final String uid, final int count,
+                                                   final MessagingListener listener) {
+        final String folder = account.getInboxFolderName();
+        Folder remoteFolder = null;
+        LocalFolder localFolder = null;
+
+        if (VisualVoicemail.DEBUG)
+            Log.i(VisualVoicemail.LOG_TAG, "Fetching announced messages for " + account.getDescription() +
+                    ": uid " + uid + ", count " + count);
+
+        for (MessagingListener l : getListeners(listener)) {
+            l.synchronizeMailboxStarted(account, folder);
+        }
+
+        try {
+            localFolder = account.getLocalStore().getFolder(folder);
+            localFolder.open(Folder.OPEN_MODE_RW);
+            showFetchingMailNotificationIfNecessary(account, localFolder);
+
+            remoteFolder = account.getRemoteStore().getFolder(folder);
+            remoteFolder.open(Folder.OPEN_MODE_RW);
+            notificationController.clearAuthenticationErrorNotification(account, true);
+
+            int remoteMessageCount = remoteFolder.getMessageCount();
+            List<Message> remoteMessages = new ArrayList<Message>();
+            if (uid != null) {
+                // No need to ask the server which messages exist, the UID FETCH will tell
+                if (localFolder.getMessage(uid) == null) {
+                    remoteMessages.add(remoteFolder.getMessage(uid));
+                }
+            } else if (remoteMessageCount > 0) {
+                int visibleLimit = localFolder.getVisibleLimit();
+                int fetchCount = (visibleLimit > 0) ? Math.min(count, visibleLimit) : count;
+                int remoteStart = Math.max(1, remoteMessageCount - fetchCount + 1);
+                List<? extends Message> newestMessages = remoteFolder.getMessages(remoteStart, remoteMessageCount,
+                        account.getEarliestPollDate(), null);
+                for (Message message : newestMessages) {
+                    if (localFolder.getMessage(message.getUid()) == null) {
+                        remoteMessages.add(message);
+                    }
+                }
+            }
+
+            int newMessages = remoteMessages.isEmpty() ? 0 :
+                    downloadMessages(account, remoteFolder, localFolder, remoteMessages, false);
+
+            int unreadMessageCount = localFolder.getUnreadMessageCount();
+            for (MessagingListener l : getListeners()) {
+                l.folderStatusChanged(account, folder, unreadMessageCount);
+            }
+            ShortcutBadger.with(context.getApplicationContext()).count(unreadMessageCount);
+
+            if (VisualVoicemail.DEBUG)
+                Log.d(VisualVoicemail.LOG_TAG, "Done fetching announced messages for " + account.getDescription() +
+                        " with " + newMessages + " new messages");
+
+            for (MessagingListener l : getListeners(listener)) {
+                l.synchronizeMailboxFinished(account, folder, remoteMessageCount, newMessages);
+            }
+        } catch (AuthenticationFailedException e) {
+            handleAuthenticationFailure(account, true);
+
+            for (MessagingListener l : getListeners(listener)) {
+                l.synchronizeMailboxFailed(account, folder, "Authentication failure");
+            }
+        } catch (Exception e) {
+            Log.e(VisualVoicemail.LOG_TAG, "fetchAnnouncedMessages", e);
+            for (MessagingListener l : getListeners(listener)) {
+                l.synchronizeMailboxFailed(account, folder, getRootCauseMessage(e));
+            }
+            notifyUserIfCertificateProblem(account, e, true);
+            addErrorMessage(account, null, e);
+        } finally {
+            clearFetchingMailNotificationIfNecessary(account);
+            closeFolder(remoteFolder);
+            closeFolder(localFolder);
+        }
+    }
+
     /**
      * Checks mail for one or multiple accounts. If account is null all accounts
      * are checked.
@@ -3681,16 +3996,15 @@ public class MessagingController implements Runnable {
         for (MessagingListener l : getListeners()) {
             l.checkMailStarted(context, account);
         }
-        putBackground("checkMail", listener, new Runnable() {
+        putBackground(account, "checkMail", listener, new Runnable() {
             @Override
             public void run() {
-
+                Collection<Account> accounts = Collections.emptyList();
                 try {
                     if (VisualVoicemail.DEBUG)
                         Log.i(VisualVoicemail.LOG_TAG, "Starting mail check");
                     Preferences prefs = Preferences.getPreferences(context);
 
-                    Collection<Account> accounts;
                     if (account != null) {
                         accounts = new ArrayList<Account>(1);
                         accounts.add(account);
@@ -3706,7 +4020,8 @@ public class MessagingController implements Runnable {
                     Log.e(VisualVoicemail.LOG_TAG, "Unable to synchronize mail", e);
                     addErrorMessage(account, null, e);
                 }
-                putBackground("finalize sync", null, new Runnable() {
+
+                final Runnable finalizeSync = new Runnable() {
                     @Override
                     public void run() {
 
@@ -3721,8 +4036,26 @@ public class MessagingController implements Runnable {
                         }
 
                     }
+                };
+
+                if (accounts.isEmpty()) {
+                    putBackground(account, "finalize sync", null, finalizeSync);
+                    return;
+                }
+
+                // Sync commands run on the lane of their account, so only finish once every lane
+                // has worked through the commands queued above.
+                final AtomicInteger remainingAccounts = new AtomicInteger(accounts.size());
+                for (Account checkedAccount : accounts) {
+                    putBackground(checkedAccount, "finalize sync", null, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (remainingAccounts.decrementAndGet() == 0) {
+                                finalizeSync.run();
+                            }
+                        }
+                    });
                 }
-                             );
             }
         });
     }
@@ -3791,7 +4124,7 @@ public class MessagingController implements Runnable {
             Log.e(VisualVoicemail.LOG_TAG, "Unable to synchronize account " + account.getDescription(), e);
             addErrorMessage(account, null, e);
         } finally {
-            putBackground("clear notification flag for " + account.getDescription(), null, new Runnable() {
+            putBackground(account, "clear notification flag for " + account.getDescription(), null, new Runnable() {
                 @Override
                 public void run() {
                     if (VisualVoicemail.DEBUG)
@@ -3835,7 +4168,7 @@ public class MessagingController implements Runnable {
 
             return;
         }
-        putBackground("sync" + folder.getName(), null, new Runnable() {
+        putBackground(account, "sync" + folder.getName(), null, new Runnable() {
             @Override
             public void run() {
                 LocalFolder tLocalFolder = null;
@@ -3889,7 +4222,7 @@ public class MessagingController implements Runnable {
 
 
     public void compact(final Account account, final MessagingListener ml) {
-        putBackground("compact:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "compact:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3911,7 +4244,7 @@ public class MessagingController implements Runnable {
     }
 
     public void clear(final Account account, final MessagingListener ml) {
-        putBackground("clear:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "clear:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3939,7 +4272,7 @@ public class MessagingController implements Runnable {
     }
 
     public void recreate(final Account account, final MessagingListener ml) {
-        putBackground("recreate:" + account.getDescription(), ml, new Runnable() {
+        putBackground(account, "recreate:" + account.getDescription(), ml, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -4117,6 +4450,10 @@ public class MessagingController implements Runnable {
 
         boolean isForeground;
 
+        String laneKey;
+
+        long enqueueTime;
+
         int sequence = sequencing.getAndIncrement();
 
         @Override
@@ -4268,7 +4605,7 @@ public class MessagingController implements Runnable {
                   + ", folder " + remoteFolder.getName());
 
         final CountDownLatch latch = new CountDownLatch(1);
-        putBackground("Push messageArrived of account " + account.getDescription()
+        putBackground(account, "Push messageArrived of account " + account.getDescription()
         + ", folder " + remoteFolder.getName(), null, new Runnable() {
             @Override
             public void run() {
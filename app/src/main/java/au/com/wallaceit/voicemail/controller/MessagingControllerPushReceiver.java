@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 
 import au.com.wallaceit.voicemail.Account;
+import au.com.wallaceit.voicemail.Preferences;
 import au.com.wallaceit.voicemail.VisualVoicemail;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
 import com.fsck.k9.mail.Folder;
@@ -12,12 +13,18 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.PushReceiver;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder;
 import au.com.wallaceit.voicemail.mailstore.LocalStore;
+import au.com.wallaceit.voicemail.preferences.StorageEditor;
 import au.com.wallaceit.voicemail.service.SleepService;
 
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 public class MessagingControllerPushReceiver implements PushReceiver {
+    /**
+     * The keepalive intervals depend on the network, not the account, so they're stored only once.
+     */
+    private static final String IDLE_KEEPALIVE_STATE_KEY = "idleKeepaliveState";
+
     final Account account;
     final MessagingController controller;
     final Context context;
@@ -112,6 +119,18 @@ public class MessagingControllerPushReceiver implements PushReceiver {
         }
     }
 
+    @Override
+    public String getIdleKeepaliveState() {
+        return Preferences.getPreferences(context).getStorage().getString(IDLE_KEEPALIVE_STATE_KEY, null);
+    }
+
+    @Override
+    public void setIdleKeepaliveState(String state) {
+        StorageEditor editor = Preferences.getPreferences(context).getStorage().edit();
+        editor.putString(IDLE_KEEPALIVE_STATE_KEY, state);
+        editor.commit();
+    }
+
     @Override
     public Context getContext() {
         return context;
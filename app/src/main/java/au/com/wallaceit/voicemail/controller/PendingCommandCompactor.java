@@ -0,0 +1,215 @@
+package au.com.wallaceit.voicemail.controller;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.wallaceit.voicemail.mailstore.LocalStore.PendingCommand;
+
+
+/**
+ * Merges adjacent pending commands before they are replayed, so a burst of local changes results
+ * in as few server round trips as possible.
+ *
+ * <p>
+ * Only runs of adjacent commands are merged, so the order of commands that depend on each other is
+ * kept:
+ * <ul>
+ * <li>Bulk flag changes are merged into one UID set per folder, flag and state. If the same message
+ * appears more than once only the last state is kept, so a set followed by an unset becomes a single
+ * unset.</li>
+ * <li>Bulk moves and copies with the same source folder, destination folder and mode are merged into
+ * one.</li>
+ * <li>Expunges of the same folder are merged into one.</li>
+ * </ul>
+ * Each {@link CompactedCommand} knows the stored commands it replaces. They may only be removed from
+ * the queue once every command of the merged run has been processed, which is why only the last
+ * command of a run carries them.
+ * </p>
+ */
+class PendingCommandCompactor {
+    private final String mSetFlagCommand;
+    private final String mMoveOrCopyCommand;
+    private final String mExpungeCommand;
+
+
+    /**
+     * @param setFlagCommand
+     *         Name of the bulk set flag command, arguments = (folder, newState, flag, uid...).
+     * @param moveOrCopyCommand
+     *         Name of the bulk move or copy command, arguments = (srcFolder, destFolder, isCopy,
+     *         hasNewUids, uid..., [localUid...]).
+     * @param expungeCommand
+     *         Name of the expunge command, arguments = (folder).
+     */
+    PendingCommandCompactor(String setFlagCommand, String moveOrCopyCommand, String expungeCommand) {
+        mSetFlagCommand = setFlagCommand;
+        mMoveOrCopyCommand = moveOrCopyCommand;
+        mExpungeCommand = expungeCommand;
+    }
+
+    List<CompactedCommand> compact(List<PendingCommand> commands) {
+        List<CompactedCommand> result = new ArrayList<CompactedCommand>(commands.size());
+        int start = 0;
+        while (start < commands.size()) {
+            PendingCommand first = commands.get(start);
+            int end = start + 1;
+            while (end < commands.size() && canMerge(first, commands.get(end))) {
+                end++;
+            }
+
+            List<PendingCommand> run = new ArrayList<PendingCommand>(commands.subList(start, end));
+            if (run.size() == 1) {
+                result.add(new CompactedCommand(first, Collections.singletonList(first)));
+            } else if (mSetFlagCommand.equals(first.command)) {
+                mergeSetFlag(run, result);
+            } else if (mMoveOrCopyCommand.equals(first.command)) {
+                result.add(new CompactedCommand(mergeMoveOrCopy(run), run));
+            } else {
+                result.add(new CompactedCommand(first, run));
+            }
+
+            start = end;
+        }
+
+        return result;
+    }
+
+    private boolean canMerge(PendingCommand first, PendingCommand command) {
+        if (!first.command.equals(command.command)) {
+            return false;
+        }
+
+        if (mSetFlagCommand.equals(first.command)) {
+            return isValidSetFlag(first) && isValidSetFlag(command);
+        } else if (mMoveOrCopyCommand.equals(first.command)) {
+            return isValidMoveOrCopy(first) && isValidMoveOrCopy(command) &&
+                    Arrays.equals(Arrays.copyOf(first.arguments, 4), Arrays.copyOf(command.arguments, 4));
+        } else if (mExpungeCommand.equals(first.command)) {
+            return first.arguments.length == 1 && Arrays.equals(first.arguments, command.arguments);
+        }
+
+        return false;
+    }
+
+    private static boolean isValidSetFlag(PendingCommand command) {
+        return command.arguments.length >= 3;
+    }
+
+    private static boolean isValidMoveOrCopy(PendingCommand command) {
+        if (command.arguments.length < 4) {
+            return false;
+        }
+
+        return !Boolean.parseBoolean(command.arguments[3]) || command.arguments.length % 2 == 0;
+    }
+
+    private void mergeSetFlag(List<PendingCommand> run, List<CompactedCommand> result) {
+        // folder + flag -> uid -> final state, in order of appearance
+        Map<List<String>, Map<String, String>> states = new LinkedHashMap<List<String>, Map<String, String>>();
+        for (PendingCommand command : run) {
+            List<String> key = Arrays.asList(command.arguments[0], command.arguments[2]);
+            Map<String, String> uidStates = states.get(key);
+            if (uidStates == null) {
+                uidStates = new LinkedHashMap<String, String>();
+                states.put(key, uidStates);
+            }
+
+            String newState = Boolean.toString(Boolean.parseBoolean(command.arguments[1]));
+            for (int i = 3; i < command.arguments.length; i++) {
+                // Remove first so the uid moves to the end, like it would have been replayed
+                uidStates.remove(command.arguments[i]);
+                uidStates.put(command.arguments[i], newState);
+            }
+        }
+
+        List<PendingCommand> merged = new ArrayList<PendingCommand>();
+        for (Map.Entry<List<String>, Map<String, String>> entry : states.entrySet()) {
+            String folder = entry.getKey().get(0);
+            String flag = entry.getKey().get(1);
+            for (String state : new String[] { Boolean.TRUE.toString(), Boolean.FALSE.toString() }) {
+                List<String> uids = new ArrayList<String>();
+                for (Map.Entry<String, String> uidState : entry.getValue().entrySet()) {
+                    if (state.equals(uidState.getValue())) {
+                        uids.add(uidState.getKey());
+                    }
+                }
+
+                if (!uids.isEmpty()) {
+                    merged.add(newCommand(mSetFlagCommand, new String[] { folder, state, flag }, uids, null));
+                }
+            }
+        }
+
+        if (merged.isEmpty()) {
+            // Nothing to send, but the commands still have to be removed from the queue
+            result.add(new CompactedCommand(run.get(0), run));
+            return;
+        }
+
+        for (int i = 0; i < merged.size(); i++) {
+            List<PendingCommand> replaced = (i == merged.size() - 1) ? run : Collections.<PendingCommand>emptyList();
+            result.add(new CompactedCommand(merged.get(i), replaced));
+        }
+    }
+
+    private PendingCommand mergeMoveOrCopy(List<PendingCommand> run) {
+        PendingCommand first = run.get(0);
+        boolean hasNewUids = Boolean.parseBoolean(first.arguments[3]);
+
+        Set<String> uids = new LinkedHashSet<String>();
+        List<String> localUids = new ArrayList<String>();
+        for (PendingCommand command : run) {
+            int uidCount = hasNewUids ? (command.arguments.length - 4) / 2 : command.arguments.length - 4;
+            for (int i = 4; i < 4 + uidCount; i++) {
+                if (uids.add(command.arguments[i]) && hasNewUids) {
+                    localUids.add(command.arguments[i + uidCount]);
+                }
+            }
+        }
+
+        return newCommand(mMoveOrCopyCommand, Arrays.copyOf(first.arguments, 4), uids,
+                hasNewUids ? localUids : null);
+    }
+
+    private static PendingCommand newCommand(String name, String[] header, Iterable<String> uids,
+            List<String> localUids) {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(header));
+        for (String uid : uids) {
+            arguments.add(uid);
+        }
+        if (localUids != null) {
+            arguments.addAll(localUids);
+        }
+
+        PendingCommand command = new PendingCommand();
+        command.command = name;
+        command.arguments = arguments.toArray(new String[arguments.size()]);
+        return command;
+    }
+
+
+    static class CompactedCommand {
+        /**
+         * The command to process.
+         */
+        final PendingCommand command;
+
+        /**
+         * The stored commands to remove from the queue once {@link #command} has been processed.
+         */
+        final List<PendingCommand> replaced;
+
+
+        CompactedCommand(PendingCommand command, List<PendingCommand> replaced) {
+            this.command = command;
+            this.replaced = replaced;
+        }
+    }
+}
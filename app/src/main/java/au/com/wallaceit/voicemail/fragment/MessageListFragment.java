@@ -19,9 +19,11 @@ import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -92,6 +94,8 @@ import au.com.wallaceit.voicemail.helper.MergeCursorWithUniqueId;
 import au.com.wallaceit.voicemail.helper.MessageHelper;
 import au.com.wallaceit.voicemail.helper.Utility;
 import au.com.wallaceit.voicemail.helper.VvmContacts;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+import au.com.wallaceit.voicemail.helper.collection.LongHashSet;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder;
 import au.com.wallaceit.voicemail.mailstore.LocalMessage;
 import au.com.wallaceit.voicemail.mailstore.LocalStore;
@@ -103,6 +107,7 @@ import au.com.wallaceit.voicemail.provider.EmailProvider.SpecialColumns;
 import au.com.wallaceit.voicemail.provider.EmailProvider.ThreadColumns;
 import au.com.wallaceit.voicemail.search.ConditionsTreeNode;
 import au.com.wallaceit.voicemail.search.LocalSearch;
+import au.com.wallaceit.voicemail.search.PageKey;
 import au.com.wallaceit.voicemail.search.SearchSpecification;
 import au.com.wallaceit.voicemail.search.SearchSpecification.SearchCondition;
 import au.com.wallaceit.voicemail.search.SearchSpecification.SearchField;
@@ -138,7 +143,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
     private static final int ID_COLUMN = 0;
     private static final int UID_COLUMN = 1;
-    //private static final int INTERNAL_DATE_COLUMN = 2;
+    private static final int INTERNAL_DATE_COLUMN = 2;
     private static final int SUBJECT_COLUMN = 3;
     private static final int DATE_COLUMN = 4;
     private static final int SENDER_LIST_COLUMN = 5;
@@ -151,7 +156,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final int ATTACHMENT_COUNT_COLUMN = 12;
     private static final int FOLDER_ID_COLUMN = 13;
     //private static final int PREVIEW_COLUMN = 14;
-    //private static final int THREAD_ROOT_COLUMN = 15;
+    private static final int THREAD_ROOT_COLUMN = 15;
     private static final int ACCOUNT_UUID_COLUMN = 16;
     private static final int FOLDER_NAME_COLUMN = 17;
     //private static final int THREAD_COUNT_COLUMN = 18;
@@ -295,6 +300,19 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private static final int ACTIVITY_CHOOSE_FOLDER_MOVE = 1;
     private static final int ACTIVITY_CHOOSE_FOLDER_COPY = 2;
 
+    /**
+     * Minimum time in milliseconds between two reloads of a cursor. Syncing a folder changes the
+     * database once per message, this turns such a burst into a few reloads.
+     */
+    private static final long LOADER_UPDATE_THROTTLE = 500;
+
+    private static final String[] PAGE_KEY_PROJECTION = {
+        MessageColumns.ID,
+        MessageColumns.DATE,
+        MessageColumns.FOLDER_ID,
+        ThreadColumns.ROOT
+    };
+
     private static final String ARG_SEARCH = "searchObject";
     //private static final String ARG_THREADED_LIST = "threadedList";
     //private static final String ARG_IS_THREAD_DISPLAY = "isThreadedDisplay";
@@ -373,7 +391,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private boolean mStars = true;
 
     private int mSelectedCount = 0;
-    private Set<Long> mSelected = new HashSet<Long>();
+    private LongHashSet mSelected = new LongHashSet();
 
     private FontSizes mFontSizes = VisualVoicemail.getFontSizes();
 
@@ -432,6 +450,12 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
      */
     private long mContextMenuUniqueId = 0;
 
+    /**
+     * Pages loaded so far, see {@link #isPagedList()}.
+     */
+    private final MessageListPaging mPaging = new MessageListPaging();
+    private NextPageTask mNextPageTask;
+
 
     /**
      * This class is used to run operations that modify UI elements in the UI thread.
@@ -814,6 +838,10 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     @Override
     public void onDestroyView() {
         mSavedListState = mListView.onSaveInstanceState();
+        if (mNextPageTask != null) {
+            mNextPageTask.cancel(false);
+            mNextPageTask = null;
+        }
         super.onDestroyView();
     }
 
@@ -871,12 +899,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
      * Write the unique IDs of selected messages to a {@link Bundle}.
      */
     private void saveSelectedMessages(Bundle outState) {
-        long[] selected = new long[mSelected.size()];
-        int i = 0;
-        for (Long id : mSelected) {
-            selected[i++] = id;
-        }
-        outState.putLongArray(STATE_SELECTED_MESSAGES, selected);
+        outState.putLongArray(STATE_SELECTED_MESSAGES, mSelected.toArray());
     }
 
     /**
@@ -885,7 +908,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
     private void restoreSelectedMessages(Bundle savedInstanceState) {
         long[] selected = savedInstanceState.getLongArray(STATE_SELECTED_MESSAGES);
         for (long id : selected) {
-            mSelected.add(Long.valueOf(id));
+            mSelected.add(id);
         }
     }
 
@@ -986,13 +1009,73 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         mCacheBroadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mAdapter.notifyDataSetChanged();
+                String accountUuid = intent.getStringExtra(EmailProviderCache.EXTRA_ACCOUNT_UUID);
+                long[] messageIds = intent.getLongArrayExtra(EmailProviderCache.EXTRA_MESSAGE_IDS);
+                long[] threadRootIds = intent.getLongArrayExtra(EmailProviderCache.EXTRA_THREAD_ROOT_IDS);
+
+                if (accountUuid != null && (messageIds != null || threadRootIds != null)) {
+                    rebindVisibleMessages(accountUuid, messageIds, threadRootIds);
+                } else {
+                    mAdapter.notifyDataSetChanged();
+                }
             }
         };
 
         mCacheIntentFilter = new IntentFilter(EmailProviderCache.ACTION_CACHE_UPDATED);
     }
 
+    /**
+     * Rebinds the on-screen rows of the given messages or threads.
+     *
+     * <p>
+     * Used when only cached values (e.g. flags) changed. The adapter's cursor reads those values from
+     * {@link EmailProviderCache}, so the rows can be updated in place without reloading the cursor or
+     * rebinding every visible row like {@link MessageListAdapter#notifyDataSetChanged()} would.
+     * </p>
+     *
+     * @param messageIds
+     *         Sorted message IDs. May be {@code null}.
+     * @param threadRootIds
+     *         Sorted thread root IDs. May be {@code null}.
+     */
+    private void rebindVisibleMessages(String accountUuid, long[] messageIds, long[] threadRootIds) {
+        if (mListView == null || mAdapter.getCursor() == null) {
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        int rebound = 0;
+
+        int firstPosition = mListView.getFirstVisiblePosition();
+        int childCount = mListView.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View view = mListView.getChildAt(i);
+            int adapterPosition = listViewToAdapterPosition(firstPosition + i);
+            if (adapterPosition == AdapterView.INVALID_POSITION || view.getId() != R.id.message_list_item) {
+                continue;
+            }
+
+            Cursor cursor = (Cursor) mAdapter.getItem(adapterPosition);
+            if (!accountUuid.equals(cursor.getString(ACCOUNT_UUID_COLUMN))) {
+                continue;
+            }
+
+            boolean messageChanged = messageIds != null &&
+                    Arrays.binarySearch(messageIds, cursor.getLong(ID_COLUMN)) >= 0;
+            boolean threadChanged = threadRootIds != null &&
+                    Arrays.binarySearch(threadRootIds, cursor.getLong(THREAD_ROOT_COLUMN)) >= 0;
+            if (messageChanged || threadChanged) {
+                mAdapter.bindView(view, mContext, cursor);
+                rebound++;
+            }
+        }
+
+        if (VisualVoicemail.DEBUG) {
+            Log.d(VisualVoicemail.LOG_TAG, "Rebound " + rebound + " of " + childCount + " visible rows in " +
+                    (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
     private FolderInfoHolder getFolder(String folder, Account account) {
         LocalFolder localFolder = null;
         try {
@@ -1134,6 +1217,13 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             });
         }
 
+        mPullToRefreshView.setOnLastItemVisibleListener(new PullToRefreshBase.OnLastItemVisibleListener() {
+            @Override
+            public void onLastItemVisible() {
+                loadNextPage();
+            }
+        });
+
         // Disable pull-to-refresh until the message list has been loaded
         setPullToRefreshEnabled(false);
     }
@@ -1238,6 +1328,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         Toast toast = Toast.makeText(getActivity(), toastString, Toast.LENGTH_SHORT);
         toast.show();
 
+        resetPaging();
+
         LoaderManager loaderManager = getLoaderManager();
         for (int i = 0, len = mAccountUuids.length; i < len; i++) {
             loaderManager.restartLoader(i, null, this);
@@ -2398,10 +2490,10 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         /*if (mThreadedList && cursor.getInt(THREAD_COUNT_COLUMN) > 1) {
             long threadRootId = cursor.getLong(THREAD_ROOT_COLUMN);
             mController.setFlagForThreads(account,
-                    Collections.singletonList(Long.valueOf(threadRootId)), flag, newState);
+                    LongArrayList.of(threadRootId), flag, newState);
         } else {*/
             long id = cursor.getLong(ID_COLUMN);
-            mController.setFlag(account, Collections.singletonList(id), flag, newState);
+            mController.setFlag(account, LongArrayList.of(id), flag, newState);
         //}
 
         computeBatchDirection();
@@ -2412,8 +2504,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             return;
         }
 
-        Map<Account, List<Long>> messageMap = new HashMap<Account, List<Long>>();
-        Map<Account, List<Long>> threadMap = new HashMap<Account, List<Long>>();
+        Map<Account, LongArrayList> messageMap = new HashMap<Account, LongArrayList>();
+        Map<Account, LongArrayList> threadMap = new HashMap<Account, LongArrayList>();
         Set<Account> accounts = new HashSet<Account>();
 
         for (int position = 0, end = mAdapter.getCount(); position < end; position++) {
@@ -2426,17 +2518,17 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
                 accounts.add(account);
 
                 /*if (mThreadedList && cursor.getInt(THREAD_COUNT_COLUMN) > 1) {
-                    List<Long> threadRootIdList = threadMap.get(account);
+                    LongArrayList threadRootIdList = threadMap.get(account);
                     if (threadRootIdList == null) {
-                        threadRootIdList = new ArrayList<Long>();
+                        threadRootIdList = new LongArrayList();
                         threadMap.put(account, threadRootIdList);
                     }
 
                     threadRootIdList.add(cursor.getLong(THREAD_ROOT_COLUMN));
                 } else {*/
-                    List<Long> messageIdList = messageMap.get(account);
+                    LongArrayList messageIdList = messageMap.get(account);
                     if (messageIdList == null) {
-                        messageIdList = new ArrayList<Long>();
+                        messageIdList = new LongArrayList(mSelected.size());
                         messageMap.put(account, messageIdList);
                     }
 
@@ -2446,8 +2538,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         }
 
         for (Account account : accounts) {
-            List<Long> messageIds = messageMap.get(account);
-            List<Long> threadRootIds = threadMap.get(account);
+            LongArrayList messageIds = messageMap.get(account);
+            LongArrayList threadRootIds = threadMap.get(account);
 
             if (messageIds != null) {
                 mController.setFlag(account, messageIds, flag, newState);
@@ -3389,31 +3481,167 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             needConditions = true;
         }
 
+        List<String> queryArgs = new ArrayList<String>();
+        String selection = (needConditions) ? buildSelection(account, queryArgs) : "";
+        String[] selectionArgs = queryArgs.toArray(new String[0]);
+
+        String sortOrder = buildSortOrder();
+
+        if (isPagedList()) {
+            Uri.Builder builder = uri.buildUpon();
+            if (mPaging.isOnFirstPage()) {
+                builder.appendQueryParameter(EmailProvider.QUERY_PARAM_LIMIT,
+                        Integer.toString(MessageListPaging.PAGE_SIZE));
+            } else {
+                builder.appendQueryParameter(EmailProvider.QUERY_PARAM_UNTIL, mPaging.getPageUntil().toString());
+            }
+            uri = builder.build();
+        }
+
+        CursorLoader loader = new CursorLoader(getActivity(), uri, projection, selection, selectionArgs,
+                sortOrder);
+        loader.setUpdateThrottle(LOADER_UPDATE_THROTTLE);
+
+        return loader;
+    }
+
+    private String buildSelection(Account account, List<String> queryArgs) {
         StringBuilder query = new StringBuilder();
+        boolean selectActive = mActiveMessage != null &&
+                mActiveMessage.getAccountUuid().equals(account.getUuid());
+
+        if (selectActive) {
+            query.append("(" + MessageColumns.UID + " = ? AND " + SpecialColumns.FOLDER_NAME + " = ?) OR (");
+            queryArgs.add(mActiveMessage.getUid());
+            queryArgs.add(mActiveMessage.getFolderName());
+        }
+
+        SqlQueryBuilder.buildWhereClause(account, mSearch.getConditions(), query, queryArgs);
+
+        if (selectActive) {
+            query.append(')');
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Returns whether the message list is loaded page by page as the user scrolls.
+     *
+     * <p>
+     * Pages are selected with a {@link PageKey}, so this is only possible when the list is sorted
+     * by date, newest first, and comes from a single cursor. {@link #buildSortOrder()} returns the
+     * same order ({@code date DESC, id DESC}) in that case, so paging doesn't change the order of the
+     * list. The loader then queries all messages up to the last one of the pages loaded so far, and
+     * {@link #loadNextPage()} moves that bound further down.
+     * </p>
+     */
+    private boolean isPagedList() {
+        return mAccountUuids.length == 1 && !mThreadedList && getThreadId(mSearch) == null &&
+                mSortType == SortType.SORT_DATE && !mSortAscending;
+    }
+
+    private void resetPaging() {
+        mPaging.reset();
+        if (mNextPageTask != null) {
+            mNextPageTask.cancel(false);
+            mNextPageTask = null;
+        }
+    }
+
+    /**
+     * Remembers the key of the last row whenever the first page was loaded.
+     */
+    private void updatePageState(Cursor cursor) {
+        if (!mPaging.isOnFirstPage()) {
+            return;
+        }
+
+        int count = cursor.getCount();
+        PageKey lastRowKey = null;
+        if (count >= MessageListPaging.PAGE_SIZE && cursor.moveToPosition(count - 1)) {
+            lastRowKey = new PageKey(cursor.getLong(DATE_COLUMN), cursor.getLong(ID_COLUMN));
+        }
+
+        mPaging.onFirstPageLoaded(count, lastRowKey);
+    }
+
+    private void loadNextPage() {
+        if (!isPagedList() || !mPaging.canLoadNextPage() || mNextPageTask != null) {
+            return;
+        }
+
+        String accountUuid = mAccountUuids[0];
+        Account account = mPreferences.getAccount(accountUuid);
+
+        Uri uri = Uri.withAppendedPath(EmailProvider.CONTENT_URI, "account/" + accountUuid + "/messages")
+                .buildUpon()
+                .appendQueryParameter(EmailProvider.QUERY_PARAM_BEFORE, mPaging.getPageUntil().toString())
+                .appendQueryParameter(EmailProvider.QUERY_PARAM_LIMIT,
+                        Integer.toString(MessageListPaging.PAGE_SIZE))
+                .build();
+
         List<String> queryArgs = new ArrayList<String>();
-        if (needConditions) {
-            boolean selectActive = mActiveMessage != null && mActiveMessage.getAccountUuid().equals(accountUuid);
+        String selection = buildSelection(account, queryArgs);
+
+        mNextPageTask = new NextPageTask(uri, selection, queryArgs.toArray(new String[0]));
+        mNextPageTask.execute();
+    }
+
+    /**
+     * Looks up the key of the last message of the next page. The loader is then restarted to include
+     * all messages up to that key.
+     */
+    class NextPageTask extends AsyncTask<Void, Void, PageKey> {
+        private final Uri mUri;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private boolean mLastPage;
+
+        NextPageTask(Uri uri, String selection, String[] selectionArgs) {
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+        }
 
-            if (selectActive) {
-                query.append("(" + MessageColumns.UID + " = ? AND " + SpecialColumns.FOLDER_NAME + " = ?) OR (");
-                queryArgs.add(mActiveMessage.getUid());
-                queryArgs.add(mActiveMessage.getFolderName());
+        @Override
+        protected PageKey doInBackground(Void... params) {
+            Cursor cursor = mContext.getContentResolver().query(mUri, PAGE_KEY_PROJECTION, mSelection,
+                    mSelectionArgs, null);
+            if (cursor == null) {
+                return null;
             }
 
-            SqlQueryBuilder.buildWhereClause(account, mSearch.getConditions(), query, queryArgs);
+            try {
+                int count = cursor.getCount();
+                mLastPage = count < MessageListPaging.PAGE_SIZE;
+                if (count == 0 || !cursor.moveToPosition(count - 1)) {
+                    return null;
+                }
 
-            if (selectActive) {
-                query.append(')');
+                return new PageKey(cursor.getLong(1), cursor.getLong(0));
+            } finally {
+                cursor.close();
             }
         }
 
-        String selection = query.toString();
-        String[] selectionArgs = queryArgs.toArray(new String[0]);
+        @Override
+        protected void onPostExecute(PageKey pageUntil) {
+            mNextPageTask = null;
+            if (!isAdded()) {
+                return;
+            }
 
-        String sortOrder = buildSortOrder();
+            if (!mPaging.onNextPageLoaded(pageUntil, mLastPage)) {
+                return;
+            }
 
-        return new CursorLoader(getActivity(), uri, projection, selection, selectionArgs,
-                sortOrder);
+            if (VisualVoicemail.DEBUG) {
+                Log.d(VisualVoicemail.LOG_TAG, "Loading message list up to " + pageUntil);
+            }
+
+            restartLoader();
+        }
     }
 
     private String getThreadId(LocalSearch search) {
@@ -3470,6 +3698,8 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        long start = SystemClock.elapsedRealtime();
+
         if (mIsThreadDisplay && data.getCount() == 0) {
             mHandler.goBack();
             return;
@@ -3484,6 +3714,10 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
         mCursors[loaderId] = data;
         mCursorValid[loaderId] = true;
 
+        if (isPagedList()) {
+            updatePageState(data);
+        }
+
         Cursor cursor;
         if (mCursors.length > 1) {
             cursor = new MergeCursorWithUniqueId(mCursors, getComparator());
@@ -3523,6 +3757,11 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
 
             mFragmentListener.updateMenu();
         }
+
+        if (VisualVoicemail.DEBUG) {
+            Log.d(VisualVoicemail.LOG_TAG, "Swapped message list cursor with " + cursor.getCount() + " rows in " +
+                    (SystemClock.elapsedRealtime() - start) + "ms");
+        }
     }
 
     public boolean isLoadFinished() {
@@ -3566,7 +3805,7 @@ public class MessageListFragment extends Fragment implements OnItemClickListener
             return;
         }
 
-        Set<Long> selected = new HashSet<Long>();
+        LongHashSet selected = new LongHashSet(mSelected.size());
         for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
             long uniqueId = cursor.getLong(mUniqueIdColumn);
             if (mSelected.contains(uniqueId)) {
@@ -0,0 +1,88 @@
+package au.com.wallaceit.voicemail.fragment;
+
+
+import au.com.wallaceit.voicemail.search.PageKey;
+
+
+/**
+ * Keeps track of the pages of the message list that have been loaded.
+ *
+ * <p>
+ * Until the first full page was loaded the list is queried with a limit of {@link #PAGE_SIZE}. After
+ * that it is queried up to {@link #getPageUntil()}, the key of the last message of the pages loaded so
+ * far, which every loaded page moves further down.
+ * </p>
+ */
+class MessageListPaging {
+    /**
+     * Number of messages loaded at a time.
+     */
+    static final int PAGE_SIZE = 100;
+
+
+    private PageKey mPageUntil;
+    private boolean mAllPagesLoaded;
+
+
+    void reset() {
+        mPageUntil = null;
+        mAllPagesLoaded = false;
+    }
+
+    /**
+     * @return Key of the last message of the pages loaded so far. {@code null} while only the first
+     *         page was requested.
+     */
+    PageKey getPageUntil() {
+        return mPageUntil;
+    }
+
+    boolean isOnFirstPage() {
+        return mPageUntil == null;
+    }
+
+    boolean canLoadNextPage() {
+        return mPageUntil != null && !mAllPagesLoaded;
+    }
+
+    /**
+     * Called whenever the first page was (re)loaded.
+     *
+     * <p>
+     * The list may have been shorter than a page before, e.g. during the initial sync. So a full page
+     * makes more pages available again.
+     * </p>
+     *
+     * @param lastRowKey
+     *         Key of the last message of the page, {@code null} if the page is empty.
+     */
+    void onFirstPageLoaded(int count, PageKey lastRowKey) {
+        if (count < PAGE_SIZE || lastRowKey == null) {
+            mAllPagesLoaded = true;
+        } else {
+            mPageUntil = lastRowKey;
+            mAllPagesLoaded = false;
+        }
+    }
+
+    /**
+     * Called when the key of the last message of the next page was looked up.
+     *
+     * @param pageUntil
+     *         Key of the last message of the next page, {@code null} if there is no next page.
+     * @param lastPage
+     *         Whether the next page was shorter than {@link #PAGE_SIZE}.
+     *
+     * @return Whether the list has to be reloaded to include the next page.
+     */
+    boolean onNextPageLoaded(PageKey pageUntil, boolean lastPage) {
+        if (pageUntil == null) {
+            mAllPagesLoaded = true;
+            return false;
+        }
+
+        mPageUntil = pageUntil;
+        mAllPagesLoaded = lastPage;
+        return true;
+    }
+}
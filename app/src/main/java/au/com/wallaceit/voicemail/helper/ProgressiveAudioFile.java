@@ -0,0 +1,121 @@
+package au.com.wallaceit.voicemail.helper;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.VisualVoicemail;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.DecodingBodyFactory;
+
+
+/**
+ * A voicemail recording that is still being downloaded.
+ * <p>
+ * The download thread reports its progress via {@link DecodingBodyFactory.ProgressListener}, readers block in
+ * {@link #read(long, byte[], int, int)} until the requested bytes have arrived. The file is opened as soon as the
+ * download creates it, so reading keeps working after the finished body has been moved into the attachment store.
+ * </p>
+ */
+public class ProgressiveAudioFile implements DecodingBodyFactory.ProgressListener {
+    /**
+     * Readers give up when the download didn't make any progress for this long.
+     */
+    private static final long STALL_TIMEOUT_MILLIS = 60 * 1000;
+
+
+    private RandomAccessFile file;
+    private long availableBytes = 0;
+    private boolean complete = false;
+    private boolean failed = false;
+    private boolean closed = false;
+
+
+    @Override
+    public synchronized void onBodyStarted(BinaryTempFileBody body) throws IOException {
+        closeFile();
+        file = new RandomAccessFile(body.getFile(), "r");
+        availableBytes = 0;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onProgress(long writtenBytes) {
+        availableBytes = writtenBytes;
+        notifyAll();
+    }
+
+    public synchronized void onDownloadFinished() {
+        complete = true;
+        notifyAll();
+    }
+
+    public synchronized void onDownloadFailed() {
+        failed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return The size of the recording, or {@code -1} while it is still being downloaded.
+     */
+    public synchronized long getSize() {
+        return complete ? availableBytes : -1;
+    }
+
+    /**
+     * Read from the recording, waiting for the download if necessary.
+     *
+     * @return The number of bytes read, or {@code -1} if {@code position} is past the end of the recording or the
+     *         download failed.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        long lastProgress = System.currentTimeMillis();
+        long lastAvailableBytes = availableBytes;
+        while (!closed && !failed && !complete && (file == null || availableBytes <= position)) {
+            long remaining = lastProgress + STALL_TIMEOUT_MILLIS - System.currentTimeMillis();
+            if (remaining <= 0) {
+                Log.w(VisualVoicemail.LOG_TAG, "Voicemail download stalled at " + availableBytes + " bytes");
+                return -1;
+            }
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+
+            if (availableBytes != lastAvailableBytes) {
+                lastAvailableBytes = availableBytes;
+                lastProgress = System.currentTimeMillis();
+            }
+        }
+
+        if (closed || failed || file == null || position >= availableBytes) {
+            return -1;
+        }
+
+        int length = (int) Math.min(size, availableBytes - position);
+        file.seek(position);
+        return file.read(buffer, offset, length);
+    }
+
+    public synchronized void close() {
+        closed = true;
+        closeFile();
+        notifyAll();
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.w(VisualVoicemail.LOG_TAG, "Unable to close voicemail file", e);
+            }
+            file = null;
+        }
+    }
+}
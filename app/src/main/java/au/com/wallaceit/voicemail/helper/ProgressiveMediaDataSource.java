@@ -0,0 +1,45 @@
+package au.com.wallaceit.voicemail.helper;
+
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+
+/**
+ * Lets {@link android.media.MediaPlayer} play a {@link ProgressiveAudioFile} while it is being downloaded.
+ * <p>
+ * The player calls {@link #readAt(long, byte[], int, int)} from one of its own threads, so blocking until the
+ * download catches up is fine.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class ProgressiveMediaDataSource extends MediaDataSource {
+    private final ProgressiveAudioFile audioFile;
+
+
+    public ProgressiveMediaDataSource(ProgressiveAudioFile audioFile) {
+        this.audioFile = audioFile;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+
+        return audioFile.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return audioFile.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        audioFile.close();
+    }
+}
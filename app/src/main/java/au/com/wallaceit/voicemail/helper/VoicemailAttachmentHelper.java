@@ -22,7 +22,7 @@ package au.com.wallaceit.voicemail.helper;
 import android.content.Context;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.support.v4.content.FileProvider;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -33,16 +33,12 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.Store;
+import com.fsck.k9.mail.internet.DecodingBodyFactory;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
@@ -58,6 +54,7 @@ import au.com.wallaceit.voicemail.mailstore.LocalFolder;
 import au.com.wallaceit.voicemail.mailstore.LocalMessage;
 import au.com.wallaceit.voicemail.mailstore.LocalPart;
 import au.com.wallaceit.voicemail.mailstore.LocalStore;
+import au.com.wallaceit.voicemail.provider.AttachmentProvider;
 
 public class VoicemailAttachmentHelper {
     private Context context;
@@ -66,6 +63,8 @@ public class VoicemailAttachmentHelper {
     private Part attachment;
     private String phone = "";
     private Date date;
+    private boolean streamDownload = false;
+    private ProgressiveAudioFile progressiveAudioFile;
 
     public VoicemailAttachmentHelper(Context context, MessagingController controller, MessageReference reference) {
         this.context = context;
@@ -84,31 +83,18 @@ public class VoicemailAttachmentHelper {
     }
 
     public Uri getAttachmentUriForSharing() {
-        return FileProvider.getUriForFile(context, "au.com.wallaceit.voicemail", new File(getCacheUri().toString()));
+        LocalPart localPart = (LocalPart) attachment;
+        return AttachmentProvider.getAttachmentUri(localPart.getAccountUuid(), localPart.getId(),
+                attachment.getMimeType(), getUniqueAttachmentFilename());
     }
 
-    public Uri getCacheUri(){
-        File outFile = new File(context.getCacheDir()+"/voicemail/", getUniqueAttachmentFilename());
-        if (!outFile.exists()){
-            if (!outFile.getParentFile().exists())
-                outFile.getParentFile().mkdir();
-            try {
-                FileOutputStream out = new FileOutputStream(outFile);
-                LocalPart localPart = (LocalPart) attachment;
-                InputStream in = getAttachmentInputStream(localPart.getAccountUuid(), String.valueOf(localPart.getId()));
-                copyFile(in, out);
-                in.close();
-                out.close();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (MessagingException e) {
-                e.printStackTrace();
-            }
-        }
-
-        return Uri.parse(outFile.getPath());
+    /**
+     * @return A content URI for the decoded recording. It is served from the stored part, without copying it first
+     * if it was stored decoded.
+     */
+    public Uri getAttachmentUri(){
+        LocalPart localPart = (LocalPart) attachment;
+        return AttachmentProvider.getAttachmentUri(localPart.getAccountUuid(), localPart.getId());
     }
 
     public String getUniqueAttachmentFilename(){
@@ -132,6 +118,24 @@ public class VoicemailAttachmentHelper {
         getVoicemailAttachment(reference, callback);
     }
 
+    /**
+     * Like {@link #loadVoicemailAttachment(Runnable)}, but if the recording has to be downloaded first the callback
+     * runs as soon as the download has been started. The recording can then be played from
+     * {@link #getProgressiveAudioFile()} while it is still arriving. Requires Android 6.0, on older versions this
+     * waits for the download to finish.
+     */
+    public void loadVoicemailAttachmentForPlayback(final Runnable callback){
+        streamDownload = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        getVoicemailAttachment(reference, callback);
+    }
+
+    /**
+     * @return The recording being downloaded, or {@code null} if it was already available locally.
+     */
+    public ProgressiveAudioFile getProgressiveAudioFile() {
+        return progressiveAudioFile;
+    }
+
     private void getVoicemailAttachment(final MessageReference messageReference, final Runnable callback) {
         try {
             final LocalMessage localMessage = messageReference.restoreToLocalMessage(context);
@@ -213,7 +217,12 @@ public class VoicemailAttachmentHelper {
                         e.printStackTrace();
                     }
 
-                if (needsDownloading()) {
+                if (needsDownloading() && streamDownload) {
+                    if (VisualVoicemail.DEBUG)
+                        Log.w(VisualVoicemail.LOG_TAG, "Attachment part not loaded, starting progressive download");
+                    streamAttachmentPart((LocalPart) attachment);
+                    callback.run();
+                } else if (needsDownloading()) {
                     if (VisualVoicemail.DEBUG)
                         Log.w(VisualVoicemail.LOG_TAG, "Attachment part not loaded, starting download");
                     downloadAttachmentPart((LocalPart) attachment, new Runnable() {
@@ -310,11 +319,24 @@ public class VoicemailAttachmentHelper {
         });
     }
 
-    private void copyFile(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[1024];
-        int read;
-        while((read = in.read(buffer)) != -1){
-            out.write(buffer, 0, read);
-        }
+    private void streamAttachmentPart(LocalPart localPart) {
+        Account account = Preferences.getPreferences(context).getAccount(localPart.getAccountUuid());
+        LocalMessage message = localPart.getMessage();
+        final ProgressiveAudioFile audioFile = new ProgressiveAudioFile();
+        progressiveAudioFile = audioFile;
+
+        controller.loadAttachment(account, message, attachment, new DecodingBodyFactory(audioFile),
+                new MessagingListener() {
+            @Override
+            public void loadAttachmentFinished(Account account, Message message, Part part) {
+                audioFile.onDownloadFinished();
+            }
+
+            @Override
+            public void loadAttachmentFailed(Account account, Message message, Part part, String reason) {
+                Log.w(VisualVoicemail.LOG_TAG, "Voicemail download failed: " + reason);
+                audioFile.onDownloadFailed();
+            }
+        });
     }
 }
@@ -0,0 +1,160 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Growable list of {@code long} values.
+ *
+ * <p>
+ * Used instead of {@code List<Long>} for sets of message IDs so bulk operations don't allocate a
+ * {@code Long} per message. Not thread-safe.
+ * </p>
+ */
+public class LongArrayList {
+    private static final int DEFAULT_CAPACITY = 10;
+
+
+    private long[] mValues;
+    private int mSize;
+
+
+    public LongArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongArrayList(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+
+        mValues = new long[capacity];
+    }
+
+    /**
+     * Creates a list containing the given values.
+     */
+    public static LongArrayList of(long... values) {
+        LongArrayList list = new LongArrayList(values.length);
+        list.addAll(values);
+        return list;
+    }
+
+    public void add(long value) {
+        ensureCapacity(mSize + 1);
+        mValues[mSize++] = value;
+    }
+
+    public void addAll(long[] values) {
+        ensureCapacity(mSize + values.length);
+        System.arraycopy(values, 0, mValues, mSize, values.length);
+        mSize += values.length;
+    }
+
+    public void addAll(LongArrayList list) {
+        ensureCapacity(mSize + list.mSize);
+        System.arraycopy(list.mValues, 0, mValues, mSize, list.mSize);
+        mSize += list.mSize;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+
+        return mValues[index];
+    }
+
+    public boolean contains(long value) {
+        for (int i = 0; i < mSize; i++) {
+            if (mValues[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns a copy of the values in this list.
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(mValues, mSize);
+    }
+
+    /**
+     * Copies {@code count} values starting at {@code start} into {@code dest}.
+     */
+    public void getValues(int start, int count, long[] dest) {
+        if (start < 0 || count < 0 || start + count > mSize) {
+            throw new IndexOutOfBoundsException("Range: " + start + "+" + count + ", size: " + mSize);
+        }
+
+        System.arraycopy(mValues, start, dest, 0, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mValues.length) {
+            mValues = Arrays.copyOf(mValues, Math.max(capacity, mValues.length * 2));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LongArrayList)) {
+            return false;
+        }
+
+        LongArrayList other = (LongArrayList) o;
+        if (mSize != other.mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mValues[i] != other.mValues[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < mSize; i++) {
+            long value = mValues[i];
+            hash = 31 * hash + (int) (value ^ (value >>> 32));
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(mValues[i]);
+        }
+
+        return sb.append(']').toString();
+    }
+}
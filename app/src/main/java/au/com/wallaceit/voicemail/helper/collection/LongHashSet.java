@@ -0,0 +1,193 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Set of {@code long} values backed by an open addressing hash table.
+ *
+ * <p>
+ * Uses linear probing and shifts entries back on removal, so no tombstones pile up when values are
+ * added and removed repeatedly (e.g. selecting and deselecting messages). {@code 0} is used to mark
+ * free slots and is tracked separately. Not thread-safe.
+ * </p>
+ */
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+
+    private long[] mKeys;
+    private int mSize;
+    private boolean mContainsZero;
+
+
+    public LongHashSet() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public LongHashSet(int expectedSize) {
+        mKeys = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * Returns {@code true} if the value was not already present.
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (mContainsZero) {
+                return false;
+            }
+            mContainsZero = true;
+            mSize++;
+            return true;
+        }
+
+        int mask = mKeys.length - 1;
+        int index = hash(value) & mask;
+        while (mKeys[index] != 0) {
+            if (mKeys[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        mKeys[index] = value;
+        if (++mSize > maxFill(mKeys.length)) {
+            rehash(mKeys.length * 2);
+        }
+
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return mContainsZero;
+        }
+
+        return indexOf(value) != -1;
+    }
+
+    /**
+     * Returns {@code true} if the value was present.
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!mContainsZero) {
+                return false;
+            }
+            mContainsZero = false;
+            mSize--;
+            return true;
+        }
+
+        int index = indexOf(value);
+        if (index == -1) {
+            return false;
+        }
+
+        shiftKeys(index);
+        mSize--;
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        mSize = 0;
+        mContainsZero = false;
+    }
+
+    /**
+     * Returns the values in this set in no particular order.
+     */
+    public long[] toArray() {
+        long[] values = new long[mSize];
+        int i = 0;
+        if (mContainsZero) {
+            values[i++] = 0;
+        }
+        for (long key : mKeys) {
+            if (key != 0) {
+                values[i++] = key;
+            }
+        }
+
+        return values;
+    }
+
+    private int indexOf(long value) {
+        int mask = mKeys.length - 1;
+        int index = hash(value) & mask;
+        while (mKeys[index] != 0) {
+            if (mKeys[index] == value) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes the entry at {@code index} and moves following entries of the same probe sequence into
+     * the gap.
+     */
+    private void shiftKeys(int index) {
+        int mask = mKeys.length - 1;
+        int gap = index;
+        int current = (gap + 1) & mask;
+        while (mKeys[current] != 0) {
+            int home = hash(mKeys[current]) & mask;
+            // Move the entry if the gap lies between its home slot and its current slot (cyclically)
+            if (((current - home) & mask) >= ((current - gap) & mask)) {
+                mKeys[gap] = mKeys[current];
+                gap = current;
+            }
+            current = (current + 1) & mask;
+        }
+
+        mKeys[gap] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        mKeys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != 0) {
+                int index = hash(key) & mask;
+                while (mKeys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                mKeys[index] = key;
+            }
+        }
+    }
+
+    static int hash(long value) {
+        int hash = (int) (value ^ (value >>> 32));
+        hash *= 0x9E3779B1;
+        return hash ^ (hash >>> 16);
+    }
+
+    static int maxFill(int capacity) {
+        return capacity * 3 / 4;
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (maxFill(capacity) < expectedSize) {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+}
@@ -0,0 +1,174 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Map from {@code long} keys to objects backed by an open addressing hash table.
+ *
+ * <p>
+ * Same layout as {@link LongHashSet} with a parallel value array. Unlike {@code LongSparseArray}
+ * lookups and insertions don't depend on the number of entries, which matters when a bulk operation
+ * touches thousands of messages. {@code null} values are not supported. Not thread-safe.
+ * </p>
+ */
+public class LongObjectMap<V> {
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    private V mZeroValue;
+
+
+    public LongObjectMap() {
+        this(8);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = LongHashSet.tableSizeFor(expectedSize);
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0) {
+            return mZeroValue;
+        }
+
+        int index = indexOf(key);
+        return (index == -1) ? null : (V) mValues[index];
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the previous value for {@code key}, or {@code null} if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value == null");
+        }
+
+        if (key == 0) {
+            V previous = mZeroValue;
+            if (previous == null) {
+                mSize++;
+            }
+            mZeroValue = value;
+            return previous;
+        }
+
+        int mask = mKeys.length - 1;
+        int index = LongHashSet.hash(key) & mask;
+        while (mKeys[index] != 0) {
+            if (mKeys[index] == key) {
+                V previous = (V) mValues[index];
+                mValues[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        mKeys[index] = key;
+        mValues[index] = value;
+        if (++mSize > LongHashSet.maxFill(mKeys.length)) {
+            rehash(mKeys.length * 2);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the removed value, or {@code null} if there was no mapping for {@code key}.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == 0) {
+            V previous = mZeroValue;
+            if (previous != null) {
+                mZeroValue = null;
+                mSize--;
+            }
+            return previous;
+        }
+
+        int index = indexOf(key);
+        if (index == -1) {
+            return null;
+        }
+
+        V previous = (V) mValues[index];
+        shiftEntries(index);
+        mSize--;
+        return previous;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        Arrays.fill(mValues, null);
+        mZeroValue = null;
+        mSize = 0;
+    }
+
+    private int indexOf(long key) {
+        int mask = mKeys.length - 1;
+        int index = LongHashSet.hash(key) & mask;
+        while (mKeys[index] != 0) {
+            if (mKeys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void shiftEntries(int index) {
+        int mask = mKeys.length - 1;
+        int gap = index;
+        int current = (gap + 1) & mask;
+        while (mKeys[current] != 0) {
+            int home = LongHashSet.hash(mKeys[current]) & mask;
+            if (((current - home) & mask) >= ((current - gap) & mask)) {
+                mKeys[gap] = mKeys[current];
+                mValues[gap] = mValues[current];
+                gap = current;
+            }
+            current = (current + 1) & mask;
+        }
+
+        mKeys[gap] = 0;
+        mValues[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        Object[] oldValues = mValues;
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int index = LongHashSet.hash(key) & mask;
+                while (mKeys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                mKeys[index] = key;
+                mValues[index] = oldValues[i];
+            }
+        }
+    }
+}
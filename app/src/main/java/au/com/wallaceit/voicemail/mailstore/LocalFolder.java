@@ -49,6 +49,7 @@ import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessage;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.internet.RawDataBody;
 import com.fsck.k9.mail.internet.SizeAware;
 import com.fsck.k9.mail.message.MessageHeaderParser;
 import au.com.wallaceit.voicemail.mailstore.LockableDatabase.DbCallback;
@@ -58,7 +59,9 @@ import au.com.wallaceit.voicemail.message.preview.PreviewResult;
 import au.com.wallaceit.voicemail.message.preview.PreviewResult.PreviewType;
 import au.com.wallaceit.voicemail.preferences.Storage;
 import au.com.wallaceit.voicemail.preferences.StorageEditor;
+import au.com.wallaceit.voicemail.provider.AttachmentCache;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 
 
@@ -85,6 +88,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     // know whether or not an unread message added to the local folder is actually "new" or not.
     private Integer mLastUid = null;
     private MoreMessages moreMessages = MoreMessages.UNKNOWN;
+    private long mSyncedUidValidity = 0;
+    private long mSyncedHighestModSeq = 0;
 
     public LocalFolder(LocalStore localStore, String name) {
         super();
@@ -196,6 +201,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         mSyncClass = Folder.FolderClass.valueOf((syncClass == null) ? noClass : syncClass);
         String moreMessagesValue = cursor.getString(LocalStore.MORE_MESSAGES_INDEX);
         moreMessages = MoreMessages.fromDatabaseName(moreMessagesValue);
+        mSyncedUidValidity = cursor.getLong(LocalStore.FOLDER_UID_VALIDITY_INDEX);
+        mSyncedHighestModSeq = cursor.getLong(LocalStore.FOLDER_HIGHEST_MOD_SEQ_INDEX);
     }
 
     @Override
@@ -302,7 +309,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
 
         try {
-            return this.localStore.database.execute(false, new DbCallback<Integer>() {
+            return this.localStore.database.executeReadOnly(new DbCallback<Integer>() {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int unreadMessageCount = 0;
@@ -333,7 +340,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
 
         try {
-            return this.localStore.database.execute(false, new DbCallback<Integer>() {
+            return this.localStore.database.executeReadOnly(new DbCallback<Integer>() {
                 @Override
                 public Integer doDbWork(final SQLiteDatabase db) throws WrappedException {
                     int flaggedMessageCount = 0;
@@ -454,6 +461,42 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return mPushState;
     }
 
+    /**
+     * @return The UIDVALIDITY of the remote folder at the time of the last complete flag sync, or 0 if unknown.
+     */
+    public long getSyncedUidValidity() {
+        return mSyncedUidValidity;
+    }
+
+    /**
+     * @return The remote HIGHESTMODSEQ up to which all flag changes have been synced, or 0 if unknown.
+     */
+    public long getSyncedHighestModSeq() {
+        return mSyncedHighestModSeq;
+    }
+
+    public void setSyncedModSeq(final long uidValidity, final long highestModSeq) throws MessagingException {
+        mSyncedUidValidity = uidValidity;
+        mSyncedHighestModSeq = highestModSeq;
+        try {
+            this.localStore.database.execute(false, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                    try {
+                        open(OPEN_MODE_RW);
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                    db.execSQL("UPDATE folders SET uid_validity = ?, highest_mod_seq = ? WHERE id = ?",
+                            new Object[] { uidValidity, highestModSeq, mFolderId });
+                    return null;
+                }
+            });
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
     @Override
     public FolderClass getDisplayClass() {
         return mDisplayClass;
@@ -1080,6 +1123,45 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         });
     }
 
+    /**
+     * Batch version of {@link #storeSmallMessage(Message, Runnable)}. All messages are stored and
+     * marked as fully downloaded in a single transaction, so a sync only pays for one commit per
+     * batch instead of one per message.
+     *
+     * @param messages Messages to store. Never <code>null</code>.
+     * @return The local versions of the messages, in the same order. Never <code>null</code>.
+     * @throws MessagingException
+     */
+    public List<LocalMessage> storeSmallMessages(final List<? extends Message> messages) throws MessagingException {
+        if (messages.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return this.localStore.database.execute(true, new DbCallback<List<LocalMessage>>() {
+                @Override
+                public List<LocalMessage> doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    try {
+                        appendMessages(messages);
+
+                        List<LocalMessage> result = new ArrayList<LocalMessage>(messages.size());
+                        for (Message message : messages) {
+                            LocalMessage localMessage = getMessage(message.getUid());
+                            // Set a flag indicating this message has now be fully downloaded
+                            localMessage.setFlag(Flag.X_DOWNLOADED_FULL, true);
+                            result.add(localMessage);
+                        }
+                        return result;
+                    } catch (MessagingException e) {
+                        throw new WrappedException(e);
+                    }
+                }
+            });
+        } catch (WrappedException e) {
+            throw (MessagingException) e.getCause();
+        }
+    }
+
     /**
      * The method differs slightly from the contract; If an incoming message already has a uid
      * assigned and it matches the uid of an existing message then this message will replace the
@@ -1169,12 +1251,15 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             this.localStore.database.execute(true, new DbCallback<Void>() {
                 @Override
                 public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                    MessageInserter inserter = new MessageInserter(db);
                     try {
                         for (Message message : messages) {
-                            saveMessage(db, message, copy, uidMap);
+                            saveMessage(db, inserter, message, copy, uidMap);
                         }
                     } catch (MessagingException e) {
                         throw new WrappedException(e);
+                    } finally {
+                        inserter.close();
                     }
                     return null;
                 }
@@ -1188,8 +1273,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
-    protected void saveMessage(SQLiteDatabase db, Message message, boolean copy, Map<String, String> uidMap)
-            throws MessagingException {
+    protected void saveMessage(SQLiteDatabase db, MessageInserter inserter, Message message, boolean copy,
+            Map<String, String> uidMap) throws MessagingException {
         if (!(message instanceof MimeMessage)) {
             throw new Error("LocalStore can only store Messages that extend MimeMessage");
         }
@@ -1241,7 +1326,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             AttachmentCounter attachmentCounter = localStore.getAttachmentCounter();
             int attachmentCount = attachmentCounter.getAttachmentCount(message);
 
-            long rootMessagePartId = saveMessageParts(db, message);
+            long rootMessagePartId = saveMessageParts(inserter, message);
 
             ContentValues cv = new ContentValues();
             cv.put("message_part_id", rootMessagePartId);
@@ -1280,20 +1365,10 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             }
 
             if (oldMessageId == -1) {
-                long msgId = db.insert("messages", "uid", cv);
+                long msgId = inserter.insertMessage(cv);
 
                 // Create entry in 'threads' table
-                cv.clear();
-                cv.put("message_id", msgId);
-
-                if (rootId != -1) {
-                    cv.put("root", rootId);
-                }
-                if (parentId != -1) {
-                    cv.put("parent", parentId);
-                }
-
-                db.insert("threads", null, cv);
+                inserter.insertThread(msgId, rootId, parentId);
             } else {
                 db.update("messages", cv, "id = ?", new String[] { Long.toString(oldMessageId) });
             }
@@ -1302,8 +1377,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         }
     }
 
-    private long saveMessageParts(SQLiteDatabase db, Message message) throws IOException, MessagingException {
-        long rootMessagePartId = saveMessagePart(db, new PartContainer(-1, message), -1, 0);
+    private long saveMessageParts(MessageInserter inserter, Message message) throws IOException, MessagingException {
+        long rootMessagePartId = saveMessagePart(inserter, new PartContainer(-1, message), -1, 0);
 
         Stack<PartContainer> partsToSave = new Stack<PartContainer>();
         addChildrenToStack(partsToSave, message, rootMessagePartId);
@@ -1311,7 +1386,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         int order = 1;
         while (!partsToSave.isEmpty()) {
             PartContainer partContainer = partsToSave.pop();
-            long messagePartId = saveMessagePart(db, partContainer, rootMessagePartId, order);
+            long messagePartId = saveMessagePart(inserter, partContainer, rootMessagePartId, order);
             order++;
 
             addChildrenToStack(partsToSave, partContainer.part, messagePartId);
@@ -1320,8 +1395,8 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return rootMessagePartId;
     }
 
-    private long saveMessagePart(SQLiteDatabase db, PartContainer partContainer, long rootMessagePartId, int order)
-            throws IOException, MessagingException {
+    private long saveMessagePart(MessageInserter inserter, PartContainer partContainer, long rootMessagePartId,
+            int order) throws IOException, MessagingException {
 
         Part part = partContainer.part;
 
@@ -1333,7 +1408,14 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         cv.put("seq", order);
         cv.put("server_extra", part.getServerExtra());
 
-        return updateOrInsertMessagePart(db, cv, part, INVALID_MESSAGE_PART_ID);
+        File file = partToContentValues(cv, part);
+        long messagePartId = inserter.insertMessagePart(cv);
+
+        if (file != null) {
+            renameTemporaryFile(file, Long.toString(messagePartId));
+        }
+
+        return messagePartId;
     }
 
     private void renameTemporaryFile(File file, String messagePartId) {
@@ -1346,6 +1428,28 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
 
     private long updateOrInsertMessagePart(SQLiteDatabase db, ContentValues cv, Part part, long existingMessagePartId)
             throws IOException, MessagingException {
+        File file = partToContentValues(cv, part);
+
+        long messagePartId;
+        if (existingMessagePartId != INVALID_MESSAGE_PART_ID) {
+            messagePartId = existingMessagePartId;
+            db.update("message_parts", cv, "id = ?", new String[] { Long.toString(messagePartId) });
+        } else {
+            messagePartId = db.insertOrThrow("message_parts", null, cv);
+        }
+
+        if (file != null) {
+            renameTemporaryFile(file, Long.toString(messagePartId));
+        }
+
+        return messagePartId;
+    }
+
+    /**
+     * @return The temporary file containing the body of a part that is too large to be stored in
+     *         the database, or {@code null}.
+     */
+    private File partToContentValues(ContentValues cv, Part part) throws IOException, MessagingException {
         byte[] headerBytes = getHeaderBytes(part);
 
         cv.put("mime_type", part.getMimeType());
@@ -1364,19 +1468,7 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
             file = leafPartToContentValues(cv, part, body);
         }
 
-        long messagePartId;
-        if (existingMessagePartId != INVALID_MESSAGE_PART_ID) {
-            messagePartId = existingMessagePartId;
-            db.update("message_parts", cv, "id = ?", new String[] { Long.toString(messagePartId) });
-        } else {
-            messagePartId = db.insertOrThrow("message_parts", null, cv);
-        }
-
-        if (file != null) {
-            renameTemporaryFile(file, Long.toString(messagePartId));
-        }
-
-        return messagePartId;
+        return file;
     }
 
     private void multipartToContentValues(ContentValues cv, Multipart multipart) {
@@ -1416,17 +1508,35 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         if (fileSize > MAX_BODY_SIZE_FOR_DATABASE) {
             dataLocation = DataLocation.ON_DISK;
 
-            file = writeBodyToDiskIfNecessary(part);
+            long size;
+            if (body instanceof BinaryTempFileBody) {
+                BinaryTempFileBody tempFileBody = (BinaryTempFileBody) body;
+                file = tempFileBody.getFile();
+                size = tempFileBody.getDecodedSize();
+            } else {
+                CountingOutputStream decodedSizeCounter = new CountingOutputStream();
+                OutputStream decodingOut = MimeUtility.createDecodingOutputStream(decodedSizeCounter, encoding);
+                file = writeBodyToDisk(body, decodingOut);
+                size = (decodingOut != null) ? decodedSizeCounter.getCount() : -1;
+            }
 
-            long size = decodeAndCountBytes(file, encoding, fileSize);
+            if (MimeUtil.ENC_BINARY.equals(encoding)) {
+                size = fileSize;
+            } else if (size == -1) {
+                // The size couldn't be counted while the body was written, so decode the file once more
+                size = decodeAndCountBytes(file, encoding, fileSize);
+            }
             cv.put("decoded_body_size", size);
         } else {
             dataLocation = DataLocation.IN_DATABASE;
 
-            byte[] bodyData = getBodyBytes(body);
+            CountingOutputStream decodedSizeCounter = new CountingOutputStream();
+            OutputStream decodingOut = MimeUtility.createDecodingOutputStream(decodedSizeCounter, encoding);
+            byte[] bodyData = getBodyBytes(body, decodingOut);
             cv.put("data", bodyData);
 
-            long size = decodeAndCountBytes(bodyData, encoding, bodyData.length);
+            long size = (decodingOut != null) ?
+                    decodedSizeCounter.getCount() : decodeAndCountBytes(bodyData, encoding, bodyData.length);
             cv.put("decoded_body_size", size);
         }
         cv.put("data_location", dataLocation);
@@ -1436,20 +1546,18 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return file;
     }
 
-    private File writeBodyToDiskIfNecessary(Part part) throws MessagingException, IOException {
-        Body body = part.getBody();
-        if (body instanceof BinaryTempFileBody) {
-            return ((BinaryTempFileBody) body).getFile();
-        } else {
-            return writeBodyToDisk(body);
-        }
-    }
-
-    private File writeBodyToDisk(Body body) throws IOException, MessagingException {
+    /**
+     * Writes the body to a temp file.
+     *
+     * @param decodingOut
+     *         Also receives the data written to the file, see {@link MimeUtility#createDecodingOutputStream}. May
+     *         be {@code null}.
+     */
+    private File writeBodyToDisk(Body body, OutputStream decodingOut) throws IOException, MessagingException {
         File file = File.createTempFile("body", null, BinaryTempFileBody.getTempDirectory());
         OutputStream out = new FileOutputStream(file);
         try {
-            body.writeTo(out);
+            body.writeTo(teeTo(out, decodingOut));
         } finally {
             out.close();
         }
@@ -1496,13 +1604,26 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
         return output.toByteArray();
     }
 
-    private byte[] getBodyBytes(Body body) throws IOException, MessagingException {
+    private byte[] getBodyBytes(Body body, OutputStream decodingOut) throws IOException, MessagingException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
-        body.writeTo(output);
+        body.writeTo(teeTo(output, decodingOut));
         return output.toByteArray();
     }
 
+    private static OutputStream teeTo(OutputStream out, OutputStream decodingOut) {
+        return (decodingOut != null) ? new TeeOutputStream(out, decodingOut) : out;
+    }
+
     private String getTransferEncoding(Part part) throws MessagingException {
+        // The body might have been decoded while it was downloaded, so its encoding takes precedence over the header
+        Body body = part.getBody();
+        if (body instanceof RawDataBody) {
+            String encoding = ((RawDataBody) body).getEncoding();
+            if (encoding != null) {
+                return encoding.trim().toLowerCase(Locale.US);
+            }
+        }
+
         String[] contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
         if (contentTransferEncoding.length > 0) {
             return contentTransferEncoding[0].toLowerCase(Locale.US);
@@ -1741,13 +1862,31 @@ public class LocalFolder extends Folder<LocalMessage> implements Serializable {
     }
 
     private void deleteMessageParts(final long rootMessagePartId) throws MessagingException {
-        localStore.database.execute(false, new DbCallback<Void>() {
+        List<String> messagePartIds = localStore.database.execute(false, new DbCallback<List<String>>() {
             @Override
-            public Void doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
-                db.delete("message_parts", "root = ?", new String[] { Long.toString(rootMessagePartId) });
-                return null;
+            public List<String> doDbWork(final SQLiteDatabase db) throws WrappedException, UnavailableStorageException {
+                String[] selectionArgs = new String[] { Long.toString(rootMessagePartId) };
+                List<String> ids = new ArrayList<String>();
+                Cursor cursor = db.query("message_parts", new String[] { "id" }, "root = ?", selectionArgs,
+                        null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        ids.add(cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                db.delete("message_parts", "root = ?", selectionArgs);
+                return ids;
             }
         });
+
+        // The IDs may be given to new parts, which must not be served the decoded data of these
+        AttachmentCache attachmentCache = AttachmentCache.getInstance(localStore.context);
+        for (String messagePartId : messagePartIds) {
+            attachmentCache.invalidate(AttachmentCache.getKey(localStore.uUid, messagePartId));
+        }
     }
 
     private void deleteMessageDataFromDisk(final long rootMessagePartId) throws MessagingException {
@@ -5,7 +5,12 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -13,12 +18,14 @@ import au.com.wallaceit.voicemail.Account;
 import au.com.wallaceit.voicemail.VisualVoicemail;
 import au.com.wallaceit.voicemail.Preferences;
 import au.com.wallaceit.voicemail.helper.UrlEncodingHelper;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
 import au.com.wallaceit.voicemail.helper.Utility;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Store;
+import com.fsck.k9.mail.filter.Base64InputStream;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder.DataLocation;
 import au.com.wallaceit.voicemail.mailstore.LocalFolder.MoreMessages;
 import au.com.wallaceit.voicemail.mailstore.StorageManager.StorageProvider;
@@ -32,7 +39,6 @@ import au.com.wallaceit.voicemail.search.LocalSearch;
 import au.com.wallaceit.voicemail.search.SearchSpecification.Attribute;
 import au.com.wallaceit.voicemail.search.SearchSpecification.SearchField;
 import au.com.wallaceit.voicemail.search.SqlQueryBuilder;
-import org.apache.james.mime4j.codec.Base64InputStream;
 import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 
@@ -44,6 +50,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -89,7 +96,8 @@ public class LocalStore extends Store implements Serializable {
 
     static final String GET_FOLDER_COLS =
         "folders.id, name, visible_limit, last_updated, status, push_state, last_pushed, " +
-        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages";
+        "integrate, top_group, poll_class, push_class, display_class, notify_class, more_messages, " +
+        "uid_validity, highest_mod_seq";
 
     static final int FOLDER_ID_INDEX = 0;
     static final int FOLDER_NAME_INDEX = 1;
@@ -105,6 +113,8 @@ public class LocalStore extends Store implements Serializable {
     static final int FOLDER_DISPLAY_CLASS_INDEX = 11;
     static final int FOLDER_NOTIFY_CLASS_INDEX = 12;
     static final int MORE_MESSAGES_INDEX = 13;
+    static final int FOLDER_UID_VALIDITY_INDEX = 14;
+    static final int FOLDER_HIGHEST_MOD_SEQ_INDEX = 15;
 
     static final String[] UID_CHECK_PROJECTION = { "uid" };
 
@@ -116,20 +126,36 @@ public class LocalStore extends Store implements Serializable {
     static final int UID_CHECK_BATCH_SIZE = 500;
 
     /**
-     * Maximum number of messages to perform flag updates on at once.
-     *
-     * @see #setFlag(List, Flag, boolean)
+     * Default value of {@code SQLITE_MAX_VARIABLE_NUMBER}, used unless the compile options of the
+     * SQLite library say otherwise.
+     */
+    private static final int DEFAULT_MAX_VARIABLE_NUMBER = 999;
+
+    /**
+     * Maximum number of place holders in one batch, even if SQLite would allow more. Beyond this
+     * size the statements get long and the temporary table is the better choice anyway.
      */
-    private static final int FLAG_UPDATE_BATCH_SIZE = 500;
+    private static final int MAX_BATCH_SIZE = 999;
 
     /**
-     * Maximum number of threads to perform flag updates on at once.
+     * Selection sets are padded to a power of two of at least this size, so all batches share a
+     * handful of statements.
+     */
+    private static final int MIN_BATCH_SIZE = 16;
+
+    /**
+     * Argument lists with more items than this are written to a temporary table and selected with a
+     * single statement instead of being split into batches.
      *
-     * @see #setFlagForThreads(List, Flag, boolean)
+     * @see #doBatchSetSelection(BatchSetSelection)
      */
-    private static final int THREAD_FLAG_UPDATE_BATCH_SIZE = 500;
+    static final int TEMP_TABLE_THRESHOLD = 2000;
+
+    private static final String TEMP_TABLE_SELECTION_SET = " IN (SELECT id FROM temp.batch_ids)";
 
-    public static final int DB_VERSION = 55;
+    private static final long[] EMPTY_LONG_ARRAY = new long[0];
+
+    public static final int DB_VERSION = 56;
 
 
     public static String getColumnNameForFlag(Flag flag) {
@@ -163,6 +189,8 @@ public class LocalStore extends Store implements Serializable {
     private final Account mAccount;
     private final MessagePreviewCreator messagePreviewCreator;
     private final AttachmentCounter attachmentCounter;
+    private final StatementCache mStatementCache = new StatementCache();
+    private volatile int mMaxBatchSize = 0;
 
     /**
      * local://localhost/path/to/database/uuid.db
@@ -176,6 +204,7 @@ public class LocalStore extends Store implements Serializable {
         this.context = context;
         mContentResolver = context.getContentResolver();
         database.setStorageProviderId(account.getLocalStorageProviderId());
+        database.setWriteAheadLoggingEnabled(VisualVoicemail.useDatabaseWriteAheadLogging());
         uUid = account.getUuid();
 
         messagePreviewCreator = MessagePreviewCreator.newInstance();
@@ -229,6 +258,7 @@ public class LocalStore extends Store implements Serializable {
     }
 
     public void switchLocalStorage(final String newStorageProviderId) throws MessagingException {
+        mStatementCache.clear();
         database.switchProvider(newStorageProviderId);
     }
 
@@ -240,6 +270,10 @@ public class LocalStore extends Store implements Serializable {
         return Preferences.getPreferences(context).getStorage();
     }
 
+    public LockableDatabase.LockStats getDatabaseLockStats() {
+        return database.getLockStats();
+    }
+
     public long getSize() throws MessagingException {
 
         final StorageManager storageManager = StorageManager.getInstance(context);
@@ -401,10 +435,12 @@ public class LocalStore extends Store implements Serializable {
     }
 
     public void delete() throws UnavailableStorageException {
+        mStatementCache.clear();
         database.delete();
     }
 
     public void recreate() throws UnavailableStorageException {
+        mStatementCache.clear();
         database.recreate();
     }
 
@@ -513,6 +549,25 @@ public class LocalStore extends Store implements Serializable {
         });
     }
 
+    /**
+     * Remove the given commands from the queue in one transaction.
+     */
+    public void removePendingCommands(final List<PendingCommand> commands) throws MessagingException {
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        database.execute(true, new DbCallback<Void>() {
+            @Override
+            public Void doDbWork(final SQLiteDatabase db) throws WrappedException {
+                for (PendingCommand command : commands) {
+                    db.delete("pending_commands", "id = ?", new String[] { Long.toString(command.mId) });
+                }
+                return null;
+            }
+        });
+    }
+
     public void removePendingCommands() throws MessagingException {
         database.execute(false, new DbCallback<Void>() {
             @Override
@@ -646,11 +701,11 @@ public class LocalStore extends Store implements Serializable {
     }
 
     public AttachmentInfo getAttachmentInfo(final String attachmentId) throws MessagingException {
-        return database.execute(false, new DbCallback<AttachmentInfo>() {
+        return database.executeReadOnly(new DbCallback<AttachmentInfo>() {
             @Override
             public AttachmentInfo doDbWork(final SQLiteDatabase db) throws WrappedException {
                 Cursor cursor = db.query("message_parts",
-                        new String[]{"display_name", "decoded_body_size", "mime_type"},
+                        new String[]{"display_name", "decoded_body_size", "mime_type", "data_location", "encoding"},
                         "id = ?",
                         new String[]{attachmentId},
                         null, null, null);
@@ -661,11 +716,17 @@ public class LocalStore extends Store implements Serializable {
                     String name = cursor.getString(0);
                     long size = cursor.getLong(1);
                     String mimeType = cursor.getString(2);
+                    int location = cursor.getInt(3);
+                    String encoding = cursor.getString(4);
 
                     final AttachmentInfo attachmentInfo = new AttachmentInfo();
                     attachmentInfo.name = name;
                     attachmentInfo.size = size;
                     attachmentInfo.type = mimeType;
+                    attachmentInfo.encoding = encoding;
+                    if (location == DataLocation.ON_DISK) {
+                        attachmentInfo.file = getAttachmentFile(attachmentId);
+                    }
 
                     return attachmentInfo;
                 } finally {
@@ -754,6 +815,17 @@ public class LocalStore extends Store implements Serializable {
         public String name;
         public long size;
         public String type;
+        public String encoding;
+        /** The file containing the stored data, {@code null} if the data is kept in the database. */
+        public File file;
+
+        /**
+         * @return {@code true} if {@link #file} contains the attachment's data without transfer encoding.
+         */
+        public boolean isStoredDecoded() {
+            return file != null && !MimeUtil.ENC_BASE64.equals(encoding) &&
+                    !MimeUtil.ENC_QUOTED_PRINTABLE.equals(encoding);
+        }
     }
 
     public void createFolders(final List<LocalFolder> foldersToCreate, final int visibleLimit) throws MessagingException {
@@ -848,42 +920,47 @@ public class LocalStore extends Store implements Serializable {
      * Split database operations with a large set of arguments into multiple SQL statements.
      *
      * <p>
-     * At the time of this writing (2012-12-06) SQLite only supports around 1000 arguments. That's
-     * why we have to split SQL statements with a large set of arguments into multiple SQL
-     * statements each working on a subset of the arguments.
+     * SQLite limits the number of arguments per statement ({@code SQLITE_MAX_VARIABLE_NUMBER},
+     * usually 999). That's why we have to split SQL statements with a large set of arguments into
+     * multiple SQL statements each working on a subset of the arguments. The batch size is derived
+     * from the limit of the SQLite library in use, see {@link #getMaxBatchSize()}.
+     * </p><p>
+     * The arguments are passed as {@code long} values and bound with
+     * {@link SQLiteProgram#bindLong(int, long)}, see {@link #bindLongs(SQLiteProgram, int, long[])}
+     * and {@link #rawQuery(SQLiteDatabase, String, long[])}. Each selection set is padded with
+     * copies of its last argument to a power of two, so only a few distinct statements are ever
+     * compiled and the prepared statement caches (ours and SQLite's) keep being hit.
+     * </p><p>
+     * If there are more than {@link #TEMP_TABLE_THRESHOLD} arguments, they are inserted into a
+     * temporary table instead and the work is done with a single statement in a single transaction.
      * </p>
      *
      * @param selectionCallback
      *         Supplies the argument set and the code to query/update the database.
-     * @param batchSize
-     *         The maximum size of the selection set in each SQL statement.
      *
      * @throws MessagingException
      */
-    public void doBatchSetSelection(final BatchSetSelection selectionCallback, final int batchSize)
-            throws MessagingException {
+    public void doBatchSetSelection(final BatchSetSelection selectionCallback) throws MessagingException {
+        final int listSize = selectionCallback.getListSize();
+        if (listSize > TEMP_TABLE_THRESHOLD) {
+            doTempTableSelection(selectionCallback, listSize);
+            return;
+        }
 
-        final List<String> selectionArgs = new ArrayList<String>();
+        final int batchSize = getMaxBatchSize();
         int start = 0;
 
-        while (start < selectionCallback.getListSize()) {
-            final StringBuilder selection = new StringBuilder();
+        while (start < listSize) {
+            final int count = Math.min(listSize - start, batchSize);
+            final int size = getSelectionSetSize(count, batchSize);
+            final String selection = buildSelectionSet(size);
+            final long[] selectionArgs = new long[size];
 
-            selection.append(" IN (");
-
-            int count = Math.min(selectionCallback.getListSize() - start, batchSize);
-
-            for (int i = start, end = start + count; i < end; i++) {
-                if (i > start) {
-                    selection.append(",?");
-                } else {
-                    selection.append("?");
-                }
-
-                selectionArgs.add(selectionCallback.getListItem(i));
+            for (int i = 0; i < count; i++) {
+                selectionArgs[i] = selectionCallback.getListItem(start + i);
             }
-
-            selection.append(")");
+            // Duplicates don't change the result of an IN expression
+            Arrays.fill(selectionArgs, count, size, selectionArgs[count - 1]);
 
             try {
                 database.execute(true, new DbCallback<Void>() {
@@ -891,8 +968,7 @@ public class LocalStore extends Store implements Serializable {
                     public Void doDbWork(final SQLiteDatabase db) throws WrappedException,
                             UnavailableStorageException {
 
-                        selectionCallback.doDbWork(db, selection.toString(),
-                                selectionArgs.toArray(EMPTY_STRING_ARRAY));
+                        selectionCallback.doDbWork(db, selection, selectionArgs);
 
                         return null;
                     }
@@ -904,13 +980,164 @@ public class LocalStore extends Store implements Serializable {
                 throw(MessagingException) e.getCause();
             }
 
-            selectionArgs.clear();
             start += count;
         }
     }
 
+    private void doTempTableSelection(final BatchSetSelection selectionCallback, final int listSize)
+            throws MessagingException {
+        try {
+            database.execute(true, new DbCallback<Void>() {
+                @Override
+                public Void doDbWork(final SQLiteDatabase db) throws WrappedException,
+                        UnavailableStorageException {
+
+                    // The transaction keeps us on one connection, so the temporary table stays visible
+                    db.execSQL("CREATE TEMP TABLE IF NOT EXISTS batch_ids (id INTEGER PRIMARY KEY)");
+                    db.execSQL("DELETE FROM temp.batch_ids");
+
+                    SQLiteStatement insert = db.compileStatement(
+                            "INSERT OR IGNORE INTO temp.batch_ids (id) VALUES (?)");
+                    try {
+                        for (int i = 0; i < listSize; i++) {
+                            insert.bindLong(1, selectionCallback.getListItem(i));
+                            insert.executeInsert();
+                        }
+                    } finally {
+                        insert.close();
+                    }
+
+                    try {
+                        selectionCallback.doDbWork(db, TEMP_TABLE_SELECTION_SET, EMPTY_LONG_ARRAY);
+                    } finally {
+                        db.execSQL("DELETE FROM temp.batch_ids");
+                    }
+
+                    return null;
+                }
+            });
+
+            selectionCallback.postDbWork();
+
+        } catch (WrappedException e) {
+            throw(MessagingException) e.getCause();
+        }
+    }
+
+    /**
+     * Get the maximum number of arguments in one batch of {@link #doBatchSetSelection(BatchSetSelection)}.
+     *
+     * <p>
+     * The limit is read once from the compile options of the SQLite library, falling back to
+     * SQLite's default if the option isn't listed.
+     * </p>
+     */
+    int getMaxBatchSize() throws MessagingException {
+        if (mMaxBatchSize == 0) {
+            int maxVariableNumber = database.execute(false, new DbCallback<Integer>() {
+                @Override
+                public Integer doDbWork(final SQLiteDatabase db) {
+                    return readMaxVariableNumber(db);
+                }
+            });
+
+            mMaxBatchSize = Math.min(maxVariableNumber, MAX_BATCH_SIZE);
+            if (VisualVoicemail.DEBUG) {
+                Log.d(VisualVoicemail.LOG_TAG, "SQLite variable limit " + maxVariableNumber +
+                        ", batch size " + mMaxBatchSize);
+            }
+        }
+
+        return mMaxBatchSize;
+    }
+
+    private static int readMaxVariableNumber(SQLiteDatabase db) {
+        final String option = "MAX_VARIABLE_NUMBER=";
+        Cursor cursor = db.rawQuery("PRAGMA compile_options", null);
+        try {
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(0);
+                if (value != null && value.startsWith(option)) {
+                    try {
+                        int maxVariableNumber = Integer.parseInt(value.substring(option.length()));
+                        if (maxVariableNumber > 0) {
+                            return maxVariableNumber;
+                        }
+                    } catch (NumberFormatException e) {
+                        Log.w(VisualVoicemail.LOG_TAG, "Invalid SQLite compile option: " + value);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return DEFAULT_MAX_VARIABLE_NUMBER;
+    }
+
+    /**
+     * @return The smallest power of two (at least {@link #MIN_BATCH_SIZE}) that can hold
+     *         {@code count} arguments, but not more than {@code batchSize}.
+     */
+    static int getSelectionSetSize(int count, int batchSize) {
+        int size = MIN_BATCH_SIZE;
+        while (size < count) {
+            size <<= 1;
+        }
+
+        return Math.min(size, batchSize);
+    }
+
     /**
-     * Defines the behavior of {@link LocalStore#doBatchSetSelection(BatchSetSelection, int)}.
+     * @return A selection set with {@code count} place holders, e.g. {@code " IN (?,?,?)"}.
+     */
+    private static String buildSelectionSet(int count) {
+        StringBuilder selection = new StringBuilder(6 + count * 2);
+        selection.append(" IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                selection.append(",?");
+            } else {
+                selection.append("?");
+            }
+        }
+
+        return selection.append(")").toString();
+    }
+
+    /**
+     * Bind {@code values} to consecutive place holders of a compiled statement or query.
+     *
+     * @param program
+     *         The statement or query.
+     * @param firstIndex
+     *         The 1-based index of the place holder to bind {@code values[0]} to.
+     * @param values
+     *         The values to bind.
+     */
+    static void bindLongs(SQLiteProgram program, int firstIndex, long[] values) {
+        for (int i = 0; i < values.length; i++) {
+            program.bindLong(firstIndex + i, values[i]);
+        }
+    }
+
+    /**
+     * Like {@link SQLiteDatabase#rawQuery(String, String[])}, but binds the arguments as integers
+     * instead of converting each of them to a string first.
+     */
+    static Cursor rawQuery(SQLiteDatabase db, String sql, final long[] selectionArgs) {
+        return db.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                    SQLiteQuery query) {
+                bindLongs(query, 1, selectionArgs);
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        }, sql, null, null);
+    }
+
+    /**
+     * Defines the behavior of {@link LocalStore#doBatchSetSelection(BatchSetSelection)}.
      */
     public interface BatchSetSelection {
         /**
@@ -926,7 +1153,7 @@ public class LocalStore extends Store implements Serializable {
          *
          * @return Item at position {@code i} of the argument list.
          */
-        String getListItem(int index);
+        long getListItem(int index);
 
         /**
          * Execute the SQL statement.
@@ -935,17 +1162,20 @@ public class LocalStore extends Store implements Serializable {
          *         Use this {@link SQLiteDatabase} instance for your SQL statement.
          * @param selectionSet
          *         A partial selection string containing place holders for the argument list, e.g.
-         *         {@code " IN (?,?,?)"} (starts with a space).
+         *         {@code " IN (?,?,?)"}, or a sub-select of the temporary table holding all arguments
+         *         (starts with a space).
          * @param selectionArgs
-         *         The current subset of the argument list.
+         *         The current subset of the argument list, padded to the number of place holders.
+         *         Empty if the arguments are in the temporary table. Only valid until this method
+         *         returns.
          * @throws UnavailableStorageException
          */
-        void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
+        void doDbWork(SQLiteDatabase db, String selectionSet, long[] selectionArgs)
                 throws UnavailableStorageException;
 
         /**
          * This will be executed after each invocation of
-         * {@link #doDbWork(SQLiteDatabase, String, String[])} (after the transaction has been
+         * {@link #doDbWork(SQLiteDatabase, String, long[])} (after the transaction has been
          * committed).
          */
         void postDbWork();
@@ -967,11 +1197,10 @@ public class LocalStore extends Store implements Serializable {
      *
      * @throws MessagingException
      */
-    public void setFlag(final List<Long> messageIds, final Flag flag, final boolean newState)
+    public void setFlag(final LongArrayList messageIds, final Flag flag, final boolean newState)
             throws MessagingException {
 
-        final ContentValues cv = new ContentValues();
-        cv.put(getColumnNameForFlag(flag), newState);
+        final String flagColumn = getColumnNameForFlag(flag);
 
         doBatchSetSelection(new BatchSetSelection() {
 
@@ -981,15 +1210,17 @@ public class LocalStore extends Store implements Serializable {
             }
 
             @Override
-            public String getListItem(int index) {
-                return Long.toString(messageIds.get(index));
+            public long getListItem(int index) {
+                return messageIds.get(index);
             }
 
             @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
+            public void doDbWork(SQLiteDatabase db, String selectionSet, long[] selectionArgs)
                     throws UnavailableStorageException {
 
-                db.update("messages", cv, "empty = 0 AND id" + selectionSet,
+                mStatementCache.executeUpdateDelete(db,
+                        "UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
+                        " WHERE empty = 0 AND id" + selectionSet,
                         selectionArgs);
             }
 
@@ -997,7 +1228,7 @@ public class LocalStore extends Store implements Serializable {
             public void postDbWork() {
                 notifyChange();
             }
-        }, FLAG_UPDATE_BATCH_SIZE);
+        });
     }
 
     /**
@@ -1016,7 +1247,7 @@ public class LocalStore extends Store implements Serializable {
      *
      * @throws MessagingException
      */
-    public void setFlagForThreads(final List<Long> threadRootIds, Flag flag, final boolean newState)
+    public void setFlagForThreads(final LongArrayList threadRootIds, Flag flag, final boolean newState)
             throws MessagingException {
 
         final String flagColumn = getColumnNameForFlag(flag);
@@ -1029,15 +1260,16 @@ public class LocalStore extends Store implements Serializable {
             }
 
             @Override
-            public String getListItem(int index) {
-                return Long.toString(threadRootIds.get(index));
+            public long getListItem(int index) {
+                return threadRootIds.get(index);
             }
 
             @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
+            public void doDbWork(SQLiteDatabase db, String selectionSet, long[] selectionArgs)
                     throws UnavailableStorageException {
 
-                db.execSQL("UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
+                mStatementCache.executeUpdateDelete(db,
+                        "UPDATE messages SET " + flagColumn + " = " + ((newState) ? "1" : "0") +
                         " WHERE id IN (" +
                         "SELECT m.id FROM threads t " +
                         "LEFT JOIN messages m ON (t.message_id = m.id) " +
@@ -1050,7 +1282,7 @@ public class LocalStore extends Store implements Serializable {
             public void postDbWork() {
                 notifyChange();
             }
-        }, THREAD_FLAG_UPDATE_BATCH_SIZE);
+        });
     }
 
     /**
@@ -1068,7 +1300,7 @@ public class LocalStore extends Store implements Serializable {
      *
      * @throws MessagingException
      */
-    public Map<String, List<String>> getFoldersAndUids(final List<Long> messageIds,
+    public Map<String, List<String>> getFoldersAndUids(final LongArrayList messageIds,
             final boolean threadedList) throws MessagingException {
 
         final Map<String, List<String>> folderMap = new HashMap<String, List<String>>();
@@ -1081,12 +1313,12 @@ public class LocalStore extends Store implements Serializable {
             }
 
             @Override
-            public String getListItem(int index) {
-                return Long.toString(messageIds.get(index));
+            public long getListItem(int index) {
+                return messageIds.get(index);
             }
 
             @Override
-            public void doDbWork(SQLiteDatabase db, String selectionSet, String[] selectionArgs)
+            public void doDbWork(SQLiteDatabase db, String selectionSet, long[] selectionArgs)
                     throws UnavailableStorageException {
 
                 if (threadedList) {
@@ -1097,7 +1329,7 @@ public class LocalStore extends Store implements Serializable {
                             "WHERE m.empty = 0 AND m.deleted = 0 " +
                             "AND t.root" + selectionSet;
 
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
+                    getDataFromCursor(rawQuery(db, sql, selectionArgs));
 
                 } else {
                     String sql =
@@ -1106,7 +1338,7 @@ public class LocalStore extends Store implements Serializable {
                             "LEFT JOIN folders f ON (m.folder_id = f.id) " +
                             "WHERE m.empty = 0 AND m.id" + selectionSet;
 
-                    getDataFromCursor(db.rawQuery(sql, selectionArgs));
+                    getDataFromCursor(rawQuery(db, sql, selectionArgs));
                 }
             }
 
@@ -1134,7 +1366,7 @@ public class LocalStore extends Store implements Serializable {
                 notifyChange();
 
             }
-        }, UID_CHECK_BATCH_SIZE);
+        });
 
         return folderMap;
     }
@@ -1,6 +1,7 @@
 package au.com.wallaceit.voicemail.mailstore;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -17,6 +18,10 @@ import au.com.wallaceit.voicemail.helper.FileHelper;
 import com.fsck.k9.mail.MessagingException;
 
 public class LockableDatabase {
+    /**
+     * Callbacks that have to wait longer than this for the database are logged when debug logging is enabled.
+     */
+    private static final long SLOW_LOCK_WAIT_MILLIS = 100;
 
     /**
      * Callback interface for DB operations. Concept is similar to Spring
@@ -141,6 +146,11 @@ public class LockableDatabase {
 
     private String uUid;
 
+    private boolean mWriteAheadLoggingEnabled = false;
+
+    private final LockTimes mReadOnlyLockTimes = new LockTimes();
+    private final LockTimes mReadWriteLockTimes = new LockTimes();
+
     /**
      * @param context
      *            Never <code>null</code>.
@@ -163,6 +173,19 @@ public class LockableDatabase {
         return mStorageProviderId;
     }
 
+    /**
+     * Open the database in write-ahead logging mode.
+     *
+     * <p>
+     * In WAL mode {@link SQLiteDatabase} keeps a small pool of read connections next to the single
+     * write connection, so callbacks run with {@link #executeReadOnly(DbCallback)} no longer queue
+     * up behind a transaction of another thread. Has to be called before {@link #open()}.
+     * </p>
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        mWriteAheadLoggingEnabled = enabled;
+    }
+
     private StorageManager getStorageManager() {
         return StorageManager.getInstance(context);
     }
@@ -263,14 +286,46 @@ public class LockableDatabase {
      * @throws UnavailableStorageException
      */
     public <T> T execute(final boolean transactional, final DbCallback<T> callback) throws MessagingException {
+        return execute(transactional, false, callback);
+    }
+
+    /**
+     * Execute a DB callback that only reads from the database.
+     *
+     * <p>
+     * The callback is run outside of a transaction (unless the current thread already has one
+     * active), which allows it to use one of the read connections when the database is in WAL
+     * mode and run while another thread is writing.
+     * </p>
+     *
+     * @param callback
+     *            Never <code>null</code>. Must not modify the database.
+     * @return Whatever {@link DbCallback#doDbWork(SQLiteDatabase)} returns.
+     * @throws UnavailableStorageException
+     *
+     * @see #setWriteAheadLoggingEnabled(boolean)
+     */
+    public <T> T executeReadOnly(final DbCallback<T> callback) throws MessagingException {
+        return execute(false, true, callback);
+    }
+
+    private <T> T execute(final boolean transactional, final boolean readOnly, final DbCallback<T> callback)
+            throws MessagingException {
+        final long lockRequested = System.nanoTime();
         lockRead();
         final boolean doTransaction = transactional && inTransaction.get() == null;
+        long lockAcquired = 0L;
         try {
             final boolean debug = VisualVoicemail.DEBUG;
             if (doTransaction) {
                 inTransaction.set(Boolean.TRUE);
+                // beginTransaction() blocks until other writers are done
                 mDb.beginTransaction();
             }
+            lockAcquired = System.nanoTime();
+            if (debug) {
+                logSlowLockWait(lockRequested, lockAcquired);
+            }
             try {
                 final T result = callback.doDbWork(mDb);
                 if (doTransaction) {
@@ -288,7 +343,7 @@ public class LockableDatabase {
                     // not doing endTransaction in the same 'finally' block of unlockRead() because endTransaction() may throw an exception
                     mDb.endTransaction();
                     if (debug) {
-                        Log.v(VisualVoicemail.LOG_TAG, "LockableDatabase: Transaction ended, took " + Long.toString(System.currentTimeMillis() - begin) + "ms / " + new Exception().getStackTrace()[1].toString());
+                        Log.v(VisualVoicemail.LOG_TAG, "LockableDatabase: Transaction ended, took " + Long.toString(System.currentTimeMillis() - begin) + "ms / " + new Exception().getStackTrace()[2].toString());
                     }
                 }
             }
@@ -296,10 +351,30 @@ public class LockableDatabase {
             if (doTransaction) {
                 inTransaction.set(null);
             }
+            if (lockAcquired != 0L) {
+                LockTimes lockTimes = readOnly ? mReadOnlyLockTimes : mReadWriteLockTimes;
+                lockTimes.record(lockAcquired - lockRequested, System.nanoTime() - lockAcquired);
+            }
             unlockRead();
         }
     }
 
+    private void logSlowLockWait(long lockRequested, long lockAcquired) {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(lockAcquired - lockRequested);
+        if (waitMillis >= SLOW_LOCK_WAIT_MILLIS) {
+            Log.d(VisualVoicemail.LOG_TAG, "LockableDatabase: Waited " + waitMillis + "ms for DB " + uUid + " / " +
+                    new Exception().getStackTrace()[3].toString());
+        }
+    }
+
+    /**
+     * @return How long callbacks waited for and held the database since it was created.
+     */
+    public LockStats getLockStats() {
+        return new LockStats(mWriteAheadLoggingEnabled, mReadOnlyLockTimes.snapshot(),
+                mReadWriteLockTimes.snapshot());
+    }
+
     /**
      * @param newProviderId
      *            Never <code>null</code>.
@@ -394,6 +469,10 @@ public class LockableDatabase {
             // external storage
             mDb = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
         }
+
+        if (mWriteAheadLoggingEnabled && !mDb.enableWriteAheadLogging()) {
+            Log.w(VisualVoicemail.LOG_TAG, "LockableDatabase: Unable to enable write-ahead logging for DB " + uUid);
+        }
     }
 
     /**
@@ -514,4 +593,78 @@ public class LockableDatabase {
                     "LockableDatabase: deleteDatabase(): No files deleted.");
         }
     }
+
+    public static class LockStats {
+        public final boolean writeAheadLogging;
+        public final LockTimes readOnly;
+        public final LockTimes readWrite;
+
+        LockStats(boolean writeAheadLogging, LockTimes readOnly, LockTimes readWrite) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.readOnly = readOnly;
+            this.readWrite = readWrite;
+        }
+
+        @Override
+        public String toString() {
+            return "wal=" + writeAheadLogging + " readOnly=[" + readOnly + "] readWrite=[" + readWrite + "]";
+        }
+    }
+
+    /**
+     * Wait and hold times of DB callbacks. "Wait" covers acquiring the lock and, for
+     * transactional callbacks, starting the transaction. "Hold" is the rest of the callback.
+     */
+    public static class LockTimes {
+        private long callbacks;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+        private long totalHoldNanos;
+        private long maxHoldNanos;
+
+        synchronized void record(long waitNanos, long holdNanos) {
+            callbacks++;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+            totalHoldNanos += holdNanos;
+            maxHoldNanos = Math.max(maxHoldNanos, holdNanos);
+        }
+
+        synchronized LockTimes snapshot() {
+            LockTimes copy = new LockTimes();
+            copy.callbacks = callbacks;
+            copy.totalWaitNanos = totalWaitNanos;
+            copy.maxWaitNanos = maxWaitNanos;
+            copy.totalHoldNanos = totalHoldNanos;
+            copy.maxHoldNanos = maxHoldNanos;
+            return copy;
+        }
+
+        public synchronized long getCallbacks() {
+            return callbacks;
+        }
+
+        public synchronized long getAverageWaitMillis() {
+            return (callbacks == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / callbacks);
+        }
+
+        public synchronized long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        }
+
+        public synchronized long getAverageHoldMillis() {
+            return (callbacks == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalHoldNanos / callbacks);
+        }
+
+        public synchronized long getMaxHoldMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxHoldNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "callbacks=" + getCallbacks() + " avgWait=" + getAverageWaitMillis() + "ms maxWait=" +
+                    getMaxWaitMillis() + "ms avgHold=" + getAverageHoldMillis() + "ms maxHold=" +
+                    getMaxHoldMillis() + "ms";
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package au.com.wallaceit.voicemail.mailstore;
+
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+
+/**
+ * Compiled INSERT statements for the rows written when storing messages.
+ * <p>
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} builds and compiles a new
+ * statement for every row. When a sync stores hundreds of messages with several parts each,
+ * compiling the statements once per batch and binding the values directly saves a noticeable
+ * amount of time. An instance is only meant to be used inside a single transaction; call
+ * {@link #close()} when done.
+ * </p>
+ */
+class MessageInserter {
+    private static final String[] MESSAGE_COLUMNS = {
+            "message_part_id", "uid", "subject", "sender_list", "date", "flags", "deleted", "read",
+            "flagged", "answered", "forwarded", "folder_id", "to_list", "cc_list", "bcc_list",
+            "reply_to_list", "attachment_count", "internal_date", "mime_type", "empty", "preview_type",
+            "preview", "message_id"
+    };
+
+    private static final String[] MESSAGE_PART_COLUMNS = {
+            "type", "root", "parent", "seq", "mime_type", "decoded_body_size", "display_name", "header",
+            "encoding", "charset", "data_location", "data", "preamble", "epilogue", "boundary",
+            "content_id", "server_extra"
+    };
+
+
+    private final SQLiteDatabase db;
+    private SQLiteStatement insertMessageStatement;
+    private SQLiteStatement insertThreadStatement;
+    private SQLiteStatement insertMessagePartStatement;
+
+
+    MessageInserter(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    long insertMessage(ContentValues cv) {
+        if (insertMessageStatement == null) {
+            insertMessageStatement = db.compileStatement(buildInsertSql("messages", MESSAGE_COLUMNS));
+        }
+
+        return executeInsert(insertMessageStatement, MESSAGE_COLUMNS, cv);
+    }
+
+    /**
+     * @param rootId
+     *         The root of the thread or {@code -1} if the new entry starts a thread.
+     * @param parentId
+     *         The parent entry in the thread or {@code -1} if there is none.
+     */
+    long insertThread(long messageId, long rootId, long parentId) {
+        if (insertThreadStatement == null) {
+            insertThreadStatement = db.compileStatement(
+                    "INSERT INTO threads (message_id, root, parent) VALUES (?, ?, ?)");
+        }
+
+        SQLiteStatement statement = insertThreadStatement;
+        statement.clearBindings();
+        statement.bindLong(1, messageId);
+        if (rootId != -1) {
+            statement.bindLong(2, rootId);
+        }
+        if (parentId != -1) {
+            statement.bindLong(3, parentId);
+        }
+
+        return statement.executeInsert();
+    }
+
+    long insertMessagePart(ContentValues cv) {
+        if (insertMessagePartStatement == null) {
+            insertMessagePartStatement = db.compileStatement(
+                    buildInsertSql("message_parts", MESSAGE_PART_COLUMNS));
+        }
+
+        return executeInsert(insertMessagePartStatement, MESSAGE_PART_COLUMNS, cv);
+    }
+
+    void close() {
+        closeStatement(insertMessageStatement);
+        closeStatement(insertThreadStatement);
+        closeStatement(insertMessagePartStatement);
+
+        insertMessageStatement = null;
+        insertThreadStatement = null;
+        insertMessagePartStatement = null;
+    }
+
+    private static long executeInsert(SQLiteStatement statement, String[] columns, ContentValues cv) {
+        statement.clearBindings();
+
+        int boundValues = 0;
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i];
+            if (cv.containsKey(column)) {
+                bindValue(statement, i + 1, cv.get(column));
+                boundValues++;
+            }
+        }
+
+        if (boundValues != cv.size()) {
+            throw new IllegalArgumentException("ContentValues contain columns the statement doesn't know: " +
+                    cv.keySet());
+        }
+
+        return statement.executeInsert();
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short ||
+                value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private static String buildInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? ", ?" : "?");
+        }
+
+        return sql.append(")").toString();
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+}
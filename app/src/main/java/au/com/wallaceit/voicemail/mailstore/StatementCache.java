@@ -0,0 +1,79 @@
+package au.com.wallaceit.voicemail.mailstore;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+
+/**
+ * Compiled {@code UPDATE} statements used by {@link LocalStore#doBatchSetSelection(LocalStore.BatchSetSelection)},
+ * keyed by their SQL.
+ *
+ * <p>
+ * The batching code pads selection sets to a few fixed sizes, so only a handful of distinct statements
+ * exist per operation and compiling them once is enough. The cache belongs to one {@link SQLiteDatabase}
+ * instance and is emptied when it is used with another one, e.g. after the storage provider was switched.
+ * All methods are synchronized because a compiled statement keeps its bindings between executions.
+ * Only use it inside a transaction: the caller then already owns the database connection, so
+ * waiting for the lock can't deadlock with a thread waiting for the connection.
+ * </p>
+ */
+class StatementCache {
+    private static final int MAX_SIZE = 16;
+
+
+    private final LinkedHashMap<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_SIZE) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private SQLiteDatabase mDatabase;
+
+
+    /**
+     * Execute an {@code UPDATE} or {@code DELETE} statement with {@code long} arguments.
+     *
+     * @return The number of rows affected.
+     */
+    synchronized int executeUpdateDelete(SQLiteDatabase db, String sql, long[] args) {
+        SQLiteStatement statement = getStatement(db, sql);
+        try {
+            LocalStore.bindLongs(statement, 1, args);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    synchronized void clear() {
+        for (Iterator<SQLiteStatement> it = mStatements.values().iterator(); it.hasNext(); ) {
+            it.next().close();
+            it.remove();
+        }
+    }
+
+    private SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        if (db != mDatabase) {
+            clear();
+            mDatabase = db;
+        }
+
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+
+        return statement;
+    }
+}
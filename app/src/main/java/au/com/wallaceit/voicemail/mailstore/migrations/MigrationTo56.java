@@ -0,0 +1,12 @@
+package au.com.wallaceit.voicemail.mailstore.migrations;
+
+
+import android.database.sqlite.SQLiteDatabase;
+
+
+class MigrationTo56 {
+    public static void addModSeqColumnsToFoldersTable(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE folders ADD uid_validity INTEGER default 0");
+        db.execSQL("ALTER TABLE folders ADD highest_mod_seq INTEGER default 0");
+    }
+}
@@ -62,6 +62,10 @@ public class Migrations {
                 MigrationTo53.removeNullValuesFromEmptyColumnInMessagesTable(db);
             case 53:
                 MigrationTo54.addPreviewTypeColumn(db);
+            case 54:
+                // Database version 55 didn't change the schema
+            case 55:
+                MigrationTo56.addModSeqColumnsToFoldersTable(db);
         }
     }
 }
@@ -281,6 +281,9 @@ public class GlobalSettings {
         s.put("confirmDiscardMessage", au.com.wallaceit.voicemail.preferences.Settings.versions(
                 new V(40, new BooleanSetting(true))
         ));
+        s.put("databaseWriteAheadLogging", au.com.wallaceit.voicemail.preferences.Settings.versions(
+                new V(41, new BooleanSetting(false))
+        ));
 
         SETTINGS = Collections.unmodifiableMap(s);
 
@@ -38,7 +38,7 @@ public class Settings {
      *
      * @see SettingsExporter
      */
-    public static final int VERSION = 40;
+    public static final int VERSION = 41;
 
     public static Map<String, Object> validate(int version, Map<String,
             TreeMap<Integer, SettingsDescription>> settings,
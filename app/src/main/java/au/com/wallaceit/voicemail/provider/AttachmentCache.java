@@ -0,0 +1,292 @@
+package au.com.wallaceit.voicemail.provider;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.VisualVoicemail;
+import com.fsck.k9.mail.filter.Hex;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Size-bounded cache of decoded attachments.
+ * <p>
+ * Attachments are stored in their transfer encoding. Players and other apps need the decoded
+ * data and usually want to seek in it, which a pipe can't provide. Parts that are stored encoded
+ * are decoded once into this cache and served from there. The least recently used entries are
+ * evicted when the cache grows beyond its maximum size.
+ * </p><p>
+ * There is one entry per part, see {@link #getKey(String, String)}. It is named after a digest of
+ * the key and of the version of the stored part, so a part that is downloaded again replaces its
+ * entry. Part IDs can be reused after a message was deleted, so deleting a message has to
+ * {@link #invalidate(String) invalidate} the entries of its parts.
+ * </p>
+ */
+public class AttachmentCache {
+    private static final String CACHE_DIRECTORY = "attachments";
+    private static final String LEGACY_CACHE_DIRECTORY = "voicemail";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String VERSION_SEPARATOR = "-";
+    private static final long MAX_SIZE = 16 * 1024 * 1024;
+
+    private static AttachmentCache sInstance;
+
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+    private int hits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+
+
+    public static synchronized AttachmentCache getInstance(Context context) {
+        if (sInstance == null) {
+            File cacheDir = context.getCacheDir();
+            deleteDirectory(new File(cacheDir, LEGACY_CACHE_DIRECTORY));
+            sInstance = new AttachmentCache(new File(cacheDir, CACHE_DIRECTORY), MAX_SIZE);
+        }
+
+        return sInstance;
+    }
+
+    public static String getKey(String accountUuid, String attachmentId) {
+        return accountUuid + "/" + attachmentId;
+    }
+
+    AttachmentCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        loadEntries();
+    }
+
+    /**
+     * Returns the cached file for {@code key}, decoding {@code source} into the cache first if necessary.
+     *
+     * @param version
+     *         Changes whenever the stored part changes. An entry of a different version is replaced.
+     * @param source
+     *         Supplies the decoded data on a cache miss. Only opened when needed.
+     */
+    public File get(String key, String version, StreamSource source) throws IOException {
+        String keyName = getDigest(key);
+        String name = keyName + VERSION_SEPARATOR + getDigest(version);
+        File file = new File(directory, name);
+
+        synchronized (this) {
+            Entry entry = entries.get(keyName);
+            if (entry != null && entry.name.equals(name) && file.exists()) {
+                hits++;
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            } else if (entry != null) {
+                removeEntry(keyName);
+            }
+
+            misses++;
+        }
+
+        File tempFile = File.createTempFile(keyName, TEMP_FILE_SUFFIX, createDirectory());
+        try {
+            InputStream in = source.open();
+            try {
+                OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to move decoded attachment to " + file);
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        synchronized (this) {
+            Entry entry = new Entry(name, file.length());
+            Entry previousEntry = entries.put(keyName, entry);
+            if (previousEntry != null) {
+                size -= previousEntry.length;
+                if (!previousEntry.name.equals(name)) {
+                    deleteFile(previousEntry.name);
+                }
+            }
+            size += entry.length;
+
+            trimToSize();
+        }
+
+        return file;
+    }
+
+    /**
+     * Removes the entry for {@code key}, e.g. because the part was deleted.
+     */
+    public synchronized void invalidate(String key) {
+        removeEntry(getDigest(key));
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, entries.size(), size);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        // Always keep the newest entry, it is about to be opened
+        while (size > maxSize && entries.size() > 1) {
+            Entry entry = iterator.next().getValue();
+            size -= entry.length;
+            iterator.remove();
+            deleteFile(entry.name);
+            evictions++;
+        }
+    }
+
+    private void removeEntry(String keyName) {
+        Entry entry = entries.remove(keyName);
+        if (entry != null) {
+            size -= entry.length;
+            deleteFile(entry.name);
+        }
+    }
+
+    private void deleteFile(String name) {
+        File file = new File(directory, name);
+
+        // Open file descriptors stay valid after the file was deleted
+        if (!file.delete() && file.exists() && VisualVoicemail.DEBUG) {
+            Log.d(VisualVoicemail.LOG_TAG, "Unable to delete cached attachment " + file);
+        }
+    }
+
+    private synchronized void loadEntries() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Restore the access order from the last modification time, get() updates it on each hit
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return (lhsModified < rhsModified) ? -1 : ((lhsModified == rhsModified) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf(VERSION_SEPARATOR);
+            if (name.endsWith(TEMP_FILE_SUFFIX) || separator == -1) {
+                file.delete();
+                continue;
+            }
+
+            Entry entry = new Entry(name, file.length());
+            Entry previousEntry = entries.put(name.substring(0, separator), entry);
+            if (previousEntry != null) {
+                size -= previousEntry.length;
+                deleteFile(previousEntry.name);
+            }
+            size += entry.length;
+        }
+
+        trimToSize();
+    }
+
+    private File createDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create attachment cache directory " + directory);
+        }
+
+        return directory;
+    }
+
+    private static String getDigest(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new String(Hex.encodeHex(digest.digest(value.getBytes("UTF-8"))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+
+    public interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    private static class Entry {
+        final String name;
+        final long length;
+
+        Entry(String name, long length) {
+            this.name = name;
+            this.length = length;
+        }
+    }
+
+    public static class Stats {
+        public final int hits;
+        public final int misses;
+        public final int evictions;
+        public final int entryCount;
+        public final long size;
+
+        Stats(int hits, int misses, int evictions, int entryCount, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entryCount = entryCount;
+            this.size = size;
+        }
+
+        public float getHitRate() {
+            int requests = hits + misses;
+            return (requests == 0) ? 0 : (float) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, hitRate=%.2f, evictions=%d, entries=%d, size=%d", hits,
+                    misses, getHitRate(), evictions, entryCount, size);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package au.com.wallaceit.voicemail.provider;
 
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,11 +23,14 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.internet.MimeUtility;
 import au.com.wallaceit.voicemail.mailstore.LocalStore;
 import au.com.wallaceit.voicemail.mailstore.LocalStore.AttachmentInfo;
-import org.openintents.openpgp.util.ParcelFileDescriptorUtil;
 
 
 /**
  * A simple ContentProvider that allows file access to attachments.
+ * <p>
+ * Attachments that are stored without transfer encoding are served from the stored file. All
+ * others are decoded into the {@link AttachmentCache} first, so readers always get a seekable file.
+ * </p>
  */
 public class AttachmentProvider extends ContentProvider {
     private static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".attachmentprovider";
@@ -52,6 +56,19 @@ public class AttachmentProvider extends ContentProvider {
                 .build();
     }
 
+    /**
+     * @param displayName
+     *         The name reported to other apps instead of the name stored with the attachment.
+     */
+    public static Uri getAttachmentUri(String accountUuid, long id, String mimeType, String displayName) {
+        return CONTENT_URI.buildUpon()
+                .appendPath(accountUuid)
+                .appendPath(Long.toString(id))
+                .appendPath(mimeType)
+                .appendPath(displayName)
+                .build();
+    }
+
     @Override
     public boolean onCreate() {
         return true;
@@ -84,6 +101,7 @@ public class AttachmentProvider extends ContentProvider {
         List<String> segments = uri.getPathSegments();
         String accountUuid = segments.get(0);
         String id = segments.get(1);
+        String displayName = (segments.size() < 4) ? null : segments.get(3);
 
         final AttachmentInfo attachmentInfo;
         try {
@@ -110,7 +128,7 @@ public class AttachmentProvider extends ContentProvider {
             } else if (AttachmentProviderColumns.DATA.equals(column)) {
                 values[i] = uri.toString();
             } else if (AttachmentProviderColumns.DISPLAY_NAME.equals(column)) {
-                values[i] = attachmentInfo.name;
+                values[i] = (displayName != null) ? displayName : attachmentInfo.name;
             } else if (AttachmentProviderColumns.SIZE.equals(column)) {
                 values[i] = attachmentInfo.size;
             }
@@ -155,22 +173,67 @@ public class AttachmentProvider extends ContentProvider {
         return type;
     }
 
-    private ParcelFileDescriptor openAttachment(String accountUuid, String attachmentId) {
+    private ParcelFileDescriptor openAttachment(String accountUuid, String attachmentId)
+            throws FileNotFoundException {
         try {
-            InputStream inputStream = getAttachmentInputStream(accountUuid, attachmentId);
-            return ParcelFileDescriptorUtil.pipeFrom(inputStream, null);
+            final Account account = Preferences.getPreferences(getContext()).getAccount(accountUuid);
+            final LocalStore localStore = LocalStore.getInstance(account, getContext());
+
+            File file = getDecodedAttachmentFile(localStore, accountUuid, attachmentId);
+            if (file == null) {
+                throw new FileNotFoundException("No attachment data for ID: " + attachmentId);
+            }
+
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
         } catch (MessagingException e) {
-            Log.e(VisualVoicemail.LOG_TAG, "Error getting InputStream for attachment", e);
-            return null;
+            Log.e(VisualVoicemail.LOG_TAG, "Error getting attachment info", e);
+            throw new FileNotFoundException("Unable to open attachment " + attachmentId);
+        } catch (FileNotFoundException e) {
+            throw e;
         } catch (IOException e) {
-            Log.e(VisualVoicemail.LOG_TAG, "Error creating ParcelFileDescriptor", e);
-            return null;
+            Log.e(VisualVoicemail.LOG_TAG, "Error decoding attachment", e);
+            throw new FileNotFoundException("Unable to open attachment " + attachmentId);
         }
     }
 
-    private InputStream getAttachmentInputStream(String accountUuid, String attachmentId) throws MessagingException {
-        final Account account = Preferences.getPreferences(getContext()).getAccount(accountUuid);
-        LocalStore localStore = LocalStore.getInstance(account, getContext());
-        return localStore.getAttachmentInputStream(attachmentId);
+    private File getDecodedAttachmentFile(final LocalStore localStore, String accountUuid,
+            final String attachmentId) throws MessagingException, IOException {
+        AttachmentInfo attachmentInfo = localStore.getAttachmentInfo(attachmentId);
+        if (attachmentInfo == null) {
+            return null;
+        }
+
+        if (attachmentInfo.isStoredDecoded()) {
+            return attachmentInfo.file;
+        }
+
+        // Parts are only ever replaced by downloading them again, which changes the stored file
+        String key = AttachmentCache.getKey(accountUuid, attachmentId);
+        String version = attachmentInfo.encoding + "/" + attachmentInfo.size;
+        if (attachmentInfo.file != null) {
+            version += "/" + attachmentInfo.file.lastModified();
+        }
+
+        AttachmentCache attachmentCache = AttachmentCache.getInstance(getContext());
+        File file = attachmentCache.get(key, version, new AttachmentCache.StreamSource() {
+            @Override
+            public InputStream open() throws IOException {
+                try {
+                    InputStream inputStream = localStore.getAttachmentInputStream(attachmentId);
+                    if (inputStream == null) {
+                        throw new FileNotFoundException("No attachment data for ID: " + attachmentId);
+                    }
+                    return inputStream;
+                } catch (MessagingException e) {
+                    throw new IOException("Unable to read attachment " + attachmentId, e);
+                }
+            }
+        });
+
+        if (VisualVoicemail.DEBUG) {
+            Log.d(VisualVoicemail.LOG_TAG, "Attachment cache: " + attachmentCache.getStats());
+        }
+
+        return file;
     }
 }
@@ -1,6 +1,7 @@
 package au.com.wallaceit.voicemail.provider;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,7 @@ import au.com.wallaceit.voicemail.mailstore.LockableDatabase.DbCallback;
 import au.com.wallaceit.voicemail.mailstore.LockableDatabase.WrappedException;
 import au.com.wallaceit.voicemail.mailstore.UnavailableStorageException;
 import au.com.wallaceit.voicemail.mailstore.LocalStore;
+import au.com.wallaceit.voicemail.search.PageKey;
 import au.com.wallaceit.voicemail.search.SqlQueryBuilder;
 
 import android.content.ContentProvider;
@@ -48,6 +50,26 @@ public class EmailProvider extends ContentProvider {
 
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
 
+    /*
+     * Query parameters for keyset paging of the "messages" URI. If any of them is present the
+     * result is sorted by SqlQueryBuilder.PAGE_SORT_ORDER and the sort order argument is ignored.
+     */
+
+    /**
+     * Maximum number of rows to return.
+     */
+    public static final String QUERY_PARAM_LIMIT = "limit";
+
+    /**
+     * Only return messages after this {@link PageKey}, i.e. the next page.
+     */
+    public static final String QUERY_PARAM_BEFORE = "before";
+
+    /**
+     * Only return messages up to and including this {@link PageKey}, i.e. all pages loaded so far.
+     */
+    public static final String QUERY_PARAM_UNTIL = "until";
+
 
     /*
      * Constants that are used for the URI matching.
@@ -234,9 +256,30 @@ public class EmailProvider extends ContentProvider {
 
                 String[] dbProjection = dbColumnNames.toArray(new String[0]);
 
-                if (match == MESSAGES) {
+                if (match == MESSAGES && isPagedQuery(uri)) {
+                    PageKey before = getPageKey(uri, QUERY_PARAM_BEFORE);
+                    PageKey until = getPageKey(uri, QUERY_PARAM_UNTIL);
+                    String limit = uri.getQueryParameter(QUERY_PARAM_LIMIT);
+                    if (limit != null) {
+                        // Reject anything but a number, the value ends up in the SQL statement
+                        limit = Integer.toString(Integer.parseInt(limit));
+                    }
+
+                    StringBuilder pagedSelection = new StringBuilder();
+                    List<String> pagedSelectionArgs = new ArrayList<String>();
+                    if (!TextUtils.isEmpty(selection)) {
+                        pagedSelection.append('(').append(selection).append(") AND ");
+                        if (selectionArgs != null) {
+                            pagedSelectionArgs.addAll(Arrays.asList(selectionArgs));
+                        }
+                    }
+                    SqlQueryBuilder.buildPageClause(before, until, pagedSelection, pagedSelectionArgs);
+
+                    cursor = getMessages(accountUuid, dbProjection, pagedSelection.toString(),
+                            pagedSelectionArgs.toArray(new String[0]), SqlQueryBuilder.PAGE_SORT_ORDER, limit);
+                } else if (match == MESSAGES) {
                     cursor = getMessages(accountUuid, dbProjection, selection, selectionArgs,
-                            sortOrder);
+                            sortOrder, null);
                 } else if (match == MESSAGES_THREADED) {
                     cursor = getThreadedMessages(accountUuid, dbProjection, selection,
                             selectionArgs, sortOrder);
@@ -289,14 +332,30 @@ public class EmailProvider extends ContentProvider {
         throw new RuntimeException("not implemented yet");
     }
 
+    private static boolean isPagedQuery(Uri uri) {
+        return uri.getQueryParameter(QUERY_PARAM_LIMIT) != null ||
+                uri.getQueryParameter(QUERY_PARAM_BEFORE) != null ||
+                uri.getQueryParameter(QUERY_PARAM_UNTIL) != null;
+    }
+
+    private static PageKey getPageKey(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        return (value == null) ? null : PageKey.parse(value);
+    }
+
+    /**
+     * @param limit
+     *         Maximum number of rows as SQL {@code LIMIT} clause. {@code null} for all rows.
+     */
     protected Cursor getMessages(String accountUuid, final String[] projection,
-            final String selection, final String[] selectionArgs, final String sortOrder) {
+            final String selection, final String[] selectionArgs, final String sortOrder,
+            final String limit) {
 
         Account account = getAccount(accountUuid);
         LockableDatabase database = getDatabase(account);
 
         try {
-            return database.execute(false, new DbCallback<Cursor>() {
+            return database.executeReadOnly(new DbCallback<Cursor>() {
                 @Override
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
@@ -344,11 +403,15 @@ public class EmailProvider extends ContentProvider {
                         query.append(" ORDER BY ");
                         query.append(SqlQueryBuilder.addPrefixToSelection(FIXUP_MESSAGES_COLUMNS,
                                 "m.", sortOrder));
+                        if (limit != null) {
+                            query.append(" LIMIT ");
+                            query.append(limit);
+                        }
 
                         cursor = db.rawQuery(query.toString(), selectionArgs);
                     } else {
                         cursor = db.query(MESSAGES_TABLE, projection, where, selectionArgs, null,
-                                null, sortOrder);
+                                null, sortOrder, limit);
                     }
 
                     return cursor;
@@ -368,7 +431,7 @@ public class EmailProvider extends ContentProvider {
         LockableDatabase database = getDatabase(account);
 
         try {
-            return database.execute(false, new DbCallback<Cursor>() {
+            return database.executeReadOnly(new DbCallback<Cursor>() {
                 @Override
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
@@ -488,7 +551,7 @@ public class EmailProvider extends ContentProvider {
         LockableDatabase database = getDatabase(account);
 
         try {
-            return database.execute(false, new DbCallback<Cursor>() {
+            return database.executeReadOnly(new DbCallback<Cursor>() {
                 @Override
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
@@ -590,7 +653,7 @@ public class EmailProvider extends ContentProvider {
 
         // Query the database and return the result cursor
         try {
-            return database.execute(false, new DbCallback<Cursor>() {
+            return database.executeReadOnly(new DbCallback<Cursor>() {
                 @Override
                 public Cursor doDbWork(SQLiteDatabase db) throws WrappedException,
                         UnavailableStorageException {
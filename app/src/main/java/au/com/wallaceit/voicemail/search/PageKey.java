@@ -0,0 +1,63 @@
+package au.com.wallaceit.voicemail.search;
+
+
+/**
+ * Position of a message in the {@code date DESC, id DESC} order used for keyset paging, i.e. the
+ * message list sorted by date, newest first.
+ *
+ * <p>
+ * Instead of skipping rows with {@code OFFSET} a page is selected relative to the key of the last row
+ * of the previous page. That's a single index seek no matter how deep into the list the page is, and
+ * pages don't shift when messages are added or removed at the top.
+ * </p>
+ */
+public class PageKey {
+    public final long date;
+    public final long id;
+
+
+    public PageKey(long date, long id) {
+        this.date = date;
+        this.id = id;
+    }
+
+    /**
+     * Parses the string representation returned by {@link #toString()}.
+     *
+     * @throws IllegalArgumentException
+     *         if {@code value} is not a valid page key.
+     */
+    public static PageKey parse(String value) {
+        int separator = value.indexOf(':');
+        if (separator == -1) {
+            throw new IllegalArgumentException("Invalid page key: " + value);
+        }
+
+        long date = Long.parseLong(value.substring(0, separator));
+        long id = Long.parseLong(value.substring(separator + 1));
+        return new PageKey(date, id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PageKey)) {
+            return false;
+        }
+
+        PageKey other = (PageKey) o;
+        return date == other.date && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (date ^ (date >>> 32)) + (int) (id ^ (id >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return date + ":" + id;
+    }
+}
@@ -14,6 +14,12 @@ import au.com.wallaceit.voicemail.search.SearchSpecification.SearchField;
 
 
 public class SqlQueryBuilder {
+    /**
+     * The order of {@link PageKey}. Queries restricted by {@link #buildPageClause} need to be sorted this way.
+     */
+    public static final String PAGE_SORT_ORDER = "date DESC, id DESC";
+
+
     public static void buildWhereClause(Account account, au.com.wallaceit.voicemail.search.ConditionsTreeNode node,
             StringBuilder query, List<String> selectionArgs) {
         buildWhereClauseInternal(account, node, query, selectionArgs);
@@ -275,6 +281,39 @@ public class SqlQueryBuilder {
         }
     }
 
+    /**
+     * Appends the keyset condition selecting a range of messages in {@link #PAGE_SORT_ORDER}.
+     *
+     * @param before
+     *         Only messages after this key are selected. May be {@code null}.
+     * @param until
+     *         Only messages up to and including this key are selected. May be {@code null}.
+     */
+    public static void buildPageClause(PageKey before, PageKey until, StringBuilder query,
+            List<String> selectionArgs) {
+        if (before == null && until == null) {
+            query.append("1");
+            return;
+        }
+
+        if (before != null) {
+            query.append("(date < ? OR (date = ? AND id < ?))");
+            selectionArgs.add(Long.toString(before.date));
+            selectionArgs.add(Long.toString(before.date));
+            selectionArgs.add(Long.toString(before.id));
+        }
+
+        if (until != null) {
+            if (before != null) {
+                query.append(" AND ");
+            }
+            query.append("(date > ? OR (date = ? AND id >= ?))");
+            selectionArgs.add(Long.toString(until.date));
+            selectionArgs.add(Long.toString(until.date));
+            selectionArgs.add(Long.toString(until.id));
+        }
+    }
+
     public static String addPrefixToSelection(String[] columnNames, String prefix, String selection) {
         String result = selection;
         for (String columnName : columnNames) {
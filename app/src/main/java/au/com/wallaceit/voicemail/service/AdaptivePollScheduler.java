@@ -0,0 +1,251 @@
+package au.com.wallaceit.voicemail.service;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import au.com.wallaceit.voicemail.Account;
+import au.com.wallaceit.voicemail.Preferences;
+import au.com.wallaceit.voicemail.Provider;
+import au.com.wallaceit.voicemail.VisualVoicemail;
+import au.com.wallaceit.voicemail.activity.setup.AccountSettings;
+import au.com.wallaceit.voicemail.preferences.Storage;
+import au.com.wallaceit.voicemail.preferences.StorageEditor;
+
+
+/**
+ * Schedules mail checks after a missed call or a voicemail notification SMS.
+ *
+ * <p>
+ * How long it takes for a voicemail to show up on the server depends on the provider. For each
+ * provider and trigger the observed delays are kept in an {@link ArrivalHistory}. A trigger opens a
+ * window of checks around the usual delay, see {@link ArrivalHistory#getCheckOffsets(long, long)}.
+ * The window closes when a check finds new messages (adding the delay to the history) or when the
+ * schedule is exhausted, e.g. because the caller didn't leave a message.
+ * </p><p>
+ * Outside of a window regular polls that find nothing are spaced out further, see
+ * {@link #getIdleMultiplier(Context, Collection)}.
+ * </p><p>
+ * The state is kept in {@link Storage} because the receivers and services involved don't live
+ * long enough to hold it.
+ * </p>
+ */
+public class AdaptivePollScheduler {
+    public static final int TRIGGER_MISSED_CALL = 1;
+    public static final int TRIGGER_SMS = 2;
+
+    /**
+     * Window used after a missed call until enough delays have been observed. Voicemail used to be
+     * checked once, two minutes after the call.
+     */
+    private static final long MISSED_CALL_DEFAULT_START = 60 * 1000;
+    private static final long MISSED_CALL_DEFAULT_END = 3 * 60 * 1000;
+
+    /**
+     * Window used after a notification SMS until enough delays have been observed. The voicemail
+     * should already be there, so check right away.
+     */
+    private static final long SMS_DEFAULT_START = 0;
+    private static final long SMS_DEFAULT_END = 30 * 1000;
+
+    /**
+     * Checks due in less than this are started right away instead of setting an alarm.
+     */
+    private static final long IMMEDIATE_CHECK = 5 * 1000;
+
+    /**
+     * How often the regular poll interval is doubled at most after polls that found nothing.
+     */
+    private static final int MAX_IDLE_DOUBLINGS = 2;
+
+    private static final int REQUEST_CODE = 1;
+
+    private static final String KEY_PREFIX = "AdaptivePollScheduler.";
+    private static final String HISTORY = KEY_PREFIX + "history.";
+    private static final String WINDOW_HISTORY_KEY = KEY_PREFIX + "windowHistoryKey";
+    private static final String WINDOW_TRIGGER = KEY_PREFIX + "windowTrigger";
+    private static final String TRIGGER_TIME = KEY_PREFIX + "triggerTime";
+    private static final String LAST_EMPTY_CHECK = KEY_PREFIX + "lastEmptyCheck";
+    private static final String IDLE_POLLS = KEY_PREFIX + "idlePolls";
+
+
+    /**
+     * Open a check window after a missed call or a notification SMS.
+     */
+    public static synchronized void onTrigger(Context context, Account account, int trigger) {
+        long now = System.currentTimeMillis();
+        String historyKey = getHistoryKey(account, trigger);
+
+        Storage storage = Preferences.getPreferences(context).getStorage();
+        StorageEditor editor = storage.edit();
+        editor.putString(WINDOW_HISTORY_KEY, historyKey);
+        editor.putInt(WINDOW_TRIGGER, trigger);
+        editor.putLong(TRIGGER_TIME, now);
+        editor.putLong(LAST_EMPTY_CHECK, now);
+        editor.putInt(IDLE_POLLS, 0);
+        editor.commit();
+
+        long[] offsets = getCheckOffsets(storage, historyKey, trigger);
+        if (VisualVoicemail.DEBUG) {
+            Log.i(VisualVoicemail.LOG_TAG, "AdaptivePollScheduler: trigger " + trigger + " for " + historyKey +
+                    ", checks at " + Arrays.toString(offsets) + " ms");
+        }
+
+        scheduleCheck(context, now + offsets[0]);
+    }
+
+    /**
+     * Called whenever a (background) mail check has finished.
+     *
+     * @param newMessages
+     *         The number of new messages the check found, or {@code -1} if the check failed.
+     */
+    public static synchronized void onCheckFinished(Context context, int newMessages) {
+        long now = System.currentTimeMillis();
+        Storage storage = Preferences.getPreferences(context).getStorage();
+        String historyKey = storage.getString(WINDOW_HISTORY_KEY, null);
+
+        if (historyKey == null) {
+            if (newMessages < 0) {
+                return;
+            }
+            int idlePolls = (newMessages > 0) ? 0 : storage.getInt(IDLE_POLLS, 0) + 1;
+            storage.edit().putInt(IDLE_POLLS, Math.min(idlePolls, MAX_IDLE_DOUBLINGS)).commit();
+            return;
+        }
+
+        long triggerTime = storage.getLong(TRIGGER_TIME, now);
+        if (newMessages > 0) {
+            // The voicemail arrived some time between the last check that found nothing and now
+            long lastEmptyCheck = storage.getLong(LAST_EMPTY_CHECK, triggerTime);
+            long delay = (lastEmptyCheck + now) / 2 - triggerTime;
+
+            ArrivalHistory history = ArrivalHistory.parse(storage.getString(HISTORY + historyKey, null));
+            history.add(delay);
+
+            StorageEditor editor = storage.edit();
+            editor.putString(HISTORY + historyKey, history.toString());
+            editor.putInt(IDLE_POLLS, 0);
+            closeWindow(editor);
+            editor.commit();
+            cancelCheck(context);
+
+            if (VisualVoicemail.DEBUG) {
+                Log.i(VisualVoicemail.LOG_TAG, "AdaptivePollScheduler: voicemail arrived about " + delay +
+                        " ms after trigger, history for " + historyKey + ": " + history);
+            }
+            return;
+        }
+
+        int trigger = storage.getInt(WINDOW_TRIGGER, TRIGGER_MISSED_CALL);
+        long[] offsets = getCheckOffsets(storage, historyKey, trigger);
+        for (long offset : offsets) {
+            long checkTime = triggerTime + offset;
+            if (checkTime > now) {
+                if (newMessages == 0) {
+                    storage.edit().putLong(LAST_EMPTY_CHECK, now).commit();
+                }
+                scheduleCheck(context, checkTime);
+                return;
+            }
+        }
+
+        if (VisualVoicemail.DEBUG) {
+            Log.i(VisualVoicemail.LOG_TAG, "AdaptivePollScheduler: no voicemail after trigger, closing window");
+        }
+
+        StorageEditor editor = storage.edit();
+        closeWindow(editor);
+        editor.commit();
+    }
+
+    /**
+     * Get the factor to stretch the regular poll interval by.
+     *
+     * <p>
+     * Only accounts that are also checked after a missed call, a notification SMS or by push can rely
+     * on the regular poll as a fallback. For those the interval doubles with every poll that didn't
+     * find anything, up to {@link #MAX_IDLE_DOUBLINGS} times.
+     * </p>
+     *
+     * @param accounts
+     *         The accounts the regular poll is for.
+     */
+    public static synchronized int getIdleMultiplier(Context context, Collection<Account> accounts) {
+        for (Account account : accounts) {
+            int method = account.getAutomaticCheckMethod();
+            if (account.getAutomaticCheckIntervalMinutes() != -1 &&
+                    method != AccountSettings.PREFERENCE_AUTO_CHECK_MISSED_CALL &&
+                    method != AccountSettings.PREFERENCE_AUTO_CHECK_SMS &&
+                    method != AccountSettings.PREFERENCE_AUTO_CHECK_PUSH) {
+                return 1;
+            }
+        }
+
+        Storage storage = Preferences.getPreferences(context).getStorage();
+        int idlePolls = storage.getInt(IDLE_POLLS, 0);
+        return 1 << Math.max(0, Math.min(idlePolls, MAX_IDLE_DOUBLINGS));
+    }
+
+    private static long[] getCheckOffsets(Storage storage, String historyKey, int trigger) {
+        ArrivalHistory history = ArrivalHistory.parse(storage.getString(HISTORY + historyKey, null));
+        if (trigger == TRIGGER_SMS) {
+            return history.getCheckOffsets(SMS_DEFAULT_START, SMS_DEFAULT_END);
+        }
+
+        return history.getCheckOffsets(MISSED_CALL_DEFAULT_START, MISSED_CALL_DEFAULT_END);
+    }
+
+    private static String getHistoryKey(Account account, int trigger) {
+        Provider provider = account.getProvider();
+        String providerId = (provider != null) ? provider.id : account.getUuid();
+        return providerId + "." + trigger;
+    }
+
+    private static void closeWindow(StorageEditor editor) {
+        editor.remove(WINDOW_HISTORY_KEY);
+        editor.remove(WINDOW_TRIGGER);
+        editor.remove(TRIGGER_TIME);
+        editor.remove(LAST_EMPTY_CHECK);
+    }
+
+    private static void scheduleCheck(Context context, long atTime) {
+        if (atTime - System.currentTimeMillis() < IMMEDIATE_CHECK) {
+            cancelCheck(context);
+            MailService.actionCheck(context, null, true);
+            return;
+        }
+
+        if (VisualVoicemail.DEBUG) {
+            Log.i(VisualVoicemail.LOG_TAG, "AdaptivePollScheduler: next check at " + new Date(atTime));
+        }
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = buildPendingIntent(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, atTime, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, atTime, pendingIntent);
+        }
+    }
+
+    private static void cancelCheck(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(buildPendingIntent(context));
+    }
+
+    private static PendingIntent buildPendingIntent(Context context) {
+        Intent intent = new Intent(context, MailService.class);
+        intent.setAction(MailService.ACTION_CHECK_MAIL);
+        intent.putExtra(MailService.FLAG_FORCE_CHECK, true);
+        return PendingIntent.getService(context, REQUEST_CODE, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
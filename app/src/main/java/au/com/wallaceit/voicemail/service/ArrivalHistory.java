@@ -0,0 +1,152 @@
+package au.com.wallaceit.voicemail.service;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The observed delays between a trigger (missed call, notification SMS) and the arrival of the
+ * voicemail on the server, and the check schedule derived from them.
+ *
+ * <p>
+ * Only the most recent {@link #MAX_SAMPLES} delays are kept, so the schedule follows changes in the
+ * behavior of the provider. Until {@link #MIN_SAMPLES} delays have been observed a default window is
+ * used.
+ * </p>
+ *
+ * @see AdaptivePollScheduler
+ */
+class ArrivalHistory {
+    static final int MAX_SAMPLES = 16;
+    static final int MIN_SAMPLES = 3;
+
+    /**
+     * Delays are clamped to this value. Voicemails arriving later are found by the regular poll.
+     */
+    static final long MAX_WINDOW = 15 * 60 * 1000;
+
+    /**
+     * Time between the first two checks of a schedule. Doubles with every further check.
+     */
+    static final long MIN_STEP = 15 * 1000;
+
+    static final int MAX_CHECKS = 6;
+
+
+    private final long[] mDelays = new long[MAX_SAMPLES];
+    private int mCount = 0;
+
+
+    /**
+     * Parses the representation returned by {@link #toString()}. Invalid values are skipped.
+     */
+    static ArrivalHistory parse(String value) {
+        ArrivalHistory history = new ArrivalHistory();
+        if (value == null || value.isEmpty()) {
+            return history;
+        }
+
+        for (String delay : value.split(",")) {
+            try {
+                history.add(Long.parseLong(delay));
+            } catch (NumberFormatException e) {
+                // skip
+            }
+        }
+
+        return history;
+    }
+
+    void add(long delay) {
+        long clamped = Math.max(0, Math.min(delay, MAX_WINDOW));
+        if (mCount == MAX_SAMPLES) {
+            System.arraycopy(mDelays, 1, mDelays, 0, MAX_SAMPLES - 1);
+            mCount--;
+        }
+        mDelays[mCount++] = clamped;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The delay below which a fraction of {@code q} of the observed delays lie (nearest rank).
+     */
+    long getQuantile(double q) {
+        if (mCount == 0) {
+            throw new IllegalStateException("No delays observed");
+        }
+
+        long[] sorted = Arrays.copyOf(mDelays, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(q * mCount);
+        return sorted[Math.max(0, Math.min(rank, mCount) - 1)];
+    }
+
+    /**
+     * Computes when to check for a voicemail after a trigger.
+     *
+     * <p>
+     * The window is spanned by the 10th and 90th percentile of the observed delays, or by the given
+     * defaults while there are too few observations. The first check happens at the start of the
+     * window. Further checks follow with growing gaps ({@link #MIN_STEP}, twice that, ...) up to the
+     * end of the window, plus one late check at twice the end of the window.
+     * </p>
+     *
+     * @param defaultStart
+     *         Start of the window in milliseconds if there are too few observations.
+     * @param defaultEnd
+     *         End of the window in milliseconds if there are too few observations.
+     *
+     * @return Ascending offsets in milliseconds relative to the trigger.
+     */
+    long[] getCheckOffsets(long defaultStart, long defaultEnd) {
+        long start;
+        long end;
+        if (mCount < MIN_SAMPLES) {
+            start = defaultStart;
+            end = defaultEnd;
+        } else {
+            start = getQuantile(0.1);
+            end = getQuantile(0.9);
+        }
+
+        List<Long> offsets = new ArrayList<Long>(MAX_CHECKS);
+        long offset = start;
+        long step = MIN_STEP;
+        offsets.add(offset);
+        while (offset < end && offsets.size() < MAX_CHECKS - 1) {
+            offset = Math.min(offset + step, end);
+            offsets.add(offset);
+            step *= 2;
+        }
+
+        long late = Math.min(Math.max(2 * end, offset + MIN_STEP), MAX_WINDOW);
+        if (late > offset) {
+            offsets.add(late);
+        }
+
+        long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mCount; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(mDelays[i]);
+        }
+
+        return sb.toString();
+    }
+}
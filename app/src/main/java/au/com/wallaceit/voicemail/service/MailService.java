@@ -31,7 +31,11 @@ public class MailService extends CoreService {
     private static final String ACTION_RESTART_PUSHERS = "com.fsck.k9.intent.action.MAIL_SERVICE_RESTART_PUSHERS";
     private static final String CONNECTIVITY_CHANGE = "com.fsck.k9.intent.action.MAIL_SERVICE_CONNECTIVITY_CHANGE";
     private static final String CANCEL_CONNECTIVITY_NOTICE = "com.fsck.k9.intent.action.MAIL_SERVICE_CANCEL_CONNECTIVITY_NOTICE";
+    private static final String ACTION_FETCH_ANNOUNCED = "com.fsck.k9.intent.action.MAIL_SERVICE_FETCH_ANNOUNCED";
     public static final String FLAG_FORCE_CHECK = "com.fsck.k9.intent.action.MAIL_SERVICE_WAKEUP";
+    private static final String EXTRA_ACCOUNT = "au.com.wallaceit.voicemail.MailService.account";
+    private static final String EXTRA_UID = "au.com.wallaceit.voicemail.MailService.uid";
+    private static final String EXTRA_COUNT = "au.com.wallaceit.voicemail.MailService.count";
 
     private static long nextCheck = -1;
     private static boolean pushingRequested = false;
@@ -48,6 +52,27 @@ public class MailService extends CoreService {
         context.startService(i);
     }
 
+    /**
+     * Fetch the message(s) a notification SMS announced, falling back to regular checks if that
+     * doesn't find anything.
+     *
+     * @param uid
+     *         The UID of the new message in the inbox, or {@code null} if unknown.
+     * @param count
+     *         The number of new messages, or {@code -1} if unknown.
+     */
+    public static void actionFetchAnnounced(Context context, Account account, String uid, int count,
+            Integer wakeLockId) {
+        Intent i = new Intent();
+        i.setClass(context, MailService.class);
+        i.setAction(MailService.ACTION_FETCH_ANNOUNCED);
+        i.putExtra(EXTRA_ACCOUNT, account.getUuid());
+        i.putExtra(EXTRA_UID, uid);
+        i.putExtra(EXTRA_COUNT, count);
+        addWakeLockId(context, i, wakeLockId, true);
+        context.startService(i);
+    }
+
     public static void actionReset(Context context, Integer wakeLockId) {
         Intent i = new Intent();
         i.setClass(context, au.com.wallaceit.voicemail.service.MailService.class);
@@ -132,6 +157,13 @@ public class MailService extends CoreService {
                 PollService.startService(this, intent.hasExtra(FLAG_FORCE_CHECK));
             }
             reschedulePollInBackground(hasConnectivity, doBackground, startId, false);
+        } else if (ACTION_FETCH_ANNOUNCED.equals(intent.getAction())) {
+            if (VisualVoicemail.DEBUG)
+                Log.i(VisualVoicemail.LOG_TAG, "***** MailService *****: fetching announced messages");
+            if (hasConnectivity && doBackground) {
+                PollService.startFetchAnnounced(this, intent.getStringExtra(EXTRA_ACCOUNT),
+                        intent.getStringExtra(EXTRA_UID), intent.getIntExtra(EXTRA_COUNT, -1));
+            }
         } else if (ACTION_CANCEL.equals(intent.getAction())) {
             if (VisualVoicemail.DEBUG)
                 Log.v(VisualVoicemail.LOG_TAG, "***** MailService *****: cancel");
@@ -291,7 +323,8 @@ public class MailService extends CoreService {
             pollingRequested = false;
             cancel();
         } else {
-            long delay = (shortestInterval * (60 * 1000));
+            int idleMultiplier = AdaptivePollScheduler.getIdleMultiplier(this, prefs.getAvailableAccounts());
+            long delay = (shortestInterval * (60 * 1000)) * idleMultiplier;
             long base = (previousInterval == -1 || lastCheckEnd == -1 ||
                     !considerLastCheckEnd ? System.currentTimeMillis() : lastCheckEnd);
             long nextTime = base + delay;
@@ -299,6 +332,7 @@ public class MailService extends CoreService {
             if (VisualVoicemail.DEBUG) {
                 Log.i(VisualVoicemail.LOG_TAG, "previousInterval = " + previousInterval +
                       ", shortestInterval = " + shortestInterval +
+                      ", idleMultiplier = " + idleMultiplier +
                       ", lastCheckEnd = " + new Date(lastCheckEnd) +
                       ", considerLastCheckEnd = " + considerLastCheckEnd);
             }
@@ -18,8 +18,6 @@ package au.com.wallaceit.voicemail.service;
  *
  */
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -57,18 +55,13 @@ public class MissedCallReceiver extends BroadcastReceiver {
             List<Account> accounts = Preferences.getPreferences(context).getAccounts();
             if (accounts.size()<1)
                 return;
-            boolean isEnabled = accounts.get(0).getAutomaticCheckMethod() == AccountSettings.PREFERENCE_AUTO_CHECK_MISSED_CALL;
+            Account account = accounts.get(0);
+            boolean isEnabled = account.getAutomaticCheckMethod() == AccountSettings.PREFERENCE_AUTO_CHECK_MISSED_CALL;
             if (isEnabled) {
                 if (VisualVoicemail.DEBUG)
                     Log.w(VisualVoicemail.LOG_TAG, "Missed call check enabled, scheduling check");
-                // setup intent for mail check, alarm service triggers the check directly
-                Intent mintent = new Intent(context, MailService.class);
-                mintent.setAction(MailService.ACTION_CHECK_MAIL);
-                mintent.putExtra(MailService.FLAG_FORCE_CHECK, true);
-                PendingIntent pintent = PendingIntent.getService(context, 0, mintent, 0);
-
-                AlarmManager alarmManager = (AlarmManager)(context.getSystemService(Context.ALARM_SERVICE));
-                alarmManager.set(AlarmManager.RTC_WAKEUP, System.currentTimeMillis()+120000, pintent); // takes a while for voicemail to come through.
+                // takes a while for voicemail to come through, the scheduler learns how long
+                AdaptivePollScheduler.onTrigger(context, account, AdaptivePollScheduler.TRIGGER_MISSED_CALL);
             }
         }
         lastState = state;
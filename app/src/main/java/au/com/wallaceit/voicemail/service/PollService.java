@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import au.com.wallaceit.voicemail.Account;
+import au.com.wallaceit.voicemail.Preferences;
 import au.com.wallaceit.voicemail.VisualVoicemail;
 import au.com.wallaceit.voicemail.controller.MessagingController;
 import au.com.wallaceit.voicemail.controller.MessagingListener;
@@ -21,6 +22,10 @@ public class PollService extends CoreService {
     private static String START_SERVICE = "au.com.wallaceit.voicemail.service.PollService.startService";
     private static String STOP_SERVICE = "au.com.wallaceit.voicemail.service.PollService.stopService";
     private static int FLAG_FORCE_CHECK = 666;
+    private static String FETCH_ANNOUNCED = "au.com.wallaceit.voicemail.service.PollService.fetchAnnounced";
+    private static String EXTRA_ACCOUNT = "au.com.wallaceit.voicemail.service.PollService.account";
+    private static String EXTRA_UID = "au.com.wallaceit.voicemail.service.PollService.uid";
+    private static String EXTRA_COUNT = "au.com.wallaceit.voicemail.service.PollService.count";
 
     private Listener mListener = new Listener();
 
@@ -34,6 +39,22 @@ public class PollService extends CoreService {
         context.startService(i);
     }
 
+    /**
+     * Fetch only the message(s) announced by a notification SMS instead of checking all folders.
+     *
+     * @see MessagingController#fetchAnnouncedMessages(Context, Account, String, int, MessagingListener)
+     */
+    public static void startFetchAnnounced(Context context, String accountUuid, String uid, int count) {
+        Intent i = new Intent();
+        i.setClass(context, au.com.wallaceit.voicemail.service.PollService.class);
+        i.setAction(PollService.FETCH_ANNOUNCED);
+        i.putExtra(EXTRA_ACCOUNT, accountUuid);
+        i.putExtra(EXTRA_UID, uid);
+        i.putExtra(EXTRA_COUNT, count);
+        addWakeLock(context, i);
+        context.startService(i);
+    }
+
     public static void stopService(Context context) {
         Intent i = new Intent();
         i.setClass(context, au.com.wallaceit.voicemail.service.PollService.class);
@@ -69,6 +90,32 @@ public class PollService extends CoreService {
                 listener.setStartId(startId);
                 listener.wakeLockAcquire();
             }
+        } else if (FETCH_ANNOUNCED.equals(intent.getAction())) {
+            Account account = Preferences.getPreferences(this).getAccount(intent.getStringExtra(EXTRA_ACCOUNT));
+            if (account == null) {
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
+
+            MessagingController controller = MessagingController.getInstance(getApplication());
+            Listener listener = (Listener)controller.getCheckMailListener();
+            if (listener == null) {
+                if (VisualVoicemail.DEBUG)
+                    Log.i(VisualVoicemail.LOG_TAG, "***** PollService *****: fetching announced messages");
+                mListener.setStartId(startId);
+                mListener.setAnnouncedAccount(account);
+                mListener.wakeLockAcquire();
+                controller.setCheckMailListener(mListener);
+                controller.fetchAnnouncedMessages(this, account, intent.getStringExtra(EXTRA_UID),
+                        intent.getIntExtra(EXTRA_COUNT, -1), mListener);
+            } else {
+                // The running check may have looked at the inbox before the message arrived
+                if (VisualVoicemail.DEBUG)
+                    Log.i(VisualVoicemail.LOG_TAG, "***** PollService *****: check running, scheduling follow-up checks");
+                listener.setStartId(startId);
+                listener.wakeLockAcquire();
+                AdaptivePollScheduler.onTrigger(this, account, AdaptivePollScheduler.TRIGGER_SMS);
+            }
         } else if (STOP_SERVICE.equals(intent.getAction())) {
             if (VisualVoicemail.DEBUG)
                 Log.i(VisualVoicemail.LOG_TAG, "PollService stopping");
@@ -85,6 +132,8 @@ public class PollService extends CoreService {
 
     class Listener extends MessagingListener {
         Map<String, Integer> accountsChecked = new HashMap<String, Integer>();
+        private int newMessages = 0;
+        private Account announcedAccount = null;
         private TracingWakeLock wakeLock = null;
         private int startId = -1;
 
@@ -112,10 +161,12 @@ public class PollService extends CoreService {
         @Override
         public void checkMailStarted(Context context, Account account) {
             accountsChecked.clear();
+            newMessages = 0;
         }
 
         @Override
         public void checkMailFailed(Context context, Account account, String reason) {
+            newMessages = -1;
             release();
         }
 
@@ -125,6 +176,9 @@ public class PollService extends CoreService {
             String folder,
             int totalMessagesInMailbox,
             int numNewMessages) {
+            if (newMessages >= 0) {
+                newMessages += numNewMessages;
+            }
             if (account.isNotifyNewMail()) {
                 Integer existingNewMessages = accountsChecked.get(account.getUuid());
                 if (existingNewMessages == null) {
@@ -138,7 +192,18 @@ public class PollService extends CoreService {
 
             MessagingController controller = MessagingController.getInstance(getApplication());
             controller.setCheckMailListener(null);
-            MailService.saveLastCheckEnd(getApplication());
+            if (announcedAccount != null) {
+                // Only the inbox was looked at. If the announced message wasn't there (yet), fall
+                // back to checking the account like for any other notification SMS.
+                if (newMessages <= 0) {
+                    AdaptivePollScheduler.onTrigger(getApplication(), announcedAccount,
+                            AdaptivePollScheduler.TRIGGER_SMS);
+                }
+                announcedAccount = null;
+            } else {
+                MailService.saveLastCheckEnd(getApplication());
+                AdaptivePollScheduler.onCheckFinished(getApplication(), newMessages);
+            }
 
             MailService.actionReschedulePoll(PollService.this, null);
             wakeLockRelease();
@@ -155,6 +220,9 @@ public class PollService extends CoreService {
                 Log.v(VisualVoicemail.LOG_TAG, "***** PollService *****: checkMailFinished");
             release();
         }
+        public void setAnnouncedAccount(Account announcedAccount) {
+            this.announcedAccount = announcedAccount;
+        }
         public int getStartId() {
             return startId;
         }
@@ -11,9 +11,11 @@ import android.os.Bundle;
 import android.telephony.SmsMessage;
 import android.util.Log;
 
+import au.com.wallaceit.voicemail.Account;
 import au.com.wallaceit.voicemail.Preferences;
 import au.com.wallaceit.voicemail.VisualVoicemail;
 import au.com.wallaceit.voicemail.activity.setup.AccountSettings;
+import au.com.wallaceit.voicemail.controller.MessagingController;
 
 public class SmsReceiver extends BroadcastReceiver {
     @Override
@@ -24,7 +26,8 @@ public class SmsReceiver extends BroadcastReceiver {
         if (VisualVoicemail.DEBUG)
             Log.i(VisualVoicemail.LOG_TAG, "SMS detection enabled: " + isEnabled);
         if (isEnabled) {
-            String providerSms = Preferences.getPreferences(context).getAccounts().get(0).getProvider().notifySmsNumber;
+            Account account = Preferences.getPreferences(context).getAccounts().get(0);
+            String providerSms = account.getProvider().notifySmsNumber;
 
             // Get sender number
             final Bundle bundle = intent.getExtras();
@@ -42,7 +45,17 @@ public class SmsReceiver extends BroadcastReceiver {
                     if (phoneNumber != null && providerSms.equals(phoneNumber)) {
                         if (VisualVoicemail.DEBUG)
                             Log.i(VisualVoicemail.LOG_TAG, "SMS provider match, checking for voicemails: " + phoneNumber);
-                        MailService.actionCheck(context, null, true);
+                        MessagingController.getInstance(context).prewarmRemoteConnections();
+                        String body = currentMessage.getMessageBody();
+                        VoicemailSms sms = (body != null) ? VoicemailSms.parse(body) : null;
+                        if (sms != null && sms.isMailboxUpdate() &&
+                                (sms.getMessageUid() != null || sms.getNewMessageCount() > 0)) {
+                            // Some servers send the same payload as with type 0 SMS
+                            MailService.actionFetchAnnounced(context, account, sms.getMessageUid(),
+                                    sms.getNewMessageCount(), null);
+                        } else {
+                            AdaptivePollScheduler.onTrigger(context, account, AdaptivePollScheduler.TRIGGER_SMS);
+                        }
                     } else {
                         if (VisualVoicemail.DEBUG)
                             Log.i(VisualVoicemail.LOG_TAG, "No SMS provider match: " + phoneNumber);
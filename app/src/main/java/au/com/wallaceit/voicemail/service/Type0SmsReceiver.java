@@ -40,6 +40,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import au.com.wallaceit.voicemail.Account;
 import au.com.wallaceit.voicemail.NotificationSetting;
@@ -48,6 +49,7 @@ import au.com.wallaceit.voicemail.R;
 import au.com.wallaceit.voicemail.VisualVoicemail;
 import au.com.wallaceit.voicemail.activity.setup.AccountSettings;
 import au.com.wallaceit.voicemail.activity.setup.AccountSetup;
+import au.com.wallaceit.voicemail.controller.MessagingController;
 
 public class Type0SmsReceiver extends BroadcastReceiver {
 
@@ -66,18 +68,13 @@ public class Type0SmsReceiver extends BroadcastReceiver {
         String body = intent.getStringExtra("body");
 
         // process message data
-        String[] parts = body.split("\\?");
-        String cmd = parts[0];
-        if (parts.length>1){
-            String[] paramArr = parts[1].split(";");
-            for (String aParamArr : paramArr) {
-                String[] param = aParamArr.split("=");
-                if (param.length > 1)
-                    intent.putExtra(param[0], param[1]);
-            }
+        VoicemailSms sms = VoicemailSms.parse(body);
+        String cmd = sms.getCommand();
+        for (Map.Entry<String, String> param : sms.getParams().entrySet()) {
+            intent.putExtra(param.getKey(), param.getValue());
         }
 
-        if (cmd.equals("STATE") && intent.hasExtra("pw")){
+        if (cmd.equals(VoicemailSms.COMMAND_STATE) && intent.hasExtra("pw")){
             Log.w(context.getPackageName(), "SMS contains Voicemail account settings");
 
             String server = intent.getStringExtra("server");
@@ -118,9 +115,20 @@ public class Type0SmsReceiver extends BroadcastReceiver {
                 addNotification(context, body, i);
             }
 
-        } else if (cmd.equals("MBOXUPDATE")){
+        } else if (sms.isMailboxUpdate()){
             Log.w(context.getPackageName(), "SMS contains new voicemail notification");
-            MailService.actionCheck(context, null, true);
+            MessagingController.getInstance(context).prewarmRemoteConnections();
+            List<Account> accounts = Preferences.getPreferences(context).getAccounts();
+            String uid = sms.getMessageUid();
+            int count = sms.getNewMessageCount();
+            if (accounts.isEmpty()) {
+                MailService.actionCheck(context, null, true);
+            } else if (uid != null || count > 0) {
+                // The SMS tells us what's new, so only fetch that
+                MailService.actionFetchAnnounced(context, accounts.get(0), uid, count, null);
+            } else {
+                AdaptivePollScheduler.onTrigger(context, accounts.get(0), AdaptivePollScheduler.TRIGGER_SMS);
+            }
         } else {
             // Display unknown SMS command
             addNotification(context, body, null);
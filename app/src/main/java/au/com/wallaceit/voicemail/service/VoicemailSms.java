@@ -0,0 +1,126 @@
+package au.com.wallaceit.voicemail.service;
+
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A type 0 SMS sent by the voicemail server.
+ *
+ * <p>
+ * Two formats are understood: {@code MBOXUPDATE?m=1;server=...} as sent by CVVM servers and
+ * {@code //VVM:SYNC:ev=NM;id=1234;c=1;...} as defined by OMTP. Both consist of a command and a list of
+ * {@code key=value} parameters separated by {@code ;}.
+ * </p><p>
+ * Notifications about a new voicemail may announce the UID of the message and/or the number of new
+ * messages, see {@link #getMessageUid()} and {@link #getNewMessageCount()}. That allows fetching just
+ * the announced message instead of checking the whole account.
+ * </p>
+ */
+class VoicemailSms {
+    static final String COMMAND_MBOXUPDATE = "MBOXUPDATE";
+    static final String COMMAND_SYNC = "SYNC";
+    static final String COMMAND_STATE = "STATE";
+
+    private static final String OMTP_PREFIX = "//VVM:";
+    private static final String EVENT_NEW_MESSAGE = "NM";
+
+
+    private final String mCommand;
+    private final Map<String, String> mParams;
+
+
+    static VoicemailSms parse(String body) {
+        String command;
+        String params;
+        if (body.startsWith(OMTP_PREFIX)) {
+            String message = body.substring(OMTP_PREFIX.length());
+            int separator = message.indexOf(':');
+            command = (separator == -1) ? message : message.substring(0, separator);
+            params = (separator == -1) ? "" : message.substring(separator + 1);
+        } else {
+            int separator = body.indexOf('?');
+            command = (separator == -1) ? body : body.substring(0, separator);
+            params = (separator == -1) ? "" : body.substring(separator + 1);
+        }
+
+        Map<String, String> paramMap = new LinkedHashMap<String, String>();
+        for (String param : params.split(";")) {
+            int separator = param.indexOf('=');
+            if (separator > 0 && separator < param.length() - 1) {
+                paramMap.put(param.substring(0, separator).trim(), param.substring(separator + 1));
+            }
+        }
+
+        return new VoicemailSms(command.trim(), paramMap);
+    }
+
+    private VoicemailSms(String command, Map<String, String> params) {
+        mCommand = command;
+        mParams = Collections.unmodifiableMap(params);
+    }
+
+    String getCommand() {
+        return mCommand;
+    }
+
+    Map<String, String> getParams() {
+        return mParams;
+    }
+
+    /**
+     * @return {@code true} if the server notifies us about a change of the mailbox, i.e. it's worth
+     *         checking for new messages.
+     */
+    boolean isMailboxUpdate() {
+        return COMMAND_MBOXUPDATE.equals(mCommand) || COMMAND_SYNC.equals(mCommand);
+    }
+
+    /**
+     * @return The IMAP UID of the new message, or {@code null} if the SMS doesn't announce one.
+     */
+    String getMessageUid() {
+        if (COMMAND_SYNC.equals(mCommand) && !EVENT_NEW_MESSAGE.equals(mParams.get("ev"))) {
+            return null;
+        }
+
+        String uid = mParams.get("id");
+        if (uid == null) {
+            return null;
+        }
+
+        // UIDs are unsigned 32-bit numbers
+        try {
+            long number = Long.parseLong(uid.trim());
+            return (number > 0 && number <= 0xFFFFFFFFL) ? Long.toString(number) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of new messages announced by the SMS, or {@code -1} if it doesn't say.
+     */
+    int getNewMessageCount() {
+        if (COMMAND_SYNC.equals(mCommand)) {
+            return EVENT_NEW_MESSAGE.equals(mParams.get("ev")) ? parsePositive(mParams.get("c")) : -1;
+        }
+
+        return parsePositive(mParams.get("m"));
+    }
+
+    private static int parsePositive(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            int number = Integer.parseInt(value.trim());
+            return (number > 0) ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
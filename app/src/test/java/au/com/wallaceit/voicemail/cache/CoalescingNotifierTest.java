@@ -0,0 +1,154 @@
+package au.com.wallaceit.voicemail.cache;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CoalescingNotifierTest {
+    private RecordingNotifier notifier;
+
+
+    @Before
+    public void setUp() throws Exception {
+        notifier = new RecordingNotifier();
+    }
+
+    @Test
+    public void messagesChanged_calledRepeatedly_shouldScheduleOnce() throws Exception {
+        notifier.messagesChanged(LongArrayList.of(1, 2));
+        notifier.messagesChanged(LongArrayList.of(3));
+        notifier.threadsChanged(LongArrayList.of(4));
+
+        assertEquals(1, notifier.scheduleCount);
+    }
+
+    @Test
+    public void run_shouldDeliverSortedUniqueIds() throws Exception {
+        notifier.messagesChanged(LongArrayList.of(5, 1, 3));
+        notifier.messagesChanged(LongArrayList.of(3, 2, 5));
+        notifier.threadsChanged(LongArrayList.of(9, 7, 9));
+
+        notifier.run();
+
+        assertEquals(1, notifier.deliveries.size());
+        Delivery delivery = notifier.deliveries.get(0);
+        assertArrayEquals(new long[] { 1, 2, 3, 5 }, delivery.messageIds);
+        assertArrayEquals(new long[] { 7, 9 }, delivery.threadRootIds);
+        assertFalse(delivery.rowsChanged);
+    }
+
+    @Test
+    public void run_afterRowsChanged_shouldReportRowsChanged() throws Exception {
+        notifier.rowsChanged();
+
+        notifier.run();
+
+        assertEquals(1, notifier.deliveries.size());
+        Delivery delivery = notifier.deliveries.get(0);
+        assertEquals(0, delivery.messageIds.length);
+        assertEquals(0, delivery.threadRootIds.length);
+        assertTrue(delivery.rowsChanged);
+    }
+
+    @Test
+    public void run_withoutChanges_shouldNotDeliver() throws Exception {
+        notifier.run();
+
+        assertEquals(0, notifier.deliveries.size());
+    }
+
+    @Test
+    public void messagesChanged_afterRun_shouldScheduleAgain() throws Exception {
+        notifier.messagesChanged(LongArrayList.of(1));
+        notifier.run();
+
+        notifier.messagesChanged(LongArrayList.of(2));
+        notifier.run();
+
+        assertEquals(2, notifier.scheduleCount);
+        assertEquals(2, notifier.deliveries.size());
+        assertArrayEquals(new long[] { 2 }, notifier.deliveries.get(1).messageIds);
+    }
+
+    @Test
+    public void messagesChanged_fromConcurrentThreads_shouldDeliverAllIds() throws Exception {
+        final int threadCount = 8;
+        final int idsPerThread = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * idsPerThread;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    for (int i = 0; i < idsPerThread; i++) {
+                        notifier.messagesChanged(LongArrayList.of(offset + i));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        notifier.run();
+
+        assertEquals(1, notifier.scheduleCount);
+        long[] messageIds = notifier.deliveries.get(0).messageIds;
+        assertEquals(threadCount * idsPerThread, messageIds.length);
+        for (int i = 0; i < messageIds.length; i++) {
+            assertEquals(i, messageIds[i]);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    static class Delivery {
+        final long[] messageIds;
+        final long[] threadRootIds;
+        final boolean rowsChanged;
+
+        Delivery(long[] messageIds, long[] threadRootIds, boolean rowsChanged) {
+            this.messageIds = messageIds;
+            this.threadRootIds = threadRootIds;
+            this.rowsChanged = rowsChanged;
+        }
+    }
+
+    static class RecordingNotifier extends CoalescingNotifier {
+        int scheduleCount = 0;
+        final List<Delivery> deliveries = new ArrayList<Delivery>();
+
+        @Override
+        protected void schedule() {
+            scheduleCount++;
+        }
+
+        @Override
+        protected void deliver(long[] messageIds, long[] threadRootIds, boolean rowsChanged) {
+            deliveries.add(new Delivery(messageIds, threadRootIds, rowsChanged));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package au.com.wallaceit.voicemail.cache;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import au.com.wallaceit.voicemail.cache.CoalescingNotifierTest.RecordingNotifier;
+import au.com.wallaceit.voicemail.helper.collection.LongArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class EmailProviderCacheTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int IDS_PER_THREAD = 2000;
+
+
+    private RecordingNotifier notifier;
+    private EmailProviderCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        notifier = new RecordingNotifier();
+        cache = new EmailProviderCache(notifier);
+    }
+
+    @Test
+    public void setValueForMessages_shouldStoreValue() throws Exception {
+        cache.setValueForMessages(LongArrayList.of(1, 2), "read", "1");
+
+        assertEquals("1", cache.getValueForMessage(1L, "read"));
+        assertEquals("1", cache.getValueForMessage(2L, "read"));
+        assertNull(cache.getValueForMessage(3L, "read"));
+        assertNull(cache.getValueForMessage(1L, "flagged"));
+    }
+
+    @Test
+    public void setValueForMessages_shouldReportMessageIds() throws Exception {
+        cache.setValueForMessages(LongArrayList.of(2, 1), "read", "1");
+        cache.setValueForMessages(LongArrayList.of(1), "flagged", "1");
+
+        notifier.run();
+
+        assertEquals(1, notifier.scheduleCount);
+        assertArrayEquals(new long[] { 1, 2 }, notifier.deliveries.get(0).messageIds);
+    }
+
+    @Test
+    public void setValueForThreads_shouldNotAffectMessages() throws Exception {
+        cache.setValueForThreads(LongArrayList.of(1), "read", "0");
+
+        assertEquals("0", cache.getValueForThread(1L, "read"));
+        assertNull(cache.getValueForMessage(1L, "read"));
+    }
+
+    @Test
+    public void removeValueForMessages_shouldOnlyRemoveGivenColumn() throws Exception {
+        cache.setValueForMessages(LongArrayList.of(1), "read", "1");
+        cache.setValueForMessages(LongArrayList.of(1), "flagged", "1");
+
+        cache.removeValueForMessages(LongArrayList.of(1), "read");
+
+        assertNull(cache.getValueForMessage(1L, "read"));
+        assertEquals("1", cache.getValueForMessage(1L, "flagged"));
+    }
+
+    @Test
+    public void hideMessage_shouldOnlyHideInFolder() throws Exception {
+        cache.hideMessage(1L, 10L);
+
+        assertTrue(cache.isMessageHidden(1L, 10L));
+        assertFalse(cache.isMessageHidden(1L, 11L));
+        assertFalse(cache.isMessageHidden(2L, 10L));
+    }
+
+    @Test
+    public void unhideMessage_withOtherFolder_shouldKeepMessageHidden() throws Exception {
+        cache.hideMessage(1L, 10L);
+
+        cache.unhideMessage(1L, 11L);
+        assertTrue(cache.isMessageHidden(1L, 10L));
+
+        cache.unhideMessage(1L, 10L);
+        assertFalse(cache.isMessageHidden(1L, 10L));
+    }
+
+    @Test
+    public void setValueForMessages_fromConcurrentWriters_shouldKeepAllValues() throws Exception {
+        runConcurrently(new Worker() {
+            @Override
+            public void run(int thread) {
+                for (long id : getIds(thread)) {
+                    cache.setValueForMessages(LongArrayList.of(id), "read", Long.toString(id));
+                }
+            }
+        });
+
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            for (long id : getIds(thread)) {
+                assertEquals(Long.toString(id), cache.getValueForMessage(id, "read"));
+            }
+        }
+        notifier.run();
+        assertEquals(THREAD_COUNT * IDS_PER_THREAD, notifier.deliveries.get(0).messageIds.length);
+    }
+
+    @Test
+    public void setAndRemoveValue_fromConcurrentWritersOnSameIds_shouldLeaveConsistentState() throws Exception {
+        final long[] ids = getIds(0);
+
+        // Half the threads set "read", the other half set and remove "flagged" on the same messages
+        runConcurrently(new Worker() {
+            @Override
+            public void run(int thread) {
+                for (long id : ids) {
+                    LongArrayList messageIds = LongArrayList.of(id);
+                    if (thread % 2 == 0) {
+                        cache.setValueForMessages(messageIds, "read", "1");
+                    } else {
+                        cache.setValueForMessages(messageIds, "flagged", "1");
+                        cache.removeValueForMessages(messageIds, "flagged");
+                    }
+                }
+            }
+        });
+
+        for (long id : ids) {
+            assertEquals("1", cache.getValueForMessage(id, "read"));
+            assertNull(cache.getValueForMessage(id, "flagged"));
+        }
+    }
+
+    @Test
+    public void hideAndUnhide_fromConcurrentWriters_shouldKeepHiddenState() throws Exception {
+        runConcurrently(new Worker() {
+            @Override
+            public void run(int thread) {
+                for (long id : getIds(thread)) {
+                    cache.hideMessage(id, 1L);
+                    if (id % 2 == 0) {
+                        cache.unhideMessage(id, 1L);
+                    }
+                }
+            }
+        });
+
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            for (long id : getIds(thread)) {
+                assertEquals(id % 2 != 0, cache.isMessageHidden(id, 1L));
+            }
+        }
+    }
+
+    private static long[] getIds(int thread) {
+        long[] ids = new long[IDS_PER_THREAD];
+        for (int i = 0; i < IDS_PER_THREAD; i++) {
+            ids[i] = thread * IDS_PER_THREAD + i;
+        }
+        return ids;
+    }
+
+    private static void runConcurrently(final Worker worker) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int thread = t;
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        worker.run(thread);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            writer.start();
+            threads.add(writer);
+        }
+
+        start.countDown();
+        for (Thread writer : threads) {
+            writer.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+
+    interface Worker {
+        void run(int thread);
+    }
+}
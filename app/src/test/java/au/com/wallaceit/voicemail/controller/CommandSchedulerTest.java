@@ -0,0 +1,190 @@
+package au.com.wallaceit.voicemail.controller;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import au.com.wallaceit.voicemail.controller.MessagingController.Command;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class CommandSchedulerTest {
+    private static final String ACCOUNT_1 = "account1";
+    private static final String ACCOUNT_2 = "account2";
+    private static final long TIMEOUT_SECONDS = 5;
+
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+    private CommandScheduler scheduler;
+
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new CommandScheduler(new CommandScheduler.CommandHandler() {
+            @Override
+            public void handleCommand(Command command) {
+                executed.add(command.description);
+                command.runnable.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void schedule_withinOneLane_shouldRunForegroundFirstThenInSubmissionOrder() throws Exception {
+        CountDownLatch blockLane = new CountDownLatch(1);
+        scheduler.schedule(command(ACCOUNT_1, "blocker", false, awaiting(blockLane)));
+        waitUntilBusy();
+
+        scheduler.schedule(command(ACCOUNT_1, "background1", false, null));
+        scheduler.schedule(command(ACCOUNT_1, "background2", false, null));
+        scheduler.schedule(command(ACCOUNT_1, "foreground", true, null));
+        scheduler.schedule(command(ACCOUNT_1, "background3", false, null));
+        CountDownLatch done = scheduleMarker(ACCOUNT_1);
+        blockLane.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("blocker", "foreground", "background1", "background2", "background3"),
+                executed.subList(0, 5));
+    }
+
+    @Test
+    public void schedule_withinOneLane_shouldRunOneCommandAtATime() throws Exception {
+        CountDownLatch blockLane = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        scheduler.schedule(command(ACCOUNT_1, "first", false, awaiting(blockLane)));
+        scheduler.schedule(command(ACCOUNT_1, "second", false, countingDown(secondStarted)));
+
+        assertFalse(secondStarted.await(200, TimeUnit.MILLISECONDS));
+
+        blockLane.countDown();
+        assertTrue(secondStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void schedule_withBlockedLane_shouldRunCommandsOfOtherLanes() throws Exception {
+        CountDownLatch blockLane = new CountDownLatch(1);
+        CountDownLatch otherLaneRan = new CountDownLatch(1);
+        scheduler.schedule(command(ACCOUNT_1, "slow", false, awaiting(blockLane)));
+        waitUntilBusy();
+
+        scheduler.schedule(command(ACCOUNT_2, "other account", false, countingDown(otherLaneRan)));
+        scheduler.schedule(command(null, "global", false, null));
+
+        try {
+            assertTrue(otherLaneRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            blockLane.countDown();
+        }
+    }
+
+    @Test
+    public void schedule_afterCommandThrows_shouldKeepRunningCommandsOfLane() throws Exception {
+        scheduler.schedule(command(ACCOUNT_1, "failing", false, new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Remote operation failed");
+            }
+        }));
+        scheduler.schedule(command(ACCOUNT_1, "next", false, null));
+        CountDownLatch done = scheduleMarker(ACCOUNT_1);
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("failing", "next", "marker"), executed);
+    }
+
+    @Test
+    public void getLaneStats_shouldCountExecutedCommandsPerLane() throws Exception {
+        scheduler.schedule(command(ACCOUNT_1, "one", false, null));
+        scheduler.schedule(command(ACCOUNT_1, "two", false, null));
+        CountDownLatch done1 = scheduleMarker(ACCOUNT_1);
+        CountDownLatch done2 = scheduleMarker(null);
+
+        assertTrue(done1.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(done2.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(scheduler.hasPendingCommands());
+
+        for (CommandScheduler.LaneStats stats : scheduler.getLaneStats()) {
+            if (ACCOUNT_1.equals(stats.laneKey)) {
+                assertEquals(3, stats.executedCommands);
+            } else {
+                assertEquals(CommandScheduler.GLOBAL_LANE, stats.laneKey);
+                assertEquals(1, stats.executedCommands);
+            }
+            assertEquals(0, stats.queueDepth);
+        }
+        assertEquals(2, scheduler.getLaneStats().size());
+    }
+
+    private Command command(String laneKey, String description, boolean foreground, Runnable runnable) {
+        Command command = new Command();
+        command.laneKey = laneKey;
+        command.description = description;
+        command.isForeground = foreground;
+        command.runnable = (runnable != null) ? runnable : new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        return command;
+    }
+
+    /**
+     * Schedules a command that signals the returned latch once it ran, i.e. once every command submitted
+     * to the lane before it is done.
+     */
+    private CountDownLatch scheduleMarker(String laneKey) {
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(command(laneKey, "marker", false, countingDown(latch)));
+        return latch;
+    }
+
+    private void waitUntilBusy() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!scheduler.isBusy()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Runnable awaiting(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static Runnable countingDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,165 @@
+package au.com.wallaceit.voicemail.controller;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import au.com.wallaceit.voicemail.controller.PendingCommandCompactor.CompactedCommand;
+import au.com.wallaceit.voicemail.mailstore.LocalStore.PendingCommand;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class PendingCommandCompactorTest {
+    private static final String SET_FLAG = "setFlagBulk";
+    private static final String MOVE_OR_COPY = "moveOrCopyBulkNew";
+    private static final String EXPUNGE = "expunge";
+    private static final String APPEND = "append";
+
+
+    private final PendingCommandCompactor compactor = new PendingCommandCompactor(SET_FLAG, MOVE_OR_COPY, EXPUNGE);
+
+
+    @Test
+    public void compact_withSingleCommand_shouldKeepCommand() throws Exception {
+        PendingCommand command = command(SET_FLAG, "INBOX", "true", "SEEN", "1");
+
+        List<CompactedCommand> result = compactor.compact(Arrays.asList(command));
+
+        assertEquals(1, result.size());
+        assertSame(command, result.get(0).command);
+        assertEquals(Arrays.asList(command), result.get(0).replaced);
+    }
+
+    @Test
+    public void compact_withAdjacentSetFlags_shouldMergeUids() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(SET_FLAG, "INBOX", "true", "SEEN", "1"),
+                command(SET_FLAG, "INBOX", "true", "SEEN", "2", "3"),
+                command(SET_FLAG, "INBOX", "true", "SEEN", "4"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(1, result.size());
+        assertArrayEquals(new String[] { "INBOX", "true", "SEEN", "1", "2", "3", "4" }, result.get(0).command.arguments);
+        assertEquals(commands, result.get(0).replaced);
+    }
+
+    @Test
+    public void compact_withSetAndUnset_shouldKeepLastState() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(SET_FLAG, "INBOX", "true", "SEEN", "1", "2"),
+                command(SET_FLAG, "INBOX", "false", "SEEN", "1"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(2, result.size());
+        assertArrayEquals(new String[] { "INBOX", "true", "SEEN", "2" }, result.get(0).command.arguments);
+        assertTrue(result.get(0).replaced.isEmpty());
+        assertArrayEquals(new String[] { "INBOX", "false", "SEEN", "1" }, result.get(1).command.arguments);
+        assertEquals(commands, result.get(1).replaced);
+    }
+
+    @Test
+    public void compact_withDifferentFlags_shouldKeepOneCommandPerFolderAndFlag() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(SET_FLAG, "INBOX", "true", "SEEN", "1"),
+                command(SET_FLAG, "INBOX", "true", "FLAGGED", "1"),
+                command(SET_FLAG, "Trash", "true", "SEEN", "7"),
+                command(SET_FLAG, "INBOX", "true", "SEEN", "2"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(3, result.size());
+        assertArrayEquals(new String[] { "INBOX", "true", "SEEN", "1", "2" }, result.get(0).command.arguments);
+        assertArrayEquals(new String[] { "INBOX", "true", "FLAGGED", "1" }, result.get(1).command.arguments);
+        assertArrayEquals(new String[] { "Trash", "true", "SEEN", "7" }, result.get(2).command.arguments);
+    }
+
+    @Test
+    public void compact_shouldNotMergeAcrossOtherCommands() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(SET_FLAG, "INBOX", "true", "SEEN", "1"),
+                command(APPEND, "INBOX", "5"),
+                command(SET_FLAG, "INBOX", "true", "SEEN", "2"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(3, result.size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertSame(commands.get(i), result.get(i).command);
+        }
+    }
+
+    @Test
+    public void compact_withAdjacentMoves_shouldMergeUids() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(MOVE_OR_COPY, "INBOX", "Trash", "false", "true", "1", "2", "L1", "L2"),
+                command(MOVE_OR_COPY, "INBOX", "Trash", "false", "true", "3", "L3"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(1, result.size());
+        assertArrayEquals(new String[] { "INBOX", "Trash", "false", "true", "1", "2", "3", "L1", "L2", "L3" },
+                result.get(0).command.arguments);
+        assertEquals(commands, result.get(0).replaced);
+    }
+
+    @Test
+    public void compact_withMovesToDifferentFolders_shouldNotMerge() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(MOVE_OR_COPY, "INBOX", "Trash", "false", "false", "1"),
+                command(MOVE_OR_COPY, "INBOX", "Archive", "false", "false", "2"),
+                command(MOVE_OR_COPY, "INBOX", "Archive", "true", "false", "3"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    public void compact_withRepeatedExpunge_shouldExpungeOnce() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(EXPUNGE, "INBOX"),
+                command(EXPUNGE, "INBOX"),
+                command(EXPUNGE, "Trash"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        assertEquals(2, result.size());
+        assertSame(commands.get(0), result.get(0).command);
+        assertEquals(commands.subList(0, 2), result.get(0).replaced);
+        assertSame(commands.get(2), result.get(1).command);
+    }
+
+    @Test
+    public void compact_shouldReplaceEveryStoredCommandOnce() throws Exception {
+        List<PendingCommand> commands = Arrays.asList(
+                command(SET_FLAG, "INBOX", "true", "SEEN", "1"),
+                command(SET_FLAG, "INBOX", "false", "FLAGGED", "2"),
+                command(EXPUNGE, "INBOX"),
+                command(MOVE_OR_COPY, "INBOX", "Trash", "false", "false", "1"),
+                command(MOVE_OR_COPY, "INBOX", "Trash", "false", "false", "2"));
+
+        List<CompactedCommand> result = compactor.compact(commands);
+
+        List<PendingCommand> replaced = new ArrayList<PendingCommand>();
+        for (CompactedCommand compactedCommand : result) {
+            replaced.addAll(compactedCommand.replaced);
+        }
+        assertEquals(commands, replaced);
+        assertEquals(4, result.size());
+    }
+
+    private static PendingCommand command(String name, String... arguments) {
+        PendingCommand command = new PendingCommand();
+        command.command = name;
+        command.arguments = arguments;
+        return command;
+    }
+}
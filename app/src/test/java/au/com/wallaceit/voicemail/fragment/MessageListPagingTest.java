@@ -0,0 +1,91 @@
+package au.com.wallaceit.voicemail.fragment;
+
+
+import au.com.wallaceit.voicemail.search.PageKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import static au.com.wallaceit.voicemail.fragment.MessageListPaging.PAGE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class MessageListPagingTest {
+    private static final PageKey FIRST_PAGE_END = new PageKey(3000, 300);
+    private static final PageKey SECOND_PAGE_END = new PageKey(2000, 200);
+    private static final PageKey THIRD_PAGE_END = new PageKey(1000, 100);
+
+
+    private MessageListPaging paging;
+
+
+    @Before
+    public void setUp() throws Exception {
+        paging = new MessageListPaging();
+    }
+
+    @Test
+    public void onFirstPageLoaded_withFullPage_shouldAllowNextPage() throws Exception {
+        paging.onFirstPageLoaded(PAGE_SIZE, FIRST_PAGE_END);
+
+        assertTrue(paging.canLoadNextPage());
+        assertFalse(paging.isOnFirstPage());
+        assertEquals(FIRST_PAGE_END, paging.getPageUntil());
+    }
+
+    @Test
+    public void onFirstPageLoaded_withShortPage_shouldNotAllowNextPage() throws Exception {
+        paging.onFirstPageLoaded(PAGE_SIZE - 1, null);
+
+        assertFalse(paging.canLoadNextPage());
+        assertTrue(paging.isOnFirstPage());
+        assertNull(paging.getPageUntil());
+    }
+
+    @Test
+    public void onFirstPageLoaded_afterListGrewPastPageSize_shouldAllowPaging() throws Exception {
+        paging.onFirstPageLoaded(40, null);
+
+        paging.onFirstPageLoaded(PAGE_SIZE, FIRST_PAGE_END);
+
+        assertTrue(paging.canLoadNextPage());
+        assertTrue(paging.onNextPageLoaded(SECOND_PAGE_END, false));
+        assertEquals(SECOND_PAGE_END, paging.getPageUntil());
+        assertTrue(paging.canLoadNextPage());
+    }
+
+    @Test
+    public void onNextPageLoaded_withLastPage_shouldLoadItAndStop() throws Exception {
+        paging.onFirstPageLoaded(PAGE_SIZE, FIRST_PAGE_END);
+
+        boolean reload = paging.onNextPageLoaded(THIRD_PAGE_END, true);
+
+        assertTrue(reload);
+        assertEquals(THIRD_PAGE_END, paging.getPageUntil());
+        assertFalse(paging.canLoadNextPage());
+    }
+
+    @Test
+    public void onNextPageLoaded_withoutNextPage_shouldStop() throws Exception {
+        paging.onFirstPageLoaded(PAGE_SIZE, FIRST_PAGE_END);
+
+        boolean reload = paging.onNextPageLoaded(null, true);
+
+        assertFalse(reload);
+        assertEquals(FIRST_PAGE_END, paging.getPageUntil());
+        assertFalse(paging.canLoadNextPage());
+    }
+
+    @Test
+    public void reset_shouldStartOverAtFirstPage() throws Exception {
+        paging.onFirstPageLoaded(PAGE_SIZE, FIRST_PAGE_END);
+        paging.onNextPageLoaded(SECOND_PAGE_END, true);
+
+        paging.reset();
+
+        assertTrue(paging.isOnFirstPage());
+        assertFalse(paging.canLoadNextPage());
+    }
+}
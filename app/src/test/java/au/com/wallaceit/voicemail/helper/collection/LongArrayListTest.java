@@ -0,0 +1,84 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LongArrayListTest {
+    @Test
+    public void add_beyondInitialCapacity_shouldKeepAllValues() throws Exception {
+        LongArrayList list = new LongArrayList(2);
+
+        for (long i = 0; i < 1000; i++) {
+            list.add(i * 3);
+        }
+
+        assertEquals(1000, list.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 3L, list.get(i));
+        }
+    }
+
+    @Test
+    public void of_shouldKeepOrder() throws Exception {
+        LongArrayList list = LongArrayList.of(5, 1, 3);
+
+        assertArrayEquals(new long[] { 5, 1, 3 }, list.toArray());
+    }
+
+    @Test
+    public void addAll_shouldAppendValues() throws Exception {
+        LongArrayList list = LongArrayList.of(1);
+
+        list.addAll(LongArrayList.of(2, 3));
+        list.addAll(new long[] { 4 });
+
+        assertEquals(LongArrayList.of(1, 2, 3, 4), list);
+    }
+
+    @Test
+    public void getValues_shouldCopyRange() throws Exception {
+        LongArrayList list = LongArrayList.of(1, 2, 3, 4);
+        long[] dest = new long[2];
+
+        list.getValues(1, 2, dest);
+
+        assertArrayEquals(new long[] { 2, 3 }, dest);
+    }
+
+    @Test
+    public void contains() throws Exception {
+        LongArrayList list = LongArrayList.of(1, Long.MAX_VALUE);
+
+        assertTrue(list.contains(Long.MAX_VALUE));
+        assertFalse(list.contains(2));
+    }
+
+    @Test
+    public void clear_shouldEmptyList() throws Exception {
+        LongArrayList list = LongArrayList.of(1, 2);
+
+        list.clear();
+
+        assertTrue(list.isEmpty());
+        assertEquals(0, list.toArray().length);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_withIndexBeyondSize_shouldThrow() throws Exception {
+        LongArrayList list = new LongArrayList();
+        list.add(1);
+
+        list.get(1);
+    }
+
+    @Test
+    public void toString_shouldListValues() throws Exception {
+        assertEquals("[1, 2]", LongArrayList.of(1, 2).toString());
+    }
+}
@@ -0,0 +1,105 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LongHashSetTest {
+    @Test
+    public void add_shouldReportNewValues() throws Exception {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertTrue(set.contains(1));
+        assertFalse(set.contains(2));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void zero_shouldBeStoredLikeAnyOtherValue() throws Exception {
+        LongHashSet set = new LongHashSet();
+
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(set.contains(0));
+        assertArrayEquals(new long[] { 0 }, set.toArray());
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void remove_shouldKeepCollidingValuesReachable() throws Exception {
+        LongHashSet set = new LongHashSet();
+        for (long i = 1; i <= 12; i++) {
+            set.add(i << 32);
+        }
+
+        set.remove(3L << 32);
+        set.remove(7L << 32);
+
+        for (long i = 1; i <= 12; i++) {
+            assertEquals(i != 3 && i != 7, set.contains(i << 32));
+        }
+        assertEquals(10, set.size());
+    }
+
+    @Test
+    public void toArray_shouldReturnAllValues() throws Exception {
+        LongHashSet set = new LongHashSet();
+        set.add(3);
+        set.add(-1);
+        set.add(0);
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+
+        assertArrayEquals(new long[] { -1, 0, 3 }, values);
+    }
+
+    @Test
+    public void clear_shouldRemoveAllValues() throws Exception {
+        LongHashSet set = new LongHashSet();
+        set.add(0);
+        set.add(1);
+
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1));
+    }
+
+    @Test
+    public void randomOperations_shouldMatchHashSet() throws Exception {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<Long>();
+
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(2000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (long value = -100; value < 1900; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package au.com.wallaceit.voicemail.helper.collection;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class LongObjectMapTest {
+    @Test
+    public void put_shouldReturnPreviousValue() throws Exception {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+
+        assertNull(map.put(1, "one"));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void zeroKey_shouldBeStoredLikeAnyOtherKey() throws Exception {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+
+        assertNull(map.put(0, "zero"));
+        assertTrue(map.containsKey(0));
+        assertEquals("zero", map.get(0));
+        assertEquals(1, map.size());
+
+        assertEquals("zero", map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void remove_shouldKeepCollidingKeysReachable() throws Exception {
+        LongObjectMap<Long> map = new LongObjectMap<Long>();
+        for (long i = 1; i <= 12; i++) {
+            map.put(i << 32, i);
+        }
+
+        assertEquals(Long.valueOf(5), map.remove(5L << 32));
+        assertNull(map.remove(5L << 32));
+
+        for (long i = 1; i <= 12; i++) {
+            assertEquals((i == 5) ? null : Long.valueOf(i), map.get(i << 32));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_withNullValue_shouldThrow() throws Exception {
+        new LongObjectMap<String>().put(1, null);
+    }
+
+    @Test
+    public void randomOperations_shouldMatchHashMap() throws Exception {
+        Random random = new Random(42);
+        LongObjectMap<Integer> map = new LongObjectMap<Integer>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -100; key < 1900; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package au.com.wallaceit.voicemail.provider;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AttachmentCacheTest {
+    private static final long MAX_SIZE = 10;
+    private static final String KEY_1 = AttachmentCache.getKey("account", "1");
+    private static final String KEY_2 = AttachmentCache.getKey("account", "2");
+    private static final String KEY_3 = AttachmentCache.getKey("account", "3");
+    private static final String VERSION = "base64/4";
+    private static final String NEW_VERSION = "base64/4/1000";
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+    private AttachmentCache cache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(temporaryFolder.getRoot(), "attachments");
+        cache = new AttachmentCache(directory, MAX_SIZE);
+    }
+
+    @Test
+    public void get_onMiss_shouldDecodeSourceIntoCache() throws Exception {
+        File file = cache.get(KEY_1, VERSION, source("abcd"));
+
+        assertEquals("abcd", read(file));
+        assertEquals(directory, file.getParentFile());
+        assertEquals(0, cache.getStats().hits);
+        assertEquals(1, cache.getStats().misses);
+    }
+
+    @Test
+    public void get_withSameKeyAndVersion_shouldReturnCachedFileWithoutOpeningSource() throws Exception {
+        File first = cache.get(KEY_1, VERSION, source("abcd"));
+
+        File second = cache.get(KEY_1, VERSION, failingSource());
+
+        assertEquals(first, second);
+        assertEquals("abcd", read(second));
+        assertEquals(1, cache.getStats().hits);
+    }
+
+    @Test
+    public void get_withNewVersion_shouldReplaceStaleEntry() throws Exception {
+        File stale = cache.get(KEY_1, VERSION, source("abcd"));
+
+        File file = cache.get(KEY_1, NEW_VERSION, source("efgh"));
+
+        assertEquals("efgh", read(file));
+        assertFalse(stale.exists());
+        assertEquals(1, cache.getStats().entryCount);
+        assertEquals(4, cache.getStats().size);
+    }
+
+    @Test
+    public void invalidate_shouldDeleteEntry() throws Exception {
+        File stale = cache.get(KEY_1, VERSION, source("abcd"));
+
+        cache.invalidate(KEY_1);
+
+        assertFalse(stale.exists());
+        assertEquals(0, cache.getStats().entryCount);
+        assertEquals(0, cache.getStats().size);
+    }
+
+    @Test
+    public void get_afterInvalidate_shouldNotServeStaleData() throws Exception {
+        cache.get(KEY_1, VERSION, source("abcd"));
+        cache.invalidate(KEY_1);
+
+        // A new part that was given the ID of the deleted one
+        File file = cache.get(KEY_1, VERSION, source("efgh"));
+
+        assertEquals("efgh", read(file));
+        assertEquals(0, cache.getStats().hits);
+    }
+
+    @Test
+    public void get_afterFileWasDeleted_shouldDecodeAgain() throws Exception {
+        File file = cache.get(KEY_1, VERSION, source("abcd"));
+        assertTrue(file.delete());
+
+        File result = cache.get(KEY_1, VERSION, source("abcd"));
+
+        assertEquals("abcd", read(result));
+        assertEquals(2, cache.getStats().misses);
+        assertEquals(4, cache.getStats().size);
+    }
+
+    @Test
+    public void get_beyondMaxSize_shouldEvictLeastRecentlyUsedEntry() throws Exception {
+        File file1 = cache.get(KEY_1, VERSION, source("abcd"));
+        File file2 = cache.get(KEY_2, VERSION, source("efgh"));
+        cache.get(KEY_1, VERSION, failingSource());
+
+        File file3 = cache.get(KEY_3, VERSION, source("ijkl"));
+
+        assertTrue(file1.exists());
+        assertFalse(file2.exists());
+        assertTrue(file3.exists());
+        assertEquals(1, cache.getStats().evictions);
+        assertEquals(8, cache.getStats().size);
+    }
+
+    @Test
+    public void get_withEntryLargerThanMaxSize_shouldKeepNewestEntry() throws Exception {
+        File file1 = cache.get(KEY_1, VERSION, source("abcd"));
+
+        File file2 = cache.get(KEY_2, VERSION, source("efghijklmnop"));
+
+        assertFalse(file1.exists());
+        assertEquals("efghijklmnop", read(file2));
+        assertEquals(1, cache.getStats().entryCount);
+    }
+
+    @Test
+    public void constructor_withExistingDirectory_shouldRestoreEntries() throws Exception {
+        File file = cache.get(KEY_1, VERSION, source("abcd"));
+        File tempFile = new File(directory, "partial.tmp");
+        write(tempFile, "ab");
+        File unversionedFile = new File(directory, "0123456789abcdef");
+        write(unversionedFile, "ab");
+
+        AttachmentCache restartedCache = new AttachmentCache(directory, MAX_SIZE);
+
+        assertEquals(file, restartedCache.get(KEY_1, VERSION, failingSource()));
+        assertFalse(tempFile.exists());
+        assertFalse(unversionedFile.exists());
+        assertEquals(1, restartedCache.getStats().entryCount);
+        assertEquals(4, restartedCache.getStats().size);
+    }
+
+    private static AttachmentCache.StreamSource source(final String data) {
+        return new AttachmentCache.StreamSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return new ByteArrayInputStream(data.getBytes("UTF-8"));
+            }
+        };
+    }
+
+    private static AttachmentCache.StreamSource failingSource() {
+        return new AttachmentCache.StreamSource() {
+            @Override
+            public InputStream open() throws IOException {
+                fail("Source opened on a cache hit");
+                return null;
+            }
+        };
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package au.com.wallaceit.voicemail.search;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class SqlQueryBuilderTest {
+    /**
+     * Sort order of the unpaged message list sorted by date, newest first.
+     */
+    private static final String UNPAGED_SORT_ORDER = "date DESC, id DESC";
+    private static final int PAGE_SIZE = 3;
+
+
+    private SQLiteDatabase db;
+
+
+    @Before
+    public void setUp() throws Exception {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, date INTEGER, internal_date INTEGER)");
+
+        // Sent dates that disagree with the arrival order, and some identical sent dates
+        long[][] rows = {
+                { 1, 5000, 1000 },
+                { 2, 3000, 2000 },
+                { 3, 3000, 3000 },
+                { 4, 9000, 4000 },
+                { 5, 1000, 5000 },
+                { 6, 3000, 6000 },
+                { 7, 7000, 7000 },
+                { 8, 2000, 8000 },
+                { 9, 7000, 9000 },
+                { 10, 4000, 10000 },
+        };
+        for (long[] row : rows) {
+            db.execSQL("INSERT INTO messages (id, date, internal_date) VALUES (?, ?, ?)",
+                    new Object[] { row[0], row[1], row[2] });
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    public void buildPageClause_pagingWithBefore_shouldReturnSameRowsInSameOrderAsUnpagedQuery()
+            throws Exception {
+        List<Long> unpaged = queryIds(null, null, UNPAGED_SORT_ORDER, null);
+
+        List<Long> paged = new ArrayList<Long>();
+        PageKey before = null;
+        while (true) {
+            List<Long> page = queryIds(before, null, SqlQueryBuilder.PAGE_SORT_ORDER, PAGE_SIZE);
+            paged.addAll(page);
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            before = getPageKey(page.get(page.size() - 1));
+        }
+
+        assertEquals(unpaged, paged);
+    }
+
+    @Test
+    public void buildPageClause_withUntil_shouldReturnPrefixOfUnpagedQuery() throws Exception {
+        List<Long> unpaged = queryIds(null, null, UNPAGED_SORT_ORDER, null);
+        PageKey until = getPageKey(unpaged.get(5));
+
+        List<Long> result = queryIds(null, until, SqlQueryBuilder.PAGE_SORT_ORDER, null);
+
+        assertEquals(unpaged.subList(0, 6), result);
+    }
+
+    @Test
+    public void buildPageClause_withBeforeAndUntil_shouldReturnRowsInBetween() throws Exception {
+        List<Long> unpaged = queryIds(null, null, UNPAGED_SORT_ORDER, null);
+        PageKey before = getPageKey(unpaged.get(2));
+        PageKey until = getPageKey(unpaged.get(7));
+
+        List<Long> result = queryIds(before, until, SqlQueryBuilder.PAGE_SORT_ORDER, null);
+
+        assertEquals(unpaged.subList(3, 8), result);
+    }
+
+    private List<Long> queryIds(PageKey before, PageKey until, String sortOrder, Integer limit) {
+        StringBuilder selection = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<String>();
+        SqlQueryBuilder.buildPageClause(before, until, selection, selectionArgs);
+
+        Cursor cursor = db.query("messages", new String[] { "id" }, selection.toString(),
+                selectionArgs.toArray(new String[0]), null, null, sortOrder,
+                (limit == null) ? null : limit.toString());
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private PageKey getPageKey(long id) {
+        Cursor cursor = db.rawQuery("SELECT date FROM messages WHERE id = ?", new String[] { Long.toString(id) });
+        try {
+            cursor.moveToFirst();
+            return new PageKey(cursor.getLong(0), id);
+        } finally {
+            cursor.close();
+        }
+    }
+}
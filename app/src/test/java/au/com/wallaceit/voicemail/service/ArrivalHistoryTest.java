@@ -0,0 +1,113 @@
+package au.com.wallaceit.voicemail.service;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ArrivalHistoryTest {
+    private static final long SECOND = 1000;
+
+
+    @Test
+    public void getCheckOffsets_withoutHistory_shouldUseDefaultWindow() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+
+        long[] offsets = history.getCheckOffsets(60 * SECOND, 180 * SECOND);
+
+        assertArrayEquals(new long[] { 60 * SECOND, 75 * SECOND, 105 * SECOND, 165 * SECOND, 180 * SECOND,
+                360 * SECOND }, offsets);
+    }
+
+    @Test
+    public void getCheckOffsets_withHistory_shouldStartAtLearnedDelay() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+        history.add(40 * SECOND);
+        history.add(45 * SECOND);
+        history.add(50 * SECOND);
+
+        long[] offsets = history.getCheckOffsets(60 * SECOND, 180 * SECOND);
+
+        assertArrayEquals(new long[] { 40 * SECOND, 50 * SECOND, 100 * SECOND }, offsets);
+    }
+
+    @Test
+    public void getCheckOffsets_withImmediateArrival_shouldCheckRightAwayAndOnceMore() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+
+        long[] offsets = history.getCheckOffsets(0, 0);
+
+        assertArrayEquals(new long[] { 0, 15 * SECOND }, offsets);
+    }
+
+    @Test
+    public void getCheckOffsets_shouldNotExceedMaximumWindow() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+        for (int i = 0; i < 5; i++) {
+            history.add(Long.MAX_VALUE);
+        }
+
+        long[] offsets = history.getCheckOffsets(0, 0);
+
+        assertEquals(1, offsets.length);
+        assertEquals(ArrivalHistory.MAX_WINDOW, offsets[0]);
+    }
+
+    @Test
+    public void getCheckOffsets_shouldBeAscendingAndLimited() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+        history.add(0);
+        history.add(10 * SECOND);
+        history.add(600 * SECOND);
+
+        long[] offsets = history.getCheckOffsets(0, 0);
+
+        assertTrue(offsets.length <= ArrivalHistory.MAX_CHECKS);
+        for (int i = 1; i < offsets.length; i++) {
+            assertTrue(offsets[i] > offsets[i - 1]);
+        }
+    }
+
+    @Test
+    public void add_beyondMaxSamples_shouldDropOldestDelay() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+        history.add(1000000);
+        for (int i = 0; i < ArrivalHistory.MAX_SAMPLES; i++) {
+            history.add(i);
+        }
+
+        assertEquals(ArrivalHistory.MAX_SAMPLES, history.size());
+        assertEquals(ArrivalHistory.MAX_SAMPLES - 1, history.getQuantile(1.0));
+    }
+
+    @Test
+    public void add_withNegativeDelay_shouldClampToZero() throws Exception {
+        ArrivalHistory history = new ArrivalHistory();
+
+        history.add(-5);
+
+        assertEquals(0, history.getQuantile(0.5));
+    }
+
+    @Test
+    public void getQuantile_shouldUseNearestRank() throws Exception {
+        ArrivalHistory history = ArrivalHistory.parse("50,10,40,20,30");
+
+        assertEquals(10, history.getQuantile(0.1));
+        assertEquals(30, history.getQuantile(0.5));
+        assertEquals(50, history.getQuantile(0.9));
+    }
+
+    @Test
+    public void parse_shouldRoundTrip() throws Exception {
+        ArrivalHistory history = ArrivalHistory.parse("1,x,3");
+
+        assertEquals(2, history.size());
+        assertEquals("1,3", history.toString());
+        assertEquals("1,3", ArrivalHistory.parse(history.toString()).toString());
+        assertEquals(0, ArrivalHistory.parse(null).size());
+    }
+}
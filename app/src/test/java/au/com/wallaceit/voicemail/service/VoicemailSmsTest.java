@@ -0,0 +1,71 @@
+package au.com.wallaceit.voicemail.service;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VoicemailSmsTest {
+
+    @Test
+    public void parse_withMboxUpdate_shouldReturnCountAndParams() throws Exception {
+        VoicemailSms sms = VoicemailSms.parse("MBOXUPDATE?m=2;server=vvm.example.com;port=143;name=0400000000");
+
+        assertEquals("MBOXUPDATE", sms.getCommand());
+        assertTrue(sms.isMailboxUpdate());
+        assertEquals(2, sms.getNewMessageCount());
+        assertNull(sms.getMessageUid());
+        assertEquals("vvm.example.com", sms.getParams().get("server"));
+        assertEquals("143", sms.getParams().get("port"));
+    }
+
+    @Test
+    public void parse_withOmtpNewMessage_shouldReturnUidAndCount() throws Exception {
+        VoicemailSms sms = VoicemailSms.parse("//VVM:SYNC:ev=NM;id=3446456;c=1;t=v;s=01234567898;" +
+                "dt=02/08/2008 12:53 +0200;l=30");
+
+        assertEquals("SYNC", sms.getCommand());
+        assertTrue(sms.isMailboxUpdate());
+        assertEquals("3446456", sms.getMessageUid());
+        assertEquals(1, sms.getNewMessageCount());
+        assertEquals("02/08/2008 12:53 +0200", sms.getParams().get("dt"));
+    }
+
+    @Test
+    public void parse_withOmtpMailboxUpdate_shouldNotAnnounceMessage() throws Exception {
+        VoicemailSms sms = VoicemailSms.parse("//VVM:SYNC:ev=MBU;id=5;c=3");
+
+        assertTrue(sms.isMailboxUpdate());
+        assertNull(sms.getMessageUid());
+        assertEquals(-1, sms.getNewMessageCount());
+    }
+
+    @Test
+    public void parse_withInvalidUid_shouldIgnoreUid() throws Exception {
+        assertNull(VoicemailSms.parse("//VVM:SYNC:ev=NM;id=abc").getMessageUid());
+        assertNull(VoicemailSms.parse("//VVM:SYNC:ev=NM;id=0").getMessageUid());
+        assertNull(VoicemailSms.parse("//VVM:SYNC:ev=NM;id=4294967296").getMessageUid());
+        assertEquals("4294967295", VoicemailSms.parse("//VVM:SYNC:ev=NM;id=4294967295").getMessageUid());
+    }
+
+    @Test
+    public void parse_withoutParams_shouldReturnCommand() throws Exception {
+        VoicemailSms sms = VoicemailSms.parse("MBOXUPDATE");
+
+        assertEquals("MBOXUPDATE", sms.getCommand());
+        assertTrue(sms.getParams().isEmpty());
+        assertEquals(-1, sms.getNewMessageCount());
+    }
+
+    @Test
+    public void parse_withEqualsSignInValue_shouldKeepWholeValue() throws Exception {
+        VoicemailSms sms = VoicemailSms.parse("STATE?name=user;pw=a=b;port=143");
+
+        assertFalse(sms.isMailboxUpdate());
+        assertEquals("a=b", sms.getParams().get("pw"));
+    }
+}
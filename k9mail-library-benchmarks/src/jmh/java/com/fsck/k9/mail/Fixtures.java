@@ -0,0 +1,23 @@
+package com.fsck.k9.mail;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+
+public class Fixtures {
+    public static byte[] read(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new IOException("Missing benchmark fixture: " + name);
+        }
+
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
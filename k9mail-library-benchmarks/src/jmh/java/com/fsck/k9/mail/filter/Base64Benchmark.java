@@ -0,0 +1,103 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Encodes and decodes a recording of the size of a typical 30 second AMR voicemail.
+ * <p>
+ * The {@code decoder}, {@code base64InputStream} and {@code mime4jBase64InputStream} benchmarks
+ * compare {@link Base64Decoder} with the other decoders the code base has used, and with
+ * {@code java.util.Base64} as a reference.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Base64Benchmark {
+    private static final int RECORDING_SIZE = 46 * 1024;
+
+
+    private byte[] recording;
+    private byte[] chunkedBase64;
+    private String header;
+    private final Base64Decoder decoder = new Base64Decoder();
+    private final java.util.Base64.Decoder javaDecoder = java.util.Base64.getMimeDecoder();
+    private ByteBuffer source;
+    private byte[] destination;
+    private final byte[] readBuffer = new byte[8192];
+
+
+    @Setup
+    public void setUp() {
+        recording = new byte[RECORDING_SIZE];
+        new Random(42).nextBytes(recording);
+        chunkedBase64 = Base64.encodeBase64Chunked(recording);
+        header = Base64.encode("Voicemail from +61412345678 (28 seconds)");
+
+        source = ByteBuffer.wrap(chunkedBase64);
+        destination = new byte[RECORDING_SIZE];
+    }
+
+    @Benchmark
+    public byte[] decodeBase64_recording() {
+        return Base64.decodeBase64(chunkedBase64);
+    }
+
+    @Benchmark
+    public byte[] encodeBase64Chunked_recording() {
+        return Base64.encodeBase64Chunked(recording);
+    }
+
+    @Benchmark
+    public String decode_header() {
+        return Base64.decode(header);
+    }
+
+    @Benchmark
+    public int decoder_recording() {
+        source.clear();
+        decoder.reset();
+        return decoder.decode(source, destination, 0, destination.length);
+    }
+
+    @Benchmark
+    public long base64InputStream_recording() throws IOException {
+        return readFully(new Base64InputStream(new ByteArrayInputStream(chunkedBase64)));
+    }
+
+    @Benchmark
+    public long mime4jBase64InputStream_recording() throws IOException {
+        return readFully(new org.apache.james.mime4j.codec.Base64InputStream(
+                new ByteArrayInputStream(chunkedBase64), false));
+    }
+
+    @Benchmark
+    public int javaUtilBase64_recording() {
+        return javaDecoder.decode(chunkedBase64, destination);
+    }
+
+    private long readFully(InputStream in) throws IOException {
+        long total = 0;
+        int count;
+        while ((count = in.read(readBuffer)) != -1) {
+            total += count;
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,58 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.MessagingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Converts transcription text parts to strings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CharsetSupportBenchmark {
+    private static final String TRANSCRIPT = "Hi, this is J\u00fcrgen from the caf\u00e9, just calling to confirm your " +
+            "booking for Saturday at 7. Call me back on 0412 345 678 \u2013 thanks! ";
+
+
+    private byte[] utf8Text;
+    private byte[] latin1Text;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            text.append(TRANSCRIPT);
+        }
+
+        utf8Text = text.toString().getBytes("UTF-8");
+        latin1Text = text.toString().replace('\u2013', '-').getBytes("ISO-8859-1");
+    }
+
+    @Benchmark
+    public String fixupCharset_utf8() throws MessagingException {
+        return CharsetSupport.fixupCharset("UTF-8", null);
+    }
+
+    @Benchmark
+    public String readToString_utf8() throws IOException {
+        return CharsetSupport.readToString(new ByteArrayInputStream(utf8Text), "utf-8");
+    }
+
+    @Benchmark
+    public String readToString_latin1() throws IOException {
+        return CharsetSupport.readToString(new ByteArrayInputStream(latin1Text), "iso-8859-1");
+    }
+}
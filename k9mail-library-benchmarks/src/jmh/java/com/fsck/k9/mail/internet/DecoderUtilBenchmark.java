@@ -0,0 +1,47 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Decodes header values as they are found in voicemail notifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DecoderUtilBenchmark {
+    private static final String PLAIN_SUBJECT = "Voicemail from +61412345678 (28 seconds)";
+    private static final String BASE64_SUBJECT = "=?UTF-8?B?Vm9pY2VtYWlsIGZyb20gKzYxNDEyMzQ1Njc4IOKAkyAyOHM=?=";
+    private static final String QUOTED_PRINTABLE_SUBJECT = "=?UTF-8?Q?Voicemail_from_+61412345678_=E2=80=93_28s?=";
+    private static final String MULTIPLE_WORDS = "=?ISO-8859-1?Q?Nachricht_von_J=FCrgen?= =?ISO-8859-1?Q?_M=FCller?= " +
+            "<=?UTF-8?B?KzQ5MTcxMjM0NTY3OA==?=>";
+
+
+    @Benchmark
+    public String decodeEncodedWords_plain() {
+        return DecoderUtil.decodeEncodedWords(PLAIN_SUBJECT, null);
+    }
+
+    @Benchmark
+    public String decodeEncodedWords_base64() {
+        return DecoderUtil.decodeEncodedWords(BASE64_SUBJECT, null);
+    }
+
+    @Benchmark
+    public String decodeEncodedWords_quotedPrintable() {
+        return DecoderUtil.decodeEncodedWords(QUOTED_PRINTABLE_SUBJECT, null);
+    }
+
+    @Benchmark
+    public String decodeEncodedWords_multipleWords() {
+        return DecoderUtil.decodeEncodedWords(MULTIPLE_WORDS, null);
+    }
+}
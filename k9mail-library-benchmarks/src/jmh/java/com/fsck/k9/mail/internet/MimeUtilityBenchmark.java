@@ -0,0 +1,119 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Fixtures;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Multipart;
+import com.fsck.k9.mail.Part;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Decodes the parts of a voicemail message: a quoted-printable notification text and a
+ * base64 encoded AMR recording.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MimeUtilityBenchmark {
+    private final byte[] buffer = new byte[8192];
+    private RawDataBody textBody;
+    private RawDataBody recordingBody;
+
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        BinaryTempFileBody.setTempDirectory(new File(System.getProperty("java.io.tmpdir")));
+
+        byte[] voicemail = Fixtures.read("mime/voicemail.eml");
+        MimeMessage message = new MimeMessage(new ByteArrayInputStream(voicemail), true);
+        Multipart multipart = (Multipart) message.getBody();
+
+        textBody = copyToMemory(multipart.getBodyPart(0));
+        recordingBody = copyToMemory(multipart.getBodyPart(1));
+    }
+
+    @Benchmark
+    public long decodeBody_quotedPrintableText(Blackhole blackhole) throws IOException, MessagingException {
+        return consume(MimeUtility.decodeBody(textBody), blackhole);
+    }
+
+    @Benchmark
+    public long decodeBody_base64Recording(Blackhole blackhole) throws IOException, MessagingException {
+        return consume(MimeUtility.decodeBody(recordingBody), blackhole);
+    }
+
+    private long consume(InputStream in, Blackhole blackhole) throws IOException {
+        long total = 0;
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                blackhole.consume(buffer);
+                total += count;
+            }
+        } finally {
+            in.close();
+        }
+
+        return total;
+    }
+
+    private static RawDataBody copyToMemory(Part part) throws IOException, MessagingException {
+        RawDataBody body = (RawDataBody) part.getBody();
+
+        // Closing the stream deletes the temporary file
+        InputStream in = body.getInputStream();
+        try {
+            return new InMemoryBody(IOUtils.toByteArray(in), body.getEncoding());
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static class InMemoryBody implements RawDataBody {
+        private final byte[] data;
+        private final String encoding;
+
+
+        InMemoryBody(byte[] data, String encoding) {
+            this.data = data;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public String getEncoding() {
+            return encoding;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+    }
+}
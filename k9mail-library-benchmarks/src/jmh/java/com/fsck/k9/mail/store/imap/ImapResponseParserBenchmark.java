@@ -0,0 +1,45 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.Fixtures;
+import com.fsck.k9.mail.filter.PeekableInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Parses the server side of a voicemail inbox sync: SELECT, UID SEARCH, a header FETCH with
+ * literals, a BODYSTRUCTURE FETCH and a flag FETCH for 50 messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImapResponseParserBenchmark {
+    private byte[] syncTranscript;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        syncTranscript = Fixtures.read("imap/voicemail-sync.txt");
+    }
+
+    @Benchmark
+    public void readResponse_voicemailSync(Blackhole blackhole) throws IOException {
+        PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(syncTranscript));
+        ImapResponseParser parser = new ImapResponseParser(inputStream);
+
+        while (inputStream.peek() != -1) {
+            blackhole.consume(parser.readResponse());
+        }
+    }
+}
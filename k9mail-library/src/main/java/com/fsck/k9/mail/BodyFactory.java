@@ -0,0 +1,24 @@
+package com.fsck.k9.mail;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Creates the {@link Body} for a part whose content is read from a store.
+ *
+ * @see Folder#fetchPart(Message, Part, MessageRetrievalListener, BodyFactory)
+ */
+public interface BodyFactory {
+    /**
+     * @param contentTransferEncoding
+     *         The value of the part's {@code Content-Transfer-Encoding} header. Can be {@code null}.
+     * @param contentType
+     *         The value of the part's {@code Content-Type} header.
+     * @param inputStream
+     *         The (still encoded) content of the part. Must be read to the end.
+     */
+    Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException, MessagingException;
+}
@@ -0,0 +1,19 @@
+package com.fsck.k9.mail;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.internet.MimeUtility;
+
+
+/**
+ * Stores the content of a part as it was received, i.e. still in its transfer encoding.
+ */
+public class DefaultBodyFactory implements BodyFactory {
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException, MessagingException {
+        return MimeUtility.createBody(inputStream, contentTransferEncoding, contentType);
+    }
+}
@@ -137,6 +137,29 @@ public abstract class Folder<T extends Message> {
             Log.d(LOG_TAG, "fetchPart() not implemented.");
     }
 
+    /**
+     * Download a single part of a message, letting {@code bodyFactory} decide how its content is stored.
+     * <p>
+     * Stores that don't support body factories fall back to {@link #fetchPart(Message, Part, MessageRetrievalListener)}
+     * and the content is stored in its transfer encoding.
+     * </p>
+     */
+    public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
+            BodyFactory bodyFactory) throws MessagingException {
+        fetchPart(message, part, listener);
+    }
+
+    /**
+     * Download several parts of the same message. Stores that can have more than one request in flight should
+     * override this; the default implementation fetches the parts one after another.
+     */
+    public void fetchParts(Message message, List<Part> parts,
+                           MessageRetrievalListener<Message> listener) throws MessagingException {
+        for (Part part : parts) {
+            fetchPart(message, part, listener);
+        }
+    }
+
     public abstract void delete(boolean recurse) throws MessagingException;
 
     public abstract String getName();
@@ -158,6 +181,32 @@ public abstract class Folder<T extends Message> {
         return true;
     }
 
+    /**
+     * @return The UIDVALIDITY value of the opened folder, or -1 if the store doesn't report one.
+     */
+    public long getUidValidity() {
+        return -1L;
+    }
+
+    /**
+     * @return The mod-sequence of the most recent change in the opened folder, or -1 if the store doesn't keep track
+     *         of changes.
+     */
+    public long getHighestModSeq() {
+        return -1L;
+    }
+
+    /**
+     * Get the messages with a UID of at least {@code lowestUid} whose flags changed after {@code modSeq}. Messages
+     * the store knows to have been expunged since then are returned with {@link Flag#DELETED} set.
+     * <p>
+     * Only supported when {@link #getHighestModSeq()} returns a positive value.
+     * </p>
+     */
+    public List<T> getMessagesChangedSince(long lowestUid, long modSeq) throws MessagingException {
+        throw new MessagingException("K-9 does not support incremental flag sync on this folder type");
+    }
+
     @Override
     public String toString() {
         return getName();
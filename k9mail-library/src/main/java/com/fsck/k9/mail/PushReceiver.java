@@ -17,4 +17,6 @@ public interface PushReceiver {
     void authenticationFailed();
     void setPushActive(String folderName, boolean enabled);
     void sleep(TracingWakeLock wakeLock, long millis);
+    String getIdleKeepaliveState();
+    void setIdleKeepaliveState(String state);
 }
@@ -0,0 +1,180 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Table-driven Base64 decoder (RFC 2045) that works on caller-supplied buffers.
+ * <p>
+ * Unlike {@link Base64} this class doesn't allocate while decoding, so the same buffers can be
+ * used for a whole body. Only buffers that aren't backed by an array need a scratch array, which
+ * is allocated once. Input can be fed in chunks of any size, the decoder keeps the bits of
+ * an incomplete quantum between calls. Line breaks, whitespace and other characters outside the
+ * Base64 alphabet are skipped in place. Decoding stops at the first padding character; anything
+ * after it is ignored. Instances are not thread-safe.
+ * </p>
+ */
+public class Base64Decoder {
+    private static final byte INVALID = -1;
+    private static final byte PADDING = -2;
+    private static final byte[] DECODE_TABLE = createDecodeTable();
+    private static final int SCRATCH_BUFFER_SIZE = 1024;
+
+
+    private int bits;
+    private int bitCount;
+    private boolean finished;
+    private int sourcePosition;
+    private byte[] sourceScratchBuffer;
+    private byte[] destinationScratchBuffer;
+
+
+    private static byte[] createDecodeTable() {
+        byte[] table = new byte[256];
+        Arrays.fill(table, INVALID);
+
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            table[alphabet.charAt(i)] = (byte) i;
+        }
+        table['='] = PADDING;
+
+        return table;
+    }
+
+    /**
+     * Prepares the decoder for a new body.
+     */
+    public void reset() {
+        bits = 0;
+        bitCount = 0;
+        finished = false;
+    }
+
+    /**
+     * @return {@code true} if a padding character was found. All further input will be ignored.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Decodes as much of {@code source} as fits into {@code destination}, advancing the positions of both
+     * buffers.
+     */
+    public void decode(ByteBuffer source, ByteBuffer destination) {
+        if (destination.hasArray()) {
+            int offset = destination.arrayOffset() + destination.position();
+            int count = decode(source, destination.array(), offset, destination.remaining());
+            destination.position(destination.position() + count);
+            return;
+        }
+
+        if (destinationScratchBuffer == null) {
+            destinationScratchBuffer = new byte[SCRATCH_BUFFER_SIZE];
+        }
+
+        byte[] scratch = destinationScratchBuffer;
+        while (source.hasRemaining() && destination.hasRemaining()) {
+            int count = decode(source, scratch, 0, Math.min(scratch.length, destination.remaining()));
+            if (count == 0) {
+                break;
+            }
+            destination.put(scratch, 0, count);
+        }
+    }
+
+    /**
+     * Decodes as much of {@code source} as fits into the given range of {@code destination}, advancing the
+     * position of {@code source}.
+     *
+     * @return The number of bytes written to {@code destination}.
+     */
+    public int decode(ByteBuffer source, byte[] destination, int offset, int length) {
+        if (source.hasArray()) {
+            int start = source.arrayOffset() + source.position();
+            int end = source.arrayOffset() + source.limit();
+            int count = decode(source.array(), start, end, destination, offset, offset + length);
+            source.position(sourcePosition - source.arrayOffset());
+            return count;
+        }
+
+        if (sourceScratchBuffer == null) {
+            sourceScratchBuffer = new byte[SCRATCH_BUFFER_SIZE];
+        }
+
+        byte[] scratch = sourceScratchBuffer;
+        int written = 0;
+        while (source.hasRemaining() && written < length) {
+            int chunkStart = source.position();
+            int chunkLength = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, chunkLength);
+
+            written += decode(scratch, 0, chunkLength, destination, offset + written, offset + length);
+            source.position(chunkStart + sourcePosition);
+        }
+
+        return written;
+    }
+
+    private int decode(byte[] source, int sourceStart, int sourceEnd, byte[] destination, int destinationStart,
+            int destinationEnd) {
+        if (finished) {
+            sourcePosition = sourceEnd;
+            return 0;
+        }
+
+        int in = sourceStart;
+        int out = destinationStart;
+        while (in < sourceEnd) {
+            // Whole quantum of alphabet characters and enough room for its three bytes
+            if (bitCount == 0 && in + 4 <= sourceEnd && out + 3 <= destinationEnd) {
+                int a = DECODE_TABLE[source[in] & 0xFF];
+                int b = DECODE_TABLE[source[in + 1] & 0xFF];
+                int c = DECODE_TABLE[source[in + 2] & 0xFF];
+                int d = DECODE_TABLE[source[in + 3] & 0xFF];
+                if ((a | b | c | d) >= 0) {
+                    int quantum = (a << 18) | (b << 12) | (c << 6) | d;
+                    destination[out] = (byte) (quantum >> 16);
+                    destination[out + 1] = (byte) (quantum >> 8);
+                    destination[out + 2] = (byte) quantum;
+                    in += 4;
+                    out += 3;
+                    continue;
+                }
+            }
+
+            int value = DECODE_TABLE[source[in] & 0xFF];
+            if (value == INVALID) {
+                in++;
+                continue;
+            } else if (value == PADDING) {
+                finished = true;
+                bits = 0;
+                bitCount = 0;
+                in = sourceEnd;
+                break;
+            }
+
+            // This character completes a byte but there's no room for it
+            if (bitCount >= 2 && out == destinationEnd) {
+                break;
+            }
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            in++;
+
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                destination[out++] = (byte) (bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+
+        sourcePosition = in;
+        return out - destinationStart;
+    }
+}
@@ -0,0 +1,43 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * An OutputStream that decodes the Base64 encoded data written to it and writes the result to the
+ * wrapped stream. Decoding is as lenient as {@link Base64InputStream}.
+ */
+public class Base64DecodingOutputStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 1024;
+
+
+    private final Base64Decoder decoder = new Base64Decoder();
+    private final byte[] decodedBuffer = new byte[BUFFER_SIZE];
+    private final byte[] singleByte = new byte[1];
+
+
+    public Base64DecodingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        singleByte[0] = (byte) oneByte;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(buffer, offset, length);
+        while (source.hasRemaining()) {
+            int count = decoder.decode(source, decodedBuffer, 0, decodedBuffer.length);
+            if (count > 0) {
+                out.write(decodedBuffer, 0, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * An InputStream that decodes the Base64 encoded data read from the wrapped stream.
+ * <p>
+ * Encoded data is read into a single buffer that is allocated when the stream is created (or
+ * supplied by the caller), and decoded by {@link Base64Decoder} straight into the array passed to
+ * {@link #read(byte[], int, int)}. Reading doesn't allocate. Like the decoder, the stream is
+ * lenient: characters outside the Base64 alphabet are skipped and data after the padding is
+ * ignored.
+ * </p>
+ */
+public class Base64InputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 4096;
+
+
+    private final Base64Decoder decoder = new Base64Decoder();
+    private final ByteBuffer encodedBuffer;
+    private final byte[] singleByte = new byte[1];
+    private boolean endOfInput = false;
+
+
+    public Base64InputStream(InputStream in) {
+        this(in, ByteBuffer.allocate(BUFFER_SIZE));
+    }
+
+    /**
+     * @param buffer
+     *         Holds encoded data read from {@code in}. Must be backed by an array. Can be reused once this stream
+     *         is no longer used.
+     */
+    public Base64InputStream(InputStream in, ByteBuffer buffer) {
+        super(in);
+        if (!buffer.hasArray()) {
+            throw new IllegalArgumentException("Buffer must be backed by an array");
+        }
+
+        encodedBuffer = buffer;
+        encodedBuffer.clear();
+        encodedBuffer.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int count;
+        do {
+            count = read(singleByte, 0, 1);
+        } while (count == 0);
+
+        return (count == -1) ? -1 : (singleByte[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (encodedBuffer.hasRemaining()) {
+                int count = decoder.decode(encodedBuffer, buffer, offset, length);
+                if (count > 0) {
+                    return count;
+                }
+            }
+
+            if (endOfInput || decoder.isFinished()) {
+                return -1;
+            }
+
+            fillBuffer();
+        }
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        if (byteCount <= 0) {
+            return 0;
+        }
+
+        byte[] skipBuffer = new byte[(int) Math.min(byteCount, BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < byteCount) {
+            int count = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, byteCount - skipped));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void fillBuffer() throws IOException {
+        byte[] array = encodedBuffer.array();
+        int offset = encodedBuffer.arrayOffset();
+
+        int count = in.read(array, offset, encodedBuffer.capacity());
+        if (count == -1) {
+            endOfInput = true;
+            encodedBuffer.clear();
+            encodedBuffer.limit(0);
+        } else {
+            encodedBuffer.clear();
+            encodedBuffer.limit(count);
+        }
+    }
+}
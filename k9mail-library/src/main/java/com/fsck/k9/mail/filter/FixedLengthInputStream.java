@@ -65,6 +65,22 @@ public class FixedLengthInputStream extends InputStream {
         return d;
     }
 
+    /**
+     * Skips whatever is left of the fixed length section without copying it.
+     */
+    public void skipRemaining() throws IOException {
+        while (available() > 0) {
+            if (skip(available()) > 0) {
+                continue;
+            }
+
+            // skip() is allowed to make no progress; fall back to reading a single byte
+            if (read() == -1) {
+                throw new IOException("skipRemaining(): end of stream reached");
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.US, "FixedLengthInputStream(in=%s, length=%d)", mIn.toString(), mLength);
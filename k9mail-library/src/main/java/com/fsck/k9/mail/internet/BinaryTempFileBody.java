@@ -2,7 +2,9 @@ package com.fsck.k9.mail.internet;
 
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.Base64OutputStream;
+import com.fsck.k9.mail.filter.CountingOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.james.mime4j.codec.QuotedPrintableOutputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 
@@ -13,12 +15,17 @@ import java.io.*;
  * the user to write to the temp file. After the write the body is available via getInputStream
  * and writeTo one time. After writeTo is called, or the InputStream returned from
  * getInputStream is closed the file is deleted and the Body should be considered disposed of.
+ * <p>
+ * While data is written the body also counts how many bytes it decodes to, see {@link #getDecodedSize()}.
+ * </p>
  */
 public class BinaryTempFileBody implements RawDataBody, SizeAware {
     private static File mTempDirectory;
 
     private File mFile;
 
+    private CountingOutputStream mDecodedSizeCounter;
+
     String mEncoding = null;
 
     public static void setTempDirectory(File tempDirectory) {
@@ -86,7 +93,24 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
     public OutputStream getOutputStream() throws IOException {
         mFile = File.createTempFile("body", null, mTempDirectory);
         mFile.deleteOnExit();
-        return new FileOutputStream(mFile);
+        OutputStream out = new FileOutputStream(mFile);
+
+        mDecodedSizeCounter = new CountingOutputStream();
+        OutputStream decodingOut = MimeUtility.createDecodingOutputStream(mDecodedSizeCounter, mEncoding);
+        if (decodingOut == null) {
+            mDecodedSizeCounter = null;
+            return out;
+        }
+
+        return new TeeOutputStream(out, decodingOut);
+    }
+
+    /**
+     * @return The size of the data written to {@link #getOutputStream()} after removing the transfer encoding, or
+     *         {@code -1} if it's not known.
+     */
+    public long getDecodedSize() {
+        return (mDecodedSizeCounter != null) ? mDecodedSizeCounter.getCount() : -1;
     }
 
     public InputStream getInputStream() throws MessagingException {
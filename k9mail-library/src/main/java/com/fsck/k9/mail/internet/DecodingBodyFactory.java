@@ -0,0 +1,143 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.Base64InputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
+import org.apache.james.mime4j.util.MimeUtil;
+
+
+/**
+ * Removes the transfer encoding while the content of a part is being received.
+ * <p>
+ * Base64 and quoted-printable content is decoded on the fly and written to a temporary file as
+ * {@link MimeUtil#ENC_BINARY binary} body, so it doesn't have to be decoded again every time it is
+ * read, e.g. when a voicemail recording is played. Other content is stored unchanged. Bodies are
+ * written without buffering, so whatever has been reported as written can be read from the file.
+ * </p>
+ * <p>
+ * The factory also counts the bytes it read (i.e. what came over the wire) and the bytes it
+ * wrote. A {@link ProgressListener} can be used to read the content while it is still being
+ * written. Instances are not thread-safe.
+ * </p>
+ */
+public class DecodingBodyFactory implements BodyFactory {
+    private static final int BUFFER_SIZE = 8192;
+
+
+    /**
+     * Notified from the thread that downloads the content.
+     */
+    public interface ProgressListener {
+        /**
+         * Called once the file backing {@code body} has been created, before any content is written to it.
+         */
+        void onBodyStarted(BinaryTempFileBody body) throws IOException;
+
+        /**
+         * Called every time content has been written to the file.
+         *
+         * @param writtenBytes
+         *         The total number of bytes written to the current body.
+         */
+        void onProgress(long writtenBytes);
+    }
+
+
+    private final ProgressListener progressListener;
+    private long encodedBytes;
+    private long decodedBytes;
+
+
+    public DecodingBodyFactory() {
+        this(null);
+    }
+
+    public DecodingBodyFactory(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException, MessagingException {
+
+        String encoding = (contentTransferEncoding != null) ?
+                MimeUtility.getHeaderParameter(contentTransferEncoding, null) : null;
+
+        if (MimeUtil.isMessage(contentType)) {
+            CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+            Body body = MimeUtility.createBody(countingInputStream, contentTransferEncoding, contentType);
+            encodedBytes += countingInputStream.getByteCount();
+            decodedBytes += countingInputStream.getByteCount();
+            return body;
+        }
+
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        InputStream decodingInputStream;
+        BinaryTempFileBody body;
+        if (MimeUtil.ENC_BASE64.equalsIgnoreCase(encoding)) {
+            decodingInputStream = new Base64InputStream(countingInputStream);
+            body = new BinaryTempFileBody(MimeUtil.ENC_BINARY);
+        } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+            decodingInputStream = new QuotedPrintableInputStream(countingInputStream);
+            body = new BinaryTempFileBody(MimeUtil.ENC_BINARY);
+        } else {
+            decodingInputStream = countingInputStream;
+            body = new BinaryTempFileBody(encoding);
+        }
+
+        OutputStream out = body.getOutputStream();
+        try {
+            if (progressListener != null) {
+                progressListener.onBodyStarted(body);
+            }
+            decodedBytes += copy(decodingInputStream, out);
+        } finally {
+            out.close();
+        }
+
+        // Make sure the whole literal has been consumed, e.g. trailing line breaks after base64 padding
+        IOUtils.skip(countingInputStream, Long.MAX_VALUE);
+        encodedBytes += countingInputStream.getByteCount();
+
+        return body;
+    }
+
+    private long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            count += read;
+
+            if (progressListener != null) {
+                progressListener.onProgress(count);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The number of bytes read from the store so far, before decoding.
+     */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * @return The number of bytes written to bodies so far, after decoding.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+}
@@ -7,9 +7,10 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Multipart;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.Base64DecodingOutputStream;
+import com.fsck.k9.mail.filter.Base64InputStream;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.james.mime4j.codec.Base64InputStream;
 import org.apache.james.mime4j.codec.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.MimeUtil;
 
@@ -1024,7 +1025,7 @@ public class MimeUtility {
                     || MimeUtil.ENC_BINARY.equalsIgnoreCase(encoding)) {
                 inputStream = rawInputStream;
             } else if (MimeUtil.ENC_BASE64.equalsIgnoreCase(encoding)) {
-                inputStream = new Base64InputStream(rawInputStream, false) {
+                inputStream = new Base64InputStream(rawInputStream) {
                     @Override
                     public void close() throws IOException {
                         super.close();
@@ -1049,6 +1050,24 @@ public class MimeUtility {
         return inputStream;
     }
 
+    /**
+     * Wraps an {@code OutputStream} so it receives the decoded form of data written in the given transfer encoding.
+     * <p>
+     * Used to learn the decoded size of a body in the same pass that stores it.
+     * </p>
+     *
+     * @return The wrapping stream, or {@code null} if data in this encoding can't be decoded while it is written.
+     */
+    public static OutputStream createDecodingOutputStream(OutputStream out, String encoding) {
+        if (MimeUtil.ENC_BASE64.equalsIgnoreCase(encoding)) {
+            return new Base64DecodingOutputStream(out);
+        } else if (MimeUtil.ENC_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+            return null;
+        }
+
+        return out;
+    }
+
     public static void closeInputStreamWithoutDeletingTemporaryFiles(InputStream rawInputStream) throws IOException {
         if (rawInputStream instanceof BinaryTempFileBody.BinaryTempFileBodyInputStream) {
             ((BinaryTempFileBody.BinaryTempFileBodyInputStream) rawInputStream).closeWithoutDeleting();
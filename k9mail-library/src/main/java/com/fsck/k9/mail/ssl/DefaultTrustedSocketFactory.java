@@ -149,14 +149,7 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
     public Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias)
             throws NoSuchAlgorithmException, KeyManagementException, MessagingException, IOException {
 
-        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(context, host, port) };
-        KeyManager[] keyManagers = null;
-        if (!TextUtils.isEmpty(clientCertificateAlias)) {
-            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
-        }
-
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(keyManagers, trustManagers, null);
+        SSLContext sslContext = getSslContext(host, port, clientCertificateAlias);
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
         Socket trustedSocket;
         if (socket == null) {
@@ -172,6 +165,30 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
         return trustedSocket;
     }
 
+    /**
+     * Reuse the context of earlier connections to the server, so their TLS sessions can be resumed.
+     */
+    private SSLContext getSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+
+        TlsSessionCache sessionCache = TlsSessionCache.getInstance();
+        SSLContext sslContext = sessionCache.get(host, port, clientCertificateAlias);
+        if (sslContext != null) {
+            return sslContext;
+        }
+
+        TrustManager[] trustManagers = new TrustManager[] { TrustManagerFactory.get(context, host, port) };
+        KeyManager[] keyManagers = null;
+        if (!TextUtils.isEmpty(clientCertificateAlias)) {
+            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
+        }
+
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+
+        return sessionCache.put(host, port, clientCertificateAlias, sslContext);
+    }
+
     private static void hardenSocket(SSLSocket sock) {
         if (ENABLED_CIPHERS != null) {
             sock.setEnabledCipherSuites(ENABLED_CIPHERS);
@@ -125,6 +125,7 @@ public class LocalKeyStore {
                     "Failed to add certificate to local key store", e);
         }
         writeCertificateFile();
+        TlsSessionCache.getInstance().invalidate(host, port);
     }
 
     private void writeCertificateFile() throws CertificateException {
@@ -177,6 +178,7 @@ public class LocalKeyStore {
         try {
             mKeyStore.deleteEntry(getCertKey(oldHost, oldPort));
             writeCertificateFile();
+            TlsSessionCache.getInstance().invalidate(oldHost, oldPort);
         } catch (KeyStoreException e) {
             // Ignore: most likely there was no cert. found
         } catch (CertificateException e) {
@@ -0,0 +1,236 @@
+package com.fsck.k9.mail.ssl;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.K9MailLib;
+
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Shares {@link SSLContext}s between connections to the same server, so TLS sessions can be resumed.
+ *
+ * <p>
+ * The client session cache lives in the {@code SSLContext}. A new context per connection means every
+ * connection performs a full handshake. Contexts are kept per host, port and client certificate alias,
+ * for at most {@link #MAX_CONTEXTS} servers, each caching up to {@link #MAX_SESSIONS_PER_CONTEXT}
+ * sessions.
+ * </p><p>
+ * A resumed session skips certificate validation. So whenever validation fails, or the locally
+ * accepted certificate of a server changes, the context of that server is dropped and its sessions are
+ * invalidated.
+ * </p>
+ */
+public class TlsSessionCache {
+    static final int MAX_CONTEXTS = 16;
+    static final int MAX_SESSIONS_PER_CONTEXT = 4;
+
+    private static final TlsSessionCache INSTANCE = new TlsSessionCache();
+
+
+    private final Map<Key, SSLContext> sslContexts = new LinkedHashMap<Key, SSLContext>(MAX_CONTEXTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, SSLContext> eldest) {
+            return size() > MAX_CONTEXTS;
+        }
+    };
+    private long handshakes = 0;
+    private long resumedHandshakes = 0;
+    private long totalHandshakeMillis = 0;
+
+
+    public static TlsSessionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The context shared by connections to this server, or {@code null} if there is none.
+     */
+    public synchronized SSLContext get(String host, int port, String clientCertificateAlias) {
+        return sslContexts.get(new Key(host, port, clientCertificateAlias));
+    }
+
+    /**
+     * Share a newly initialized context for connections to this server.
+     *
+     * @return The context to use. If another thread was faster, its context is kept and returned.
+     */
+    public synchronized SSLContext put(String host, int port, String clientCertificateAlias, SSLContext sslContext) {
+        Key key = new Key(host, port, clientCertificateAlias);
+        SSLContext existingContext = sslContexts.get(key);
+        if (existingContext != null) {
+            return existingContext;
+        }
+
+        sslContext.getClientSessionContext().setSessionCacheSize(MAX_SESSIONS_PER_CONTEXT);
+        sslContexts.put(key, sslContext);
+
+        return sslContext;
+    }
+
+    /**
+     * Forget the sessions of a server whose certificate could not be validated.
+     */
+    public void invalidate(String host, int port, String clientCertificateAlias) {
+        SSLContext sslContext;
+        synchronized (this) {
+            sslContext = sslContexts.remove(new Key(host, port, clientCertificateAlias));
+        }
+
+        if (sslContext != null) {
+            invalidateSessions(sslContext);
+        }
+    }
+
+    /**
+     * Forget the sessions of a server for all client certificates, e.g. because the certificate the user
+     * accepted for it changed.
+     */
+    public void invalidate(String host, int port) {
+        List<SSLContext> removedContexts = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Key, SSLContext>> iterator = sslContexts.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, SSLContext> entry = iterator.next();
+                if (entry.getKey().matches(host, port)) {
+                    removedContexts.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        for (SSLContext sslContext : removedContexts) {
+            invalidateSessions(sslContext);
+        }
+    }
+
+    private static void invalidateSessions(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        Enumeration<byte[]> ids = sessionContext.getIds();
+        while (ids.hasMoreElements()) {
+            SSLSession session = sessionContext.getSession(ids.nextElement());
+            if (session != null) {
+                session.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Perform the handshake of a new socket and record whether its session was resumed.
+     *
+     * <p>
+     * Must be called before anything is read from or written to the socket.
+     * </p>
+     */
+    public void startHandshake(SSLSocket socket) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+
+        socket.startHandshake();
+
+        long handshakeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // A resumed session was created by an earlier handshake
+        boolean resumed = socket.getSession().getCreationTime() < startTime;
+        recordHandshake(resumed, handshakeMillis);
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, "TLS handshake with " + socket.getInetAddress() + " took " + handshakeMillis + " ms" +
+                    (resumed ? " (resumed)" : ""));
+        }
+    }
+
+    synchronized void recordHandshake(boolean resumed, long handshakeMillis) {
+        handshakes++;
+        if (resumed) {
+            resumedHandshakes++;
+        }
+        totalHandshakeMillis += handshakeMillis;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(sslContexts.size(), handshakes, resumedHandshakes, totalHandshakeMillis);
+    }
+
+
+    private static class Key {
+        private final String host;
+        private final int port;
+        private final String clientCertificateAlias;
+
+        Key(String host, int port, String clientCertificateAlias) {
+            this.host = host;
+            this.port = port;
+            this.clientCertificateAlias = (clientCertificateAlias == null) ? "" : clientCertificateAlias;
+        }
+
+        boolean matches(String host, int port) {
+            return this.port == port && this.host.equalsIgnoreCase(host);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return matches(other.host, other.port) && clientCertificateAlias.equals(other.clientCertificateAlias);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = host.toLowerCase(Locale.US).hashCode();
+            result = 31 * result + port;
+            result = 31 * result + clientCertificateAlias.hashCode();
+            return result;
+        }
+    }
+
+
+    public static class Stats {
+        public final int cachedContexts;
+        public final long handshakes;
+        public final long resumedHandshakes;
+        public final long totalHandshakeMillis;
+
+        Stats(int cachedContexts, long handshakes, long resumedHandshakes, long totalHandshakeMillis) {
+            this.cachedContexts = cachedContexts;
+            this.handshakes = handshakes;
+            this.resumedHandshakes = resumedHandshakes;
+            this.totalHandshakeMillis = totalHandshakeMillis;
+        }
+
+        /**
+         * @return The share of handshakes that resumed a session, between {@code 0} and {@code 1}.
+         */
+        public double getResumptionRate() {
+            return (handshakes == 0) ? 0 : (double) resumedHandshakes / handshakes;
+        }
+
+        public long getAverageHandshakeMillis() {
+            return (handshakes == 0) ? 0 : totalHandshakeMillis / handshakes;
+        }
+
+        @Override
+        public String toString() {
+            return "contexts=" + cachedContexts + " handshakes=" + handshakes + " resumed=" + resumedHandshakes +
+                    " avgHandshake=" + getAverageHandshakeMillis() + "ms";
+        }
+    }
+}
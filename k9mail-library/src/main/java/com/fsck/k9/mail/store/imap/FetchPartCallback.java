@@ -2,19 +2,26 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.util.Map;
 
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
 import com.fsck.k9.mail.internet.MimeHeader;
-import com.fsck.k9.mail.internet.MimeUtility;
 
 
 class FetchPartCallback implements ImapResponseCallback {
-    private Part mPart;
+    private Map<String, Part> mPartsBySection;
+    private BodyFactory mBodyFactory;
 
-    FetchPartCallback(Part part) {
-        mPart = part;
+    /**
+     * @param partsBySection
+     *         The parts that were requested, keyed by their upper case body section (e.g. "1.2" or "TEXT").
+     */
+    FetchPartCallback(Map<String, Part> partsBySection, BodyFactory bodyFactory) {
+        mPartsBySection = partsBySection;
+        mBodyFactory = bodyFactory;
     }
 
     @Override
@@ -24,14 +31,34 @@ class FetchPartCallback implements ImapResponseCallback {
                 ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
             //TODO: check for correct UID
 
-            String contentTransferEncoding = mPart
+            Part part = findPart((ImapList) response.getKeyedValue("FETCH"));
+            if (part == null) {
+                return null;
+            }
+
+            String contentTransferEncoding = part
                     .getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
-            String contentType = mPart
+            String contentType = part
                     .getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
 
-            return MimeUtility.createBody(literal, contentTransferEncoding,
-                    contentType);
+            return mBodyFactory.createBody(contentTransferEncoding, contentType, literal);
+        }
+        return null;
+    }
+
+    private Part findPart(ImapList fetchList) {
+        if (fetchList != null) {
+            Part part = mPartsBySection.get(ImapFolder.getBodySection(fetchList));
+            if (part != null) {
+                return part;
+            }
+        }
+
+        // With a single outstanding part there's nothing to confuse it with
+        if (mPartsBySection.size() == 1) {
+            return mPartsBySection.values().iterator().next();
         }
+
         return null;
     }
 }
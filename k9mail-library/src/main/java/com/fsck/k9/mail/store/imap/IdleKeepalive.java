@@ -0,0 +1,286 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.NetworkType;
+
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Learns how long an IDLE connection may stay silent before a NAT or firewall on the way silently
+ * drops it.
+ *
+ * <p>
+ * Every time the pusher refreshes IDLE it reports how long the connection was silent (a probe) and
+ * whether the server still answered. Without a known failure the interval grows by a doubling step.
+ * After a failure the interval is bisected between the largest silent time that worked and the
+ * smallest one that didn't, until the two are less than {@link #MIN_STEP} apart. From then on IDLE is
+ * refreshed at the largest safe interval, i.e. just before the binding would expire. After
+ * {@link #REPROBE_AFTER} refreshes at that interval a longer one is tried again, in case the network
+ * changed.
+ * </p><p>
+ * NAT timeouts depend on the network, not on the account, so there is one instance with one state per
+ * {@link NetworkType}. It also counts reconnects and keepalive wakeups of the radio, see
+ * {@link ImapStore#getIdleKeepaliveStats()}.
+ * </p><p>
+ * What was learned is kept across restarts of the app. The safe and failed intervals are saved with
+ * {@link #saveState()} whenever they change and restored once with {@link #restoreState(String)}.
+ * </p>
+ */
+public class IdleKeepalive {
+    static final int MIN_INTERVAL = 2 * 60 * 1000;
+    static final int INITIAL_STEP = 2 * 60 * 1000;
+    static final int MIN_STEP = 30 * 1000;
+    static final int REPROBE_AFTER = 24;
+
+    private static final String STATE_SEPARATOR = ",";
+    private static final String VALUE_SEPARATOR = ":";
+
+    private static final IdleKeepalive INSTANCE = new IdleKeepalive();
+
+
+    private final Map<NetworkType, State> states = new EnumMap<>(NetworkType.class);
+    private long reconnects = 0;
+    private long wakeups = 0;
+    private long failedProbes = 0;
+    private boolean restored = false;
+
+
+    static IdleKeepalive getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxInterval
+     *         The IDLE refresh interval configured for the account. Never exceeded.
+     *
+     * @return The time in milliseconds after which IDLE should be refreshed.
+     */
+    synchronized int getInterval(NetworkType networkType, int maxInterval) {
+        State state = getState(networkType);
+
+        long base = Math.max(state.safe, state.pending);
+        long interval;
+        if (state.failed == 0) {
+            interval = base + state.step;
+        } else if (state.failed - base > MIN_STEP) {
+            interval = (base + state.failed) / 2;
+        } else {
+            interval = base;
+        }
+
+        return (int) Math.min(Math.max(interval, MIN_INTERVAL), maxInterval);
+    }
+
+    /**
+     * Called when IDLE is refreshed after the connection was silent for {@code silentTime} milliseconds.
+     * Until the result is known {@link #getInterval(NetworkType, int)} assumes the probe succeeds, so
+     * the next refresh can be scheduled right away.
+     */
+    synchronized void onProbeStarted(NetworkType networkType, long silentTime) {
+        getState(networkType).pending = silentTime;
+        wakeups++;
+    }
+
+    synchronized void onProbeCancelled(NetworkType networkType) {
+        getState(networkType).pending = 0;
+    }
+
+    /**
+     * @return Whether the safe or failed interval changed, i.e. the state should be saved.
+     */
+    synchronized boolean onProbeSucceeded(NetworkType networkType, long silentTime) {
+        State state = getState(networkType);
+        state.pending = 0;
+        long oldSafe = state.safe;
+        long oldFailed = state.failed;
+
+        if (silentTime > state.safe) {
+            state.safe = silentTime;
+            if (state.failed == 0) {
+                state.step *= 2;
+            } else if (state.safe >= state.failed) {
+                state.failed = 0;
+                state.step = INITIAL_STEP;
+            }
+        }
+
+        if (state.failed != 0 && state.failed - state.safe <= MIN_STEP) {
+            state.convergedCount++;
+            if (state.convergedCount >= REPROBE_AFTER) {
+                state.failed = 0;
+                state.step = INITIAL_STEP;
+                state.convergedCount = 0;
+            }
+        }
+
+        log(networkType, "succeeded", silentTime, state);
+
+        return state.safe != oldSafe || state.failed != oldFailed;
+    }
+
+    /**
+     * @return Whether the safe or failed interval changed, i.e. the state should be saved.
+     */
+    synchronized boolean onProbeFailed(NetworkType networkType, long silentTime) {
+        State state = getState(networkType);
+        state.pending = 0;
+
+        if (silentTime < MIN_INTERVAL) {
+            // Too short for a NAT timeout, something else went wrong
+            return false;
+        }
+
+        long oldSafe = state.safe;
+        long oldFailed = state.failed;
+
+        failedProbes++;
+        state.step = INITIAL_STEP;
+        state.convergedCount = 0;
+
+        if (silentTime <= state.safe) {
+            // An interval that used to work failed, the timeout of the network may have become shorter
+            state.safe = silentTime / 2;
+            state.failed = silentTime;
+        } else if (state.failed == 0 || silentTime < state.failed) {
+            state.failed = silentTime;
+        }
+
+        log(networkType, "failed", silentTime, state);
+
+        return state.safe != oldSafe || state.failed != oldFailed;
+    }
+
+    synchronized void onReconnect() {
+        reconnects++;
+    }
+
+    /**
+     * @return The safe and failed interval per network type, e.g. {@code "WIFI:840000:900000,MOBILE:360000:0"}.
+     */
+    synchronized String saveState() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<NetworkType, State> entry : states.entrySet()) {
+            State state = entry.getValue();
+            if (sb.length() > 0) {
+                sb.append(STATE_SEPARATOR);
+            }
+            sb.append(entry.getKey().name()).append(VALUE_SEPARATOR)
+                    .append(state.safe).append(VALUE_SEPARATOR)
+                    .append(state.failed);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Restores a state returned by {@link #saveState()}. Only the first call has an effect, later ones
+     * would overwrite what was learned since. Unknown network types and malformed entries are skipped.
+     */
+    synchronized void restoreState(String savedState) {
+        if (restored) {
+            return;
+        }
+        restored = true;
+
+        if (savedState == null || savedState.isEmpty()) {
+            return;
+        }
+
+        for (String entry : savedState.split(STATE_SEPARATOR)) {
+            String[] values = entry.split(VALUE_SEPARATOR);
+            if (values.length != 3) {
+                continue;
+            }
+
+            try {
+                NetworkType networkType = NetworkType.valueOf(values[0]);
+                long safe = Long.parseLong(values[1]);
+                long failed = Long.parseLong(values[2]);
+
+                State state = getState(networkType);
+                state.safe = safe;
+                state.failed = failed;
+            } catch (IllegalArgumentException e) {
+                // Network type or interval written by a different version, learn it again
+            }
+        }
+    }
+
+    synchronized Stats getStats() {
+        return new Stats(reconnects, wakeups, failedProbes);
+    }
+
+    private State getState(NetworkType networkType) {
+        State state = states.get(networkType);
+        if (state == null) {
+            state = new State();
+            states.put(networkType, state);
+        }
+
+        return state;
+    }
+
+    private void log(NetworkType networkType, String result, long silentTime, State state) {
+        if (K9MailLib.isDebug()) {
+            Log.i(LOG_TAG, "IDLE keepalive on " + networkType + " " + result + " after " + silentTime +
+                    " ms, safe = " + state.safe + " ms, failed = " + state.failed + " ms, " + getStats());
+        }
+    }
+
+
+    private static class State {
+        /**
+         * Largest silent time that worked.
+         */
+        long safe = 0;
+
+        /**
+         * Smallest silent time that didn't work, or {@code 0} if unknown.
+         */
+        long failed = 0;
+
+        /**
+         * Silent time of the probe that is running, or {@code 0}.
+         */
+        long pending = 0;
+
+        long step = INITIAL_STEP;
+        int convergedCount = 0;
+    }
+
+
+    public static class Stats {
+        /**
+         * Number of times a pusher had to open a new connection after losing its previous one.
+         */
+        public final long reconnects;
+
+        /**
+         * Number of times IDLE was refreshed to keep a connection alive.
+         */
+        public final long wakeups;
+
+        /**
+         * Number of refreshes that found the connection dead.
+         */
+        public final long failedProbes;
+
+        Stats(long reconnects, long wakeups, long failedProbes) {
+            this.reconnects = reconnects;
+            this.wakeups = wakeups;
+            this.failedProbes = failedProbes;
+        }
+
+        @Override
+        public String toString() {
+            return "reconnects=" + reconnects + " wakeups=" + wakeups + " failedProbes=" + failedProbes;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.MessagingException;
+
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Sends a batch of commands over an {@link ImapConnection} while keeping up to {@code maxInFlight} tagged commands
+ * outstanding at the same time.
+ * <p>
+ * Without pipelining every command costs a full round trip before the next one can be sent. Untagged responses are
+ * handed to a {@link ResponseHandler} as they arrive, tagged responses are matched against the outstanding commands
+ * by their tag. Callers have to be able to attribute untagged responses on their own, e.g. by UID for
+ * {@code UID FETCH}.
+ * </p>
+ */
+class ImapCommandPipeline {
+    private final ImapConnection connection;
+    private final int maxInFlight;
+
+
+    interface ResponseHandler {
+        void handleUntaggedResponse(ImapResponse response) throws MessagingException, IOException;
+    }
+
+
+    ImapCommandPipeline(ImapConnection connection, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        this.connection = connection;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Executes all {@code commands} and returns the tagged status responses in the order the commands completed.
+     * <p>
+     * Negative status responses are not turned into exceptions; it's up to the caller to decide how to treat them.
+     * </p>
+     */
+    List<ImapResponse> execute(List<String> commands, ImapResponseCallback callback, ResponseHandler handler)
+            throws MessagingException, IOException {
+
+        List<ImapResponse> statusResponses = new ArrayList<>(commands.size());
+        Map<String, String> outstandingCommands = new LinkedHashMap<>();
+        int nextCommand = 0;
+
+        while (nextCommand < commands.size() || !outstandingCommands.isEmpty()) {
+            while (nextCommand < commands.size() && outstandingCommands.size() < maxInFlight) {
+                String command = commands.get(nextCommand++);
+                String tag = connection.sendCommand(command, false);
+                outstandingCommands.put(tag, command);
+            }
+
+            ImapResponse response = connection.readResponse(callback);
+            if (response.getTag() == null) {
+                handler.handleUntaggedResponse(response);
+                continue;
+            }
+
+            completeCommand(outstandingCommands, response);
+            statusResponses.add(response);
+        }
+
+        return statusResponses;
+    }
+
+    private void completeCommand(Map<String, String> outstandingCommands, ImapResponse response) {
+        String tag = response.getTag();
+        if (outstandingCommands.remove(tag) != null) {
+            return;
+        }
+
+        // Servers complete pipelined FETCH commands in order, so attribute a tag we don't know to the oldest command
+        Iterator<String> oldestCommand = outstandingCommands.keySet().iterator();
+        if (oldestCommand.hasNext()) {
+            String oldestTag = oldestCommand.next();
+            oldestCommand.remove();
+
+            Log.w(LOG_TAG, "Got unexpected tag " + tag + " while waiting for pipelined command with tag " +
+                    oldestTag + " for " + connection.getLogId());
+        }
+    }
+}
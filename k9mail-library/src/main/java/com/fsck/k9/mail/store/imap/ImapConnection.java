@@ -8,9 +8,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
 import java.net.SocketException;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
@@ -22,6 +20,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -39,11 +38,13 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.filter.PeekableInputStream;
+import com.fsck.k9.mail.ssl.TlsSessionCache;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.fsck.k9.mail.transport.HipriController;
 import com.jcraft.jzlib.JZlib;
 import com.jcraft.jzlib.ZOutputStream;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
 import org.apache.commons.io.IOUtils;
 
 import static com.fsck.k9.mail.ConnectionSecurity.STARTTLS_REQUIRED;
@@ -74,6 +75,8 @@ class ImapConnection {
     private Set<String> capabilities = new HashSet<String>();
     private ImapSettings settings;
     private boolean requiresCellular;
+    private long handshakeMillis;
+    private boolean qresyncEnabled;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
@@ -109,12 +112,15 @@ class ImapConnection {
 
         boolean authSuccess = false;
         nextCommandTag = 1;
+        qresyncEnabled = false;
+        long handshakeStart = System.nanoTime();
 
         adjustDNSCacheTTL();
 
         try {
             socket = connect();
             configureSocket();
+            startTlsHandshakeIfNecessary();
             setUpStreamsAndParserFromSocket();
 
             readInitialResponse();
@@ -126,10 +132,12 @@ class ImapConnection {
             authSuccess = true;
 
             enableCompressionIfRequested();
+            enableQresyncIfSupported();
 
             retrievePathPrefixIfNecessary();
             retrievePathDelimiterIfNecessary();
 
+            handshakeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - handshakeStart);
         } catch (SSLException e) {
             handleSslException(e);
         } catch (ConnectException e) {
@@ -146,6 +154,8 @@ class ImapConnection {
 
     private void handleSslException(SSLException e) throws CertificateValidationException, SSLException {
         if (e.getCause() instanceof CertificateException) {
+            TlsSessionCache.getInstance().invalidate(settings.getHost(), settings.getPort(),
+                    settings.getClientCertificateAlias());
             throw new CertificateValidationException(e.getMessage(), e);
         } else {
             throw e;
@@ -184,50 +194,42 @@ class ImapConnection {
     }
 
     private Socket connect() throws GeneralSecurityException, MessagingException, IOException {
-        Exception connectException = null;
-
         InetAddress[] inetAddresses = InetAddress.getAllByName(settings.getHost());
-        for (InetAddress address : inetAddresses) {
-            try {
-                return connectToAddress(address);
-            } catch (IOException e) {
-                Log.w(LOG_TAG, "Could not connect to " + address, e);
-                connectException = e;
-            }
-        }
 
-        throw new MessagingException("Cannot connect to host", connectException);
+        try {
+            return StaggeredConnector.getInstance().connect(inetAddresses, settings.getPort(), socketConnectTimeout,
+                    new StaggeredConnector.SocketCreator() {
+                        @Override
+                        public Socket createSocket() throws GeneralSecurityException, MessagingException, IOException {
+                            return createUnconnectedSocket();
+                        }
+                    });
+        } catch (IOException e) {
+            throw new MessagingException("Cannot connect to host", e);
+        }
     }
 
-    private Socket connectToAddress(InetAddress address) throws NoSuchAlgorithmException, KeyManagementException,
+    private Socket createUnconnectedSocket() throws NoSuchAlgorithmException, KeyManagementException,
             MessagingException, IOException {
 
-        String host = settings.getHost();
-        int port = settings.getPort();
-        String clientCertificateAlias = settings.getClientCertificateAlias();
-
-        if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
-            Log.d(LOG_TAG, "Connecting to " + host + " as " + address);
-        }
-
-        SocketAddress socketAddress = new InetSocketAddress(address, port);
-
-        Socket socket;
         if (settings.getConnectionSecurity() == ConnectionSecurity.SSL_TLS_REQUIRED) {
-            socket = socketFactory.createSocket(null, host, port, clientCertificateAlias);
-        } else {
-            socket = new Socket();
+            return socketFactory.createSocket(null, settings.getHost(), settings.getPort(),
+                    settings.getClientCertificateAlias());
         }
 
-        socket.connect(socketAddress, socketConnectTimeout);
-
-        return socket;
+        return new Socket();
     }
 
     private void configureSocket() throws SocketException {
         socket.setSoTimeout(socketReadTimeout);
     }
 
+    private void startTlsHandshakeIfNecessary() throws IOException {
+        if (socket instanceof SSLSocket) {
+            TlsSessionCache.getInstance().startHandshake((SSLSocket) socket);
+        }
+    }
+
     private void setUpStreamsAndParserFromSocket() throws IOException {
         setUpStreamsAndParser(socket.getInputStream(), socket.getOutputStream());
     }
@@ -313,6 +315,7 @@ class ImapConnection {
 
         socket = socketFactory.createSocket(socket, host, port, clientCertificateAlias);
         configureSocket();
+        startTlsHandshakeIfNecessary();
         setUpStreamsAndParserFromSocket();
 
         // Per RFC 2595 (3.1):  Once TLS has been started, reissue CAPABILITY command
@@ -456,6 +459,19 @@ class ImapConnection {
         }
     }
 
+    private void enableQresyncIfSupported() throws IOException, MessagingException {
+        if (!hasCapability(Capabilities.QRESYNC)) {
+            return;
+        }
+
+        try {
+            executeSimpleCommand(Commands.ENABLE_QRESYNC);
+            qresyncEnabled = true;
+        } catch (NegativeImapResponseException e) {
+            Log.d(LOG_TAG, "Unable to enable QRESYNC: " + e.getMessage());
+        }
+    }
+
     private boolean shouldEnableCompression() {
         boolean useCompression = true;
 
@@ -591,6 +607,21 @@ class ImapConnection {
         return capabilities.contains(Capabilities.IDLE);
     }
 
+    /**
+     * @return True if the server keeps a mod-sequence per message, so flag changes can be fetched incrementally.
+     */
+    protected boolean isCondstoreCapable() {
+        return hasCapability(Capabilities.CONDSTORE) || hasCapability(Capabilities.QRESYNC);
+    }
+
+    /**
+     * @return True if QRESYNC was enabled for this connection. The server then reports expunged messages with
+     *         {@code VANISHED} responses containing UIDs instead of {@code EXPUNGE} responses.
+     */
+    protected boolean isQresyncEnabled() {
+        return qresyncEnabled;
+    }
+
     public void close() {
         IOUtils.closeQuietly(inputStream);
         IOUtils.closeQuietly(outputStream);
@@ -601,6 +632,16 @@ class ImapConnection {
         socket = null;
     }
 
+    /**
+     * Returns the time it took to connect, authenticate and set up the last successfully opened connection and
+     * resets it, so the same handshake is only reported once.
+     */
+    long takeHandshakeMillis() {
+        long millis = handshakeMillis;
+        handshakeMillis = 0;
+        return millis;
+    }
+
     public OutputStream getOutputStream() {
         return outputStream;
     }
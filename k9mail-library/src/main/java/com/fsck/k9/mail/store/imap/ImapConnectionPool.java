@@ -0,0 +1,265 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.MessagingException;
+
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Keeps authenticated {@link ImapConnection}s around for reuse by an {@link ImapStore}.
+ * <p>
+ * Idle connections are checked with a {@code NOOP} before they are handed out again. Connections that have been idle
+ * for longer than {@link #MAX_IDLE_MILLIS} are closed without probing them, since a silently dropped connection
+ * would cost a full read timeout before we notice. At most {@link #MAX_IDLE_CONNECTIONS} connections are kept.
+ * </p>
+ */
+public class ImapConnectionPool {
+    static final int MAX_IDLE_CONNECTIONS = 3;
+    static final long MAX_IDLE_MILLIS = 5 * 60 * 1000;
+    static final long WARM_UP_WAIT_MILLIS = 30 * 1000;
+
+
+    interface ConnectionFactory {
+        ImapConnection createConnection();
+    }
+
+
+    private final ConnectionFactory connectionFactory;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private int pendingWarmUps = 0;
+
+    private long hits;
+    private long misses;
+    private long failedProbes;
+    private long evictions;
+    private long handshakes;
+    private long totalHandshakeMillis;
+
+
+    ImapConnectionPool(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    ImapConnection acquire() throws MessagingException {
+        ImapConnection connection;
+        while ((connection = pollIdleConnection()) != null) {
+            try {
+                connection.executeSimpleCommand(Commands.NOOP);
+                recordHit();
+                return connection;
+            } catch (IOException ioe) {
+                recordFailedProbe();
+                connection.close();
+            }
+        }
+
+        recordMiss();
+        return connectionFactory.createConnection();
+    }
+
+    void release(ImapConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        recordHandshake(connection);
+
+        if (!connection.isOpen()) {
+            return;
+        }
+
+        ImapConnection evictedConnection = null;
+        synchronized (this) {
+            idleConnections.offerFirst(new IdleConnection(connection, currentTimeMillis()));
+            if (idleConnections.size() > MAX_IDLE_CONNECTIONS) {
+                evictedConnection = idleConnections.pollLast().connection;
+                evictions++;
+            }
+            notifyAll();
+        }
+
+        if (evictedConnection != null) {
+            evictedConnection.close();
+        }
+    }
+
+    /**
+     * Opens a new connection and adds it to the pool unless there already is an idle connection.
+     * <p>
+     * Callers that ask for a connection while the warm-up is in progress wait for it instead of opening a second
+     * connection in parallel.
+     * </p>
+     */
+    void warmUp() throws MessagingException {
+        synchronized (this) {
+            if (!idleConnections.isEmpty() || pendingWarmUps > 0) {
+                return;
+            }
+            pendingWarmUps++;
+        }
+
+        ImapConnection connection = null;
+        try {
+            connection = connectionFactory.createConnection();
+            connection.open();
+        } catch (IOException e) {
+            throw new MessagingException("Unable to warm up connection", e);
+        } finally {
+            // Pool the connection before waking up waiting callers, so they don't open a connection of their own
+            release(connection);
+
+            synchronized (this) {
+                pendingWarmUps--;
+                notifyAll();
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, "Warmed up IMAP connection " + connection.getLogId());
+        }
+    }
+
+    void closeIdleConnections() {
+        Deque<IdleConnection> connectionsToClose;
+        synchronized (this) {
+            connectionsToClose = new ArrayDeque<>(idleConnections);
+            idleConnections.clear();
+        }
+
+        for (IdleConnection idleConnection : connectionsToClose) {
+            idleConnection.connection.close();
+        }
+    }
+
+    synchronized Stats getStats() {
+        return new Stats(idleConnections.size(), hits, misses, failedProbes, evictions, handshakes,
+                totalHandshakeMillis);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private ImapConnection pollIdleConnection() {
+        ImapConnection connection = null;
+        Deque<ImapConnection> staleConnections = new ArrayDeque<>();
+
+        synchronized (this) {
+            waitForPendingWarmUps();
+
+            long now = currentTimeMillis();
+            Iterator<IdleConnection> iterator = idleConnections.iterator();
+            while (iterator.hasNext()) {
+                IdleConnection idleConnection = iterator.next();
+                iterator.remove();
+
+                if (now - idleConnection.releasedAt > MAX_IDLE_MILLIS) {
+                    staleConnections.add(idleConnection.connection);
+                    evictions++;
+                } else {
+                    connection = idleConnection.connection;
+                    break;
+                }
+            }
+        }
+
+        for (ImapConnection staleConnection : staleConnections) {
+            staleConnection.close();
+        }
+
+        return connection;
+    }
+
+    private void waitForPendingWarmUps() {
+        long deadline = currentTimeMillis() + WARM_UP_WAIT_MILLIS;
+        while (idleConnections.isEmpty() && pendingWarmUps > 0) {
+            long remaining = deadline - currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void recordHandshake(ImapConnection connection) {
+        long handshakeMillis = connection.takeHandshakeMillis();
+        if (handshakeMillis <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            handshakes++;
+            totalHandshakeMillis += handshakeMillis;
+        }
+    }
+
+    private synchronized void recordHit() {
+        hits++;
+    }
+
+    private synchronized void recordMiss() {
+        misses++;
+    }
+
+    private synchronized void recordFailedProbe() {
+        failedProbes++;
+    }
+
+
+    public static class Stats {
+        public final int idleConnections;
+        public final long hits;
+        public final long misses;
+        public final long failedProbes;
+        public final long evictions;
+        public final long handshakes;
+        public final long totalHandshakeMillis;
+
+        Stats(int idleConnections, long hits, long misses, long failedProbes, long evictions, long handshakes,
+                long totalHandshakeMillis) {
+            this.idleConnections = idleConnections;
+            this.hits = hits;
+            this.misses = misses;
+            this.failedProbes = failedProbes;
+            this.evictions = evictions;
+            this.handshakes = handshakes;
+            this.totalHandshakeMillis = totalHandshakeMillis;
+        }
+
+        public long getAverageHandshakeMillis() {
+            return (handshakes == 0) ? 0 : totalHandshakeMillis / handshakes;
+        }
+
+        @Override
+        public String toString() {
+            return "idle=" + idleConnections + " hits=" + hits + " misses=" + misses +
+                    " failedProbes=" + failedProbes + " evictions=" + evictions + " handshakes=" + handshakes +
+                    " avgHandshake=" + getAverageHandshakeMillis() + "ms";
+        }
+    }
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long releasedAt;
+
+        IdleConnection(ImapConnection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
@@ -20,6 +20,8 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.DefaultBodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
@@ -48,10 +50,13 @@ class ImapFolder extends Folder<ImapMessage> {
     };
     private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
     private static final int FETCH_WINDOW_SIZE = 1;
+    private static final int FETCH_PIPELINE_DEPTH = 5;
 
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long uidValidity = -1L;
+    protected volatile long highestModSeq = -1L;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
     protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<Long, String>();
@@ -137,11 +142,17 @@ class ImapFolder extends Folder<ImapMessage> {
 
         try {
             msgSeqUidMap.clear();
+            uidValidity = -1L;
+            highestModSeq = -1L;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (connection.isCondstoreCapable() && !connection.isQresyncEnabled()) {
+                // Ask for HIGHESTMODSEQ; with QRESYNC enabled the server already reports it
+                command += " (CONDSTORE)";
+            }
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -612,6 +623,100 @@ class ImapFolder extends Folder<ImapMessage> {
         return search(searcher, null);
     }
 
+    @Override
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    @Override
+    public long getHighestModSeq() {
+        if (connection == null || !connection.isCondstoreCapable()) {
+            return -1L;
+        }
+
+        return highestModSeq;
+    }
+
+    /**
+     * Fetches the flags of messages that changed since {@code modSeq} using {@code CHANGEDSINCE} (RFC 7162). If QRESYNC
+     * is enabled the server also reports messages expunged since then with a {@code VANISHED (EARLIER)} response.
+     */
+    @Override
+    public List<ImapMessage> getMessagesChangedSince(long lowestUid, long modSeq) throws MessagingException {
+        checkOpen();
+
+        if (getHighestModSeq() <= 0) {
+            throw new MessagingException("Server doesn't support CONDSTORE for " + getLogId());
+        }
+
+        String vanishedModifier = connection.isQresyncEnabled() ? " VANISHED" : "";
+        String command = String.format(Locale.US, "UID FETCH %d:* (UID FLAGS) (CHANGEDSINCE %d%s)",
+                Math.max(1L, lowestUid), modSeq, vanishedModifier);
+
+        List<ImapMessage> messages = new ArrayList<>();
+        try {
+            List<ImapResponse> responses = executeSimpleCommand(command);
+            for (ImapResponse response : responses) {
+                if (response.getTag() != null) {
+                    continue;
+                }
+
+                if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    String uid = fetchList.getKeyedString("UID");
+                    if (uid == null) {
+                        continue;
+                    }
+
+                    ImapMessage message = new ImapMessage(uid, this);
+                    handleFetchResponse(message, fetchList);
+                    messages.add(message);
+                } else if (isVanishedResponse(response)) {
+                    for (String uid : getVanishedUids(response)) {
+                        ImapMessage message = new ImapMessage(uid, this);
+                        message.setFlagInternal(Flag.DELETED, true);
+                        messages.add(message);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, "Got " + messages.size() + " messages changed since modseq " + modSeq + " for " +
+                    getLogId());
+        }
+
+        return messages;
+    }
+
+    static boolean isVanishedResponse(ImapResponse response) {
+        return response.getTag() == null && response.size() > 1 &&
+                ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.VANISHED);
+    }
+
+    static boolean isVanishedEarlierResponse(ImapResponse response) {
+        if (!isVanishedResponse(response) || !response.isList(1)) {
+            return false;
+        }
+
+        ImapList modifiers = response.getList(1);
+        return modifiers.size() > 0 && ImapResponseParser.equalsIgnoreCase(modifiers.get(0), Responses.EARLIER);
+    }
+
+    /**
+     * Returns the UIDs listed in an untagged {@code VANISHED} or {@code VANISHED (EARLIER)} response.
+     */
+    static List<String> getVanishedUids(ImapResponse response) {
+        Object uidSet = response.get(response.size() - 1);
+        if (!(uidSet instanceof String)) {
+            return Collections.emptyList();
+        }
+
+        return ImapUtility.getImapSequenceValues((String) uidSet);
+    }
+
     private List<ImapMessage> search(ImapSearcher searcher, MessageRetrievalListener<ImapMessage> listener)
             throws MessagingException {
         checkOpen();
@@ -699,165 +804,99 @@ class ImapFolder extends Folder<ImapMessage> {
 
         String spaceSeparatedFetchFields = combine(fetchFields.toArray(new String[fetchFields.size()]), ' ');
 
+        List<String> commands = new ArrayList<>();
         for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
             int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
             List<String> uidWindow = uids.subList(windowStart, windowEnd);
 
-            try {
-                String commaSeparatedUids = combine(uidWindow.toArray(new String[uidWindow.size()]), ',');
-                String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
-                connection.sendCommand(command, false);
-
-                ImapResponse response;
-                int messageNumber = 0;
-
-                ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
-                        fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
-                    callback = new FetchBodyCallback(messageMap);
-                }
-
-                do {
-                    response = connection.readResponse(callback);
-
-                    if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                        String uid = fetchList.getKeyedString("UID");
-                        long msgSeq = response.getLong(0);
-                        if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Log.v(LOG_TAG, "Stored uid '" + uid + "' for msgSeq " + msgSeq + " into map");
-                                }
-                            } catch (Exception e) {
-                                Log.e(LOG_TAG, "Unable to store uid '" + uid + "' for msgSeq " + msgSeq);
-                            }
-                        }
-
-                        Message message = messageMap.get(uid);
-                        if (message == null) {
-                            if (K9MailLib.isDebug()) {
-                                Log.d(LOG_TAG, "Do not have message in messageMap for UID " + uid + " for " +
-                                        getLogId());
-                            }
-
-                            handleUntaggedResponse(response);
-                            continue;
-                        }
-
-                        if (listener != null) {
-                            listener.messageStarted(uid, messageNumber++, messageMap.size());
-                        }
-
-                        ImapMessage imapMessage = (ImapMessage) message;
-                        Object literal = handleFetchResponse(imapMessage, fetchList);
-
-                        if (literal != null) {
-                            if (literal instanceof String) {
-                                String bodyString = (String) literal;
-                                InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-                                imapMessage.parse(bodyStream);
-                            } else if (literal instanceof Integer) {
-                                // All the work was done in FetchBodyCallback.foundLiteral()
-                            } else {
-                                // This shouldn't happen
-                                throw new MessagingException("Got FETCH response with bogus parameters");
-                            }
-                        }
+            String commaSeparatedUids = combine(uidWindow.toArray(new String[uidWindow.size()]), ',');
+            commands.add(String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields));
+        }
 
-                        if (listener != null) {
-                            listener.messageFinished(imapMessage, messageNumber, messageMap.size());
-                        }
-                    } else {
-                        handleUntaggedResponse(response);
-                    }
+        ImapResponseCallback callback = null;
+        if (fetchProfile.contains(FetchProfile.Item.BODY) ||
+                fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
+            callback = new FetchBodyCallback(messageMap);
+        }
 
-                } while (response.getTag() == null);
-            } catch (IOException ioe) {
-                throw ioExceptionHandler(connection, ioe);
-            }
+        try {
+            ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, FETCH_PIPELINE_DEPTH);
+            pipeline.execute(commands, callback, new FetchResponseHandler(messageMap, listener));
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
         }
     }
 
     @Override
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener)
             throws MessagingException {
-        checkOpen();
-
-        String partId = part.getServerExtra();
+        fetchParts(message, Collections.singletonList(part), listener, new DefaultBodyFactory());
+    }
 
-        String fetch;
-        if ("TEXT".equalsIgnoreCase(partId)) {
-            int maximumAutoDownloadMessageSize = store.getStoreConfig().getMaximumAutoDownloadMessageSize();
-            fetch = String.format(Locale.US, "BODY.PEEK[TEXT]<0.%d>", maximumAutoDownloadMessageSize);
-        } else {
-            fetch = String.format("BODY.PEEK[%s]", partId);
-        }
+    @Override
+    public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
+            BodyFactory bodyFactory) throws MessagingException {
+        fetchParts(message, Collections.singletonList(part), listener, bodyFactory);
+    }
 
-        try {
-            String command = String.format("UID FETCH %s (UID %s)", message.getUid(), fetch);
-            connection.sendCommand(command, false);
+    @Override
+    public void fetchParts(Message message, List<Part> parts, MessageRetrievalListener<Message> listener)
+            throws MessagingException {
+        fetchParts(message, parts, listener, new DefaultBodyFactory());
+    }
 
-            ImapResponse response;
-            int messageNumber = 0;
+    private void fetchParts(Message message, List<Part> parts, MessageRetrievalListener<Message> listener,
+            BodyFactory bodyFactory) throws MessagingException {
+        if (parts.isEmpty()) {
+            return;
+        }
 
-            ImapResponseCallback callback = new FetchPartCallback(part);
+        checkOpen();
 
-            do {
-                response = connection.readResponse(callback);
+        Map<String, Part> partsBySection = new HashMap<>(parts.size());
+        List<String> commands = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            String partId = part.getServerExtra();
+            partsBySection.put(partId.toUpperCase(Locale.US), part);
 
-                if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
-                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
-                    String uid = fetchList.getKeyedString("UID");
+            String fetch;
+            if ("TEXT".equalsIgnoreCase(partId)) {
+                int maximumAutoDownloadMessageSize = store.getStoreConfig().getMaximumAutoDownloadMessageSize();
+                fetch = String.format(Locale.US, "BODY.PEEK[TEXT]<0.%d>", maximumAutoDownloadMessageSize);
+            } else {
+                fetch = String.format("BODY.PEEK[%s]", partId);
+            }
 
-                    if (!message.getUid().equals(uid)) {
-                        if (K9MailLib.isDebug()) {
-                            Log.d(LOG_TAG, "Did not ask for UID " + uid + " for " + getLogId());
-                        }
+            commands.add(String.format("UID FETCH %s (UID %s)", message.getUid(), fetch));
+        }
 
-                        handleUntaggedResponse(response);
-                        continue;
-                    }
+        ImapResponseCallback callback = new FetchPartCallback(partsBySection, bodyFactory);
 
-                    if (listener != null) {
-                        listener.messageStarted(uid, messageNumber++, 1);
-                    }
+        try {
+            ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, FETCH_PIPELINE_DEPTH);
+            pipeline.execute(commands, callback,
+                    new FetchPartResponseHandler(message, partsBySection, listener, bodyFactory));
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
 
-                    ImapMessage imapMessage = (ImapMessage) message;
-
-                    Object literal = handleFetchResponse(imapMessage, fetchList);
-
-                    if (literal != null) {
-                        if (literal instanceof Body) {
-                            // Most of the work was done in FetchAttchmentCallback.foundLiteral()
-                            MimeMessageHelper.setBody(part, (Body) literal);
-                        } else if (literal instanceof String) {
-                            String bodyString = (String) literal;
-                            InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
-
-                            String contentTransferEncoding =
-                                    part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
-                            String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
-                            MimeMessageHelper.setBody(part, MimeUtility.createBody(bodyStream, contentTransferEncoding,
-                                    contentType));
-                        } else {
-                            // This shouldn't happen
-                            throw new MessagingException("Got FETCH response with bogus parameters");
-                        }
-                    }
+    static String getBodySection(ImapList fetchList) {
+        if (!fetchList.containsKey("BODY")) {
+            return null;
+        }
 
-                    if (listener != null) {
-                        listener.messageFinished(message, messageNumber, 1);
-                    }
-                } else {
-                    handleUntaggedResponse(response);
-                }
+        int index = fetchList.getKeyIndex("BODY") + 1;
+        if (index >= fetchList.size() || !fetchList.isList(index)) {
+            return null;
+        }
 
-            } while (response.getTag() == null);
-        } catch (IOException ioe) {
-            throw ioExceptionHandler(connection, ioe);
+        ImapList section = fetchList.getList(index);
+        if (section.isEmpty() || !section.isString(0)) {
+            return null;
         }
+
+        return section.getString(0).toUpperCase(Locale.US);
     }
 
     // Returns value of body field
@@ -960,6 +999,31 @@ class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    protected void handlePossibleModSeqState(ImapResponse response) {
+        if (!ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK) || !response.isList(1)) {
+            return;
+        }
+
+        ImapList responseCode = response.getList(1);
+        if (responseCode.size() == 0) {
+            return;
+        }
+
+        Object key = responseCode.get(0);
+        if (ImapResponseParser.equalsIgnoreCase(key, Responses.NOMODSEQ)) {
+            highestModSeq = -1L;
+        } else if (responseCode.size() > 1) {
+            if (ImapResponseParser.equalsIgnoreCase(key, Responses.UIDVALIDITY)) {
+                uidValidity = responseCode.getLong(1);
+            } else if (ImapResponseParser.equalsIgnoreCase(key, Responses.HIGHESTMODSEQ)) {
+                highestModSeq = responseCode.getLong(1);
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Got HighestModSeq = " + highestModSeq + " for " + getLogId());
+                }
+            }
+        }
+    }
+
     /**
      * Handle an untagged response that the caller doesn't care to handle themselves.
      */
@@ -973,6 +1037,16 @@ class ImapFolder extends Folder<ImapMessage> {
             }
 
             handlePossibleUidNext(response);
+            handlePossibleModSeqState(response);
+
+            // VANISHED (EARLIER) only reports messages that are already gone from the message count
+            if (isVanishedResponse(response) && !isVanishedEarlierResponse(response) && messageCount > 0) {
+                int vanishedCount = getVanishedUids(response).size();
+                messageCount = Math.max(0, messageCount - vanishedCount);
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Got untagged VANISHED with messageCount " + messageCount + " for " + getLogId());
+                }
+            }
 
             if (ImapResponseParser.equalsIgnoreCase(response.get(1), "EXPUNGE") && messageCount > 0) {
                 messageCount--;
@@ -1515,4 +1589,150 @@ class ImapFolder extends Folder<ImapMessage> {
 
         return TextUtils.join(String.valueOf(separator), parts);
     }
+
+    private class FetchResponseHandler implements ImapCommandPipeline.ResponseHandler {
+        private final Map<String, Message> messageMap;
+        private final MessageRetrievalListener<ImapMessage> listener;
+        private int messageNumber = 0;
+
+        FetchResponseHandler(Map<String, Message> messageMap, MessageRetrievalListener<ImapMessage> listener) {
+            this.messageMap = messageMap;
+            this.listener = listener;
+        }
+
+        @Override
+        public void handleUntaggedResponse(ImapResponse response) throws MessagingException, IOException {
+            if (!ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                ImapFolder.this.handleUntaggedResponse(response);
+                return;
+            }
+
+            ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+            String uid = fetchList.getKeyedString("UID");
+            long msgSeq = response.getLong(0);
+            if (uid != null) {
+                try {
+                    msgSeqUidMap.put(msgSeq, uid);
+                    if (K9MailLib.isDebug()) {
+                        Log.v(LOG_TAG, "Stored uid '" + uid + "' for msgSeq " + msgSeq + " into map");
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Unable to store uid '" + uid + "' for msgSeq " + msgSeq);
+                }
+            }
+
+            Message message = messageMap.get(uid);
+            if (message == null) {
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Do not have message in messageMap for UID " + uid + " for " + getLogId());
+                }
+
+                ImapFolder.this.handleUntaggedResponse(response);
+                return;
+            }
+
+            if (listener != null) {
+                listener.messageStarted(uid, messageNumber++, messageMap.size());
+            }
+
+            ImapMessage imapMessage = (ImapMessage) message;
+            Object literal = handleFetchResponse(imapMessage, fetchList);
+
+            if (literal != null) {
+                if (literal instanceof String) {
+                    String bodyString = (String) literal;
+                    InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+                    imapMessage.parse(bodyStream);
+                } else if (literal instanceof Integer) {
+                    // All the work was done in FetchBodyCallback.foundLiteral()
+                } else {
+                    // This shouldn't happen
+                    throw new MessagingException("Got FETCH response with bogus parameters");
+                }
+            }
+
+            if (listener != null) {
+                listener.messageFinished(imapMessage, messageNumber, messageMap.size());
+            }
+        }
+    }
+
+    private class FetchPartResponseHandler implements ImapCommandPipeline.ResponseHandler {
+        private final Message message;
+        private final Map<String, Part> partsBySection;
+        private final MessageRetrievalListener<Message> listener;
+        private final BodyFactory bodyFactory;
+        private int messageNumber = 0;
+
+        FetchPartResponseHandler(Message message, Map<String, Part> partsBySection,
+                MessageRetrievalListener<Message> listener, BodyFactory bodyFactory) {
+            this.message = message;
+            this.partsBySection = partsBySection;
+            this.listener = listener;
+            this.bodyFactory = bodyFactory;
+        }
+
+        @Override
+        public void handleUntaggedResponse(ImapResponse response) throws MessagingException, IOException {
+            if (!ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                ImapFolder.this.handleUntaggedResponse(response);
+                return;
+            }
+
+            ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+            String uid = fetchList.getKeyedString("UID");
+
+            if (!message.getUid().equals(uid)) {
+                if (K9MailLib.isDebug()) {
+                    Log.d(LOG_TAG, "Did not ask for UID " + uid + " for " + getLogId());
+                }
+
+                ImapFolder.this.handleUntaggedResponse(response);
+                return;
+            }
+
+            Part part = partsBySection.get(getBodySection(fetchList));
+            if (part == null) {
+                if (partsBySection.size() != 1) {
+                    ImapFolder.this.handleUntaggedResponse(response);
+                    return;
+                }
+
+                // Single part requested; the server might have omitted the section
+                part = partsBySection.values().iterator().next();
+            }
+
+            int partCount = partsBySection.size();
+            if (listener != null) {
+                listener.messageStarted(uid, messageNumber++, partCount);
+            }
+
+            ImapMessage imapMessage = (ImapMessage) message;
+
+            Object literal = handleFetchResponse(imapMessage, fetchList);
+
+            if (literal != null) {
+                if (literal instanceof Body) {
+                    // Most of the work was done in FetchAttchmentCallback.foundLiteral()
+                    MimeMessageHelper.setBody(part, (Body) literal);
+                } else if (literal instanceof String) {
+                    String bodyString = (String) literal;
+                    InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
+
+                    String contentTransferEncoding =
+                            part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
+                    String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
+                    MimeMessageHelper.setBody(part, bodyFactory.createBody(contentTransferEncoding, contentType,
+                            bodyStream));
+                } else {
+                    // This shouldn't happen
+                    throw new MessagingException("Got FETCH response with bogus parameters");
+                }
+            }
+
+            if (listener != null) {
+                listener.messageFinished(message, messageNumber, partCount);
+            }
+        }
+    }
 }
@@ -5,9 +5,14 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 import android.os.PowerManager;
@@ -18,6 +23,7 @@ import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.power.TracingPowerManager;
 import com.fsck.k9.mail.power.TracingPowerManager.TracingWakeLock;
@@ -28,6 +34,20 @@ import static com.fsck.k9.mail.K9MailLib.PUSH_WAKE_LOCK_TIMEOUT;
 import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
 
 
+/**
+ * Pushes changes of one folder using IDLE.
+ *
+ * <p>
+ * The pusher can also watch other folders over the same connection. If the server supports NOTIFY
+ * (RFC 5465) it reports changes to those folders while idling. Otherwise the watched folders are
+ * checked with STATUS whenever IDLE returns, see {@link #needsStatusPolling()}. Changed watched
+ * folders are synchronized using a separate connection. If STATUS fails the pusher stops and lets
+ * its {@link MultiplexingFallback} start one pusher per folder instead.
+ * </p><p>
+ * Each refresh of IDLE is reported to {@link IdleKeepalive} along with how long the connection was
+ * silent, so it can learn how often IDLE has to be refreshed on the current network.
+ * </p>
+ */
 class ImapFolderPusher extends ImapFolder {
     private static final int IDLE_READ_TIMEOUT_INCREMENT = 5 * 60 * 1000;
     private static final int IDLE_FAILURE_COUNT_LIMIT = 10;
@@ -40,14 +60,36 @@ class ImapFolderPusher extends ImapFolder {
     private final IdleStopper idleStopper = new IdleStopper();
     private final TracingWakeLock wakeLock;
     private final List<ImapResponse> storedUntaggedResponses = new ArrayList<ImapResponse>();
+    private final List<String> watchedFolderNames;
+    private final MultiplexingFallback multiplexingFallback;
+    private final Map<String, String> watchedFolderNamesByEncodedName = new ConcurrentHashMap<>();
+    private final Set<String> changedWatchedFolders = new LinkedHashSet<>();
+    private volatile boolean notifyEnabled = false;
     private Thread listeningThread;
     private volatile boolean stop = false;
     private volatile boolean idling = false;
+    private volatile long idleSilentSince = -1L;
+    private volatile long keepaliveProbe = -1L;
+    private volatile NetworkType keepaliveNetworkType;
 
 
     public ImapFolderPusher(ImapStore store, String name, PushReceiver pushReceiver) {
+        this(store, name, Collections.<String>emptyList(), pushReceiver, null);
+    }
+
+    /**
+     * @param watchedFolderNames
+     *         Names of other folders to watch over the connection of this pusher.
+     * @param multiplexingFallback
+     *         Called if the other folders can't be watched this way. May only be {@code null} if
+     *         {@code watchedFolderNames} is empty.
+     */
+    public ImapFolderPusher(ImapStore store, String name, List<String> watchedFolderNames,
+            PushReceiver pushReceiver, MultiplexingFallback multiplexingFallback) {
         super(store, name);
         this.pushReceiver = pushReceiver;
+        this.watchedFolderNames = new ArrayList<>(watchedFolderNames);
+        this.multiplexingFallback = multiplexingFallback;
 
         Context context = pushReceiver.getContext();
         TracingPowerManager powerManager = TracingPowerManager.getPowerManager(context);
@@ -70,10 +112,51 @@ class ImapFolderPusher extends ImapFolder {
     public void refresh() throws IOException, MessagingException {
         if (idling) {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+            startKeepaliveProbe();
             idleStopper.stopIdle();
         }
     }
 
+    private void startKeepaliveProbe() {
+        long silentSince = idleSilentSince;
+        NetworkType networkType = store.getActiveNetworkType();
+        if (silentSince == -1L || networkType == null) {
+            return;
+        }
+
+        long silentTime = System.currentTimeMillis() - silentSince;
+        keepaliveNetworkType = networkType;
+        keepaliveProbe = silentTime;
+        IdleKeepalive.getInstance().onProbeStarted(networkType, silentTime);
+    }
+
+    private void cancelKeepaliveProbe() {
+        if (keepaliveProbe != -1L) {
+            keepaliveProbe = -1L;
+            IdleKeepalive.getInstance().onProbeCancelled(keepaliveNetworkType);
+        }
+    }
+
+    private void finishKeepaliveProbe(boolean connectionAlive) {
+        long silentTime = keepaliveProbe;
+        if (silentTime == -1L) {
+            return;
+        }
+
+        keepaliveProbe = -1L;
+        IdleKeepalive keepalive = IdleKeepalive.getInstance();
+        boolean changed;
+        if (connectionAlive) {
+            changed = keepalive.onProbeSucceeded(keepaliveNetworkType, silentTime);
+        } else {
+            changed = keepalive.onProbeFailed(keepaliveNetworkType, silentTime);
+        }
+
+        if (changed) {
+            pushReceiver.setIdleKeepaliveState(keepalive.saveState());
+        }
+    }
+
     public void stop() {
         synchronized (threadLock) {
             if (listeningThread == null) {
@@ -98,8 +181,22 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    public List<String> getWatchedFolderNames() {
+        return Collections.unmodifiableList(watchedFolderNames);
+    }
+
+    /**
+     * @return {@code true} if changes to the watched folders are only noticed when IDLE returns, so
+     *         IDLE should be refreshed more often.
+     */
+    public boolean needsStatusPolling() {
+        return !watchedFolderNames.isEmpty() && !notifyEnabled;
+    }
+
     @Override
     protected void handleUntaggedResponse(ImapResponse response) {
+        handlePossibleWatchedFolderNotification(response);
+
         if (response.getTag() == null && response.size() > 1) {
             Object responseType = response.get(1);
             if (equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(responseType, "EXPUNGE") ||
@@ -122,8 +219,87 @@ class ImapFolderPusher extends ImapFolder {
         super.handleUntaggedResponse(response);
     }
 
+    /**
+     * With NOTIFY enabled the server sends untagged STATUS responses for changed watched folders,
+     * while idling or along with the response to any other command.
+     *
+     * @return {@code true} if the response reported a change to a watched folder.
+     */
+    private boolean handlePossibleWatchedFolderNotification(ImapResponse response) {
+        if (!notifyEnabled) {
+            return false;
+        }
+
+        StatusResponse statusResponse = StatusResponse.parse(response);
+        if (statusResponse == null) {
+            return false;
+        }
+
+        String folderName = getWatchedFolderName(statusResponse.getMailboxName());
+        if (folderName == null) {
+            return false;
+        }
+
+        if (K9MailLib.isDebug()) {
+            Log.d(LOG_TAG, "Got notification " + response + " for watched folder " + folderName + " on " + getLogId());
+        }
+
+        addChangedWatchedFolder(folderName);
+        return true;
+    }
+
+    private String getWatchedFolderName(String encodedName) {
+        String folderName = watchedFolderNamesByEncodedName.get(encodedName);
+        if (folderName == null && "INBOX".equalsIgnoreCase(encodedName)) {
+            // INBOX is case-insensitive
+            for (String watchedFolderName : watchedFolderNames) {
+                if (isInbox(watchedFolderName)) {
+                    return watchedFolderName;
+                }
+            }
+        }
+
+        return folderName;
+    }
+
+    private boolean isInbox(String folderName) {
+        return store.getStoreConfig().getInboxFolderName().equalsIgnoreCase(folderName);
+    }
+
+    /**
+     * Same as {@code getPrefixedName()} for another folder. Only call this while the connection is open,
+     * so the prefix is known.
+     */
+    private String getEncodedName(String folderName) {
+        String prefixedName = isInbox(folderName) ? folderName : store.getCombinedPrefix() + folderName;
+        return store.getFolderNameCodec().encode(prefixedName);
+    }
+
+    private void addChangedWatchedFolder(String folderName) {
+        synchronized (changedWatchedFolders) {
+            changedWatchedFolders.add(folderName);
+        }
+    }
+
+    private List<String> getAndClearChangedWatchedFolders() {
+        synchronized (changedWatchedFolders) {
+            List<String> folderNames = new ArrayList<>(changedWatchedFolders);
+            changedWatchedFolders.clear();
+
+            return folderNames;
+        }
+    }
+
+    private void setPushActive(boolean enabled) {
+        pushReceiver.setPushActive(getName(), enabled);
+        for (String watchedFolderName : watchedFolderNames) {
+            pushReceiver.setPushActive(watchedFolderName, enabled);
+        }
+    }
+
 
     private class PushRunnable implements Runnable, UntaggedHandler {
+        private final Map<String, StatusResponse> lastWatchedFolderStatus = new HashMap<>();
         private int delayTime = NORMAL_DELAY_TIME;
         private int idleFailureCount = 0;
         private boolean needsPoll = false;
@@ -137,6 +313,7 @@ class ImapFolderPusher extends ImapFolder {
             }
 
             long lastUidNext = -1L;
+            boolean connectedBefore = false;
             while (!stop) {
                 try {
                     long oldUidNext = getOldUidNext();
@@ -158,16 +335,37 @@ class ImapFolderPusher extends ImapFolder {
                         break;
                     }
 
+                    if (openedNewConnection) {
+                        if (connectedBefore) {
+                            IdleKeepalive.getInstance().onReconnect();
+                        }
+                        connectedBefore = true;
+
+                        setUpWatchedFolders(connection);
+                    }
+
                     boolean pushPollOnConnect = store.getStoreConfig().isPushPollOnConnect();
                     if (pushPollOnConnect && (openedNewConnection || needsPoll)) {
                         needsPoll = false;
                         syncFolderOnConnect();
+
+                        if (openedNewConnection) {
+                            for (String watchedFolderName : watchedFolderNames) {
+                                addChangedWatchedFolder(watchedFolderName);
+                            }
+                        }
                     }
 
                     if (stop) {
                         break;
                     }
 
+                    checkWatchedFolders();
+
+                    if (stop) {
+                        break;
+                    }
+
                     long newUidNext = getNewUidNext();
                     lastUidNext = newUidNext;
                     long startUid = getStartUid(oldUidNext, newUidNext);
@@ -187,6 +385,7 @@ class ImapFolderPusher extends ImapFolder {
                         setReadTimeoutForIdle(conn);
                         sendIdle(conn);
 
+                        finishKeepaliveProbe(true);
                         returnFromIdle();
                     }
                 } catch (AuthenticationFailedException e) {
@@ -202,8 +401,12 @@ class ImapFolderPusher extends ImapFolder {
                     reacquireWakeLockAndCleanUp();
 
                     if (stop) {
+                        cancelKeepaliveProbe();
                         Log.i(LOG_TAG, "Got exception while idling, but stop is set for " + getLogId());
                     } else {
+                        // The connection died after being silent for a while, e.g. because a NAT binding expired
+                        finishKeepaliveProbe(false);
+
                         pushReceiver.pushError("Push error for " + getName(), e);
                         Log.e(LOG_TAG, "Got exception while idling for " + getLogId(), e);
 
@@ -226,7 +429,7 @@ class ImapFolderPusher extends ImapFolder {
                 }
             }
 
-            pushReceiver.setPushActive(getName(), false);
+            setPushActive(false);
 
             try {
                 if (K9MailLib.isDebug()) {
@@ -246,7 +449,8 @@ class ImapFolderPusher extends ImapFolder {
 
             clearStoredUntaggedResponses();
             idling = false;
-            pushReceiver.setPushActive(getName(), false);
+            idleSilentSince = -1L;
+            setPushActive(false);
 
             try {
                 connection.close();
@@ -295,7 +499,7 @@ class ImapFolderPusher extends ImapFolder {
         }
 
         private void prepareForIdle() {
-            pushReceiver.setPushActive(getName(), true);
+            setPushActive(true);
             idling = true;
         }
 
@@ -319,6 +523,7 @@ class ImapFolderPusher extends ImapFolder {
 
         private void returnFromIdle() {
             idling = false;
+            idleSilentSince = -1L;
             delayTime = NORMAL_DELAY_TIME;
             idleFailureCount = 0;
         }
@@ -366,6 +571,9 @@ class ImapFolderPusher extends ImapFolder {
                 Log.v(LOG_TAG, "Got async response: " + response);
             }
 
+            // Any traffic from the server keeps the connection alive
+            idleSilentSince = System.currentTimeMillis();
+
             if (stop) {
                 if (K9MailLib.isDebug()) {
                     Log.d(LOG_TAG, "Got async untagged response: " + response + ", but stop is set for " + getLogId());
@@ -377,7 +585,8 @@ class ImapFolderPusher extends ImapFolder {
                     if (response.size() > 1) {
                         Object responseType = response.get(1);
                         if (equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                                equalsIgnoreCase(responseType, "FETCH")) {
+                                equalsIgnoreCase(responseType, "FETCH") ||
+                                handlePossibleWatchedFolderNotification(response)) {
 
                             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
@@ -399,6 +608,131 @@ class ImapFolderPusher extends ImapFolder {
             }
         }
 
+        /**
+         * Prepare a new connection for watching the other folders. Uses NOTIFY if the server supports it.
+         */
+        private void setUpWatchedFolders(ImapConnection conn) throws MessagingException, IOException {
+            notifyEnabled = false;
+            lastWatchedFolderStatus.clear();
+            if (watchedFolderNames.isEmpty()) {
+                return;
+            }
+
+            watchedFolderNamesByEncodedName.clear();
+            for (String watchedFolderName : watchedFolderNames) {
+                watchedFolderNamesByEncodedName.put(getEncodedName(watchedFolderName), watchedFolderName);
+            }
+
+            if (!conn.hasCapability(Capabilities.NOTIFY)) {
+                return;
+            }
+
+            StringBuilder command = new StringBuilder(Commands.NOTIFY_SET);
+            command.append(" (SELECTED (MessageNew MessageExpunge FlagChange)) (MAILBOXES (");
+            boolean first = true;
+            for (String encodedName : watchedFolderNamesByEncodedName.keySet()) {
+                if (!first) {
+                    command.append(' ');
+                }
+                command.append(ImapUtility.encodeString(encodedName));
+                first = false;
+            }
+            command.append(") (MessageNew MessageExpunge))");
+
+            try {
+                // Set before sending, the server may report changes right away
+                notifyEnabled = true;
+                conn.executeSimpleCommand(command.toString());
+
+                if (K9MailLib.isDebug()) {
+                    Log.i(LOG_TAG, "Using NOTIFY to watch " + watchedFolderNamesByEncodedName.size() +
+                            " other folders for " + getLogId());
+                }
+            } catch (NegativeImapResponseException e) {
+                notifyEnabled = false;
+                Log.w(LOG_TAG, "NOTIFY failed, checking watched folders with STATUS for " + getLogId(), e);
+            }
+        }
+
+        private void checkWatchedFolders() throws MessagingException {
+            if (watchedFolderNames.isEmpty()) {
+                return;
+            }
+
+            if (!notifyEnabled) {
+                try {
+                    requestWatchedFolderStatus();
+                } catch (NegativeImapResponseException e) {
+                    Log.w(LOG_TAG, "STATUS failed, can't watch other folders over the connection for " +
+                            getLogId(), e);
+
+                    stop = true;
+                    multiplexingFallback.multiplexingUnsupported(ImapFolderPusher.this);
+                    return;
+                } catch (IOException e) {
+                    throw new MessagingException("IO Error while checking watched folders", e);
+                }
+            }
+
+            for (String folderName : getAndClearChangedWatchedFolders()) {
+                if (stop) {
+                    return;
+                }
+
+                syncWatchedFolder(folderName);
+            }
+        }
+
+        private void requestWatchedFolderStatus() throws MessagingException, IOException {
+            ImapConnection conn = connection;
+            for (String watchedFolderName : watchedFolderNames) {
+                String escapedName = ImapUtility.encodeString(getEncodedName(watchedFolderName));
+                List<ImapResponse> responses =
+                        conn.executeSimpleCommand(String.format("STATUS %s (UIDNEXT MESSAGES)", escapedName));
+
+                for (ImapResponse response : responses) {
+                    StatusResponse statusResponse = StatusResponse.parse(response);
+                    if (statusResponse != null &&
+                            watchedFolderName.equals(getWatchedFolderName(statusResponse.getMailboxName())) &&
+                            hasWatchedFolderChanged(watchedFolderName, statusResponse)) {
+                        addChangedWatchedFolder(watchedFolderName);
+                    }
+                }
+            }
+        }
+
+        private boolean hasWatchedFolderChanged(String folderName, StatusResponse statusResponse) {
+            StatusResponse lastStatusResponse = lastWatchedFolderStatus.put(folderName, statusResponse);
+            if (lastStatusResponse != null) {
+                return statusResponse.getUidNext() != lastStatusResponse.getUidNext() ||
+                        statusResponse.getMessages() != lastStatusResponse.getMessages();
+            }
+
+            // First check on this connection, compare with the state of the last synchronization
+            long oldUidNext = -1L;
+            try {
+                oldUidNext = ImapPushState.parse(pushReceiver.getPushState(folderName)).uidNext;
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Unable to get oldUidNext for " + folderName + " on " + getLogId(), e);
+            }
+
+            return oldUidNext != -1L && statusResponse.getUidNext() > oldUidNext;
+        }
+
+        private void syncWatchedFolder(String folderName) throws MessagingException {
+            if (K9MailLib.isDebug()) {
+                Log.i(LOG_TAG, "Synchronizing watched folder " + folderName + " for " + getLogId());
+            }
+
+            ImapFolder folder = new ImapFolder(store, folderName);
+            try {
+                folder.open(OPEN_MODE_RO);
+                pushReceiver.syncFolder(folder);
+            } finally {
+                folder.close();
+            }
+        }
+
         private void clearStoredUntaggedResponses() {
             synchronized (storedUntaggedResponses) {
                 storedUntaggedResponses.clear();
@@ -549,6 +883,24 @@ class ImapFolderPusher extends ImapFolder {
                             }
                         }
                     }
+
+                    if (isVanishedResponse(response) && !isVanishedEarlierResponse(response)) {
+                        List<String> vanishedUids = getVanishedUids(response);
+                        messageCountDelta -= vanishedUids.size();
+
+                        if (K9MailLib.isDebug()) {
+                            Log.d(LOG_TAG, "Got untagged VANISHED for UIDs " + vanishedUids + " for " + getLogId());
+                        }
+
+                        // With QRESYNC enabled the server reports UIDs instead of message sequence numbers, so we
+                        // can't tell how the sequence numbers we know about shifted
+                        removeMsgUids.addAll(vanishedUids);
+                        msgSeqUidMap.clear();
+                        if (!flagSyncMsgSeqs.isEmpty()) {
+                            flagSyncMsgSeqs.clear();
+                            needsPoll = true;
+                        }
+                    }
                 } catch (Exception e) {
                     Log.e(LOG_TAG, "Could not handle untagged FETCH for " + getLogId(), e);
                 }
@@ -685,6 +1037,16 @@ class ImapFolderPusher extends ImapFolder {
         }
     }
 
+    /**
+     * Notified when a pusher can't watch other folders over its connection.
+     */
+    interface MultiplexingFallback {
+        /**
+         * Called from the listening thread of {@code folderPusher}, which is about to stop on its own.
+         */
+        void multiplexingUnsupported(ImapFolderPusher folderPusher);
+    }
+
     /**
      * Ensure the DONE continuation is only sent when the IDLE command was sent and hasn't completed yet.
      */
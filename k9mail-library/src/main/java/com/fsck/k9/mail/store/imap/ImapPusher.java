@@ -7,19 +7,34 @@ import java.util.List;
 import android.util.Log;
 
 import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.Pusher;
 
 import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
 
 
-class ImapPusher implements Pusher {
+/**
+ * Pushes changes of several folders.
+ *
+ * <p>
+ * All folders are watched over one connection by a single {@link ImapFolderPusher}. If the server
+ * turns out not to support that, one pusher (and connection) per folder is used instead.
+ * </p>
+ */
+class ImapPusher implements Pusher, ImapFolderPusher.MultiplexingFallback {
+    /**
+     * Without NOTIFY the other folders of a multiplexing pusher are only checked when IDLE is refreshed.
+     */
+    private static final int MAX_STATUS_POLL_INTERVAL = 5 * 60 * 1000;
+
     private final ImapStore store;
     private final PushReceiver pushReceiver;
 
     private final List<ImapFolderPusher> folderPushers = new ArrayList<>();
 
     private long lastRefresh = -1;
+    private boolean multiplexingUnsupported = false;
 
 
     public ImapPusher(ImapStore store, PushReceiver pushReceiver) {
@@ -29,17 +44,69 @@ class ImapPusher implements Pusher {
 
     @Override
     public void start(List<String> folderNames) {
+        IdleKeepalive.getInstance().restoreState(pushReceiver.getIdleKeepaliveState());
+
         synchronized (folderPushers) {
             stop();
 
             setLastRefresh(currentTimeMillis());
 
-            for (String folderName : folderNames) {
-                ImapFolderPusher pusher = createImapFolderPusher(folderName);
-                folderPushers.add(pusher);
+            if (folderNames.size() > 1 && !multiplexingUnsupported) {
+                startMultiplexingPusher(folderNames);
+            } else {
+                startFolderPushers(folderNames);
+            }
+        }
+    }
+
+    private void startMultiplexingPusher(List<String> folderNames) {
+        String inboxFolderName = store.getStoreConfig().getInboxFolderName();
+
+        // Prefer IDLE on the inbox, that's where new messages usually arrive
+        String folderName = folderNames.get(0);
+        for (String name : folderNames) {
+            if (name.equalsIgnoreCase(inboxFolderName)) {
+                folderName = name;
+                break;
+            }
+        }
+
+        List<String> watchedFolderNames = new ArrayList<>(folderNames);
+        watchedFolderNames.remove(folderName);
+
+        ImapFolderPusher pusher = createImapFolderPusher(folderName, watchedFolderNames);
+        folderPushers.add(pusher);
+
+        pusher.start();
+    }
+
+    private void startFolderPushers(List<String> folderNames) {
+        for (String folderName : folderNames) {
+            ImapFolderPusher pusher = createImapFolderPusher(folderName);
+            folderPushers.add(pusher);
+
+            pusher.start();
+        }
+    }
+
+    @Override
+    public void multiplexingUnsupported(ImapFolderPusher folderPusher) {
+        synchronized (folderPushers) {
+            multiplexingUnsupported = true;
+
+            // Ignore pushers that have been stopped in the meantime
+            if (!folderPushers.remove(folderPusher)) {
+                return;
+            }
 
-                pusher.start();
+            if (K9MailLib.isDebug()) {
+                Log.i(LOG_TAG, "Falling back to one IMAP folderPusher per folder");
             }
+
+            List<String> folderNames = new ArrayList<>();
+            folderNames.add(folderPusher.getName());
+            folderNames.addAll(folderPusher.getWatchedFolderNames());
+            startFolderPushers(folderNames);
         }
     }
 
@@ -81,7 +148,22 @@ class ImapPusher implements Pusher {
 
     @Override
     public int getRefreshInterval() {
-        return (store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000);
+        int refreshInterval = store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000;
+
+        NetworkType networkType = store.getActiveNetworkType();
+        if (networkType != null) {
+            refreshInterval = IdleKeepalive.getInstance().getInterval(networkType, refreshInterval);
+        }
+
+        synchronized (folderPushers) {
+            for (ImapFolderPusher folderPusher : folderPushers) {
+                if (folderPusher.needsStatusPolling()) {
+                    return Math.min(refreshInterval, MAX_STATUS_POLL_INTERVAL);
+                }
+            }
+        }
+
+        return refreshInterval;
     }
 
     @Override
@@ -98,6 +180,10 @@ class ImapPusher implements Pusher {
         return new ImapFolderPusher(store, folderName, pushReceiver);
     }
 
+    ImapFolderPusher createImapFolderPusher(String folderName, List<String> watchedFolderNames) {
+        return new ImapFolderPusher(store, folderName, watchedFolderNames, pushReceiver, this);
+    }
+
     long currentTimeMillis() {
         return System.currentTimeMillis();
     }
@@ -17,9 +17,18 @@ import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
 
 
 class ImapResponseParser {
+    /**
+     * Literals up to this size are read into {@link #literalBuffer}; larger ones get a buffer of their own so the
+     * parser doesn't hold on to a lot of memory after a single big response.
+     */
+    private static final int MAX_REUSABLE_LITERAL_BUFFER_SIZE = 8192;
+
+
     private PeekableInputStream inputStream;
     private ImapResponse response;
     private Exception exception;
+    private final StringBuilder stringBuilder = new StringBuilder();
+    private byte[] literalBuffer = new byte[256];
 
 
     public ImapResponseParser(PeekableInputStream in) {
@@ -312,7 +321,7 @@ class ImapResponseParser {
     }
 
     private String parseBareString(boolean allowBrackets) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = resetStringBuilder();
 
         int ch;
         while (true) {
@@ -339,10 +348,14 @@ class ImapResponseParser {
     /**
      * A "{" has been read. Read the rest of the size string, the space and then notify the callback with an
      * {@code InputStream}.
+     * <p>
+     * The callback reads the literal straight from the connection's input stream. It doesn't have to consume the
+     * whole literal; whatever is left is skipped without being copied.
+     * </p>
      */
     private Object parseLiteral() throws IOException {
         expect('{');
-        int size = Integer.parseInt(readStringUntil('}'));
+        int size = parseLiteralSize();
         expect('\r');
         expect('\n');
 
@@ -368,9 +381,7 @@ class ImapResponseParser {
             int available = fixed.available();
             if (available > 0 && available != size) {
                 // If so, skip the rest
-                while (fixed.available() > 0) {
-                    fixed.skip(fixed.available());
-                }
+                fixed.skipRemaining();
             }
 
             if (result != null) {
@@ -378,7 +389,7 @@ class ImapResponseParser {
             }
         }
 
-        byte[] data = new byte[size];
+        byte[] data = (size <= MAX_REUSABLE_LITERAL_BUFFER_SIZE) ? getLiteralBuffer(size) : new byte[size];
         int read = 0;
         while (read != size) {
             int count = inputStream.read(data, read, size - read);
@@ -388,13 +399,44 @@ class ImapResponseParser {
             read += count;
         }
 
-        return new String(data, "US-ASCII");
+        return new String(data, 0, size, "US-ASCII");
+    }
+
+    private int parseLiteralSize() throws IOException {
+        int size = 0;
+        int digits = 0;
+
+        int ch;
+        while ((ch = inputStream.read()) != -1) {
+            if (ch == '}') {
+                if (digits == 0) {
+                    throw new IOException("parseLiteral(): missing literal size");
+                }
+                return size;
+            } else if (ch < '0' || ch > '9' || digits == 9) {
+                throw new IOException(String.format("parseLiteral(): invalid literal size (%04x %c)", ch, ch));
+            }
+
+            size = size * 10 + (ch - '0');
+            digits++;
+        }
+
+        throw new IOException("parseLiteral(): end of stream reached");
+    }
+
+    private byte[] getLiteralBuffer(int size) {
+        if (literalBuffer.length < size) {
+            literalBuffer = new byte[Math.max(size, Math.min(literalBuffer.length * 2,
+                    MAX_REUSABLE_LITERAL_BUFFER_SIZE))];
+        }
+
+        return literalBuffer;
     }
 
     private String parseQuoted() throws IOException {
         expect('"');
 
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = resetStringBuilder();
         int ch;
         boolean escape = false;
         while ((ch = inputStream.read()) != -1) {
@@ -412,7 +454,7 @@ class ImapResponseParser {
     }
 
     private String readStringUntil(char end) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = resetStringBuilder();
 
         int ch;
         while ((ch = inputStream.read()) != -1) {
@@ -426,6 +468,11 @@ class ImapResponseParser {
         throw new IOException("readStringUntil(): end of stream reached");
     }
 
+    private StringBuilder resetStringBuilder() {
+        stringBuilder.setLength(0);
+        return stringBuilder;
+    }
+
     private String readStringUntilEndOfLine() throws IOException {
         String rest = readStringUntil('\r');
         expect('\n');
@@ -5,16 +5,15 @@ import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.util.Log;
 
 import com.fsck.k9.mail.AuthType;
@@ -53,7 +52,7 @@ public class ImapStore extends RemoteStore {
     private String pathPrefix;
     private String combinedPrefix = null;
     private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<ImapConnection>();
+    private final ImapConnectionPool connectionPool;
     private FolderNameCodec folderNameCodec;
     private boolean requiresCellular;
 
@@ -102,6 +101,13 @@ public class ImapStore extends RemoteStore {
         pathPrefix = (settings.autoDetectNamespace) ? null : settings.pathPrefix;
 
         folderNameCodec = FolderNameCodec.newInstance();
+
+        connectionPool = new ImapConnectionPool(new ImapConnectionPool.ConnectionFactory() {
+            @Override
+            public ImapConnection createConnection() {
+                return createImapConnection();
+            }
+        });
     }
 
     @Override
@@ -311,35 +317,43 @@ public class ImapStore extends RemoteStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
-                connection.close();
-            }
-        }
+        return connectionPool.acquire();
+    }
 
-        if (connection == null) {
-            connection = createImapConnection();
-        }
+    void releaseConnection(ImapConnection connection) {
+        connectionPool.release(connection);
+    }
 
-        return connection;
+    /**
+     * Opens and authenticates a connection ahead of time, so the next operation doesn't have to wait for the TCP, TLS
+     * and login round trips. Does nothing if an idle connection is already available.
+     * <p>
+     * Meant to be called when we have a strong hint that we'll talk to the server shortly, e.g. when the carrier
+     * notified us about new voicemail.
+     * </p>
+     */
+    public void prewarmConnection() throws MessagingException {
+        connectionPool.warmUp();
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
-        }
+    public ImapConnectionPool.Stats getConnectionPoolStats() {
+        return connectionPool.getStats();
     }
 
-    void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isOpen()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
+    public IdleKeepalive.Stats getIdleKeepaliveStats() {
+        return IdleKeepalive.getInstance().getStats();
+    }
+
+    /**
+     * @return The type of the active network, or {@code null} if there is none.
+     */
+    NetworkType getActiveNetworkType() {
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null) {
+            return null;
         }
+
+        return NetworkType.fromConnectivityManagerType(networkInfo.getType());
     }
 
     ImapConnection createImapConnection() {
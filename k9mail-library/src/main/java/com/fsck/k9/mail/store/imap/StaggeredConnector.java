@@ -0,0 +1,348 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.MessagingException;
+
+import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
+import static com.fsck.k9.mail.K9MailLib.LOG_TAG;
+
+
+/**
+ * Connects to the first reachable address of a host, racing the addresses in the style of Happy
+ * Eyeballs (RFC 8305).
+ *
+ * <p>
+ * Instead of waiting for the full connect timeout of a dead address (often IPv6) before trying the
+ * next one, a new attempt is started every {@link #CONNECTION_ATTEMPT_DELAY} milliseconds, or right
+ * away when an attempt fails. The first socket to connect wins, the other attempts are aborted.
+ * </p><p>
+ * The outcome of each attempt is remembered per address. The address that connected most recently is
+ * tried first and the address families are interleaved, starting with its family. Addresses that failed
+ * within the last {@link #BAD_ADDRESS_TTL} milliseconds (and haven't connected since) are only tried
+ * after all the others.
+ * </p>
+ */
+class StaggeredConnector {
+    static final long CONNECTION_ATTEMPT_DELAY = 250;
+    static final long BAD_ADDRESS_TTL = 10 * 60 * 1000;
+    private static final int MAX_CACHED_ADDRESSES = 32;
+
+    private static final StaggeredConnector INSTANCE = new StaggeredConnector();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StaggeredConnector");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    private final Map<InetAddress, AddressState> addressStates =
+            new LinkedHashMap<InetAddress, AddressState>(MAX_CACHED_ADDRESSES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetAddress, AddressState> eldest) {
+                    return size() > MAX_CACHED_ADDRESSES;
+                }
+            };
+
+
+    static StaggeredConnector getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return A connected socket.
+     *
+     * @throws IOException
+     *         The error of the last attempt if no address could be connected to.
+     */
+    Socket connect(InetAddress[] addresses, int port, int timeout, SocketCreator socketCreator)
+            throws GeneralSecurityException, MessagingException, IOException {
+
+        if (addresses.length == 0) {
+            throw new IOException("No address to connect to");
+        }
+
+        List<InetAddress> sortedAddresses = sortAddresses(addresses, System.currentTimeMillis());
+        if (sortedAddresses.size() == 1) {
+            // Nothing to race, connect in the calling thread
+            InetAddress address = sortedAddresses.get(0);
+            try {
+                return new Attempt(address, port, timeout, socketCreator).connect();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not connect to " + address, e);
+                throw e;
+            }
+        }
+
+        return race(sortedAddresses, port, timeout, socketCreator);
+    }
+
+    private Socket race(List<InetAddress> addresses, int port, int timeout, SocketCreator socketCreator)
+            throws GeneralSecurityException, MessagingException, IOException {
+
+        CompletionService<Socket> completionService = new ExecutorCompletionService<>(EXECUTOR);
+        Map<Future<Socket>, Attempt> attempts = new HashMap<>();
+        IOException lastException = null;
+        int nextAddress = 0;
+
+        try {
+            while (true) {
+                if (attempts.isEmpty()) {
+                    if (nextAddress == addresses.size()) {
+                        throw lastException;
+                    }
+
+                    startAttempt(completionService, attempts, addresses.get(nextAddress++), port, timeout,
+                            socketCreator);
+                }
+
+                Future<Socket> future;
+                if (nextAddress < addresses.size()) {
+                    future = completionService.poll(CONNECTION_ATTEMPT_DELAY, TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        startAttempt(completionService, attempts, addresses.get(nextAddress++), port, timeout,
+                                socketCreator);
+                        continue;
+                    }
+                } else {
+                    future = completionService.take();
+                }
+
+                Attempt attempt = attempts.remove(future);
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        Log.w(LOG_TAG, "Could not connect to " + attempt.address, cause);
+                        lastException = (IOException) cause;
+
+                        // Don't wait for the attempt delay to try the next address
+                        if (nextAddress < addresses.size()) {
+                            startAttempt(completionService, attempts, addresses.get(nextAddress++), port, timeout,
+                                    socketCreator);
+                        }
+                    } else if (cause instanceof GeneralSecurityException) {
+                        throw (GeneralSecurityException) cause;
+                    } else if (cause instanceof MessagingException) {
+                        throw (MessagingException) cause;
+                    } else {
+                        throw new MessagingException("Error while connecting to " + attempt.address, cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        } finally {
+            for (Attempt attempt : attempts.values()) {
+                attempt.abort();
+            }
+        }
+    }
+
+    private void startAttempt(CompletionService<Socket> completionService, Map<Future<Socket>, Attempt> attempts,
+            InetAddress address, int port, int timeout, SocketCreator socketCreator) {
+
+        Attempt attempt = new Attempt(address, port, timeout, socketCreator);
+        attempts.put(completionService.submit(attempt), attempt);
+    }
+
+    /**
+     * Order the addresses returned by the resolver for connecting, see the class documentation.
+     */
+    List<InetAddress> sortAddresses(InetAddress[] addresses, long now) {
+        List<InetAddress> goodAddresses = new ArrayList<>(addresses.length);
+        List<InetAddress> badAddresses = new ArrayList<>();
+        InetAddress lastConnected = null;
+        long lastSuccess = 0;
+
+        synchronized (addressStates) {
+            for (InetAddress address : addresses) {
+                AddressState state = addressStates.get(address);
+                if (state != null && state.lastFailure > state.lastSuccess &&
+                        now - state.lastFailure < BAD_ADDRESS_TTL) {
+                    badAddresses.add(address);
+                    continue;
+                }
+
+                goodAddresses.add(address);
+                if (state != null && state.lastSuccess > lastSuccess) {
+                    lastSuccess = state.lastSuccess;
+                    lastConnected = address;
+                }
+            }
+        }
+
+        if (lastConnected != null) {
+            goodAddresses.remove(lastConnected);
+            goodAddresses.add(0, lastConnected);
+        }
+
+        List<InetAddress> sortedAddresses = interleaveFamilies(goodAddresses);
+        sortedAddresses.addAll(badAddresses);
+
+        return sortedAddresses;
+    }
+
+    private static List<InetAddress> interleaveFamilies(List<InetAddress> addresses) {
+        if (addresses.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        boolean firstIsIpv6 = addresses.get(0) instanceof Inet6Address;
+        List<InetAddress> firstFamily = new ArrayList<>();
+        List<InetAddress> otherFamily = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIsIpv6) {
+                firstFamily.add(address);
+            } else {
+                otherFamily.add(address);
+            }
+        }
+
+        List<InetAddress> sortedAddresses = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(firstFamily.size(), otherFamily.size()); i++) {
+            if (i < firstFamily.size()) {
+                sortedAddresses.add(firstFamily.get(i));
+            }
+            if (i < otherFamily.size()) {
+                sortedAddresses.add(otherFamily.get(i));
+            }
+        }
+
+        return sortedAddresses;
+    }
+
+    private void recordResult(InetAddress address, boolean success) {
+        synchronized (addressStates) {
+            AddressState state = addressStates.get(address);
+            if (state == null) {
+                state = new AddressState();
+                addressStates.put(address, state);
+            }
+
+            long now = System.currentTimeMillis();
+            if (success) {
+                state.lastSuccess = now;
+            } else {
+                state.lastFailure = now;
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+
+    interface SocketCreator {
+        /**
+         * @return A new, unconnected socket.
+         */
+        Socket createSocket() throws GeneralSecurityException, MessagingException, IOException;
+    }
+
+    private static class AddressState {
+        long lastSuccess = 0;
+        long lastFailure = 0;
+    }
+
+    private class Attempt implements Callable<Socket> {
+        private final InetAddress address;
+        private final int port;
+        private final int timeout;
+        private final SocketCreator socketCreator;
+        private Socket socket;
+        private boolean aborted = false;
+
+
+        Attempt(InetAddress address, int port, int timeout, SocketCreator socketCreator) {
+            this.address = address;
+            this.port = port;
+            this.timeout = timeout;
+            this.socketCreator = socketCreator;
+        }
+
+        @Override
+        public Socket call() throws Exception {
+            return connect();
+        }
+
+        Socket connect() throws GeneralSecurityException, MessagingException, IOException {
+            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
+                Log.d(LOG_TAG, "Connecting to " + address);
+            }
+
+            Socket socket = socketCreator.createSocket();
+            synchronized (this) {
+                if (aborted) {
+                    closeQuietly(socket);
+                    throw new InterruptedIOException("Connection attempt aborted");
+                }
+                this.socket = socket;
+            }
+
+            try {
+                socket.connect(new InetSocketAddress(address, port), timeout);
+            } catch (IOException e) {
+                // Don't blame the address for our own abort
+                if (!isAborted()) {
+                    recordResult(address, false);
+                }
+                closeQuietly(socket);
+                throw e;
+            }
+
+            recordResult(address, true);
+            if (isAborted()) {
+                // Another address won the race
+                closeQuietly(socket);
+                throw new InterruptedIOException("Connection attempt aborted");
+            }
+
+            return socket;
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+
+        private synchronized boolean isAborted() {
+            return aborted;
+        }
+    }
+}
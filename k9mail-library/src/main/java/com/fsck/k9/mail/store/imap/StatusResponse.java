@@ -0,0 +1,72 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+class StatusResponse {
+    private final String mailboxName;
+    private final long messages;
+    private final long uidNext;
+
+
+    private StatusResponse(String mailboxName, long messages, long uidNext) {
+        this.mailboxName = mailboxName;
+        this.messages = messages;
+        this.uidNext = uidNext;
+    }
+
+    public static StatusResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 3 || !equalsIgnoreCase(response.get(0), Responses.STATUS) ||
+                !response.isString(1) || !response.isList(2)) {
+            return null;
+        }
+
+        ImapList attributes = response.getList(2);
+        int size = attributes.size();
+        if (size % 2 != 0) {
+            return null;
+        }
+
+        long messages = -1L;
+        long uidNext = -1L;
+        for (int i = 0; i < size; i += 2) {
+            if (!attributes.isString(i) || !attributes.isString(i + 1)) {
+                return null;
+            }
+
+            try {
+                if (equalsIgnoreCase(attributes.get(i), Responses.MESSAGES)) {
+                    messages = attributes.getLong(i + 1);
+                } else if (equalsIgnoreCase(attributes.get(i), Responses.UIDNEXT)) {
+                    uidNext = attributes.getLong(i + 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return new StatusResponse(response.getString(1), messages, uidNext);
+    }
+
+    /**
+     * @return The encoded (and prefixed) mailbox name as sent by the server.
+     */
+    public String getMailboxName() {
+        return mailboxName;
+    }
+
+    /**
+     * @return The number of messages, or {@code -1} if the response doesn't contain it.
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The next UID, or {@code -1} if the response doesn't contain it.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.scheme.LayeredSocketFactory;
 import org.apache.http.params.HttpParams;
 
+import com.fsck.k9.mail.ssl.TlsSessionCache;
 import com.fsck.k9.mail.ssl.TrustManagerFactory;
 
 import java.io.IOException;
@@ -28,10 +29,16 @@ public class WebDavSocketFactory implements LayeredSocketFactory {
     private org.apache.http.conn.ssl.SSLSocketFactory mSchemeSocketFactory;
 
     public WebDavSocketFactory(String host, int port) throws NoSuchAlgorithmException, KeyManagementException {
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(null, new TrustManager[] {
-                TrustManagerFactory.get(host, port)
-        }, null);
+        // Share the context with earlier connections, so their TLS sessions can be resumed
+        TlsSessionCache sessionCache = TlsSessionCache.getInstance();
+        SSLContext sslContext = sessionCache.get(host, port, null);
+        if (sslContext == null) {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] {
+                    TrustManagerFactory.get(host, port)
+            }, null);
+            sslContext = sessionCache.put(host, port, null, sslContext);
+        }
         mSocketFactory = sslContext.getSocketFactory();
         mSchemeSocketFactory = org.apache.http.conn.ssl.SSLSocketFactory.getSocketFactory();
         mSchemeSocketFactory.setHostnameVerifier(
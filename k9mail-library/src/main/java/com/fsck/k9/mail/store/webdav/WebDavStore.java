@@ -5,6 +5,7 @@ import android.util.Log;
 import com.fsck.k9.mail.*;
 import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.CertificateValidationException;
+import com.fsck.k9.mail.ssl.TlsSessionCache;
 import com.fsck.k9.mail.store.RemoteStore;
 import com.fsck.k9.mail.store.StoreConfig;
 
@@ -733,6 +734,8 @@ public class WebDavStore extends RemoteStore {
                                       response.getStatusLine().toString());
             }
         } catch (SSLException e) {
+            // The scheme registered in getHttpClient() always uses port 443
+            TlsSessionCache.getInstance().invalidate(mHost, 443, null);
             throw new CertificateValidationException(e.getMessage(), e);
         } catch (IOException ioe) {
             Log.e(LOG_TAG, "IOException: " + ioe + "\nTrace: " + WebDavUtils.processException(ioe));
@@ -12,10 +12,12 @@ import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.filter.SmtpDataStuffing;
 import com.fsck.k9.mail.internet.CharsetSupport;
 import com.fsck.k9.mail.CertificateValidationException;
+import com.fsck.k9.mail.ssl.TlsSessionCache;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.fsck.k9.mail.store.StoreConfig;
 
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -233,6 +235,7 @@ public class SmtpTransport extends Transport {
 
             // RFC 1047
             mSocket.setSoTimeout(SOCKET_READ_TIMEOUT);
+            startTlsHandshakeIfNecessary();
 
             mIn = new PeekableInputStream(new BufferedInputStream(mSocket.getInputStream(), 1024));
             mOut = new BufferedOutputStream(mSocket.getOutputStream(), 1024);
@@ -273,6 +276,7 @@ public class SmtpTransport extends Transport {
                             mHost,
                             mPort,
                             mClientCertificateAlias);
+                    startTlsHandshakeIfNecessary();
 
                     mIn = new PeekableInputStream(new BufferedInputStream(mSocket.getInputStream(),
                                                   1024));
@@ -396,6 +400,7 @@ public class SmtpTransport extends Transport {
                 }
             }
         } catch (SSLException e) {
+            TlsSessionCache.getInstance().invalidate(mHost, mPort, mClientCertificateAlias);
             throw new CertificateValidationException(e.getMessage(), e);
         } catch (GeneralSecurityException gse) {
             throw new MessagingException(
@@ -405,6 +410,12 @@ public class SmtpTransport extends Transport {
         }
     }
 
+    private void startTlsHandshakeIfNecessary() throws IOException {
+        if (mSocket instanceof SSLSocket) {
+            TlsSessionCache.getInstance().startHandshake((SSLSocket) mSocket);
+        }
+    }
+
     private void parseOptionalSizeValue(Map<String, String> extensions) {
         if (extensions.containsKey("SIZE")) {
             String optionalsizeValue = extensions.get("SIZE");
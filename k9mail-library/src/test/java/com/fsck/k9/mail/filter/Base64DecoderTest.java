@@ -0,0 +1,138 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class Base64DecoderTest {
+    private Base64Decoder decoder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        decoder = new Base64Decoder();
+    }
+
+    @Test
+    public void decode_shouldDecodeData() throws Exception {
+        byte[] result = decode("Vm9pY2VtYWlsIGZyb20gKzYxNDEyMzQ1Njc4");
+
+        assertEquals("Voicemail from +61412345678", new String(result, "US-ASCII"));
+    }
+
+    @Test
+    public void decode_withLineBreaksAndWhitespace_shouldSkipThem() throws Exception {
+        byte[] result = decode("Vm9p\r\nY2Vt YWls\tIGZy\r\nb20g KzYx\r\nNDEy MzQ1\r\nNjc4\r\n");
+
+        assertEquals("Voicemail from +61412345678", new String(result, "US-ASCII"));
+    }
+
+    @Test
+    public void decode_withPadding_shouldIgnoreDataAfterPadding() throws Exception {
+        byte[] result = decode("SGk=\r\nSGVsbG8=");
+
+        assertEquals("Hi", new String(result, "US-ASCII"));
+        assertTrue(decoder.isFinished());
+    }
+
+    @Test
+    public void decode_withoutPadding_shouldDecodeCompleteBytes() throws Exception {
+        byte[] result = decode("SGk");
+
+        assertEquals("Hi", new String(result, "US-ASCII"));
+        assertFalse(decoder.isFinished());
+    }
+
+    @Test
+    public void decode_withInputInSingleBytes_shouldKeepStateBetweenCalls() throws Exception {
+        byte[] data = createRandomData(1000);
+        byte[] encoded = Base64.encodeBase64Chunked(data);
+        ByteBuffer destination = ByteBuffer.allocate(data.length);
+
+        for (byte character : encoded) {
+            decoder.decode(ByteBuffer.wrap(new byte[] { character }), destination);
+        }
+
+        assertArrayEquals(data, destination.array());
+    }
+
+    @Test
+    public void decode_withSmallDestination_shouldContinueWhereItStopped() throws Exception {
+        byte[] data = createRandomData(1000);
+        ByteBuffer source = ByteBuffer.wrap(Base64.encodeBase64Chunked(data));
+        byte[] result = new byte[data.length];
+        int length = 0;
+
+        while (source.hasRemaining()) {
+            length += decoder.decode(source, result, length, Math.min(2, result.length - length));
+        }
+
+        assertEquals(data.length, length);
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void decode_withDirectBuffers_shouldDecodeData() throws Exception {
+        byte[] data = createRandomData(5000);
+        byte[] encoded = Base64.encodeBase64Chunked(data);
+        ByteBuffer source = ByteBuffer.allocateDirect(encoded.length);
+        source.put(encoded).flip();
+        ByteBuffer destination = ByteBuffer.allocateDirect(data.length);
+
+        decoder.decode(source, destination);
+
+        assertFalse(source.hasRemaining());
+        assertEquals(data.length, destination.position());
+        byte[] result = new byte[data.length];
+        destination.flip();
+        destination.get(result);
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void decode_withRandomData_shouldMatchBase64() throws Exception {
+        for (int length = 0; length < 100; length++) {
+            byte[] data = createRandomData(length);
+
+            decoder.reset();
+            byte[] result = decode(new String(Base64.encodeBase64Chunked(data), "US-ASCII"));
+
+            assertArrayEquals("length " + length, data, result);
+        }
+    }
+
+    @Test
+    public void reset_shouldDiscardState() throws Exception {
+        decode("SGVsbG8=");
+
+        decoder.reset();
+        byte[] result = decode("SGk=");
+
+        assertEquals("Hi", new String(result, "US-ASCII"));
+    }
+
+    private byte[] decode(String encoded) throws Exception {
+        ByteBuffer source = ByteBuffer.wrap(encoded.getBytes("US-ASCII"));
+        ByteBuffer destination = ByteBuffer.allocate(encoded.length());
+
+        decoder.decode(source, destination);
+
+        return Arrays.copyOf(destination.array(), destination.position());
+    }
+
+    private static byte[] createRandomData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
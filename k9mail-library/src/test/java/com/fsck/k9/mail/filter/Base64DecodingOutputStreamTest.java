@@ -0,0 +1,78 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class Base64DecodingOutputStreamTest {
+    private static final byte[] DATA = createRandomData(10000);
+
+
+    @Test
+    public void write_shouldDecodeData() throws Exception {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        OutputStream outputStream = new Base64DecodingOutputStream(decoded);
+
+        outputStream.write(Base64.encodeBase64Chunked(DATA));
+
+        assertArrayEquals(DATA, decoded.toByteArray());
+    }
+
+    @Test
+    public void write_inSmallChunks_shouldDecodeData() throws Exception {
+        byte[] encoded = Base64.encodeBase64Chunked(DATA);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        OutputStream outputStream = new Base64DecodingOutputStream(decoded);
+
+        for (int offset = 0; offset < encoded.length; offset += 7) {
+            outputStream.write(encoded, offset, Math.min(7, encoded.length - offset));
+        }
+
+        assertArrayEquals(DATA, decoded.toByteArray());
+    }
+
+    @Test
+    public void write_singleBytes_shouldDecodeData() throws Exception {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        OutputStream outputStream = new Base64DecodingOutputStream(decoded);
+
+        for (byte b : Base64.encodeBase64Chunked(DATA)) {
+            outputStream.write(b);
+        }
+
+        assertArrayEquals(DATA, decoded.toByteArray());
+    }
+
+    @Test
+    public void write_withPadding_shouldIgnoreDataAfterPadding() throws Exception {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        OutputStream outputStream = new Base64DecodingOutputStream(decoded);
+
+        outputStream.write("SGk=\r\nSGk=\r\n".getBytes("US-ASCII"));
+
+        assertEquals("Hi", new String(decoded.toByteArray(), "US-ASCII"));
+    }
+
+    @Test
+    public void write_withCountingOutputStream_shouldCountDecodedBytes() throws Exception {
+        CountingOutputStream counter = new CountingOutputStream();
+        OutputStream outputStream = new Base64DecodingOutputStream(counter);
+
+        outputStream.write(Base64.encodeBase64Chunked(DATA));
+
+        assertEquals(DATA.length, counter.getCount());
+    }
+
+    private static byte[] createRandomData(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
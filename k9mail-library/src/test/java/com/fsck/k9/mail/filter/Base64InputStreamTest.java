@@ -0,0 +1,84 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class Base64InputStreamTest {
+    private static final byte[] DATA = createRandomData(10000);
+
+
+    @Test
+    public void read_shouldDecodeData() throws Exception {
+        InputStream inputStream = new Base64InputStream(createEncodedInputStream(DATA));
+
+        byte[] result = IOUtils.toByteArray(inputStream);
+
+        assertArrayEquals(DATA, result);
+    }
+
+    @Test
+    public void read_withSmallBuffer_shouldDecodeData() throws Exception {
+        InputStream inputStream = new Base64InputStream(createEncodedInputStream(DATA), ByteBuffer.allocate(7));
+
+        byte[] result = IOUtils.toByteArray(inputStream);
+
+        assertArrayEquals(DATA, result);
+    }
+
+    @Test
+    public void read_singleBytes_shouldDecodeData() throws Exception {
+        InputStream inputStream = new Base64InputStream(createEncodedInputStream(DATA));
+        byte[] result = new byte[DATA.length];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) inputStream.read();
+        }
+
+        assertArrayEquals(DATA, result);
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void read_withPadding_shouldStopAtPadding() throws Exception {
+        InputStream inputStream = new Base64InputStream(new ByteArrayInputStream("SGk=\r\nSGk=\r\n".getBytes("US-ASCII")));
+
+        byte[] result = IOUtils.toByteArray(inputStream);
+
+        assertEquals("Hi", new String(result, "US-ASCII"));
+    }
+
+    @Test
+    public void skip_shouldSkipDecodedBytes() throws Exception {
+        InputStream inputStream = new Base64InputStream(createEncodedInputStream(DATA));
+
+        long skipped = inputStream.skip(5000);
+
+        assertEquals(5000, skipped);
+        assertEquals(DATA[5000] & 0xFF, inputStream.read());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_withDirectBuffer_shouldThrow() throws Exception {
+        new Base64InputStream(createEncodedInputStream(DATA), ByteBuffer.allocateDirect(100));
+    }
+
+    private static InputStream createEncodedInputStream(byte[] data) {
+        return new ByteArrayInputStream(Base64.encodeBase64Chunked(data));
+    }
+
+    private static byte[] createRandomData(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
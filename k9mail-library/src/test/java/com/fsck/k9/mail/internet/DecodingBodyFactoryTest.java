@@ -0,0 +1,84 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.Body;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.util.MimeUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class DecodingBodyFactoryTest {
+    private DecodingBodyFactory bodyFactory;
+
+
+    @Before
+    public void setUp() throws Exception {
+        BinaryTempFileBody.setTempDirectory(new File(System.getProperty("java.io.tmpdir")));
+        bodyFactory = new DecodingBodyFactory();
+    }
+
+    @Test
+    public void createBody_withBase64_shouldStoreDecodedContent() throws Exception {
+        Body body = bodyFactory.createBody("base64", "audio/amr", toStream("VGhpcyBpcyBhdWRpbw==\r\n"));
+
+        assertEquals(MimeUtil.ENC_BINARY, ((RawDataBody) body).getEncoding());
+        assertEquals("This is audio", readBody(body));
+    }
+
+    @Test
+    public void createBody_withQuotedPrintable_shouldStoreDecodedContent() throws Exception {
+        Body body = bodyFactory.createBody("quoted-printable", "text/plain", toStream("caf=C3=A9"));
+
+        assertEquals(MimeUtil.ENC_BINARY, ((RawDataBody) body).getEncoding());
+        assertEquals("café", new String(IOUtils.toByteArray(body.getInputStream()), "UTF-8"));
+    }
+
+    @Test
+    public void createBody_with7bit_shouldStoreContentUnchanged() throws Exception {
+        Body body = bodyFactory.createBody("7bit", "text/plain", toStream("plain text"));
+
+        assertEquals("7bit", ((RawDataBody) body).getEncoding());
+        assertEquals("plain text", readBody(body));
+    }
+
+    @Test
+    public void createBody_shouldCountEncodedAndDecodedBytes() throws Exception {
+        bodyFactory.createBody("base64", "audio/amr", toStream("VGhpcyBpcyBhdWRpbw==\r\n"));
+
+        assertEquals(22, bodyFactory.getEncodedBytes());
+        assertEquals(13, bodyFactory.getDecodedBytes());
+    }
+
+    @Test
+    public void createBody_withProgressListener_shouldReportBodyAndWrittenBytes() throws Exception {
+        DecodingBodyFactory.ProgressListener progressListener = mock(DecodingBodyFactory.ProgressListener.class);
+        bodyFactory = new DecodingBodyFactory(progressListener);
+
+        Body body = bodyFactory.createBody("base64", "audio/amr", toStream("VGhpcyBpcyBhdWRpbw==\r\n"));
+
+        verify(progressListener).onBodyStarted((BinaryTempFileBody) body);
+        verify(progressListener).onProgress(13);
+    }
+
+    private InputStream toStream(String data) throws Exception {
+        return new ByteArrayInputStream(data.getBytes("US-ASCII"));
+    }
+
+    private String readBody(Body body) throws Exception {
+        return new String(IOUtils.toByteArray(body.getInputStream()), "US-ASCII");
+    }
+}
@@ -0,0 +1,128 @@
+package com.fsck.k9.mail.ssl;
+
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.fsck.k9.mail.ssl.TlsSessionCache.MAX_CONTEXTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class TlsSessionCacheTest {
+    private static final String HOST = "imap.example.com";
+    private static final int PORT = 993;
+    private static final String ALIAS = "client-cert";
+
+
+    private TlsSessionCache sessionCache;
+
+
+    @Before
+    public void setUp() throws Exception {
+        sessionCache = new TlsSessionCache();
+    }
+
+    @Test
+    public void get_afterPut_shouldReturnSameContext() throws Exception {
+        SSLContext sslContext = createSslContext();
+        sessionCache.put(HOST, PORT, null, sslContext);
+
+        SSLContext result = sessionCache.get(HOST, PORT, null);
+
+        assertSame(sslContext, result);
+    }
+
+    @Test
+    public void get_withDifferentHostCase_shouldReturnSameContext() throws Exception {
+        SSLContext sslContext = createSslContext();
+        sessionCache.put(HOST, PORT, null, sslContext);
+
+        SSLContext result = sessionCache.get("IMAP.Example.com", PORT, null);
+
+        assertSame(sslContext, result);
+    }
+
+    @Test
+    public void get_withDifferentClientCertificateAlias_shouldReturnNull() throws Exception {
+        sessionCache.put(HOST, PORT, null, createSslContext());
+
+        SSLContext result = sessionCache.get(HOST, PORT, ALIAS);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void put_withExistingContext_shouldKeepExistingContext() throws Exception {
+        SSLContext sslContext = createSslContext();
+        sessionCache.put(HOST, PORT, ALIAS, sslContext);
+
+        SSLContext result = sessionCache.put(HOST, PORT, ALIAS, createSslContext());
+
+        assertSame(sslContext, result);
+        assertSame(sslContext, sessionCache.get(HOST, PORT, ALIAS));
+    }
+
+    @Test
+    public void put_withMoreThanMaxContexts_shouldEvictLeastRecentlyUsed() throws Exception {
+        for (int i = 0; i < MAX_CONTEXTS; i++) {
+            sessionCache.put("host" + i, PORT, null, createSslContext());
+        }
+        sessionCache.get("host0", PORT, null);
+
+        sessionCache.put("another.host", PORT, null, createSslContext());
+
+        assertEquals(MAX_CONTEXTS, sessionCache.getStats().cachedContexts);
+        assertNull(sessionCache.get("host1", PORT, null));
+    }
+
+    @Test
+    public void invalidate_shouldOnlyRemoveContextWithSameAlias() throws Exception {
+        SSLContext sslContext = createSslContext();
+        sessionCache.put(HOST, PORT, null, sslContext);
+        sessionCache.put(HOST, PORT, ALIAS, createSslContext());
+
+        sessionCache.invalidate(HOST, PORT, ALIAS);
+
+        assertNull(sessionCache.get(HOST, PORT, ALIAS));
+        assertSame(sslContext, sessionCache.get(HOST, PORT, null));
+    }
+
+    @Test
+    public void invalidate_withoutAlias_shouldRemoveContextsForAllAliases() throws Exception {
+        SSLContext sslContext = createSslContext();
+        sessionCache.put(HOST, PORT, null, createSslContext());
+        sessionCache.put(HOST, PORT, ALIAS, createSslContext());
+        sessionCache.put(HOST, 465, null, sslContext);
+
+        sessionCache.invalidate(HOST, PORT);
+
+        assertNull(sessionCache.get(HOST, PORT, null));
+        assertNull(sessionCache.get(HOST, PORT, ALIAS));
+        assertSame(sslContext, sessionCache.get(HOST, 465, null));
+    }
+
+    @Test
+    public void getStats_shouldReportResumptionRateAndAverageHandshakeTime() throws Exception {
+        sessionCache.recordHandshake(false, 300);
+        sessionCache.recordHandshake(true, 100);
+        sessionCache.recordHandshake(true, 50);
+        sessionCache.recordHandshake(true, 50);
+
+        TlsSessionCache.Stats stats = sessionCache.getStats();
+
+        assertEquals(4, stats.handshakes);
+        assertEquals(3, stats.resumedHandshakes);
+        assertEquals(0.75, stats.getResumptionRate(), 0.001);
+        assertEquals(125, stats.getAverageHandshakeMillis());
+    }
+
+    private static SSLContext createSslContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        return sslContext;
+    }
+}
@@ -0,0 +1,203 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import com.fsck.k9.mail.NetworkType;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.IdleKeepalive.INITIAL_STEP;
+import static com.fsck.k9.mail.store.imap.IdleKeepalive.MIN_INTERVAL;
+import static com.fsck.k9.mail.store.imap.IdleKeepalive.MIN_STEP;
+import static com.fsck.k9.mail.store.imap.IdleKeepalive.REPROBE_AFTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class IdleKeepaliveTest {
+    private static final int MAX_INTERVAL = 24 * 60 * 1000;
+    private static final int MINUTE = 60 * 1000;
+
+
+    private IdleKeepalive keepalive;
+
+
+    @Before
+    public void setUp() throws Exception {
+        keepalive = new IdleKeepalive();
+    }
+
+    @Test
+    public void getInterval_withoutProbes_shouldReturnMinimumInterval() throws Exception {
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(MIN_INTERVAL, result);
+    }
+
+    @Test
+    public void getInterval_afterSuccessfulProbes_shouldGrowWithDoublingStep() throws Exception {
+        probe(NetworkType.MOBILE, 2 * MINUTE, true);
+        assertEquals(6 * MINUTE, keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL));
+
+        probe(NetworkType.MOBILE, 6 * MINUTE, true);
+        assertEquals(14 * MINUTE, keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL));
+    }
+
+    @Test
+    public void getInterval_shouldNotExceedMaxInterval() throws Exception {
+        probe(NetworkType.WIFI, 20 * MINUTE, true);
+
+        int result = keepalive.getInterval(NetworkType.WIFI, MAX_INTERVAL);
+
+        assertEquals(MAX_INTERVAL, result);
+    }
+
+    @Test
+    public void getInterval_afterFailedProbe_shouldBisect() throws Exception {
+        probe(NetworkType.MOBILE, 6 * MINUTE, true);
+        probe(NetworkType.MOBILE, 14 * MINUTE, false);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(10 * MINUTE, result);
+    }
+
+    @Test
+    public void getInterval_afterConverging_shouldStayJustBelowTimeout() throws Exception {
+        long timeout = 11 * MINUTE + 20 * 1000;
+        for (int i = 0; i < 20; i++) {
+            int interval = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+            probe(NetworkType.MOBILE, interval, interval < timeout);
+        }
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertTrue(result < timeout);
+        assertTrue(result > timeout - 2 * MIN_STEP);
+    }
+
+    @Test
+    public void getInterval_afterConvergedForLong_shouldProbeLongerInterval() throws Exception {
+        probe(NetworkType.MOBILE, 10 * MINUTE, true);
+        probe(NetworkType.MOBILE, 10 * MINUTE + MIN_STEP, false);
+        for (int i = 0; i < REPROBE_AFTER; i++) {
+            probe(NetworkType.MOBILE, 10 * MINUTE, true);
+        }
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(10 * MINUTE + INITIAL_STEP, result);
+    }
+
+    @Test
+    public void getInterval_afterSafeIntervalFailed_shouldBackOff() throws Exception {
+        probe(NetworkType.MOBILE, 10 * MINUTE, true);
+        probe(NetworkType.MOBILE, 10 * MINUTE, false);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertTrue(result < 10 * MINUTE);
+    }
+
+    @Test
+    public void getInterval_withPendingProbe_shouldAssumeSuccess() throws Exception {
+        keepalive.onProbeStarted(NetworkType.MOBILE, 2 * MINUTE);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(2 * MINUTE + INITIAL_STEP, result);
+    }
+
+    @Test
+    public void getInterval_afterCancelledProbe_shouldIgnoreProbe() throws Exception {
+        keepalive.onProbeStarted(NetworkType.MOBILE, 6 * MINUTE);
+        keepalive.onProbeCancelled(NetworkType.MOBILE);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(MIN_INTERVAL, result);
+    }
+
+    @Test
+    public void onProbeFailed_withShortSilentTime_shouldBeIgnored() throws Exception {
+        probe(NetworkType.MOBILE, 6 * MINUTE, true);
+        probe(NetworkType.MOBILE, MIN_INTERVAL - 1, false);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(6 * MINUTE + 2 * INITIAL_STEP, result);
+    }
+
+    @Test
+    public void getInterval_shouldKeepStatePerNetworkType() throws Exception {
+        probe(NetworkType.WIFI, 6 * MINUTE, true);
+
+        int result = keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL);
+
+        assertEquals(MIN_INTERVAL, result);
+    }
+
+    @Test
+    public void getStats_shouldCountWakeupsReconnectsAndFailures() throws Exception {
+        probe(NetworkType.MOBILE, 2 * MINUTE, true);
+        probe(NetworkType.MOBILE, 6 * MINUTE, false);
+        keepalive.onReconnect();
+
+        IdleKeepalive.Stats stats = keepalive.getStats();
+
+        assertEquals(2, stats.wakeups);
+        assertEquals(1, stats.reconnects);
+        assertEquals(1, stats.failedProbes);
+    }
+
+    @Test
+    public void restoreState_withSavedState_shouldContinueWhereSavedStateLeftOff() throws Exception {
+        probe(NetworkType.MOBILE, 6 * MINUTE, true);
+        probe(NetworkType.MOBILE, 14 * MINUTE, false);
+        probe(NetworkType.WIFI, 20 * MINUTE, true);
+        String savedState = keepalive.saveState();
+
+        IdleKeepalive restarted = new IdleKeepalive();
+        restarted.restoreState(savedState);
+
+        assertEquals(10 * MINUTE, restarted.getInterval(NetworkType.MOBILE, MAX_INTERVAL));
+        assertEquals(22 * MINUTE, restarted.getInterval(NetworkType.WIFI, MAX_INTERVAL));
+        assertEquals(MIN_INTERVAL, restarted.getInterval(NetworkType.OTHER, MAX_INTERVAL));
+    }
+
+    @Test
+    public void restoreState_calledTwice_shouldOnlyRestoreOnce() throws Exception {
+        keepalive.restoreState("MOBILE:" + 6 * MINUTE + ":0");
+        probe(NetworkType.MOBILE, 8 * MINUTE, true);
+
+        keepalive.restoreState("MOBILE:" + 6 * MINUTE + ":0");
+
+        assertEquals(8 * MINUTE + 2 * INITIAL_STEP, keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL));
+    }
+
+    @Test
+    public void restoreState_withMalformedEntries_shouldSkipThem() throws Exception {
+        keepalive.restoreState("CELLULAR:600000:0,WIFI:abc:0,WIFI:1:2:3,MOBILE:" + 6 * MINUTE + ":0");
+
+        assertEquals(MIN_INTERVAL, keepalive.getInterval(NetworkType.WIFI, MAX_INTERVAL));
+        assertEquals(6 * MINUTE + INITIAL_STEP, keepalive.getInterval(NetworkType.MOBILE, MAX_INTERVAL));
+    }
+
+    @Test
+    public void onProbeSucceeded_shouldReportWhetherStateChanged() throws Exception {
+        keepalive.onProbeStarted(NetworkType.MOBILE, 6 * MINUTE);
+        assertTrue(keepalive.onProbeSucceeded(NetworkType.MOBILE, 6 * MINUTE));
+
+        keepalive.onProbeStarted(NetworkType.MOBILE, 4 * MINUTE);
+        assertFalse(keepalive.onProbeSucceeded(NetworkType.MOBILE, 4 * MINUTE));
+    }
+
+    private void probe(NetworkType networkType, long silentTime, boolean success) {
+        keepalive.onProbeStarted(networkType, silentTime);
+        if (success) {
+            keepalive.onProbeSucceeded(networkType, silentTime);
+        } else {
+            keepalive.onProbeFailed(networkType, silentTime);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ImapCommandPipelineTest {
+    private ImapConnection connection;
+    private ImapCommandPipeline.ResponseHandler handler;
+
+
+    @Before
+    public void setUp() throws Exception {
+        connection = mock(ImapConnection.class);
+        handler = mock(ImapCommandPipeline.ResponseHandler.class);
+        when(connection.sendCommand(anyString(), anyBoolean())).thenReturn("1", "2", "3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_withZeroMaxInFlight_shouldThrow() throws Exception {
+        new ImapCommandPipeline(connection, 0);
+    }
+
+    @Test
+    public void execute_shouldSendCommandsBeforeReadingResponses() throws Exception {
+        when(connection.readResponse(any(ImapResponseCallback.class))).thenReturn(
+                createImapResponse("1 OK"),
+                createImapResponse("2 OK"),
+                createImapResponse("3 OK"));
+        ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, 3);
+
+        pipeline.execute(asList("CMD A", "CMD B", "CMD C"), null, handler);
+
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).sendCommand("CMD A", false);
+        inOrder.verify(connection).sendCommand("CMD B", false);
+        inOrder.verify(connection).sendCommand("CMD C", false);
+        inOrder.verify(connection, times(3)).readResponse(null);
+    }
+
+    @Test
+    public void execute_shouldNotExceedMaxInFlight() throws Exception {
+        when(connection.readResponse(any(ImapResponseCallback.class))).thenReturn(
+                createImapResponse("1 OK"),
+                createImapResponse("2 OK"),
+                createImapResponse("3 OK"));
+        ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, 2);
+
+        pipeline.execute(asList("CMD A", "CMD B", "CMD C"), null, handler);
+
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).sendCommand("CMD A", false);
+        inOrder.verify(connection).sendCommand("CMD B", false);
+        inOrder.verify(connection).readResponse(null);
+        inOrder.verify(connection).sendCommand("CMD C", false);
+        inOrder.verify(connection, times(2)).readResponse(null);
+    }
+
+    @Test
+    public void execute_shouldPassUntaggedResponsesToHandler() throws Exception {
+        ImapResponse untaggedResponse = createImapResponse("* 1 FETCH (UID 23 FLAGS (\\Seen))");
+        when(connection.readResponse(any(ImapResponseCallback.class))).thenReturn(
+                untaggedResponse,
+                createImapResponse("1 OK"));
+        ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, 2);
+
+        pipeline.execute(asList("CMD A"), null, handler);
+
+        verify(handler).handleUntaggedResponse(untaggedResponse);
+    }
+
+    @Test
+    public void execute_shouldReturnStatusResponsesInCompletionOrder() throws Exception {
+        when(connection.readResponse(any(ImapResponseCallback.class))).thenReturn(
+                createImapResponse("2 OK"),
+                createImapResponse("1 NO failed"));
+        ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, 2);
+
+        List<ImapResponse> statusResponses = pipeline.execute(asList("CMD A", "CMD B"), null, handler);
+
+        assertEquals(2, statusResponses.size());
+        assertEquals("2", statusResponses.get(0).getTag());
+        assertEquals("1", statusResponses.get(1).getTag());
+    }
+
+    @Test
+    public void execute_withUnknownTag_shouldCompleteOldestCommand() throws Exception {
+        when(connection.readResponse(any(ImapResponseCallback.class))).thenReturn(
+                createImapResponse("x OK"),
+                createImapResponse("2 OK"));
+        ImapCommandPipeline pipeline = new ImapCommandPipeline(connection, 2);
+
+        List<ImapResponse> statusResponses = pipeline.execute(asList("CMD A", "CMD B"), null, handler);
+
+        assertEquals(2, statusResponses.size());
+        verify(connection, times(2)).readResponse(null);
+    }
+}
@@ -0,0 +1,202 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ImapConnectionPoolTest {
+    private TestConnectionFactory connectionFactory;
+    private TestImapConnectionPool pool;
+
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new TestConnectionFactory();
+        pool = new TestImapConnectionPool(connectionFactory);
+    }
+
+    @Test
+    public void acquire_withEmptyPool_shouldCreateConnectionAndCountMiss() throws Exception {
+        ImapConnection connection = createOpenConnection();
+        connectionFactory.enqueue(connection);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+        assertEquals(1, pool.getStats().misses);
+        assertEquals(0, pool.getStats().hits);
+    }
+
+    @Test
+    public void acquire_afterRelease_shouldProbeAndReuseConnection() throws Exception {
+        ImapConnection connection = createOpenConnection();
+        pool.release(connection);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(connection, result);
+        verify(connection).executeSimpleCommand(Commands.NOOP);
+        assertEquals(1, pool.getStats().hits);
+    }
+
+    @Test
+    public void acquire_withFailingProbe_shouldCloseConnectionAndCreateNewOne() throws Exception {
+        ImapConnection deadConnection = createOpenConnection();
+        doThrow(IOException.class).when(deadConnection).executeSimpleCommand(Commands.NOOP);
+        ImapConnection newConnection = createOpenConnection();
+        connectionFactory.enqueue(newConnection);
+        pool.release(deadConnection);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(newConnection, result);
+        verify(deadConnection).close();
+        assertEquals(1, pool.getStats().failedProbes);
+    }
+
+    @Test
+    public void acquire_withConnectionIdleForTooLong_shouldCloseItWithoutProbing() throws Exception {
+        ImapConnection staleConnection = createOpenConnection();
+        ImapConnection newConnection = createOpenConnection();
+        connectionFactory.enqueue(newConnection);
+        pool.release(staleConnection);
+        pool.time += ImapConnectionPool.MAX_IDLE_MILLIS + 1;
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(newConnection, result);
+        verify(staleConnection, never()).executeSimpleCommand(Commands.NOOP);
+        verify(staleConnection).close();
+        assertEquals(1, pool.getStats().evictions);
+    }
+
+    @Test
+    public void acquire_shouldReturnMostRecentlyReleasedConnection() throws Exception {
+        ImapConnection olderConnection = createOpenConnection();
+        ImapConnection newerConnection = createOpenConnection();
+        pool.release(olderConnection);
+        pool.release(newerConnection);
+
+        ImapConnection result = pool.acquire();
+
+        assertSame(newerConnection, result);
+    }
+
+    @Test
+    public void release_withClosedConnection_shouldNotPoolIt() throws Exception {
+        ImapConnection connection = mock(ImapConnection.class);
+
+        pool.release(connection);
+
+        assertEquals(0, pool.getStats().idleConnections);
+    }
+
+    @Test
+    public void release_withMoreThanMaxIdleConnections_shouldCloseOldestConnection() throws Exception {
+        ImapConnection oldestConnection = createOpenConnection();
+        pool.release(oldestConnection);
+        for (int i = 0; i < ImapConnectionPool.MAX_IDLE_CONNECTIONS; i++) {
+            pool.release(createOpenConnection());
+        }
+
+        verify(oldestConnection).close();
+        assertEquals(ImapConnectionPool.MAX_IDLE_CONNECTIONS, pool.getStats().idleConnections);
+        assertEquals(1, pool.getStats().evictions);
+    }
+
+    @Test
+    public void release_shouldRecordHandshakeDuration() throws Exception {
+        ImapConnection connection = createOpenConnection();
+        when(connection.takeHandshakeMillis()).thenReturn(300L);
+
+        pool.release(connection);
+
+        assertEquals(1, pool.getStats().handshakes);
+        assertEquals(300, pool.getStats().getAverageHandshakeMillis());
+    }
+
+    @Test
+    public void warmUp_withEmptyPool_shouldOpenAndPoolConnection() throws Exception {
+        ImapConnection connection = createOpenConnection();
+        connectionFactory.enqueue(connection);
+
+        pool.warmUp();
+
+        verify(connection).open();
+        assertEquals(1, pool.getStats().idleConnections);
+    }
+
+    @Test
+    public void warmUp_withIdleConnection_shouldNotCreateConnection() throws Exception {
+        pool.release(createOpenConnection());
+
+        pool.warmUp();
+
+        assertEquals(1, pool.getStats().idleConnections);
+    }
+
+    @Test
+    public void closeIdleConnections_shouldCloseAllPooledConnections() throws Exception {
+        ImapConnection connection = createOpenConnection();
+        pool.release(connection);
+
+        pool.closeIdleConnections();
+
+        verify(connection).close();
+        assertEquals(0, pool.getStats().idleConnections);
+    }
+
+    private ImapConnection createOpenConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isOpen()).thenReturn(true);
+        return connection;
+    }
+
+
+    static class TestConnectionFactory implements ImapConnectionPool.ConnectionFactory {
+        private final Deque<ImapConnection> connections = new ArrayDeque<>();
+
+        void enqueue(ImapConnection connection) {
+            connections.add(connection);
+        }
+
+        @Override
+        public ImapConnection createConnection() {
+            if (connections.isEmpty()) {
+                throw new AssertionError("Unexpectedly tried to create an ImapConnection instance");
+            }
+            return connections.pop();
+        }
+    }
+
+    static class TestImapConnectionPool extends ImapConnectionPool {
+        long time = 1000;
+
+        TestImapConnectionPool(ConnectionFactory connectionFactory) {
+            super(connectionFactory);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return time;
+        }
+    }
+}
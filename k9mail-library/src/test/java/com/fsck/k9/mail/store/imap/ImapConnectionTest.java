@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -20,8 +21,10 @@ import com.fsck.k9.mail.CertificateValidationException.Reason;
 import com.fsck.k9.mail.ConnectionSecurity;
 import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.filter.FixedLengthInputStream;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.fsck.k9.mail.store.imap.mockserver.MockImapServer;
+import com.sun.management.ThreadMXBean;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -41,6 +44,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.mock;
 
 
@@ -53,6 +57,7 @@ public class ImapConnectionTest {
     private static final String PASSWORD = "123456";
     private static final int SOCKET_CONNECT_TIMEOUT = 2000;
     private static final int SOCKET_READ_TIMEOUT = 1000;
+    private static final int LARGE_LITERAL_LENGTH = 1024 * 1024;
 
 
     private TrustedSocketFactory socketFactory;
@@ -609,6 +614,92 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void readResponse_withLargeLiteralAndCallback_shouldStreamLiteral() throws Exception {
+        ThreadMXBean threadMXBean = getAllocationMeasuringThreadMXBean();
+        int literalSize = LARGE_LITERAL_LENGTH + 2;
+        MockImapServer server = new MockImapServer();
+        ImapConnection imapConnection = openConnectionAndPrepareLargeLiteral(server, literalSize);
+        LiteralDrainingCallback callback = new LiteralDrainingCallback();
+        imapConnection.sendCommand("UID FETCH 1 (UID BODY.PEEK[2])", false);
+        imapConnection.readResponse(callback);
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        ImapResponse response = imapConnection.readResponse(callback);
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+        imapConnection.readResponse(callback);
+
+        assertEquals("FETCH", response.getString(1));
+        assertEquals(literalSize, callback.bytesRead);
+        assertTrue("Allocated " + allocatedBytes + " bytes for a literal of " + literalSize + " bytes",
+                allocatedBytes < literalSize / 8);
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void readResponse_withLargeLiteralAndWithoutCallback_shouldMaterializeLiteral() throws Exception {
+        ThreadMXBean threadMXBean = getAllocationMeasuringThreadMXBean();
+        int literalSize = LARGE_LITERAL_LENGTH + 2;
+        MockImapServer server = new MockImapServer();
+        ImapConnection imapConnection = openConnectionAndPrepareLargeLiteral(server, literalSize);
+        imapConnection.sendCommand("UID FETCH 1 (UID BODY.PEEK[2])", false);
+        imapConnection.readResponse();
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        ImapResponse response = imapConnection.readResponse();
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+        imapConnection.readResponse();
+
+        ImapList fetchList = response.getList(2);
+        assertEquals(literalSize, fetchList.getString(4).length());
+        assertTrue(allocatedBytes >= literalSize);
+        server.verifyInteractionCompleted();
+    }
+
+    private ImapConnection openConnectionAndPrepareLargeLiteral(MockImapServer server, int literalSize)
+            throws Exception {
+        simpleOpenDialog(server, "");
+        server.expect("4 UID FETCH 1 (UID BODY.PEEK[2])");
+        server.output("* 1 EXISTS");
+        server.output("* 1 FETCH (UID 1 BODY[2] {" + literalSize + "}");
+        server.output(createLargeLiteral());
+        server.output(")");
+        server.output("4 OK FETCH completed");
+
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.open();
+
+        return imapConnection;
+    }
+
+    private String createLargeLiteral() {
+        StringBuilder literal = new StringBuilder(LARGE_LITERAL_LENGTH);
+        while (literal.length() < LARGE_LITERAL_LENGTH) {
+            int lineLength = Math.min(76, LARGE_LITERAL_LENGTH - literal.length());
+            for (int i = 0; i < lineLength; i++) {
+                literal.append((char) ('A' + (i % 26)));
+            }
+
+            if (literal.length() + 2 <= LARGE_LITERAL_LENGTH) {
+                literal.append("\r\n");
+            }
+        }
+        literal.setLength(LARGE_LITERAL_LENGTH);
+
+        return literal.toString();
+    }
+
+    private ThreadMXBean getAllocationMeasuringThreadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof ThreadMXBean);
+
+        ThreadMXBean allocationMXBean = (ThreadMXBean) threadMXBean;
+        assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        return allocationMXBean;
+    }
+
     private ImapConnection createImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
             ConnectivityManager connectivityManager) {
         return new ImapConnection(settings, socketFactory, connectivityManager, SOCKET_CONNECT_TIMEOUT,
@@ -706,4 +797,19 @@ public class ImapConnectionTest {
             return new X509Certificate[0];
         }
     }
+
+    private static class LiteralDrainingCallback implements ImapResponseCallback {
+        private final byte[] buffer = new byte[4096];
+        int bytesRead = 0;
+
+        @Override
+        public Object foundLiteral(ImapResponse response, FixedLengthInputStream literal) throws Exception {
+            int count;
+            while ((count = literal.read(buffer)) != -1) {
+                bytesRead += count;
+            }
+
+            return bytesRead;
+        }
+    }
 }
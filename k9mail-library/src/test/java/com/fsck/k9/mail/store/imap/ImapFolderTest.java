@@ -2,6 +2,7 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -11,6 +12,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.FetchProfile.Item;
 import com.fsck.k9.mail.Flag;
@@ -20,10 +23,12 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.store.StoreConfig;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -39,8 +44,11 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -99,6 +107,47 @@ public class ImapFolderTest {
         assertEquals(23, imapFolder.getMessageCount());
     }
 
+    @Test
+    public void open_shouldParseUidValidity() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(1125022061L, imapFolder.getUidValidity());
+    }
+
+    @Test
+    public void open_withCondstoreCapableServer_shouldRequestAndParseHighestModSeq() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore(false);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(715194045007L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void open_withQresyncEnabled_shouldNotAddCondstoreParameter() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore(true);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        verify(imapConnection).executeSimpleCommand("SELECT \"Folder\"");
+        assertEquals(715194045007L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void getHighestModSeq_withoutCondstoreCapableServer_shouldReturnMinusOne() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+
+        imapFolder.open(OPEN_MODE_RW);
+
+        assertEquals(-1L, imapFolder.getHighestModSeq());
+    }
+
     @Test
     public void open_readWrite_shouldMakeGetModeReturnReadWrite() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -891,6 +940,88 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.1])", false);
     }
 
+    @Test
+    public void fetchPart_withBodyFactory_shouldUseItToCreateBody() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createPart("2");
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)).thenReturn(new String[] { "base64" });
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)).thenReturn(new String[] { "audio/amr" });
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (UID 1 BODY[2] \"VGhpcyBpcyBhdWRpbw==\")"))
+                .thenReturn(createImapResponse("x OK"));
+        BodyFactory bodyFactory = mock(BodyFactory.class);
+        Body body = mock(Body.class);
+        when(bodyFactory.createBody(eq("base64"), eq("audio/amr"), any(InputStream.class))).thenReturn(body);
+
+        folder.fetchPart(message, part, null, bodyFactory);
+
+        verify(part).setBody(body);
+    }
+
+    @Test
+    public void fetch_withMultipleMessages_shouldPipelineCommands() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.sendCommand(anyString(), anyBoolean())).thenReturn("3", "4");
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (FLAGS (\\Seen) UID 1)"))
+                .thenReturn(createImapResponse("* 2 FETCH (FLAGS (\\Flagged) UID 2)"))
+                .thenReturn(createImapResponse("3 OK"))
+                .thenReturn(createImapResponse("4 OK"));
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 1 (UID FLAGS)", false);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 2 (UID FLAGS)", false);
+        inOrder.verify(imapConnection, times(4)).readResponse(any(ImapResponseCallback.class));
+        verify(messages.get(0)).setFlagInternal(Flag.SEEN, true);
+        verify(messages.get(1)).setFlagInternal(Flag.FLAGGED, true);
+    }
+
+    @Test
+    public void fetchParts_shouldPipelineOneCommandPerPart() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part textPart = createPart("1");
+        Part audioPart = createPart("2");
+        when(imapConnection.sendCommand(anyString(), anyBoolean())).thenReturn("3", "4");
+        when(imapConnection.readResponse(any(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("3 OK"))
+                .thenReturn(createImapResponse("4 OK"));
+
+        folder.fetchParts(message, asList(textPart, audioPart), null);
+
+        InOrder inOrder = inOrder(imapConnection);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1])", false);
+        inOrder.verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[2])", false);
+        inOrder.verify(imapConnection, times(2)).readResponse(any(ImapResponseCallback.class));
+    }
+
+    @Test
+    public void getBodySection_shouldReturnUpperCaseSection() throws Exception {
+        ImapResponse response = createImapResponse("* 1 FETCH (UID 1 BODY[text] \"hello\")");
+        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+
+        assertEquals("TEXT", ImapFolder.getBodySection(fetchList));
+    }
+
+    @Test
+    public void getBodySection_withoutBody_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* 1 FETCH (UID 1 FLAGS (\\Seen))");
+        ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+
+        assertNull(ImapFolder.getBodySection(fetchList));
+    }
+
     @Test
     public void appendMessages_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -953,6 +1084,74 @@ public class ImapFolderTest {
         verify(imapConnection).executeSimpleCommand("EXPUNGE");
     }
 
+    @Test
+    public void getMessagesChangedSince_withoutCondstore_shouldThrow() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+
+        try {
+            folder.getMessagesChangedSince(1L, 100L);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertEquals("Server doesn't support CONDSTORE for " + folder.getLogId(), e.getMessage());
+        }
+    }
+
+    @Test
+    public void getMessagesChangedSince_shouldIssueChangedSinceCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore(false);
+        folder.open(OPEN_MODE_RW);
+
+        folder.getMessagesChangedSince(50L, 715194040000L);
+
+        verify(imapConnection).executeSimpleCommand("UID FETCH 50:* (UID FLAGS) (CHANGEDSINCE 715194040000)");
+    }
+
+    @Test
+    public void getMessagesChangedSince_withQresync_shouldReturnChangedAndVanishedMessages() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpenWithCondstore(true);
+        folder.open(OPEN_MODE_RW);
+        when(imapConnection.executeSimpleCommand("UID FETCH 50:* (UID FLAGS) (CHANGEDSINCE 715194040000 VANISHED)"))
+                .thenReturn(asList(
+                        createImapResponse("* VANISHED (EARLIER) 51:52"),
+                        createImapResponse("* 3 FETCH (UID 60 FLAGS (\\Seen) MODSEQ (715194045000))"),
+                        createImapResponse("x OK Fetch completed")));
+
+        List<ImapMessage> messages = folder.getMessagesChangedSince(50L, 715194040000L);
+
+        assertEquals(newSet("51", "52", "60"), extractMessageUids(messages));
+        for (ImapMessage message : messages) {
+            boolean vanished = !message.getUid().equals("60");
+            assertEquals(vanished, message.isSet(Flag.DELETED));
+            assertEquals(!vanished, message.isSet(Flag.SEEN));
+        }
+    }
+
+    @Test
+    public void handleUntaggedResponse_withVanished_shouldDecreaseMessageCount() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+
+        folder.handleUntaggedResponse(createImapResponse("* VANISHED 4,8:9"));
+
+        assertEquals(20, folder.getMessageCount());
+    }
+
+    @Test
+    public void handleUntaggedResponse_withVanishedEarlier_shouldNotChangeMessageCount() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+
+        folder.handleUntaggedResponse(createImapResponse("* VANISHED (EARLIER) 4,8:9"));
+
+        assertEquals(23, folder.getMessageCount());
+    }
+
     @Test
     public void setFlags_shouldIssueUidStoreCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1094,6 +1293,21 @@ public class ImapFolderTest {
         }
     }
 
+    private void prepareImapFolderForOpenWithCondstore(boolean qresyncEnabled) throws MessagingException, IOException {
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.isCondstoreCapable()).thenReturn(true);
+        when(imapConnection.isQresyncEnabled()).thenReturn(qresyncEnabled);
+        List<ImapResponse> imapResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest"),
+                createImapResponse("2 OK [READ-WRITE] Select completed.")
+        );
+
+        String command = qresyncEnabled ? "SELECT \"Folder\"" : "SELECT \"Folder\" (CONDSTORE)";
+        when(imapConnection.executeSimpleCommand(command)).thenReturn(imapResponses);
+    }
+
     private void assertCheckOpenErrorMessage(String folderName, MessagingException e) {
         assertEquals("Folder " + folderName + " is not open.", e.getMessage());
     }
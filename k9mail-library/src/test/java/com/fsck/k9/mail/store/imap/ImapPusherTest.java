@@ -31,6 +31,10 @@ public class ImapPusherTest {
     @Before
     public void setUp() throws Exception {
         imapStore = mock(ImapStore.class);
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getInboxFolderName()).thenReturn("INBOX");
+        when(storeConfig.getIdleRefreshMinutes()).thenReturn(24);
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
 
         PushReceiver pushReceiver = mock(PushReceiver.class);
         imapPusher = new TestImapPusher(imapStore, pushReceiver);
@@ -68,17 +72,77 @@ public class ImapPusherTest {
     }
 
     @Test
-    public void start_withTwoFolderNames_shouldCreateTwoImapFolderPushersAndCallStart() throws Exception {
+    public void start_withTwoFolderNames_shouldCreateOneImapFolderPusherWatchingBothAndCallStart() throws Exception {
         List<String> folderNames = Arrays.asList("Important", "Drafts");
 
         imapPusher.start(folderNames);
 
         List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
-        assertEquals(2, imapFolderPushers.size());
-        ImapFolderPusher imapFolderPusherOne = imapFolderPushers.get(0);
-        ImapFolderPusher imapFolderPusherTwo = imapFolderPushers.get(1);
-        verify(imapFolderPusherOne).start();
-        verify(imapFolderPusherTwo).start();
+        assertEquals(1, imapFolderPushers.size());
+        ImapFolderPusher imapFolderPusher = imapFolderPushers.get(0);
+        verify(imapFolderPusher).start();
+        assertEquals("Important", imapPusher.getFolderNames().get(0));
+        assertEquals(Collections.singletonList("Drafts"), imapPusher.getWatchedFolderNames().get(0));
+    }
+
+    @Test
+    public void start_withInboxNotFirst_shouldIdleOnInbox() throws Exception {
+        List<String> folderNames = Arrays.asList("Important", "Inbox", "Drafts");
+
+        imapPusher.start(folderNames);
+
+        assertEquals("Inbox", imapPusher.getFolderNames().get(0));
+        assertEquals(Arrays.asList("Important", "Drafts"), imapPusher.getWatchedFolderNames().get(0));
+    }
+
+    @Test
+    public void multiplexingUnsupported_shouldStartImapFolderPusherPerFolder() throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+        ImapFolderPusher multiplexingPusher = imapPusher.getImapFolderPushers().get(0);
+        when(multiplexingPusher.getName()).thenReturn("INBOX");
+        when(multiplexingPusher.getWatchedFolderNames()).thenReturn(Collections.singletonList("Drafts"));
+
+        imapPusher.multiplexingUnsupported(multiplexingPusher);
+
+        List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
+        assertEquals(3, imapFolderPushers.size());
+        assertEquals(Arrays.asList("INBOX", "INBOX", "Drafts"), imapPusher.getFolderNames());
+        verify(imapFolderPushers.get(1)).start();
+        verify(imapFolderPushers.get(2)).start();
+    }
+
+    @Test
+    public void start_afterMultiplexingUnsupported_shouldCreateImapFolderPusherPerFolder() throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+        imapPusher.multiplexingUnsupported(imapPusher.getImapFolderPushers().get(0));
+
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+
+        List<String> folderNames = imapPusher.getFolderNames();
+        assertEquals(Arrays.asList("INBOX", "Drafts"), folderNames.subList(folderNames.size() - 2, folderNames.size()));
+    }
+
+    @Test
+    public void multiplexingUnsupported_withStoppedImapFolderPusher_shouldNotStartImapFolderPushers()
+            throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+        ImapFolderPusher multiplexingPusher = imapPusher.getImapFolderPushers().get(0);
+        imapPusher.stop();
+
+        imapPusher.multiplexingUnsupported(multiplexingPusher);
+
+        assertEquals(1, imapPusher.getImapFolderPushers().size());
+    }
+
+    @Test
+    public void getRefreshInterval_withImapFolderPusherNeedingStatusPolling_shouldUseShorterInterval()
+            throws Exception {
+        imapPusher.start(Arrays.asList("INBOX", "Drafts"));
+        when(imapPusher.getImapFolderPushers().get(0).needsStatusPolling()).thenReturn(true);
+
+        int result = imapPusher.getRefreshInterval();
+
+        assertEquals(5 * 60 * 1000, result);
     }
 
     @Test
@@ -159,6 +223,8 @@ public class ImapPusherTest {
 
 
         private final List<ImapFolderPusher> imapFolderPushers = new ArrayList<>();
+        private final List<String> folderNames = new ArrayList<>();
+        private final List<List<String>> watchedFolderNames = new ArrayList<>();
 
 
         public TestImapPusher(ImapStore store, PushReceiver receiver) {
@@ -167,8 +233,15 @@ public class ImapPusherTest {
 
         @Override
         ImapFolderPusher createImapFolderPusher(String folderName) {
+            return createImapFolderPusher(folderName, Collections.<String>emptyList());
+        }
+
+        @Override
+        ImapFolderPusher createImapFolderPusher(String folderName, List<String> watchedFolderNames) {
             ImapFolderPusher imapFolderPusher = mock(ImapFolderPusher.class);
             imapFolderPushers.add(imapFolderPusher);
+            folderNames.add(folderName);
+            this.watchedFolderNames.add(watchedFolderNames);
             return imapFolderPusher;
         }
 
@@ -176,6 +249,14 @@ public class ImapPusherTest {
             return imapFolderPushers;
         }
 
+        public List<String> getFolderNames() {
+            return folderNames;
+        }
+
+        public List<List<String>> getWatchedFolderNames() {
+            return watchedFolderNames;
+        }
+
         @Override
         long currentTimeMillis() {
             return CURRENT_TIME_MILLIS;
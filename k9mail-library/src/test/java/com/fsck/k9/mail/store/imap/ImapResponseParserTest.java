@@ -197,6 +197,36 @@ public class ImapResponseParserTest {
         parser.readResponse();
     }
 
+    @Test(expected = IOException.class)
+    public void testParseLiteralWithInvalidSize() throws Exception {
+        ImapResponseParser parser = createParser("* {4x}\r\ntest\r\n");
+
+        parser.readResponse();
+    }
+
+    @Test
+    public void testParseLiteralsOfDifferentSizesWithSameParser() throws Exception {
+        ImapResponseParser parser = createParser("* {4}\r\ntest\r\n* {2}\r\nab\r\n");
+
+        ImapResponse first = parser.readResponse();
+        ImapResponse second = parser.readResponse();
+
+        assertEquals("test", first.getString(0));
+        assertEquals("ab", second.getString(0));
+    }
+
+    @Test
+    public void testParseLiteralWithPartiallyConsumingCallback_shouldSkipRestOfLiteral() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (BODY[1] {4}\r\ntest UID 23)\r\n");
+        TestImapResponseCallback callback = new TestImapResponseCallback(1, "body");
+
+        ImapResponse response = parser.readResponse(callback);
+
+        ImapList fetchList = response.getList(2);
+        assertEquals("body", fetchList.getObject(2));
+        assertEquals("23", fetchList.getKeyedString("UID"));
+    }
+
     @Test
     public void testParseLiteralWithConsumingCallbackReturningNull() throws Exception {
         ImapResponseParser parser = createParser("* {4}\r\ntest\r\n");
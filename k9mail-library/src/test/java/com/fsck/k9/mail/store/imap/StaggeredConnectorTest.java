@@ -0,0 +1,250 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class StaggeredConnectorTest {
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+
+
+    private StaggeredConnector connector;
+    private InetAddress ipv6One;
+    private InetAddress ipv6Two;
+    private InetAddress ipv4One;
+    private InetAddress ipv4Two;
+    private InetAddress loopback;
+    private ServerSocket serverSocket;
+
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new StaggeredConnector();
+        ipv6One = InetAddress.getByName("2001:db8::1");
+        ipv6Two = InetAddress.getByName("2001:db8::2");
+        ipv4One = InetAddress.getByName("192.0.2.1");
+        ipv4Two = InetAddress.getByName("192.0.2.2");
+        loopback = InetAddress.getByName("127.0.0.1");
+        serverSocket = new ServerSocket(0, 10, loopback);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void sortAddresses_shouldInterleaveAddressFamilies() throws Exception {
+        InetAddress[] addresses = { ipv6One, ipv6Two, ipv4One, ipv4Two };
+
+        List<InetAddress> result = connector.sortAddresses(addresses, System.currentTimeMillis());
+
+        assertEquals(Arrays.asList(ipv6One, ipv4One, ipv6Two, ipv4Two), result);
+    }
+
+    @Test
+    public void sortAddresses_afterSuccessfulConnect_shouldPreferThatAddress() throws Exception {
+        InetAddress[] addresses = { ipv6One, ipv6Two, ipv4One, loopback };
+        BlackHoleSocketCreator socketCreator = new BlackHoleSocketCreator(ipv6One, ipv6Two, ipv4One);
+        connector.connect(addresses, serverSocket.getLocalPort(), CONNECT_TIMEOUT, socketCreator).close();
+
+        List<InetAddress> result = connector.sortAddresses(addresses, System.currentTimeMillis());
+
+        assertEquals(Arrays.asList(loopback, ipv6One, ipv4One, ipv6Two), result);
+    }
+
+    @Test
+    public void sortAddresses_withRecentlyFailedAddress_shouldTryItLast() throws Exception {
+        InetAddress[] addresses = { ipv4One, loopback };
+        failToConnect(ipv4One);
+
+        List<InetAddress> result = connector.sortAddresses(addresses, System.currentTimeMillis());
+
+        assertEquals(Arrays.asList(loopback, ipv4One), result);
+    }
+
+    @Test
+    public void sortAddresses_withFailureOlderThanTtl_shouldKeepResolverOrder() throws Exception {
+        InetAddress[] addresses = { ipv4One, loopback };
+        failToConnect(ipv4One);
+
+        long later = System.currentTimeMillis() + StaggeredConnector.BAD_ADDRESS_TTL + 1;
+        List<InetAddress> result = connector.sortAddresses(addresses, later);
+
+        assertEquals(Arrays.asList(ipv4One, loopback), result);
+    }
+
+    @Test
+    public void connect_withUnresponsiveFirstAddress_shouldNotWaitForTimeout() throws Exception {
+        InetAddress[] addresses = { ipv6One, loopback };
+        BlackHoleSocketCreator socketCreator = new BlackHoleSocketCreator(ipv6One);
+
+        long start = System.currentTimeMillis();
+        Socket socket = connector.connect(addresses, serverSocket.getLocalPort(), CONNECT_TIMEOUT, socketCreator);
+        long duration = System.currentTimeMillis() - start;
+
+        try {
+            assertEquals(loopback, socket.getInetAddress());
+            assertTrue(duration < CONNECT_TIMEOUT / 2);
+            assertTrue(socketCreator.awaitBlackHoleClosed());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void connect_withFailedAttempt_shouldStartNextAttemptWithoutDelay() throws Exception {
+        InetAddress[] addresses = { ipv6One, ipv4One, loopback };
+        final Map<InetAddress, Long> connectStarts = new ConcurrentHashMap<>();
+        BlackHoleSocketCreator socketCreator = new BlackHoleSocketCreator(ipv6One) {
+            @Override
+            public Socket createSocket() {
+                final Socket socket = super.createSocket();
+                return new Socket() {
+                    @Override
+                    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                        InetAddress address = ((InetSocketAddress) endpoint).getAddress();
+                        connectStarts.put(address, System.nanoTime());
+                        if (address.equals(ipv4One)) {
+                            throw new ConnectException("Connection refused");
+                        }
+                        socket.connect(endpoint, timeout);
+                    }
+
+                    @Override
+                    public InetAddress getInetAddress() {
+                        return socket.getInetAddress();
+                    }
+
+                    @Override
+                    public synchronized void close() throws IOException {
+                        socket.close();
+                    }
+                };
+            }
+        };
+
+        Socket socket = connector.connect(addresses, serverSocket.getLocalPort(), CONNECT_TIMEOUT, socketCreator);
+
+        try {
+            assertEquals(loopback, socket.getInetAddress());
+            long gap = TimeUnit.NANOSECONDS.toMillis(connectStarts.get(loopback) - connectStarts.get(ipv4One));
+            assertTrue(gap < StaggeredConnector.CONNECTION_ATTEMPT_DELAY / 2);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void connect_withAllAddressesFailing_shouldThrowLastException() throws Exception {
+        int unusedPort = getUnusedPort();
+        InetAddress[] addresses = { loopback, InetAddress.getByName("127.0.0.2") };
+
+        try {
+            connector.connect(addresses, unusedPort, CONNECT_TIMEOUT, new BlackHoleSocketCreator());
+            fail("Expected exception");
+        } catch (ConnectException expected) {
+        }
+    }
+
+    private void failToConnect(InetAddress address) throws Exception {
+        try {
+            connector.connect(new InetAddress[] { address }, 143, CONNECT_TIMEOUT,
+                    new BlackHoleSocketCreator(address) {
+                        @Override
+                        public Socket createSocket() {
+                            return new RefusingSocket();
+                        }
+                    });
+            fail("Expected exception");
+        } catch (ConnectException expected) {
+        }
+    }
+
+    private int getUnusedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, loopback);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+
+    /**
+     * Creates sockets that never connect to the given addresses, until they are closed.
+     */
+    static class BlackHoleSocketCreator implements StaggeredConnector.SocketCreator {
+        private final List<InetAddress> blackHoles;
+        private final CountDownLatch blackHoleClosed = new CountDownLatch(1);
+
+
+        BlackHoleSocketCreator(InetAddress... blackHoles) {
+            this.blackHoles = Arrays.asList(blackHoles);
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                private final CountDownLatch closed = new CountDownLatch(1);
+
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    if (!blackHoles.contains(((InetSocketAddress) endpoint).getAddress())) {
+                        super.connect(endpoint, timeout);
+                        return;
+                    }
+
+                    try {
+                        closed.await(timeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        throw new SocketException("Interrupted");
+                    }
+                    throw new SocketException("Socket closed");
+                }
+
+                @Override
+                public synchronized void close() throws IOException {
+                    super.close();
+                    closed.countDown();
+                    blackHoleClosed.countDown();
+                }
+            };
+        }
+
+        boolean awaitBlackHoleClosed() throws InterruptedException {
+            return blackHoleClosed.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static class RefusingSocket extends Socket {
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            throw new ConnectException("Connection refused");
+        }
+    }
+}
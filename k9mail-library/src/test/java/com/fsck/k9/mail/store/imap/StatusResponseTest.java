@@ -0,0 +1,90 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class StatusResponseTest {
+    @Test
+    public void parse_withStatusResponse_shouldExtractMailboxNameAndAttributes() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS \"Voice Mail\" (MESSAGES 231 UIDNEXT 44292)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNotNull(result);
+        assertEquals("Voice Mail", result.getMailboxName());
+        assertEquals(231L, result.getMessages());
+        assertEquals(44292L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withMissingAttribute_shouldReturnMinusOne() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS INBOX (MESSAGES 3)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNotNull(result);
+        assertEquals(3L, result.getMessages());
+        assertEquals(-1L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withUnknownAttribute_shouldIgnoreIt() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS INBOX (UNSEEN 1 UIDNEXT 5)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNotNull(result);
+        assertEquals(5L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("x STATUS INBOX (MESSAGES 3)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutAttributeList_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS INBOX");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withOddNumberOfAttributeValues_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS INBOX (MESSAGES 3 UIDNEXT)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withInvalidNumber_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* STATUS INBOX (MESSAGES three)");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withOtherResponse_shouldReturnNull() throws Exception {
+        ImapResponse response = createImapResponse("* 23 EXISTS");
+
+        StatusResponse result = StatusResponse.parse(response);
+
+        assertNull(result);
+    }
+}